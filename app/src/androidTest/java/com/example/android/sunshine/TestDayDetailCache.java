@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.sunshine.data.TestUtilities;
+import com.example.android.sunshine.data.WeatherContract;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+import com.example.android.sunshine.utils.PollingCheck;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Tests that the {@link DayDetailCache} is filled when the forecast list loads, and that it
+ * forgets its days when the stored weather changes.
+ * <p>
+ * The time DetailActivity takes to get its day, from the cache and with the query its
+ * CursorLoader runs, is written to logcat under the tag "TestDayDetailCache".
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestDayDetailCache {
+
+    private static final String TAG = TestDayDetailCache.class.getSimpleName();
+
+    private static final int FORECAST_DAYS = 14;
+
+    private static final int RUNS_PER_MEASUREMENT = 5;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    private final DayDetailCache mDayDetailCache = DayDetailCache.getInstance(mContext);
+
+    private final long mToday = SunshineDateUtils.getNormalizedUtcDateForToday();
+
+    @Before
+    public void setUp() {
+        ContentResolver contentResolver = mContext.getContentResolver();
+        contentResolver.delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        contentResolver.bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI,
+                TestUtilities.createTestForecast(mToday, FORECAST_DAYS, 0).toContentValuesArray());
+    }
+
+    @After
+    public void tearDown() {
+        mContext.getContentResolver()
+                .delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+    }
+
+    /**
+     * Loading the forecast list should leave every day of it in the cache, exactly as stored.
+     */
+    @Test
+    public void testLoadingTheListFillsTheCache() {
+        final Uri dayUri = WeatherContract.WeatherEntry
+                .buildWeatherUriWithDate(mToday + 3 * SunshineDateUtils.DAY_IN_MILLIS);
+        loadListUntilCached(dayUri);
+
+        DayDetail day = mDayDetailCache.get(dayUri);
+        assertNotNull("The day should have been cached by the list", day);
+        assertEquals(mToday + 3 * SunshineDateUtils.DAY_IN_MILLIS, day.date);
+        assertEquals(803, day.weatherId);
+        assertEquals(13.0, day.minTemp, 0.001);
+        assertEquals(23.0, day.maxTemp, 0.001);
+        assertEquals(1012.9f, day.pressure, 0.001f);
+        assertEquals(45f, day.degrees, 0.001f);
+
+        /* A day of another stored location isn't the preferred location's */
+        Uri otherLocationUri = dayUri.buildUpon()
+                .appendQueryParameter(WeatherContract.QUERY_PARAMETER_LOCATION_ID, "1")
+                .build();
+        assertNull(mDayDetailCache.get(otherLocationUri));
+
+        long cacheNanos = Long.MAX_VALUE;
+        long queryNanos = Long.MAX_VALUE;
+        for (int run = 0; run < RUNS_PER_MEASUREMENT; run++) {
+            long start = System.nanoTime();
+            assertNotNull(mDayDetailCache.get(dayUri));
+            cacheNanos = Math.min(cacheNanos, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            Cursor cursor = mContext.getContentResolver().query(dayUri,
+                    DetailActivity.WEATHER_DETAIL_PROJECTION, null, null, null);
+            assertNotNull(cursor);
+            assertTrue(cursor.moveToFirst());
+            cursor.close();
+            queryNanos = Math.min(queryNanos, System.nanoTime() - start);
+        }
+
+        Log.i(TAG, "A day from the cache in " + TimeUnit.NANOSECONDS.toMicros(cacheNanos)
+                + "us, from a query in " + TimeUnit.NANOSECONDS.toMicros(queryNanos) + "us");
+    }
+
+    /**
+     * A sync that changes the forecast must clear the cache, so an old day is never shown.
+     */
+    @Test
+    public void testWriteClearsTheCache() {
+        final Uri dayUri = WeatherContract.WeatherEntry.buildWeatherUriWithDate(mToday);
+        loadListUntilCached(dayUri);
+
+        mContext.getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI,
+                TestUtilities.createTestForecast(mToday, 1, 5).toContentValuesArray());
+
+        /* The provider's notification reaches the cache on another thread */
+        new PollingCheck() {
+            @Override
+            protected boolean check() {
+                return mDayDetailCache.get(dayUri) == null;
+            }
+        }.run();
+    }
+
+    /**
+     * Loads the forecast list as ForecastRowsLoader does, until the day is in the cache. The
+     * provider's notification of the write in setUp may reach the cache after the first load,
+     * and clear it again.
+     */
+    private void loadListUntilCached(final Uri dayUri) {
+        new PollingCheck() {
+            @Override
+            protected boolean check() {
+                assertEquals(FORECAST_DAYS, ForecastRowsLoader.loadRows(mContext).size());
+                return mDayDetailCache.get(dayUri) != null;
+            }
+        }.run();
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine;
+
+import android.content.Context;
+import android.database.MatrixCursor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Counts how many rows of the forecast list a sync makes the RecyclerView bind again. Before
+ * {@link ForecastRows}, every load called notifyDataSetChanged, which rebinds every row on
+ * screen; now only the days that changed should be rebound.
+ * <p>
+ * The counts are written to logcat under the tag "TestForecastRowsDiff".
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestForecastRowsDiff {
+
+    private static final String TAG = TestForecastRowsDiff.class.getSimpleName();
+
+    private static final int FORECAST_DAYS = 14;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    /**
+     * A sync that changes the weather of a single day should rebind that day alone.
+     */
+    @Test
+    public void testSyncRebindsOnlyChangedDays() {
+        long today = SunshineDateUtils.getNormalizedUtcDateForToday();
+        List<ForecastRow> before = createRows(today, FORECAST_DAYS, -1);
+        List<ForecastRow> after = createRows(today, FORECAST_DAYS, 3);
+
+        RowCounter counter = swapRows(before, after);
+
+        Log.i(TAG, "A sync that changed 1 of " + FORECAST_DAYS + " days rebound "
+                + counter.getRowsRebound(FORECAST_DAYS) + " rows, instead of "
+                + FORECAST_DAYS);
+
+        assertEquals("The whole list shouldn't have been rebound", 0, counter.mDataSetChanges);
+        assertEquals(1, counter.mChanged);
+        assertTrue("The changed day should have been rebound",
+                counter.mChangedPositions.contains(3));
+        assertEquals(0, counter.mInserted);
+        assertEquals(0, counter.mRemoved);
+    }
+
+    /**
+     * When a day passes, yesterday is removed and the day that takes its place in the first row,
+     * which may have a layout of its own, is rebound, even though its weather didn't change.
+     */
+    @Test
+    public void testPassedDayIsRemovedAndFirstRowRebound() {
+        long today = SunshineDateUtils.getNormalizedUtcDateForToday();
+        List<ForecastRow> before = createRows(today - SunshineDateUtils.DAY_IN_MILLIS,
+                FORECAST_DAYS, -1);
+        List<ForecastRow> after = createRows(today, FORECAST_DAYS, -1);
+
+        RowCounter counter = swapRows(before, after);
+
+        assertEquals("The whole list shouldn't have been rebound", 0, counter.mDataSetChanges);
+        assertEquals("Yesterday should have been removed", 1, counter.mRemoved);
+        assertEquals("The new last day should have been inserted", 1, counter.mInserted);
+        assertEquals("Only the day moved into the first row should have been rebound",
+                1, counter.mChanged);
+    }
+
+    /**
+     * Builds the rows of the list as ForecastRowsLoader would, from the days of a Cursor over
+     * DetailActivity#WEATHER_DETAIL_PROJECTION.
+     *
+     * @param firstDate  The date of the first row
+     * @param dayCount   The number of rows
+     * @param changedDay The index of a day whose high temperature is raised, or -1
+     */
+    private List<ForecastRow> createRows(long firstDate, int dayCount, int changedDay) {
+        MatrixCursor cursor = new MatrixCursor(DetailActivity.WEATHER_DETAIL_PROJECTION);
+        for (int day = 0; day < dayCount; day++) {
+            long date = firstDate + day * SunshineDateUtils.DAY_IN_MILLIS;
+
+            /* The weather of a date stays the same when the list starts a day later */
+            int dayOfEpoch = (int) (date / SunshineDateUtils.DAY_IN_MILLIS);
+            double high = 20 + dayOfEpoch % 5 + (day == changedDay ? 3 : 0);
+            cursor.addRow(new Object[]{date, high, 10 + dayOfEpoch % 5, 60, 1013.2, 4.1, 90,
+                    800 + dayOfEpoch % 4});
+        }
+
+        List<ForecastRow> rows = new ArrayList<>(dayCount);
+        while (cursor.moveToNext()) {
+            rows.add(new ForecastRow(mContext, new DayDetail(cursor)));
+        }
+        cursor.close();
+        return Collections.unmodifiableList(rows);
+    }
+
+    /**
+     * Shows the first rows in a ForecastAdapter, then the second, and counts what the adapter
+     * told its RecyclerView about the second.
+     */
+    private RowCounter swapRows(List<ForecastRow> before, List<ForecastRow> after) {
+        ForecastAdapter adapter = new ForecastAdapter(mContext,
+                new ForecastAdapter.ForecastAdapterOnClickHandler() {
+                    @Override
+                    public void onClick(long date) {
+                    }
+                });
+
+        ForecastRows firstLoad = ForecastRows.diff(null, before);
+        adapter.swapRows(firstLoad);
+
+        RowCounter counter = new RowCounter();
+        adapter.registerAdapterDataObserver(counter);
+        adapter.swapRows(ForecastRows.diff(firstLoad.rows, after));
+        adapter.unregisterAdapterDataObserver(counter);
+        return counter;
+    }
+
+    /**
+     * Counts the changes an adapter reports.
+     */
+    private static class RowCounter extends RecyclerView.AdapterDataObserver {
+        int mDataSetChanges;
+        int mChanged;
+        int mInserted;
+        int mRemoved;
+        final List<Integer> mChangedPositions = new ArrayList<>();
+
+        @Override
+        public void onChanged() {
+            mDataSetChanges++;
+        }
+
+        @Override
+        public void onItemRangeChanged(int positionStart, int itemCount) {
+            mChanged += itemCount;
+            for (int i = 0; i < itemCount; i++) {
+                mChangedPositions.add(positionStart + i);
+            }
+        }
+
+        @Override
+        public void onItemRangeInserted(int positionStart, int itemCount) {
+            mInserted += itemCount;
+        }
+
+        @Override
+        public void onItemRangeRemoved(int positionStart, int itemCount) {
+            mRemoved += itemCount;
+        }
+
+        /**
+         * @return The number of rows bound again, counting every row for notifyDataSetChanged
+         */
+        int getRowsRebound(int rowCount) {
+            return mDataSetChanges > 0 ? rowCount : mChanged + mInserted;
+        }
+    }
+}
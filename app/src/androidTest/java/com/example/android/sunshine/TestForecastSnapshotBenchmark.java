@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.sunshine.data.ForecastBatch;
+import com.example.android.sunshine.data.WeatherContract;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Compares the two ways MainActivity can get the rows of its list when it starts: reading the
+ * {@link ForecastSnapshot} saved by the last sync, and querying and formatting the forecast as
+ * {@link ForecastRowsLoader} does. The first is what the list is painted from on the first
+ * frame; without a snapshot, the list waits for the second.
+ * <p>
+ * The test runs with WeatherProvider already created and its database open, which a cold start
+ * doesn't have, so the time without the snapshot is a lower bound. The best of several runs of
+ * each is written to logcat under the tag "TestForecastSnapshotBenchmark".
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestForecastSnapshotBenchmark {
+
+    private static final String TAG = TestForecastSnapshotBenchmark.class.getSimpleName();
+
+    private static final int FORECAST_DAYS = 14;
+
+    private static final int RUNS_PER_MEASUREMENT = 5;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    @Before
+    public void setUp() {
+        ContentResolver contentResolver = mContext.getContentResolver();
+        contentResolver.delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+
+        long today = SunshineDateUtils.getNormalizedUtcDateForToday();
+        ForecastBatch forecast = new ForecastBatch(FORECAST_DAYS);
+        for (int day = 0; day < FORECAST_DAYS; day++) {
+            forecast.add(today + day * SunshineDateUtils.DAY_IN_MILLIS,
+                    800 + day % 4,
+                    10 + day,
+                    20 + day,
+                    60,
+                    1013.2,
+                    4.1,
+                    15 * day);
+        }
+        contentResolver.bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI,
+                forecast.toContentValuesArray());
+
+        ForecastSnapshot.update(mContext);
+    }
+
+    @After
+    public void tearDown() {
+        mContext.getContentResolver()
+                .delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+    }
+
+    /**
+     * The snapshot must show exactly what the loader would.
+     */
+    @Test
+    public void testSnapshotReadsBackAsLoaded() {
+        List<ForecastRow> snapshotRows = ForecastSnapshot.read(mContext);
+        assertNotNull("The snapshot saved today should have been read", snapshotRows);
+
+        List<ForecastRow> loadedRows = ForecastRowsLoader.loadRows(mContext);
+        assertEquals(FORECAST_DAYS, loadedRows.size());
+        assertEquals(loadedRows.size(), snapshotRows.size());
+
+        for (int i = 0; i < loadedRows.size(); i++) {
+            assertEquals(loadedRows.get(i).date, snapshotRows.get(i).date);
+            assertTrue("Row " + i + " of the snapshot doesn't match the loaded row",
+                    loadedRows.get(i).hasSameContent(snapshotRows.get(i)));
+        }
+    }
+
+    @Test
+    public void benchmarkTimeToFirstContent() {
+        /* Warm up both paths */
+        assertNotNull(ForecastSnapshot.read(mContext));
+        ForecastRowsLoader.loadRows(mContext);
+
+        long snapshotNanos = Long.MAX_VALUE;
+        long loadNanos = Long.MAX_VALUE;
+        for (int run = 0; run < RUNS_PER_MEASUREMENT; run++) {
+            long start = System.nanoTime();
+            List<ForecastRow> snapshotRows = ForecastSnapshot.read(mContext);
+            snapshotNanos = Math.min(snapshotNanos, System.nanoTime() - start);
+            assertNotNull(snapshotRows);
+
+            start = System.nanoTime();
+            List<ForecastRow> loadedRows = ForecastRowsLoader.loadRows(mContext);
+            loadNanos = Math.min(loadNanos, System.nanoTime() - start);
+            assertEquals(FORECAST_DAYS, loadedRows.size());
+        }
+
+        Log.i(TAG, FORECAST_DAYS + " days: rows from the snapshot in "
+                + TimeUnit.NANOSECONDS.toMicros(snapshotNanos) + "us, without it "
+                + TimeUnit.NANOSECONDS.toMicros(loadNanos) + "us");
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.os.Parcel;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+
+/**
+ * Compares the two ways a reader that only wants a few values can get them from
+ * WeatherProvider: a query of a range of days with the notification's projection, read through
+ * a Cursor, and {@link WeatherContract#METHOD_READ_FORECAST}, read from the arrays of the
+ * ForecastBatch it returns. Both are measured for today alone, as the notification reads it,
+ * and for the whole two week forecast, as the watch face reads it.
+ * <p>
+ * The test runs in the app's own process, where neither the Cursor nor the Bundle crosses a
+ * process boundary. So the call is also measured with its result written to a Parcel and read
+ * back, which is what a reader in another process pays on top of the call itself.
+ * <p>
+ * The average time per read is written to logcat under the tag
+ * "TestForecastTransferBenchmark".
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestForecastTransferBenchmark {
+
+    private static final String TAG = TestForecastTransferBenchmark.class.getSimpleName();
+
+    private static final int FORECAST_DAYS = 14;
+
+    private static final int READS_PER_MEASUREMENT = 500;
+
+    /* The columns NotificationUtils asks for, and the date */
+    private static final String[] NOTIFICATION_PROJECTION = {
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+    };
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    private long mToday;
+
+    @Before
+    public void setUp() {
+        ContentResolver contentResolver = mContext.getContentResolver();
+        contentResolver.delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+
+        mToday = SunshineDateUtils.getNormalizedUtcDateForToday();
+        ForecastBatch forecast = new ForecastBatch(FORECAST_DAYS);
+        for (int day = 0; day < FORECAST_DAYS; day++) {
+            forecast.add(mToday + day * SunshineDateUtils.DAY_IN_MILLIS,
+                    800 + day % 4,
+                    10 + day,
+                    20 + day,
+                    60,
+                    1013.2,
+                    4.1,
+                    15 * day);
+        }
+        contentResolver.bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI,
+                forecast.toContentValuesArray());
+    }
+
+    @After
+    public void tearDown() {
+        mContext.getContentResolver()
+                .delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+    }
+
+    @Test
+    public void benchmarkToday() {
+        compareTransfers(1);
+    }
+
+    @Test
+    public void benchmarkTwoWeekForecast() {
+        compareTransfers(FORECAST_DAYS);
+    }
+
+    private void compareTransfers(int dayCount) {
+        long from = mToday;
+        long to = mToday + (dayCount - 1) * SunshineDateUtils.DAY_IN_MILLIS;
+
+        /* Warm up both paths, and load the provider's in-memory forecast */
+        assertEquals(dayCount, readWithQuery(from, to));
+        assertEquals(dayCount, readWithCall(from, to, false));
+        assertEquals(dayCount, readWithCall(from, to, true));
+
+        long queryNanos = timeReads(from, to, false, false);
+        long callNanos = timeReads(from, to, true, false);
+        long parceledCallNanos = timeReads(from, to, true, true);
+
+        Log.i(TAG, dayCount + " days: query " + micros(queryNanos) + "us, call "
+                + micros(callNanos) + "us, call with its result parceled "
+                + micros(parceledCallNanos) + "us per read");
+    }
+
+    private long timeReads(long from, long to, boolean withCall, boolean parceled) {
+        long start = System.nanoTime();
+        for (int i = 0; i < READS_PER_MEASUREMENT; i++) {
+            if (withCall) {
+                readWithCall(from, to, parceled);
+            } else {
+                readWithQuery(from, to);
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Reads the notification's values of every day in the range through a Cursor.
+     *
+     * @return The number of days read
+     */
+    private int readWithQuery(long from, long to) {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherRangeUri(from, to),
+                NOTIFICATION_PROJECTION,
+                null,
+                null,
+                null);
+        assertNotNull("Cursor was null.", cursor);
+
+        int dayCount = 0;
+        while (cursor.moveToNext()) {
+            cursor.getLong(0);
+            cursor.getInt(1);
+            cursor.getDouble(2);
+            cursor.getDouble(3);
+            dayCount++;
+        }
+        cursor.close();
+        return dayCount;
+    }
+
+    /**
+     * Reads the notification's values of every day in the range from a ForecastBatch.
+     *
+     * @param parceled Whether to copy the result through a Parcel first, as it would be copied
+     *                 on its way to another process
+     * @return The number of days read
+     */
+    private int readWithCall(long from, long to, boolean parceled) {
+        Bundle extras = new Bundle();
+        extras.putLong(WeatherContract.EXTRA_FROM, from);
+        extras.putLong(WeatherContract.EXTRA_TO, to);
+
+        Bundle result = mContext.getContentResolver().call(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_READ_FORECAST,
+                null,
+                extras);
+        assertNotNull("call should have returned a result", result);
+
+        if (parceled) {
+            Parcel parcel = Parcel.obtain();
+            try {
+                parcel.writeBundle(result);
+                parcel.setDataPosition(0);
+                result = parcel.readBundle(ForecastBatch.class.getClassLoader());
+            } finally {
+                parcel.recycle();
+            }
+        }
+
+        ForecastBatch forecast = result.getParcelable(WeatherContract.EXTRA_FORECAST_BATCH);
+        assertNotNull("The forecast should have been returned", forecast);
+        for (int day = 0; day < forecast.size(); day++) {
+            forecast.getDate(day);
+            forecast.getWeatherId(day);
+            forecast.getMaxTemp(day);
+            forecast.getMinTemp(day);
+        }
+        return forecast.size();
+    }
+
+    private static long micros(long nanos) {
+        return nanos / READS_PER_MEASUREMENT / 1000;
+    }
+}
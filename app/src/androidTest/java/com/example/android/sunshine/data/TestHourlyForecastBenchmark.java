@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.sunshine.utilities.OpenWeatherJsonUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Measures what the hourly forecast costs a sync and a chart, at the number of steps the weather
+ * server sends (5 days in steps of 3 hours) and at up to 24 times the rows of the daily forecast
+ * (two weeks hour by hour). A sync parses the response and replaces the stored steps through
+ * WeatherProvider; a chart reads a day of steps back, either as a Cursor or by column through
+ * {@link WeatherContract#METHOD_READ_HOURLY_FORECAST}.
+ * <p>
+ * The timings are written to logcat under the tag "TestHourlyForecastBenchmark". As with the other
+ * benchmarks, they are only reported: they depend on the device too much to fail a test.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestHourlyForecastBenchmark {
+
+    private static final String TAG = TestHourlyForecastBenchmark.class.getSimpleName();
+
+    /* Each measurement is repeated and the best run is reported, to smooth out GC pauses */
+    private static final int RUNS_PER_MEASUREMENT = 5;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    @Before
+    public void setUp() {
+        clearHourlyTable();
+    }
+
+    @After
+    public void tearDown() {
+        clearHourlyTable();
+    }
+
+    @Test
+    public void benchmarkFiveDaysInThreeHourSteps() throws IOException {
+        measureSyncAndChart(40, TestUtilities.HOURLY_STEP_MILLIS);
+    }
+
+    @Test
+    public void benchmarkTwoWeeksHourByHour() throws IOException {
+        measureSyncAndChart(14 * 24, TimeUnit.HOURS.toMillis(1));
+    }
+
+    private void measureSyncAndChart(int stepCount, long stepMillis) throws IOException {
+        byte[] response = createHourlyForecastJson(stepCount, stepMillis);
+
+        /* Warm up the parser, the statements and the connection pool */
+        syncHourlyForecast(response);
+        readRows(0, Long.MAX_VALUE);
+        readColumns(0, Long.MAX_VALUE);
+
+        long syncNanos = Long.MAX_VALUE;
+        for (int run = 0; run < RUNS_PER_MEASUREMENT; run++) {
+            long start = System.nanoTime();
+            int stepsWritten = syncHourlyForecast(response);
+            syncNanos = Math.min(syncNanos, System.nanoTime() - start);
+            assertEquals(stepCount, stepsWritten);
+        }
+
+        /* A chart of the day after the first step */
+        long from = TestUtilities.DATE_NORMALIZED;
+        long to = from + TimeUnit.DAYS.toMillis(1) - 1;
+        int stepsInDay = (int) Math.min(stepCount, TimeUnit.DAYS.toMillis(1) / stepMillis);
+
+        long rowsNanos = Long.MAX_VALUE;
+        long columnsNanos = Long.MAX_VALUE;
+        for (int run = 0; run < RUNS_PER_MEASUREMENT; run++) {
+            long start = System.nanoTime();
+            assertEquals(stepsInDay, readRows(from, to));
+            rowsNanos = Math.min(rowsNanos, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            assertEquals(stepsInDay, readColumns(from, to));
+            columnsNanos = Math.min(columnsNanos, System.nanoTime() - start);
+        }
+
+        Log.i(TAG, stepCount + " steps: sync " + TimeUnit.NANOSECONDS.toMicros(syncNanos)
+                + "us, a day of " + stepsInDay + " steps as a Cursor "
+                + TimeUnit.NANOSECONDS.toMicros(rowsNanos) + "us, by column "
+                + TimeUnit.NANOSECONDS.toMicros(columnsNanos) + "us");
+    }
+
+    /**
+     * Does what SunshineSyncTask does with the response of the hourly forecast.
+     *
+     * @return The number of steps written
+     */
+    private int syncHourlyForecast(byte[] response) throws IOException {
+        final HourlyForecast forecast = new HourlyForecast();
+        boolean parsed = OpenWeatherJsonUtils.parseHourlyWeatherStream(
+                new ByteArrayInputStream(response),
+                new OpenWeatherJsonUtils.HourlyForecastHandler() {
+                    @Override
+                    public void onForecastStep(long time, int weatherId, double temp,
+                                               double humidity, double pressure,
+                                               double windSpeed, double degrees) {
+                        forecast.add(time, weatherId, temp, humidity, pressure, windSpeed,
+                                degrees);
+                    }
+                });
+        assertTrue("The hourly forecast should have been parsed", parsed);
+
+        Bundle extras = new Bundle();
+        extras.putParcelable(WeatherContract.EXTRA_HOURLY_FORECAST, forecast);
+        Bundle result = mContext.getContentResolver().call(
+                WeatherContract.HourlyEntry.CONTENT_URI,
+                WeatherContract.METHOD_REPLACE_HOURLY_FORECAST,
+                null,
+                extras);
+        assertNotNull("call should have returned a result", result);
+        return result.getInt(WeatherContract.EXTRA_ROWS_WRITTEN);
+    }
+
+    /**
+     * Reads the temperatures of a stretch of steps through a Cursor, one row at a time.
+     *
+     * @return The number of steps read
+     */
+    private int readRows(long from, long to) {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.HourlyEntry.buildHourlyRangeUri(from, to),
+                new String[]{WeatherContract.HourlyEntry.COLUMN_TIME,
+                        WeatherContract.HourlyEntry.COLUMN_TEMP_TENTHS},
+                null,
+                null,
+                null);
+        assertNotNull("Cursor was null.", cursor);
+
+        long[] times = new long[cursor.getCount()];
+        float[] temps = new float[cursor.getCount()];
+        for (int i = 0; cursor.moveToNext(); i++) {
+            times[i] = cursor.getLong(0);
+            temps[i] = cursor.getInt(1) / 10f;
+        }
+        cursor.close();
+        return times.length;
+    }
+
+    /**
+     * Reads the temperatures of a stretch of steps by column, as a chart would.
+     *
+     * @return The number of steps read
+     */
+    private int readColumns(long from, long to) {
+        Bundle extras = new Bundle();
+        extras.putLong(WeatherContract.EXTRA_FROM, from);
+        extras.putLong(WeatherContract.EXTRA_TO, to);
+
+        ContentResolver contentResolver = mContext.getContentResolver();
+        Bundle result = contentResolver.call(WeatherContract.HourlyEntry.CONTENT_URI,
+                WeatherContract.METHOD_READ_HOURLY_FORECAST,
+                null,
+                extras);
+        assertNotNull("call should have returned a result", result);
+
+        HourlyForecast forecast = result.getParcelable(WeatherContract.EXTRA_HOURLY_FORECAST);
+        assertNotNull("The hourly forecast should have been returned", forecast);
+        long[] times = forecast.getTimes();
+        float[] temps = forecast.getTemps();
+        assertEquals(times.length, temps.length);
+        return times.length;
+    }
+
+    /**
+     * A response in the format of OpenWeatherMap's 5 day forecast, with the given number of
+     * steps, starting at {@link TestUtilities#DATE_NORMALIZED}.
+     */
+    private static byte[] createHourlyForecastJson(int stepCount, long stepMillis)
+            throws IOException {
+        StringBuilder json = new StringBuilder()
+                .append("{\"cod\":\"200\",\"message\":0,\"cnt\":").append(stepCount)
+                .append(",\"list\":[");
+        for (int i = 0; i < stepCount; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            long time = TestUtilities.DATE_NORMALIZED + i * stepMillis;
+            json.append("{\"dt\":").append(TimeUnit.MILLISECONDS.toSeconds(time))
+                    .append(",\"main\":{\"temp\":").append(10 + (i % 24) / 2.0)
+                    .append(",\"pressure\":1013.2,\"humidity\":").append(50 + i % 40)
+                    .append("},\"weather\":[{\"id\":").append(800 + i % 4)
+                    .append(",\"main\":\"Clear\"}],\"wind\":{\"speed\":4.1,\"deg\":")
+                    .append((15 * i) % 360).append("}}");
+        }
+        json.append("],\"city\":{\"name\":\"Mountain View\",")
+                .append("\"coord\":{\"lat\":37.4,\"lon\":-122.1}}}");
+        return json.toString().getBytes("UTF-8");
+    }
+
+    private void clearHourlyTable() {
+        WeatherDbHelper helper = new WeatherDbHelper(mContext);
+        SQLiteDatabase database = helper.getWritableDatabase();
+        database.delete(WeatherContract.HourlyEntry.TABLE_NAME, null, null);
+        database.close();
+    }
+}
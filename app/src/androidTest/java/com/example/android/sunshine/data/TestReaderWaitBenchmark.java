@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentProviderClient;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Measures how long queries to WeatherProvider wait while a large bulkInsert is in progress on
+ * another thread, using the provider's own {@link ReaderWaitStats}. With write-ahead logging,
+ * readers shouldn't have to wait for the writer's transaction; the average and maximum wait are
+ * written to logcat under the tag "TestReaderWaitBenchmark" so that they can be compared with
+ * write-ahead logging turned off.
+ * <p>
+ * The queries look up a date through a selection, which WeatherProvider never answers from its
+ * in-memory forecast, so that every one of them really goes to SQLite.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestReaderWaitBenchmark {
+
+    private static final String TAG = TestReaderWaitBenchmark.class.getSimpleName();
+
+    /* Large enough that the write takes long enough for plenty of queries to overlap with it */
+    private static final int ROWS_TO_INSERT = 10000;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    private ContentProviderClient mProviderClient;
+    private WeatherProvider mWeatherProvider;
+
+    @Before
+    public void setUp() {
+        mProviderClient = mContext.getContentResolver()
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+        assertNotNull("WeatherProvider isn't registered", mProviderClient);
+
+        mWeatherProvider = (WeatherProvider) mProviderClient.getLocalContentProvider();
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+    }
+
+    @After
+    public void tearDown() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mProviderClient.release();
+    }
+
+    @Test
+    public void benchmarkReaderWaitDuringBulkInsert() throws InterruptedException {
+        final ContentResolver contentResolver = mContext.getContentResolver();
+        final ContentValues[] weatherValues = TestUtilities
+                .createTestForecast(TestUtilities.DATE_NORMALIZED, ROWS_TO_INSERT, 0)
+                .toContentValuesArray();
+        final int[] rowsInserted = new int[1];
+
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                rowsInserted[0] = contentResolver.bulkInsert(
+                        WeatherContract.WeatherEntry.CONTENT_URI,
+                        weatherValues);
+            }
+        });
+
+        String dateSelection = WeatherContract.WeatherEntry.COLUMN_DATE + " = ?";
+        String[] dateArgs = {Long.toString(TestUtilities.DATE_NORMALIZED)};
+
+        ReaderWaitStats readerWaitStats = mWeatherProvider.getReaderWaitStats();
+        readerWaitStats.reset();
+
+        writer.start();
+        do {
+            Cursor cursor = contentResolver.query(WeatherContract.WeatherEntry.CONTENT_URI,
+                    null,
+                    dateSelection,
+                    dateArgs,
+                    null);
+            assertNotNull("Cursor was null.", cursor);
+            cursor.close();
+        } while (writer.isAlive());
+        writer.join();
+
+        Log.i(TAG, "Reader wait during a bulkInsert of " + ROWS_TO_INSERT + " rows: "
+                + readerWaitStats);
+
+        assertEquals("Every row should have been inserted", ROWS_TO_INSERT, rowsInserted[0]);
+        assertTrue("No queries were recorded", readerWaitStats.getReadCount() > 0);
+    }
+}
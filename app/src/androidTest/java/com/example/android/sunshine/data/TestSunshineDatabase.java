@@ -18,6 +18,7 @@ package com.example.android.sunshine.data;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.provider.BaseColumns;
@@ -32,7 +33,7 @@ import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.HashSet;
-import java.util.concurrent.TimeUnit;
+import java.util.Locale;
 
 import static com.example.android.sunshine.data.TestUtilities.getConstantNameByStringValue;
 import static com.example.android.sunshine.data.TestUtilities.getStaticIntegerField;
@@ -55,8 +56,8 @@ import static junit.framework.Assert.fail;
  * 3) When a record is already stored in the weather table with a particular date, a new record
  * with the same date will overwrite that record.
  * 4) Verify that NON NULL constraints are working properly on record inserts
- * 5) Verify auto increment is working with the ID
- * 6) Test the onUpgrade functionality of the WeatherDbHelper
+ * 5) Verify that the date is the primary key of the weather table
+ * 6) Test the onUpgrade functionality of the WeatherDbHelper, from each earlier version
  */
 @RunWith(AndroidJUnit4.class)
 public class TestSunshineDatabase {
@@ -193,7 +194,7 @@ public class TestSunshineDatabase {
 
     @Test
     public void testDatabaseVersionWasIncremented() {
-        int expectedDatabaseVersion = 3;
+        int expectedDatabaseVersion = 7;
         String databaseVersionShouldBe1 = "Database version should be "
                 + expectedDatabaseVersion + " but isn't."
                 + "\n Database version: ";
@@ -334,64 +335,56 @@ public class TestSunshineDatabase {
     }
 
     /**
-     * Tests to ensure that inserts into your database results in automatically
-     * incrementing row IDs.
->>>>>>> 4174cf2... S07.02-Exercise-PreventInvalidInserts
+     * Tests that the weather table is keyed by its location and its date. There is no _ID column
+     * (and no AUTOINCREMENT) anymore: WeatherProvider returns the date under that name instead.
      */
     @Test
-    public void testIntegerAutoincrement() {
+    public void testLocationAndDateArePrimaryKey() {
 
-        /* First, let's ensure we have some values in our table initially */
-        testInsertSingleRecordIntoWeatherTable();
-
-        /* Obtain weather values from TestUtilities */
-        ContentValues testWeatherValues = TestUtilities.createTestWeatherContentValues();
-
-        /* Get the date of the testWeatherValues to ensure we use a different date later */
-        long originalDate = testWeatherValues.getAsLong(REFLECTED_COLUMN_DATE);
-
-        /* Insert ContentValues into database and get a row ID back */
-        long firstRowId = database.insert(
-                REFLECTED_TABLE_NAME,
-                null,
-                testWeatherValues);
-
-        /* Delete the row we just inserted to see if the database will reuse the rowID */
-        database.delete(
-                REFLECTED_TABLE_NAME,
-                "_ID == " + firstRowId,
+        Cursor tableInfoCursor = database.rawQuery(
+                "PRAGMA table_info(" + REFLECTED_TABLE_NAME + ")",
                 null);
 
-        /*
-         * Now we need to change the date associated with our test content values because the
-         * database policy is to replace identical dates on conflict.
-         */
-        long dayAfterOriginalDate = originalDate + TimeUnit.DAYS.toMillis(1);
-        testWeatherValues.put(REFLECTED_COLUMN_DATE, dayAfterOriginalDate);
+        int nameIndex = tableInfoCursor.getColumnIndex("name");
+        int primaryKeyIndex = tableInfoCursor.getColumnIndex("pk");
 
-        /* Insert ContentValues into database and get another row ID back */
-        long secondRowId = database.insert(
-                REFLECTED_TABLE_NAME,
-                null,
-                testWeatherValues);
+        HashSet<String> primaryKeyColumns = new HashSet<>();
+        boolean hasIdColumn = false;
+        while (tableInfoCursor.moveToNext()) {
+            String columnName = tableInfoCursor.getString(nameIndex);
+            if (tableInfoCursor.getInt(primaryKeyIndex) != 0) {
+                primaryKeyColumns.add(columnName);
+            }
+            if (columnName.equals(WeatherContract.WeatherEntry._ID)) {
+                hasIdColumn = true;
+            }
+        }
+        tableInfoCursor.close();
 
-        String sequentialInsertsDoNotAutoIncrementId =
-                "IDs were reused and shouldn't be if autoincrement is setup properly.";
-        assertNotSame(sequentialInsertsDoNotAutoIncrementId,
-                firstRowId, secondRowId);
+        assertEquals("The location and the date should be the only primary key columns",
+                2,
+                primaryKeyColumns.size());
+        assertTrue("The location should be part of the primary key",
+                primaryKeyColumns.contains(WeatherContract.WeatherEntry.COLUMN_LOCATION_ID));
+        assertTrue("The date should be part of the primary key",
+                primaryKeyColumns.contains(REFLECTED_COLUMN_DATE));
+        assertFalse("The weather table shouldn't have an _ID column anymore", hasIdColumn);
+
+        /* Close database */
+        dbHelper.close();
     }
 
     /**
      * This method tests the {@link WeatherDbHelper#onUpgrade(SQLiteDatabase, int, int)}. The proper
-     * behavior for this method in our case is to simply DROP (or delete) the weather table from
-     * the database and then have the table recreated.
+     * behavior for this method in our case is to migrate the weather table to the current layout
+     * while keeping every row, so that an upgrade never forces a new download of the weather.
      */
     @Test
     public void testOnUpgradeBehavesCorrectly() {
 
         testInsertSingleRecordIntoWeatherTable();
 
-        dbHelper.onUpgrade(database, 13, 14);
+        dbHelper.onUpgrade(database, 1, REFLECTED_DATABASE_VERSION);
 
         /*
          * This Cursor will contain the names of each table in our database and we will use it to
@@ -414,7 +407,7 @@ public class TestSunshineDatabase {
         /* We are done verifying our table names, so we can close this cursor */
         tableNameCursor.close();
 
-        Cursor shouldBeEmptyWeatherCursor = database.query(
+        Cursor weatherCursor = database.query(
                 REFLECTED_TABLE_NAME,
                 null,
                 null,
@@ -423,19 +416,181 @@ public class TestSunshineDatabase {
                 null,
                 null);
 
-        int expectedRecordCountAfterUpgrade = 0;
-        /* We will finally verify that our weather table is empty after */
-        String weatherTableShouldBeEmpty =
-                "Weather table should be empty after upgrade, but wasn't."
-                        + "\nNumber of records: ";
-        assertEquals(weatherTableShouldBeEmpty,
-                expectedRecordCountAfterUpgrade,
-                shouldBeEmptyWeatherCursor.getCount());
+        /* We will finally verify that our weather is still there after the upgrade */
+        String weatherShouldBeKept = "Weather table should still hold its record after upgrade.";
+        assertEquals(weatherShouldBeKept,
+                1,
+                weatherCursor.getCount());
+
+        TestUtilities.validateThenCloseCursor(weatherShouldBeKept,
+                weatherCursor,
+                TestUtilities.createTestWeatherContentValues());
+
+        /* Test is over, close the database */
+        database.close();
+    }
+
+    /**
+     * Creates weather.db as it was laid out in each earlier version, stores a day of weather in
+     * it, and then opens it with the current WeatherDbHelper. That day must survive the upgrade,
+     * while a row whose date was never normalized must not. Versions 5 and later already
+     * normalized every date they stored, so upgrades from them don't look at the dates again.
+     */
+    @Test
+    public void testUpgradeFromEachHistoricalVersion() {
+        for (int version = 1; version < REFLECTED_DATABASE_VERSION; version++) {
+
+            dbHelper.close();
+            context.deleteDatabase(REFLECTED_DATABASE_NAME);
+
+            SQLiteDatabase historicalDatabase = context.openOrCreateDatabase(
+                    REFLECTED_DATABASE_NAME, Context.MODE_PRIVATE, null);
+            createHistoricalWeatherTable(historicalDatabase, version);
+
+            ContentValues testWeatherValues = TestUtilities.createTestWeatherContentValues();
+            ContentValues historicalValues = new ContentValues(testWeatherValues);
+            if (version < 3) {
+                historicalValues.put("short_desc", "Clear");
+            } else if (version < 5) {
+                /* Versions 3 and 4 stored the weather of a single location */
+                historicalValues.remove(WeatherContract.WeatherEntry.COLUMN_LOCATION_ID);
+            }
+            historicalDatabase.insert(REFLECTED_TABLE_NAME, null, historicalValues);
+
+            if (version < 5) {
+                ContentValues unnormalizedValues = new ContentValues(historicalValues);
+                unnormalizedValues.put(REFLECTED_COLUMN_DATE, TestUtilities.DATE_NORMALIZED + 1);
+                historicalDatabase.insert(REFLECTED_TABLE_NAME, null, unnormalizedValues);
+            }
+
+            historicalDatabase.setVersion(version);
+            historicalDatabase.close();
+
+            dbHelper = new WeatherDbHelper(context);
+            database = dbHelper.getWritableDatabase();
+
+            Cursor weatherCursor = database.query(
+                    REFLECTED_TABLE_NAME,
+                    null,
+                    null,
+                    null,
+                    null,
+                    null,
+                    null);
+
+            String weatherShouldBeCarriedForward =
+                    "The weather should be carried forward from version " + version;
+            assertEquals(weatherShouldBeCarriedForward,
+                    1,
+                    weatherCursor.getCount());
+
+            TestUtilities.validateThenCloseCursor(weatherShouldBeCarriedForward,
+                    weatherCursor,
+                    testWeatherValues);
+        }
 
-        /* Test is over, close the cursor */
         database.close();
     }
 
+    /**
+     * Creates the weather table exactly as it was in the given version of weather.db. These
+     * statements must never change, even when WeatherDbHelper's do.
+     */
+    private static void createHistoricalWeatherTable(SQLiteDatabase db, int version) {
+        switch (version) {
+
+            /*
+             * Releases of Sunshine that kept each location in a separate table, keyed the weather
+             * on that location as well as on the date
+             */
+            case 1:
+            case 2:
+                db.execSQL("CREATE TABLE weather ("
+                        + "_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                        + "location_id INTEGER NOT NULL, "
+                        + "date INTEGER NOT NULL, "
+                        + "short_desc TEXT NOT NULL, "
+                        + "weather_id INTEGER NOT NULL, "
+                        + "min REAL NOT NULL, "
+                        + "max REAL NOT NULL, "
+                        + "humidity REAL NOT NULL, "
+                        + "pressure REAL NOT NULL, "
+                        + "wind REAL NOT NULL, "
+                        + "degrees REAL NOT NULL, "
+                        + "UNIQUE (date, location_id) ON CONFLICT REPLACE);");
+                break;
+
+            case 3:
+                db.execSQL("CREATE TABLE weather ("
+                        + "_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                        + "date INTEGER NOT NULL, "
+                        + "weather_id INTEGER NOT NULL,"
+                        + "min REAL NOT NULL, "
+                        + "max REAL NOT NULL, "
+                        + "humidity REAL NOT NULL, "
+                        + "pressure REAL NOT NULL, "
+                        + "wind REAL NOT NULL, "
+                        + "degrees REAL NOT NULL, "
+                        + " UNIQUE (date) ON CONFLICT REPLACE);");
+                break;
+
+            case 4:
+                db.execSQL("CREATE TABLE weather ("
+                        + "date INTEGER NOT NULL PRIMARY KEY ON CONFLICT REPLACE, "
+                        + "weather_id INTEGER NOT NULL, "
+                        + "min REAL NOT NULL, "
+                        + "max REAL NOT NULL, "
+                        + "humidity REAL NOT NULL, "
+                        + "pressure REAL NOT NULL, "
+                        + "wind REAL NOT NULL, "
+                        + "degrees REAL NOT NULL)"
+                        + (WeatherDbHelper.isWithoutRowidSupported() ? " WITHOUT ROWID;" : ";"));
+                break;
+
+            /* Version 6 added the archive to the tables of version 5 */
+            case 6:
+                db.execSQL("CREATE TABLE archive ("
+                        + "location_id INTEGER NOT NULL, "
+                        + "date INTEGER NOT NULL, "
+                        + "period TEXT NOT NULL, "
+                        + "day_count INTEGER NOT NULL, "
+                        + "weather_id INTEGER, "
+                        + "min REAL NOT NULL, "
+                        + "max REAL NOT NULL, "
+                        + "humidity REAL NOT NULL, "
+                        + "pressure REAL NOT NULL, "
+                        + "wind REAL NOT NULL, "
+                        + "PRIMARY KEY (location_id, date, period) ON CONFLICT REPLACE)"
+                        + (WeatherDbHelper.isWithoutRowidSupported() ? " WITHOUT ROWID;" : ";"));
+                /* Falls through to create the tables of version 5 */
+
+            /* The first release that kept the weather of several locations side by side */
+            case 5:
+                db.execSQL("CREATE TABLE location ("
+                        + "_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                        + "location_setting TEXT NOT NULL UNIQUE, "
+                        + "coord_lat REAL, "
+                        + "coord_long REAL, "
+                        + "last_used INTEGER NOT NULL DEFAULT 0);");
+                db.execSQL("CREATE TABLE weather ("
+                        + "location_id INTEGER NOT NULL, "
+                        + "date INTEGER NOT NULL, "
+                        + "weather_id INTEGER NOT NULL, "
+                        + "min REAL NOT NULL, "
+                        + "max REAL NOT NULL, "
+                        + "humidity REAL NOT NULL, "
+                        + "pressure REAL NOT NULL, "
+                        + "wind REAL NOT NULL, "
+                        + "degrees REAL NOT NULL, "
+                        + "PRIMARY KEY (location_id, date) ON CONFLICT REPLACE)"
+                        + (WeatherDbHelper.isWithoutRowidSupported() ? " WITHOUT ROWID;" : ";"));
+                break;
+
+            default:
+                fail("Unknown historical database version " + version);
+        }
+    }
+
     /**
      * This method tests that our database contains all of the tables that we think it should
      * contain. Although in our case, we just have one table that we expect should be added
@@ -456,6 +611,9 @@ public class TestSunshineDatabase {
 
         /* Here, we add the name of our only table in this particular database */
         tableNameHashSet.add(REFLECTED_TABLE_NAME);
+        tableNameHashSet.add(WeatherContract.LocationEntry.TABLE_NAME);
+        tableNameHashSet.add(WeatherContract.ArchiveEntry.TABLE_NAME);
+        tableNameHashSet.add(WeatherContract.HourlyEntry.TABLE_NAME);
         /* Students, here is where you would add any other table names if you had them */
 //        tableNameHashSet.add(MyAwesomeSuperCoolTableName);
 //        tableNameHashSet.add(MyOtherCoolTableNameThatContainsOtherCoolData);
@@ -500,6 +658,19 @@ public class TestSunshineDatabase {
         tableNameCursor.close();
     }
 
+    /**
+     * Tests that weather.db is opened in write-ahead logging mode, so that readers aren't blocked
+     * while a sync writes.
+     */
+    @Test
+    public void testWriteAheadLoggingIsEnabled() {
+        String journalMode = DatabaseUtils.stringForQuery(database, "PRAGMA journal_mode", null);
+
+        assertEquals("weather.db should use write-ahead logging",
+                "wal",
+                journalMode.toLowerCase(Locale.US));
+    }
+
     /**
      * This method tests inserting a single record into an empty table from a brand new database.
      * It will fail for the following reasons:
@@ -19,6 +19,8 @@ import android.content.UriMatcher;
 import android.net.Uri;
 import android.support.test.runner.AndroidJUnit4;
 
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -37,6 +39,26 @@ public class TestUriMatcher {
     private static final Uri TEST_WEATHER_DIR = WeatherContract.WeatherEntry.CONTENT_URI;
     private static final Uri TEST_WEATHER_WITH_DATE_DIR = WeatherContract.WeatherEntry
             .buildWeatherUriWithDate(TestUtilities.DATE_NORMALIZED);
+    private static final Uri TEST_WEATHER_RANGE_DIR = WeatherContract.WeatherEntry
+            .buildWeatherRangeUri(TestUtilities.DATE_NORMALIZED,
+                    TestUtilities.DATE_NORMALIZED + 6 * SunshineDateUtils.DAY_IN_MILLIS);
+    private static final Uri TEST_WEATHER_PAGE_DIR = WeatherContract.WeatherEntry
+            .buildWeatherPageUri(TestUtilities.DATE_NORMALIZED, 7);
+    private static final Uri TEST_WEATHER_AGGREGATE_DIR = WeatherContract.WeatherEntry
+            .buildWeatherAggregateUri(TestUtilities.DATE_NORMALIZED,
+                    TestUtilities.DATE_NORMALIZED + 6 * SunshineDateUtils.DAY_IN_MILLIS,
+                    WeatherContract.FUNCTION_AVG);
+    private static final Uri TEST_WEATHER_FOR_LOCATION_DIR = WeatherContract.WeatherEntry
+            .buildLocationScopedUri(TEST_WEATHER_DIR, 2);
+    private static final Uri TEST_ARCHIVE_RANGE_DIR = WeatherContract.ArchiveEntry
+            .buildArchiveRangeUri(TestUtilities.DATE_NORMALIZED,
+                    TestUtilities.DATE_NORMALIZED + 60 * SunshineDateUtils.DAY_IN_MILLIS);
+    private static final Uri TEST_HOURLY_RANGE_DIR = WeatherContract.HourlyEntry
+            .buildHourlyRangeUri(TestUtilities.DATE_NORMALIZED,
+                    TestUtilities.DATE_NORMALIZED + SunshineDateUtils.DAY_IN_MILLIS);
+    private static final Uri TEST_LOCATION_DIR = WeatherContract.LocationEntry.CONTENT_URI;
+    private static final Uri TEST_LOCATION_WITH_ID_DIR = WeatherContract.LocationEntry
+            .buildLocationUri(2);
 
     private static final String weatherCodeVariableName = "CODE_WEATHER";
     private static int REFLECTED_WEATHER_CODE;
@@ -44,6 +66,30 @@ public class TestUriMatcher {
     private static final String weatherCodeWithDateVariableName = "CODE_WEATHER_WITH_DATE";
     private static int REFLECTED_WEATHER_WITH_DATE_CODE;
 
+    private static final String weatherRangeCodeVariableName = "CODE_WEATHER_RANGE";
+    private static int REFLECTED_WEATHER_RANGE_CODE;
+
+    private static final String weatherAfterCodeVariableName = "CODE_WEATHER_AFTER";
+    private static int REFLECTED_WEATHER_AFTER_CODE;
+
+    private static final String weatherAggregateCodeVariableName = "CODE_WEATHER_AGGREGATE";
+    private static int REFLECTED_WEATHER_AGGREGATE_CODE;
+
+    private static final String archiveCodeVariableName = "CODE_ARCHIVE";
+    private static int REFLECTED_ARCHIVE_CODE;
+
+    private static final String hourlyCodeVariableName = "CODE_HOURLY";
+    private static int REFLECTED_HOURLY_CODE;
+
+    private static final String metricsCodeVariableName = "CODE_METRICS";
+    private static int REFLECTED_METRICS_CODE;
+
+    private static final String locationCodeVariableName = "CODE_LOCATION";
+    private static int REFLECTED_LOCATION_CODE;
+
+    private static final String locationCodeWithIdVariableName = "CODE_LOCATION_WITH_ID";
+    private static int REFLECTED_LOCATION_WITH_ID_CODE;
+
     private UriMatcher testMatcher;
 
     @Before
@@ -61,6 +107,38 @@ public class TestUriMatcher {
                     WeatherProvider.class,
                     weatherCodeWithDateVariableName);
 
+            REFLECTED_WEATHER_RANGE_CODE = getStaticIntegerField(
+                    WeatherProvider.class,
+                    weatherRangeCodeVariableName);
+
+            REFLECTED_WEATHER_AFTER_CODE = getStaticIntegerField(
+                    WeatherProvider.class,
+                    weatherAfterCodeVariableName);
+
+            REFLECTED_WEATHER_AGGREGATE_CODE = getStaticIntegerField(
+                    WeatherProvider.class,
+                    weatherAggregateCodeVariableName);
+
+            REFLECTED_ARCHIVE_CODE = getStaticIntegerField(
+                    WeatherProvider.class,
+                    archiveCodeVariableName);
+
+            REFLECTED_HOURLY_CODE = getStaticIntegerField(
+                    WeatherProvider.class,
+                    hourlyCodeVariableName);
+
+            REFLECTED_METRICS_CODE = getStaticIntegerField(
+                    WeatherProvider.class,
+                    metricsCodeVariableName);
+
+            REFLECTED_LOCATION_CODE = getStaticIntegerField(
+                    WeatherProvider.class,
+                    locationCodeVariableName);
+
+            REFLECTED_LOCATION_WITH_ID_CODE = getStaticIntegerField(
+                    WeatherProvider.class,
+                    locationCodeWithIdVariableName);
+
         } catch (NoSuchFieldException e) {
             fail(studentReadableNoSuchField(e));
         } catch (IllegalAccessException e) {
@@ -101,5 +179,73 @@ public class TestUriMatcher {
         assertEquals(weatherWithDateUriCodeDoesNotMatch,
                 expectedWeatherWithDateCode,
                 actualWeatherWithDateCode);
+
+        /* Test that a range of dates matches the weather range code */
+        String weatherRangeUriCodeDoesNotMatch =
+                "Error: The CODE_WEATHER_RANGE URI was matched incorrectly.";
+        assertEquals(weatherRangeUriCodeDoesNotMatch,
+                REFLECTED_WEATHER_RANGE_CODE,
+                testMatcher.match(TEST_WEATHER_RANGE_DIR));
+
+        /* Test that a page, including its limit query parameter, matches the after code */
+        String weatherAfterUriCodeDoesNotMatch =
+                "Error: The CODE_WEATHER_AFTER URI was matched incorrectly.";
+        assertEquals(weatherAfterUriCodeDoesNotMatch,
+                REFLECTED_WEATHER_AFTER_CODE,
+                testMatcher.match(TEST_WEATHER_PAGE_DIR));
+
+        /* Test that an aggregate, including its query parameters, matches the aggregate code */
+        String weatherAggregateUriCodeDoesNotMatch =
+                "Error: The CODE_WEATHER_AGGREGATE URI was matched incorrectly.";
+        assertEquals(weatherAggregateUriCodeDoesNotMatch,
+                REFLECTED_WEATHER_AGGREGATE_CODE,
+                testMatcher.match(TEST_WEATHER_AGGREGATE_DIR));
+
+        /* Test that scoping a URI to a location doesn't change what it matches */
+        String weatherForLocationUriCodeDoesNotMatch =
+                "Error: The location scoped CODE_WEATHER URI was matched incorrectly.";
+        assertEquals(weatherForLocationUriCodeDoesNotMatch,
+                REFLECTED_WEATHER_CODE,
+                testMatcher.match(TEST_WEATHER_FOR_LOCATION_DIR));
+
+        /* Test that the archive, with or without a range of dates, matches the archive code */
+        String archiveUriCodeDoesNotMatch =
+                "Error: The CODE_ARCHIVE URI was matched incorrectly.";
+        assertEquals(archiveUriCodeDoesNotMatch,
+                REFLECTED_ARCHIVE_CODE,
+                testMatcher.match(WeatherContract.ArchiveEntry.CONTENT_URI));
+        assertEquals(archiveUriCodeDoesNotMatch,
+                REFLECTED_ARCHIVE_CODE,
+                testMatcher.match(TEST_ARCHIVE_RANGE_DIR));
+
+        /* Test that the hourly forecast, with or without a range of times, matches its code */
+        String hourlyUriCodeDoesNotMatch =
+                "Error: The CODE_HOURLY URI was matched incorrectly.";
+        assertEquals(hourlyUriCodeDoesNotMatch,
+                REFLECTED_HOURLY_CODE,
+                testMatcher.match(WeatherContract.HourlyEntry.CONTENT_URI));
+        assertEquals(hourlyUriCodeDoesNotMatch,
+                REFLECTED_HOURLY_CODE,
+                testMatcher.match(TEST_HOURLY_RANGE_DIR));
+
+        /* Test that the metrics URI matches its code */
+        String metricsUriCodeDoesNotMatch =
+                "Error: The CODE_METRICS URI was matched incorrectly.";
+        assertEquals(metricsUriCodeDoesNotMatch,
+                REFLECTED_METRICS_CODE,
+                testMatcher.match(WeatherContract.MetricsEntry.CONTENT_URI));
+
+        /* Test that the location URIs match their codes */
+        String locationUriCodeDoesNotMatch =
+                "Error: The CODE_LOCATION URI was matched incorrectly.";
+        assertEquals(locationUriCodeDoesNotMatch,
+                REFLECTED_LOCATION_CODE,
+                testMatcher.match(TEST_LOCATION_DIR));
+
+        String locationWithIdUriCodeDoesNotMatch =
+                "Error: The CODE_LOCATION_WITH_ID URI was matched incorrectly.";
+        assertEquals(locationWithIdUriCodeDoesNotMatch,
+                REFLECTED_LOCATION_WITH_ID_CODE,
+                testMatcher.match(TEST_LOCATION_WITH_ID_DIR));
     }
 }
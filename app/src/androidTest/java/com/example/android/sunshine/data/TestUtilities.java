@@ -16,11 +16,14 @@
 package com.example.android.sunshine.data;
 
 import android.content.ContentValues;
+import android.content.Context;
 import android.database.ContentObserver;
 import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.os.Handler;
 import android.os.HandlerThread;
+import android.os.SystemClock;
 
 import com.example.android.sunshine.utilities.SunshineDateUtils;
 import com.example.android.sunshine.utils.PollingCheck;
@@ -35,6 +38,7 @@ import java.util.regex.Pattern;
 import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_DATE;
 import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_DEGREES;
 import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_HUMIDITY;
+import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_LOCATION_ID;
 import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_MAX_TEMP;
 import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_MIN_TEMP;
 import static com.example.android.sunshine.data.WeatherContract.WeatherEntry.COLUMN_PRESSURE;
@@ -51,14 +55,23 @@ import static junit.framework.Assert.assertTrue;
  * <p>
  * NOTE: If your WeatherContract class doesn't exactly match ours, THIS WILL NOT WORK as we've
  * provided and you will need to make changes to this code to use it to pass your tests.
+ * <p>
+ * The class is public so that tests outside of the data package can create a forecast with
+ * {@link #createTestForecast}; everything else stays package-private.
  */
-class TestUtilities {
+public class TestUtilities {
 
     /* October 1st, 2016 at midnight, GMT time */
     static final long DATE_NORMALIZED = 1475280000000L;
 
     static final int BULK_INSERT_RECORDS_TO_INSERT = 10;
 
+    /* The _ID that tests give the location in the preferences, see insertPreferredLocation */
+    static final long TEST_LOCATION_ID = 1;
+
+    /* The weather server's hourly forecast comes in steps of 3 hours */
+    static final long HOURLY_STEP_MILLIS = 3 * 60 * 60 * 1000;
+
     /**
      * Ensures there is a non empty cursor and validates the cursor's data by checking it against
      * a set of expected values. This method will then close the cursor.
@@ -120,6 +133,7 @@ class TestUtilities {
 
         ContentValues testWeatherValues = new ContentValues();
 
+        testWeatherValues.put(COLUMN_LOCATION_ID, TEST_LOCATION_ID);
         testWeatherValues.put(COLUMN_DATE, DATE_NORMALIZED);
         testWeatherValues.put(COLUMN_DEGREES, 1.1);
         testWeatherValues.put(COLUMN_HUMIDITY, 1.2);
@@ -132,6 +146,29 @@ class TestUtilities {
         return testWeatherValues;
     }
 
+    /**
+     * Stores the location in the preferences under {@link #TEST_LOCATION_ID}, replacing any row
+     * that had that _ID or that setting. Weather written straight to weather.db with
+     * {@link #createTestWeatherContentValues()} is then what WeatherProvider returns for the
+     * preferred location.
+     *
+     * @param context  Used to read the preferred location
+     * @param database weather.db
+     */
+    static void insertPreferredLocation(Context context, SQLiteDatabase database) {
+        ContentValues locationValues = new ContentValues();
+        locationValues.put(WeatherContract.LocationEntry._ID, TEST_LOCATION_ID);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+                SunshinePreferences.getPreferredWeatherLocation(context));
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_LAST_USED,
+                System.currentTimeMillis());
+
+        database.insertWithOnConflict(WeatherContract.LocationEntry.TABLE_NAME,
+                null,
+                locationValues,
+                SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
     /**
      * Used as a convenience method to return a singleton instance of an array of ContentValues to
      * populate our database or insert using our ContentProvider's bulk insert method.
@@ -173,6 +210,52 @@ class TestUtilities {
     }
 
 
+    /**
+     * Creates a daily forecast whose weather changes from day to day, so that the minimum and
+     * maximum of a stretch of days mean something.
+     *
+     * @param firstDate The normalized date of the first day
+     * @param dayCount  The number of days
+     * @param warming   Degrees added to every temperature
+     * @return The forecast
+     */
+    public static ForecastBatch createTestForecast(long firstDate, int dayCount, double warming) {
+        ForecastBatch forecast = new ForecastBatch(dayCount);
+        for (int i = 0; i < dayCount; i++) {
+            forecast.add(firstDate + i * SunshineDateUtils.DAY_IN_MILLIS,
+                    800 + i % 4,
+                    10 + i % 10 + warming,
+                    20 + i % 10 + warming,
+                    60 + i % 30,
+                    1013.2 - 0.1 * (i % 20),
+                    4.1 + 0.1 * (i % 10),
+                    (15 * i) % 360);
+        }
+        return forecast;
+    }
+
+    /**
+     * Creates an hourly forecast in steps of 3 hours, as the weather server sends it, starting at
+     * {@link #DATE_NORMALIZED}. Every value is a whole number of tenths, so that it is stored
+     * without rounding.
+     *
+     * @param stepCount The number of steps
+     * @return The forecast
+     */
+    static HourlyForecast createTestHourlyForecast(int stepCount) {
+        HourlyForecast forecast = new HourlyForecast(stepCount);
+        for (int i = 0; i < stepCount; i++) {
+            forecast.add(DATE_NORMALIZED + i * HOURLY_STEP_MILLIS,
+                    800 + i % 4,
+                    -5.5 + 0.5 * (i % 60),
+                    60 + i % 30,
+                    1013.2 - 0.1 * (i % 20),
+                    4.1 + 0.1 * (i % 10),
+                    (15 * i) % 360);
+        }
+        return forecast;
+    }
+
     static TestContentObserver getTestContentObserver() {
         return TestContentObserver.getTestContentObserver();
     }
@@ -186,8 +269,13 @@ class TestUtilities {
      * correct Uri is returned.
      */
     static class TestContentObserver extends ContentObserver {
+
+        /* How long countNotificationsAndQuit waits for notifications that are still on their way */
+        private static final long NOTIFICATION_DELIVERY_MILLIS = 1000;
+
         final HandlerThread mHT;
         boolean mContentChanged;
+        volatile int mChangeCount;
 
         private TestContentObserver(HandlerThread ht) {
             super(new Handler(ht.getLooper()));
@@ -223,6 +311,7 @@ class TestUtilities {
         @Override
         public void onChange(boolean selfChange, Uri uri) {
             mContentChanged = true;
+            mChangeCount++;
         }
 
         /**
@@ -241,6 +330,18 @@ class TestUtilities {
             }.run();
             mHT.quit();
         }
+
+        /**
+         * Gives notifications that were sent before this call time to arrive, then returns how
+         * many this observer received. A loader requeries once for every notification, so when
+         * this observer is registered on a Cursor, that is how many times a loader showing the
+         * Cursor would have requeried.
+         */
+        int countNotificationsAndQuit() {
+            SystemClock.sleep(NOTIFICATION_DELIVERY_MILLIS);
+            mHT.quit();
+            return mChangeCount;
+        }
     }
 
     static String getConstantNameByStringValue(Class klass, String value)  {
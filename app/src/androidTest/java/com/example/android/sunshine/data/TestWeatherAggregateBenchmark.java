@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Compares two ways of summarizing years of stored weather through WeatherProvider: the
+ * aggregate URI, which lets SQLite compute the minimum, maximum, average and count of every
+ * summarized column, and a range query whose rows are all read back and reduced in Java, which
+ * is what a summary view had to do before. Both ways must agree on the result.
+ * <p>
+ * The table holds far more days than WeatherProvider keeps in memory, so both ways read SQLite.
+ * The average time per summary is written to logcat under the tag "TestWeatherAggregateBenchmark".
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestWeatherAggregateBenchmark {
+
+    private static final String TAG = TestWeatherAggregateBenchmark.class.getSimpleName();
+
+    /* The columns that are summarized, in the order of the arrays in Summary */
+    private static final String[] SUMMARIZED_COLUMNS = {
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+    };
+
+    private static final int SUMMARIES = 20;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+    private final ContentResolver mContentResolver = mContext.getContentResolver();
+
+    @Before
+    public void setUp() {
+        mContentResolver.delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+    }
+
+    @After
+    public void tearDown() {
+        mContentResolver.delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+    }
+
+    @Test
+    public void benchmarkThreeYearsOfWeather() {
+        compareSummaries(3 * 365);
+    }
+
+    @Test
+    public void benchmarkTenYearsOfWeather() {
+        compareSummaries(10 * 365);
+    }
+
+    private void compareSummaries(int dayCount) {
+        long firstDate = SunshineDateUtils.getNormalizedUtcDateForToday()
+                - dayCount * SunshineDateUtils.DAY_IN_MILLIS;
+        long lastDate = firstDate + (dayCount - 1) * SunshineDateUtils.DAY_IN_MILLIS;
+
+        int rowsInserted = mContentResolver.bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI,
+                TestUtilities.createTestForecast(firstDate, dayCount, 0).toContentValuesArray());
+        assertEquals(dayCount, rowsInserted);
+
+        /* Warm up the page cache, and check that both ways agree */
+        Summary aggregate = summarizeWithAggregate(firstDate, lastDate);
+        Summary scan = summarizeWithScan(firstDate, lastDate);
+        assertEquals("Every day should have been summarized", dayCount, aggregate.mCount);
+        aggregate.assertSameAs(scan);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < SUMMARIES; i++) {
+            summarizeWithAggregate(firstDate, lastDate);
+        }
+        long aggregateNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < SUMMARIES; i++) {
+            summarizeWithScan(firstDate, lastDate);
+        }
+        long scanNanos = System.nanoTime() - start;
+
+        Log.i(TAG, dayCount + " days: aggregate URI " + micros(aggregateNanos)
+                + "us vs cursor scan " + micros(scanNanos) + "us per summary");
+    }
+
+    private Summary summarizeWithAggregate(long firstDate, long lastDate) {
+        Uri aggregateUri = WeatherContract.WeatherEntry
+                .buildWeatherAggregateUri(firstDate, lastDate, null);
+        Cursor cursor = mContentResolver.query(aggregateUri, null, null, null, null);
+        assertNotNull("Cursor was null.", cursor);
+        assertTrue("An aggregate always has a row", cursor.moveToFirst());
+
+        Summary summary = new Summary();
+        summary.mCount = cursor.getInt(cursor.getColumnIndex(WeatherContract.FUNCTION_COUNT));
+        for (int i = 0; i < SUMMARIZED_COLUMNS.length; i++) {
+            summary.mMin[i] = getAggregate(cursor, WeatherContract.FUNCTION_MIN, i);
+            summary.mMax[i] = getAggregate(cursor, WeatherContract.FUNCTION_MAX, i);
+            summary.mAverage[i] = getAggregate(cursor, WeatherContract.FUNCTION_AVG, i);
+        }
+        cursor.close();
+        return summary;
+    }
+
+    private static double getAggregate(Cursor cursor, String function, int column) {
+        String name = WeatherContract.WeatherEntry
+                .getAggregateColumnName(function, SUMMARIZED_COLUMNS[column]);
+        return cursor.getDouble(cursor.getColumnIndex(name));
+    }
+
+    /**
+     * Reads every day of the range and reduces them in Java, as a summary view would have to
+     * without the aggregate URI.
+     */
+    private Summary summarizeWithScan(long firstDate, long lastDate) {
+        Uri rangeUri = WeatherContract.WeatherEntry.buildWeatherRangeUri(firstDate, lastDate);
+        Cursor cursor = mContentResolver.query(rangeUri, SUMMARIZED_COLUMNS, null, null, null);
+        assertNotNull("Cursor was null.", cursor);
+
+        Summary summary = new Summary();
+        double[] sum = new double[SUMMARIZED_COLUMNS.length];
+        for (int i = 0; i < SUMMARIZED_COLUMNS.length; i++) {
+            summary.mMin[i] = Double.MAX_VALUE;
+            summary.mMax[i] = -Double.MAX_VALUE;
+        }
+
+        while (cursor.moveToNext()) {
+            summary.mCount++;
+            for (int i = 0; i < SUMMARIZED_COLUMNS.length; i++) {
+                double value = cursor.getDouble(i);
+                summary.mMin[i] = Math.min(summary.mMin[i], value);
+                summary.mMax[i] = Math.max(summary.mMax[i], value);
+                sum[i] += value;
+            }
+        }
+        cursor.close();
+
+        for (int i = 0; i < SUMMARIZED_COLUMNS.length; i++) {
+            summary.mAverage[i] = sum[i] / summary.mCount;
+        }
+        return summary;
+    }
+
+    private static long micros(long nanos) {
+        return nanos / SUMMARIES / 1000;
+    }
+
+    /* The minimum, maximum and average of each summarized column, and the number of days */
+    private static final class Summary {
+        int mCount;
+        final double[] mMin = new double[SUMMARIZED_COLUMNS.length];
+        final double[] mMax = new double[SUMMARIZED_COLUMNS.length];
+        final double[] mAverage = new double[SUMMARIZED_COLUMNS.length];
+
+        void assertSameAs(Summary other) {
+            assertEquals(mCount, other.mCount);
+            for (int i = 0; i < SUMMARIZED_COLUMNS.length; i++) {
+                String column = SUMMARIZED_COLUMNS[i];
+                assertEquals("min of " + column, mMin[i], other.mMin[i], 0.000001);
+                assertEquals("max of " + column, mMax[i], other.mMax[i], 0.000001);
+                assertEquals("avg of " + column, mAverage[i], other.mAverage[i], 0.000001);
+            }
+        }
+    }
+}
@@ -16,6 +16,9 @@
 package com.example.android.sunshine.data;
 
 import android.content.ComponentName;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentProviderClient;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
@@ -24,16 +27,25 @@ import android.content.pm.ProviderInfo;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
+import android.os.Bundle;
 import android.support.test.InstrumentationRegistry;
 import android.support.test.runner.AndroidJUnit4;
 
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
 import static com.example.android.sunshine.data.TestUtilities.BULK_INSERT_RECORDS_TO_INSERT;
 import static com.example.android.sunshine.data.TestUtilities.createBulkInsertTestWeatherValues;
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
 import static junit.framework.Assert.assertNotNull;
 import static junit.framework.Assert.assertTrue;
 import static junit.framework.Assert.fail;
@@ -68,13 +80,16 @@ import static junit.framework.Assert.fail;
 @RunWith(AndroidJUnit4.class)
 public class TestWeatherProvider {
 
+    /* A location other than the one in the preferences */
+    private static final String OTHER_LOCATION_SETTING = "Paris,FR";
+
     /* Context used to access various parts of the system */
     private final Context mContext = InstrumentationRegistry.getTargetContext();
 
     /**
      * Because we annotate this method with the @Before annotation, this method will be called
      * before every single method with an @Test annotation. We want to start each test clean, so we
-     * delete all entries in the weather table to do so.
+     * delete all entries in the weather table to do so, and leave only the preferred location.
      */
     @Before
     public void setUp() {
@@ -185,6 +200,9 @@ public class TestWeatherProvider {
         /* We are done with the database, close it now. */
         database.close();
 
+        /* We wrote behind WeatherProvider's back, so it must not answer from memory */
+        invalidateForecastCache();
+
         /*
          * Perform our ContentProvider query. We expect the cursor that is returned will contain
          * the exact same data that is in testWeatherValues and we will validate that in the next
@@ -207,6 +225,47 @@ public class TestWeatherProvider {
                 testWeatherValues);
     }
 
+    /**
+     * The weather table is keyed by date and has no _ID column. This test verifies that the
+     * ContentProvider still returns an _ID to cursor consumers, holding the date, both when _ID
+     * is asked for and when every column is.
+     */
+    @Test
+    public void testQueryReturnsDateAsId() {
+
+        ContentValues testWeatherValues = TestUtilities.createTestWeatherContentValues();
+        long testDate = testWeatherValues.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase database = dbHelper.getWritableDatabase();
+        database.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, testWeatherValues);
+        database.close();
+        invalidateForecastCache();
+
+        String[][] projections = {
+                {WeatherContract.WeatherEntry._ID, WeatherContract.WeatherEntry.COLUMN_MAX_TEMP},
+                null
+        };
+
+        for (String[] projection : projections) {
+            Cursor weatherCursor = mContext.getContentResolver().query(
+                    WeatherContract.WeatherEntry.CONTENT_URI,
+                    projection,
+                    null,
+                    null,
+                    null);
+
+            assertNotNull("Cursor was null.", weatherCursor);
+            assertTrue("Empty cursor returned.", weatherCursor.moveToFirst());
+
+            int idIndex = weatherCursor.getColumnIndex(WeatherContract.WeatherEntry._ID);
+            assertTrue("The cursor should have an _ID column", idIndex != -1);
+            assertEquals("_ID should hold the date", testDate, weatherCursor.getLong(idIndex));
+
+            weatherCursor.close();
+        }
+    }
+
     /**
      * This test test the bulkInsert feature of the ContentProvider. It also verifies that
      * registered ContentObservers receive onChange callbacks when data is inserted.
@@ -424,7 +483,1113 @@ public class TestWeatherProvider {
     }
 
     /**
-     * This method will clear all rows from the weather table in our database.
+     * This test reconciles a changed forecast with the one stored by {@link #testBulkInsert()}.
+     * The first day is dropped from the new forecast, the second day has a new weather ID, a new
+     * day is added at the end, and every other day is identical.
+     * <p>
+     * Potential causes for failure:
+     * <p>
+     *   1) Unchanged days were counted as written
+     * <p>
+     *   2) The day that was dropped from the forecast was not deleted
+     * <p>
+     *   3) The data in the weather table does not match the new forecast
+     */
+    @Test
+    public void testReconcileWritesOnlyChangedDays() {
+
+        testBulkInsert();
+
+        ContentValues[] storedValues = createBulkInsertTestWeatherValues();
+        ContentValues[] newForecast = new ContentValues[BULK_INSERT_RECORDS_TO_INSERT];
+
+        /* Drop the first day and shift every other day one position up */
+        System.arraycopy(storedValues, 1, newForecast, 0, BULK_INSERT_RECORDS_TO_INSERT - 1);
+
+        /* Change the weather of what is now the first day */
+        newForecast[0].put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, 800);
+
+        /* Add a day to the end of the forecast */
+        ContentValues newDay = new ContentValues(storedValues[BULK_INSERT_RECORDS_TO_INSERT - 1]);
+        newDay.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                newDay.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE)
+                        + SunshineDateUtils.DAY_IN_MILLIS);
+        newForecast[BULK_INSERT_RECORDS_TO_INSERT - 1] = newDay;
+
+        ContentResolver contentResolver = mContext.getContentResolver();
+
+        int writeCount = contentResolver.bulkInsert(
+                WeatherContract.WeatherEntry.CONTENT_RECONCILE_URI,
+                newForecast);
+
+        String onlyChangedDaysShouldBeWritten =
+                "Only the changed day and the new day should have been written";
+        assertEquals(onlyChangedDaysShouldBeWritten, 2, writeCount);
+
+        Cursor cursor = contentResolver.query(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                null,
+                null,
+                null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+
+        assertNotNull("Cursor was null.", cursor);
+        assertEquals("The dropped day should have been deleted",
+                BULK_INSERT_RECORDS_TO_INSERT,
+                cursor.getCount());
+
+        cursor.moveToFirst();
+        for (int i = 0; i < BULK_INSERT_RECORDS_TO_INSERT; i++, cursor.moveToNext()) {
+            TestUtilities.validateCurrentRecord(
+                    "testReconcileWritesOnlyChangedDays. Error validating WeatherEntry " + i,
+                    cursor,
+                    newForecast[i]);
+        }
+
+        cursor.close();
+    }
+
+    /**
+     * Tests that a ForecastBatch passed to ContentProvider#call is reconciled exactly like the
+     * same forecast passed to bulkInsert as ContentValues.
+     */
+    @Test
+    public void testReconcileForecastBatchThroughCall() {
+
+        testBulkInsert();
+
+        ContentValues[] newForecast = createBulkInsertTestWeatherValues();
+
+        /* Change the weather of the last day only */
+        newForecast[BULK_INSERT_RECORDS_TO_INSERT - 1]
+                .put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 100);
+
+        Bundle extras = new Bundle();
+        extras.putParcelable(WeatherContract.EXTRA_FORECAST_BATCH,
+                ForecastBatch.fromContentValues(newForecast));
+
+        ContentResolver contentResolver = mContext.getContentResolver();
+
+        Bundle result = contentResolver.call(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_RECONCILE_FORECAST,
+                null,
+                extras);
+
+        assertNotNull("call should have returned a result", result);
+        assertEquals("Only the changed day should have been written",
+                1,
+                result.getInt(WeatherContract.EXTRA_ROWS_WRITTEN));
+
+        Cursor cursor = contentResolver.query(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                null,
+                null,
+                null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+
+        assertNotNull("Cursor was null.", cursor);
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+
+        cursor.moveToFirst();
+        for (int i = 0; i < BULK_INSERT_RECORDS_TO_INSERT; i++, cursor.moveToNext()) {
+            TestUtilities.validateCurrentRecord(
+                    "testReconcileForecastBatchThroughCall. Error validating WeatherEntry " + i,
+                    cursor,
+                    newForecast[i]);
+        }
+
+        cursor.close();
+    }
+
+    /**
+     * Counts how many times a sync makes the forecast list and a day's detail requery. The list
+     * and two open days are watched through their cursors, as their loaders watch them, while
+     * the stored forecast is reconciled with one that drops the first day, changes the second
+     * and adds a new day at the end.
+     * <p>
+     * Potential causes for failure:
+     * <p>
+     *   1) The list was notified once per changed day, rather than once per sync
+     * <p>
+     *   2) A day that didn't change was notified, because the whole table was
+     */
+    @Test
+    public void testSyncRequeriesOnlyTheLoadersOfChangedDays() {
+
+        testBulkInsert();
+
+        ContentValues[] storedValues = createBulkInsertTestWeatherValues();
+        long changedDate = storedValues[1].getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+        long unchangedDate = storedValues[5].getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+
+        ContentValues[] newForecast = new ContentValues[BULK_INSERT_RECORDS_TO_INSERT];
+        System.arraycopy(storedValues, 1, newForecast, 0, BULK_INSERT_RECORDS_TO_INSERT - 1);
+        newForecast[0].put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, 800);
+        ContentValues newDay = new ContentValues(storedValues[BULK_INSERT_RECORDS_TO_INSERT - 1]);
+        newDay.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                newDay.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE)
+                        + SunshineDateUtils.DAY_IN_MILLIS);
+        newForecast[BULK_INSERT_RECORDS_TO_INSERT - 1] = newDay;
+
+        ContentResolver contentResolver = mContext.getContentResolver();
+
+        Cursor listCursor = contentResolver.query(WeatherContract.WeatherEntry.CONTENT_URI,
+                null, null, null, null);
+        Cursor changedDayCursor = contentResolver.query(
+                WeatherContract.WeatherEntry.buildWeatherUriWithDate(changedDate),
+                null, null, null, null);
+        Cursor unchangedDayCursor = contentResolver.query(
+                WeatherContract.WeatherEntry.buildWeatherUriWithDate(unchangedDate),
+                null, null, null, null);
+        assertNotNull("Cursor was null.", listCursor);
+        assertNotNull("Cursor was null.", changedDayCursor);
+        assertNotNull("Cursor was null.", unchangedDayCursor);
+
+        TestUtilities.TestContentObserver listObserver = TestUtilities.getTestContentObserver();
+        TestUtilities.TestContentObserver changedDayObserver =
+                TestUtilities.getTestContentObserver();
+        TestUtilities.TestContentObserver unchangedDayObserver =
+                TestUtilities.getTestContentObserver();
+        listCursor.registerContentObserver(listObserver);
+        changedDayCursor.registerContentObserver(changedDayObserver);
+        unchangedDayCursor.registerContentObserver(unchangedDayObserver);
+
+        Bundle extras = new Bundle();
+        extras.putParcelable(WeatherContract.EXTRA_FORECAST_BATCH,
+                ForecastBatch.fromContentValues(newForecast));
+        contentResolver.call(WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_RECONCILE_FORECAST,
+                null,
+                extras);
+
+        assertEquals("The list should have requeried once for the whole sync",
+                1, listObserver.countNotificationsAndQuit());
+        assertEquals("The detail of the changed day should have requeried once",
+                1, changedDayObserver.countNotificationsAndQuit());
+        assertEquals("The detail of an unchanged day shouldn't have requeried",
+                0, unchangedDayObserver.countNotificationsAndQuit());
+
+        listCursor.close();
+        changedDayCursor.close();
+        unchangedDayCursor.close();
+    }
+
+    /**
+     * Applies a batch that updates part of one stored day, upserts a day that isn't stored yet
+     * through update, and replaces another stored day through insert, then checks the table.
+     * <p>
+     * Potential causes for failure:
+     * <p>
+     *   1) The columns that weren't part of the update were changed
+     * <p>
+     *   2) An update of a day that isn't stored didn't insert it
+     * <p>
+     *   3) A partial update of a day that isn't stored was accepted, leaving a row with missing
+     *   columns
+     */
+    @Test
+    public void testApplyBatchUpsertsSingleDays() throws Exception {
+
+        testBulkInsert();
+
+        ContentValues[] expectedValues = createBulkInsertTestWeatherValues();
+        int lastDay = BULK_INSERT_RECORDS_TO_INSERT - 1;
+
+        /* Refresh just the high of the first day */
+        long firstDate = expectedValues[0].getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+        expectedValues[0].put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 99);
+
+        /* A day after the stored forecast, written through update */
+        ContentValues newDay = new ContentValues(expectedValues[lastDay]);
+        newDay.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                newDay.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE)
+                        + SunshineDateUtils.DAY_IN_MILLIS);
+
+        /* A whole stored day, replaced through insert */
+        expectedValues[2].put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, 800);
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        operations.add(ContentProviderOperation
+                .newUpdate(WeatherContract.WeatherEntry.buildWeatherUriWithDate(firstDate))
+                .withValue(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 99)
+                .build());
+        operations.add(ContentProviderOperation
+                .newUpdate(WeatherContract.WeatherEntry.CONTENT_URI)
+                .withValues(newDay)
+                .withYieldAllowed(true)
+                .build());
+        operations.add(ContentProviderOperation
+                .newInsert(WeatherContract.WeatherEntry.CONTENT_URI)
+                .withValues(expectedValues[2])
+                .build());
+
+        ContentResolver contentResolver = mContext.getContentResolver();
+        ContentProviderResult[] results =
+                contentResolver.applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+
+        assertEquals(1, results[0].count.intValue());
+        assertEquals(1, results[1].count.intValue());
+        assertEquals(WeatherContract.WeatherEntry.buildWeatherUriWithDate(
+                expectedValues[2].getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE)),
+                results[2].uri);
+
+        Cursor cursor = contentResolver.query(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                null,
+                null,
+                null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+
+        assertNotNull("Cursor was null.", cursor);
+        assertEquals("The new day should have been inserted",
+                BULK_INSERT_RECORDS_TO_INSERT + 1,
+                cursor.getCount());
+
+        cursor.moveToFirst();
+        for (int i = 0; i < BULK_INSERT_RECORDS_TO_INSERT; i++, cursor.moveToNext()) {
+            TestUtilities.validateCurrentRecord(
+                    "testApplyBatchUpsertsSingleDays. Error validating WeatherEntry " + i,
+                    cursor,
+                    expectedValues[i]);
+        }
+        TestUtilities.validateCurrentRecord(
+                "testApplyBatchUpsertsSingleDays. Error validating the new day",
+                cursor,
+                newDay);
+        cursor.close();
+
+        ContentValues partialValues = new ContentValues();
+        partialValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 99);
+        long unstoredDate = newDay.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE)
+                + SunshineDateUtils.DAY_IN_MILLIS;
+        try {
+            contentResolver.update(
+                    WeatherContract.WeatherEntry.buildWeatherUriWithDate(unstoredDate),
+                    partialValues,
+                    null,
+                    null);
+            fail("Part of a day that isn't stored shouldn't have been written");
+        } catch (IllegalArgumentException e) {
+            /* Expected: a new day needs every column */
+        }
+    }
+
+    /**
+     * Tests that {@link WeatherContract#METHOD_READ_FORECAST} returns the days of the requested
+     * window, and only those, with the values that were stored.
+     */
+    @Test
+    public void testReadForecastReturnsWindowAsBatch() {
+
+        testBulkInsert();
+
+        ContentValues[] storedValues = createBulkInsertTestWeatherValues();
+        long from = storedValues[2].getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+        long to = storedValues[5].getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+
+        Bundle extras = new Bundle();
+        extras.putLong(WeatherContract.EXTRA_FROM, from);
+        extras.putLong(WeatherContract.EXTRA_TO, to);
+
+        Bundle result = mContext.getContentResolver().call(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_READ_FORECAST,
+                null,
+                extras);
+
+        assertNotNull("call should have returned a result", result);
+        ForecastBatch forecast = result.getParcelable(WeatherContract.EXTRA_FORECAST_BATCH);
+        assertNotNull("The forecast should have been returned", forecast);
+        assertEquals("Only the days of the window should have been returned",
+                4, forecast.size());
+
+        for (int day = 0; day < forecast.size(); day++) {
+            ContentValues expected = storedValues[day + 2];
+            ContentValues actual = forecast.toContentValues(day);
+            for (Map.Entry<String, Object> column : expected.valueSet()) {
+                assertEquals("Error validating day " + day + ", column " + column.getKey(),
+                        expected.getAsDouble(column.getKey()),
+                        actual.getAsDouble(column.getKey()));
+            }
+        }
+    }
+
+    /**
+     * Tests that the queries Sunshine makes are answered from WeatherProvider's in-memory
+     * forecast once it has been loaded, that the rows match what SQLite returns, and that a write
+     * through the provider is visible to the very next query.
+     */
+    @Test
+    public void testQueriesAreServedFromForecastCache() {
+
+        testBulkInsert();
+
+        ForecastCache forecastCache = getWeatherProvider().getForecastCache();
+        ContentResolver contentResolver = mContext.getContentResolver();
+
+        /* The query MainActivity makes, with the _ID alias CursorAdapter expects */
+        String[] projection = {
+                WeatherContract.WeatherEntry._ID,
+                WeatherContract.WeatherEntry.COLUMN_DATE,
+                WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+                WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+                WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+        };
+        String selection = WeatherContract.WeatherEntry.COLUMN_DATE + " >= "
+                + TestUtilities.DATE_NORMALIZED;
+        String sortOrder = WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
+
+        forecastCache.resetStats();
+
+        for (int i = 0; i < 2; i++) {
+            Cursor cursor = contentResolver.query(WeatherContract.WeatherEntry.CONTENT_URI,
+                    projection,
+                    selection,
+                    null,
+                    sortOrder);
+
+            assertNotNull("Cursor was null.", cursor);
+            assertEquals(BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+            cursor.close();
+        }
+
+        assertEquals("The first query should have loaded the forecast",
+                1, forecastCache.getMissCount());
+        assertEquals("The second query should have been answered from memory",
+                1, forecastCache.getHitCount());
+
+        /* Every column, for a single day, must read exactly as it would from SQLite */
+        ContentValues[] weatherValues = createBulkInsertTestWeatherValues();
+        long testDate = weatherValues[3].getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+        Uri dayUri = WeatherContract.WeatherEntry.buildWeatherUriWithDate(testDate);
+
+        Cursor dayCursor = contentResolver.query(dayUri, null, null, null, null);
+        TestUtilities.validateThenCloseCursor("testQueriesAreServedFromForecastCache",
+                dayCursor,
+                weatherValues[3]);
+        assertEquals(2, forecastCache.getHitCount());
+
+        /* A write must never leave the old forecast behind */
+        weatherValues[3].put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 100);
+        contentResolver.bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI,
+                new ContentValues[]{weatherValues[3]});
+
+        dayCursor = contentResolver.query(dayUri, null, null, null, null);
+        TestUtilities.validateThenCloseCursor("testQueriesAreServedFromForecastCache",
+                dayCursor,
+                weatherValues[3]);
+        assertEquals("The write should have invalidated the forecast",
+                2, forecastCache.getMissCount());
+    }
+
+    /**
+     * Tests that operations are counted in the metrics under the URI they were made on, with the
+     * rows they touched, and that the metrics can be queried at their own URI.
+     */
+    @Test
+    public void testOperationsAreRecordedInMetrics() {
+
+        ProviderMetrics metrics = getWeatherProvider().getMetrics();
+        metrics.reset();
+
+        testBulkInsert();
+
+        ContentResolver contentResolver = mContext.getContentResolver();
+        Uri dayUri = WeatherContract.WeatherEntry
+                .buildWeatherUriWithDate(TestUtilities.DATE_NORMALIZED);
+        for (int i = 0; i < 3; i++) {
+            Cursor cursor = contentResolver.query(dayUri, null, null, null, null);
+            assertNotNull("Cursor was null.", cursor);
+            cursor.close();
+        }
+
+        ProviderMetrics.Histogram bulkInserts = metrics.getHistogram("bulkInsert weather");
+        assertNotNull("The bulkInsert should have been recorded", bulkInserts);
+        assertEquals(1, bulkInserts.getCount());
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, bulkInserts.getRows());
+        assertNotNull("The bulkInsert's transaction should have been recorded",
+                metrics.getHistogram("transaction insert"));
+
+        ProviderMetrics.Histogram dayQueries = metrics.getHistogram("query weather/#");
+        assertNotNull("The queries of a single day should have been recorded", dayQueries);
+        assertEquals(3, dayQueries.getCount());
+        assertEquals(3, dayQueries.getRows());
+        assertTrue("A percentile can't be more than the slowest query",
+                dayQueries.getPercentileMicros(0.99) <= dayQueries.getMaxMicros());
+
+        Cursor metricsCursor = contentResolver.query(WeatherContract.MetricsEntry.CONTENT_URI,
+                null, null, null, null);
+        assertNotNull("Cursor was null.", metricsCursor);
+
+        boolean foundDayQueries = false;
+        int nameIndex = metricsCursor.getColumnIndex(WeatherContract.MetricsEntry.COLUMN_NAME);
+        int countIndex = metricsCursor.getColumnIndex(WeatherContract.MetricsEntry.COLUMN_COUNT);
+        while (metricsCursor.moveToNext()) {
+            String name = metricsCursor.getString(nameIndex);
+            assertFalse("The metrics URI mustn't name the apps that use the provider",
+                    name.startsWith("caller "));
+            if ("query weather/#".equals(name)) {
+                assertEquals(3, metricsCursor.getLong(countIndex));
+                foundDayQueries = true;
+            }
+        }
+        metricsCursor.close();
+        assertTrue("The metrics URI should list the queries of a single day", foundDayQueries);
+    }
+
+    /**
+     * Tests that the freshness call only counts days from today onwards, whether it is answered
+     * by the database or by the forecast WeatherProvider keeps in memory.
+     */
+    @Test
+    public void testFreshnessCountsOnlyDaysFromToday() {
+
+        /* The test days are all in the past */
+        testBulkInsert();
+        assertFalse("Days in the past aren't a forecast", callFreshness()
+                .getBoolean(WeatherContract.EXTRA_HAS_FORECAST));
+
+        ContentValues todayValues = createBulkInsertTestWeatherValues()[0];
+        todayValues.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                SunshineDateUtils.getNormalizedUtcDateForToday());
+        ContentResolver contentResolver = mContext.getContentResolver();
+        contentResolver.bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI,
+                new ContentValues[]{todayValues});
+
+        Bundle freshness = callFreshness();
+        assertTrue("Today should have been found in the database",
+                freshness.getBoolean(WeatherContract.EXTRA_HAS_FORECAST));
+        assertEquals(SunshinePreferences.getLastSyncTimeInMillis(mContext),
+                freshness.getLong(WeatherContract.EXTRA_LAST_SYNC_TIME));
+
+        /* A query loads the forecast into memory, where the next call finds today */
+        Cursor cursor = contentResolver.query(WeatherContract.WeatherEntry.CONTENT_URI,
+                null, null, null, null);
+        assertNotNull("Cursor was null.", cursor);
+        cursor.close();
+        assertTrue("Today should have been found in memory", callFreshness()
+                .getBoolean(WeatherContract.EXTRA_HAS_FORECAST));
+    }
+
+    /**
+     * Tests that a range URI returns exactly the days from its first to its last date, whether
+     * the query is answered from memory or, because of its selection, by SQLite.
+     */
+    @Test
+    public void testRangeQuery() {
+
+        testBulkInsert();
+
+        ContentValues[] weatherValues = createBulkInsertTestWeatherValues();
+        long firstDate = weatherValues[2].getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+        long lastDate = weatherValues[5].getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+        Uri rangeUri = WeatherContract.WeatherEntry.buildWeatherRangeUri(firstDate, lastDate);
+
+        /* "1" selects every row, but keeps the query from being answered from memory */
+        String[] selections = {null, "1"};
+
+        for (String selection : selections) {
+            Cursor cursor = mContext.getContentResolver().query(rangeUri,
+                    null,
+                    selection,
+                    null,
+                    null);
+
+            assertNotNull("Cursor was null.", cursor);
+            assertEquals("The range should include both of its dates", 4, cursor.getCount());
+
+            cursor.moveToFirst();
+            for (int i = 2; i <= 5; i++, cursor.moveToNext()) {
+                TestUtilities.validateCurrentRecord("testRangeQuery. Error validating day " + i,
+                        cursor,
+                        weatherValues[i]);
+            }
+            cursor.close();
+        }
+    }
+
+    /**
+     * Tests that paging through the table with after URIs returns every day exactly once, in
+     * date order, whether the pages are answered from memory or by SQLite.
+     */
+    @Test
+    public void testPagedQuery() {
+
+        testBulkInsert();
+
+        ContentValues[] weatherValues = createBulkInsertTestWeatherValues();
+        int pageSize = 3;
+        String[] selections = {null, "1"};
+
+        for (String selection : selections) {
+            int dayCount = 0;
+            long lastDate = 0;
+            int pageCount;
+
+            do {
+                Uri pageUri = WeatherContract.WeatherEntry.buildWeatherPageUri(lastDate, pageSize);
+                Cursor cursor = mContext.getContentResolver().query(pageUri,
+                        null,
+                        selection,
+                        null,
+                        null);
+
+                assertNotNull("Cursor was null.", cursor);
+                pageCount = cursor.getCount();
+                assertTrue("A page should never be larger than its limit", pageCount <= pageSize);
+
+                while (cursor.moveToNext()) {
+                    TestUtilities.validateCurrentRecord(
+                            "testPagedQuery. Error validating day " + dayCount,
+                            cursor,
+                            weatherValues[dayCount]);
+                    lastDate = cursor.getLong(
+                            cursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_DATE));
+                    dayCount++;
+                }
+                cursor.close();
+            } while (pageCount == pageSize);
+
+            assertEquals("Paging should have returned every day",
+                    BULK_INSERT_RECORDS_TO_INSERT,
+                    dayCount);
+        }
+    }
+
+    /**
+     * Tests that an aggregate URI summarizes exactly the days in its range, and that a range
+     * with no days in it has a count of 0 and null for everything else.
+     */
+    @Test
+    public void testAggregateQuery() {
+
+        testBulkInsert();
+
+        ContentValues[] weatherValues = createBulkInsertTestWeatherValues();
+        long firstDate = weatherValues[0].getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+        long lastDate = weatherValues[BULK_INSERT_RECORDS_TO_INSERT - 1]
+                .getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+
+        String highestColumn = WeatherContract.WeatherEntry.getAggregateColumnName(
+                WeatherContract.FUNCTION_MAX, WeatherContract.WeatherEntry.COLUMN_MAX_TEMP);
+        String lowestColumn = WeatherContract.WeatherEntry.getAggregateColumnName(
+                WeatherContract.FUNCTION_MIN, WeatherContract.WeatherEntry.COLUMN_MIN_TEMP);
+        String averageHighColumn = WeatherContract.WeatherEntry.getAggregateColumnName(
+                WeatherContract.FUNCTION_AVG, WeatherContract.WeatherEntry.COLUMN_MAX_TEMP);
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherAggregateUri(firstDate, lastDate, null),
+                null,
+                null,
+                null,
+                null);
+
+        assertNotNull("Cursor was null.", cursor);
+        assertEquals("An aggregate is a single row", 1, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+
+        /* The test values have a high of 75 + i and a low of 65 - i on day i */
+        int lastDay = BULK_INSERT_RECORDS_TO_INSERT - 1;
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT,
+                cursor.getInt(cursor.getColumnIndex(WeatherContract.FUNCTION_COUNT)));
+        assertEquals(75.0 + lastDay,
+                cursor.getDouble(cursor.getColumnIndex(highestColumn)),
+                0.000001);
+        assertEquals(65.0 - lastDay,
+                cursor.getDouble(cursor.getColumnIndex(lowestColumn)),
+                0.000001);
+        assertEquals(75.0 + lastDay / 2.0,
+                cursor.getDouble(cursor.getColumnIndex(averageHighColumn)),
+                0.000001);
+        cursor.close();
+
+        /* The day before the first stored day */
+        long emptyDate = firstDate - SunshineDateUtils.DAY_IN_MILLIS;
+        cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherAggregateUri(emptyDate, emptyDate,
+                        WeatherContract.FUNCTION_AVG),
+                new String[]{averageHighColumn, WeatherContract.FUNCTION_COUNT},
+                null,
+                null,
+                null);
+
+        assertNotNull("Cursor was null.", cursor);
+        assertTrue(cursor.moveToFirst());
+        assertTrue("The average of no days should be null", cursor.isNull(0));
+        assertEquals(0, cursor.getInt(1));
+        cursor.close();
+    }
+
+    /**
+     * Tests that the weather of another location is stored next to the weather of the preferred
+     * location rather than replacing it, and that each can be read back on its own, so that
+     * switching back to a city never needs a sync.
+     */
+    @Test
+    public void testWeatherIsStoredPerLocation() {
+
+        testBulkInsert();
+
+        ContentResolver contentResolver = mContext.getContentResolver();
+
+        ContentValues[] otherWeather = createBulkInsertTestWeatherValues();
+        for (ContentValues dayValues : otherWeather) {
+            dayValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, 800);
+        }
+
+        Bundle extras = new Bundle();
+        extras.putParcelable(WeatherContract.EXTRA_FORECAST_BATCH,
+                ForecastBatch.fromContentValues(otherWeather));
+        extras.putDouble(WeatherContract.EXTRA_COORD_LAT, 48.85);
+        extras.putDouble(WeatherContract.EXTRA_COORD_LONG, 2.35);
+
+        contentResolver.call(WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_RECONCILE_FORECAST,
+                OTHER_LOCATION_SETTING,
+                extras);
+
+        /* The other location is now stored, as the most recently used one */
+        Cursor locationCursor = contentResolver.query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                null,
+                null,
+                null,
+                null);
+
+        assertNotNull("Cursor was null.", locationCursor);
+        assertEquals("Both locations should be stored", 2, locationCursor.getCount());
+        assertTrue(locationCursor.moveToFirst());
+        assertEquals(OTHER_LOCATION_SETTING, locationCursor.getString(
+                locationCursor.getColumnIndex(
+                        WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING)));
+        assertEquals("The coordinates should be stored with the location", 48.85,
+                locationCursor.getDouble(locationCursor.getColumnIndex(
+                        WeatherContract.LocationEntry.COLUMN_COORD_LAT)),
+                0.000001);
+        long otherLocationId = locationCursor.getLong(
+                locationCursor.getColumnIndex(WeatherContract.LocationEntry._ID));
+        locationCursor.close();
+
+        /* The preferred location still has its own weather */
+        assertWeather(WeatherContract.WeatherEntry.CONTENT_URI,
+                createBulkInsertTestWeatherValues());
+
+        /* And the other location's weather is one query away */
+        Uri otherWeatherUri = WeatherContract.WeatherEntry.buildLocationScopedUri(
+                WeatherContract.WeatherEntry.CONTENT_URI, otherLocationId);
+        for (ContentValues dayValues : otherWeather) {
+            dayValues.put(WeatherContract.WeatherEntry.COLUMN_LOCATION_ID, otherLocationId);
+        }
+        assertWeather(otherWeatherUri, otherWeather);
+
+        /* Deleting the other location's weather leaves the preferred location's alone */
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT,
+                contentResolver.delete(otherWeatherUri, null, null));
+        assertWeather(WeatherContract.WeatherEntry.CONTENT_URI,
+                createBulkInsertTestWeatherValues());
+    }
+
+    /**
+     * Tests that once more than {@link WeatherProvider#MAX_STORED_LOCATIONS} locations have been
+     * used, the least recently used one is forgotten along with its weather.
+     */
+    @Test
+    public void testLeastRecentlyUsedLocationIsForgotten() {
+
+        testBulkInsert();
+
+        ContentResolver contentResolver = mContext.getContentResolver();
+
+        Bundle extras = new Bundle();
+        extras.putParcelable(WeatherContract.EXTRA_FORECAST_BATCH,
+                ForecastBatch.fromContentValues(createBulkInsertTestWeatherValues()));
+
+        /* The preferred location was used first, so it is the one to go */
+        for (int i = 0; i < WeatherProvider.MAX_STORED_LOCATIONS; i++) {
+            contentResolver.call(WeatherContract.WeatherEntry.CONTENT_URI,
+                    WeatherContract.METHOD_RECONCILE_FORECAST,
+                    OTHER_LOCATION_SETTING + " " + i,
+                    extras);
+        }
+
+        Cursor locationCursor = contentResolver.query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                null,
+                null,
+                null,
+                null);
+
+        assertNotNull("Cursor was null.", locationCursor);
+        assertEquals(WeatherProvider.MAX_STORED_LOCATIONS, locationCursor.getCount());
+        int idIndex = locationCursor.getColumnIndex(WeatherContract.LocationEntry._ID);
+        while (locationCursor.moveToNext()) {
+            assertTrue("The preferred location should have been forgotten",
+                    locationCursor.getLong(idIndex) != TestUtilities.TEST_LOCATION_ID);
+        }
+        locationCursor.close();
+
+        Cursor weatherCursor = contentResolver.query(WeatherContract.WeatherEntry.CONTENT_URI,
+                null,
+                null,
+                null,
+                null);
+
+        assertNotNull("Cursor was null.", weatherCursor);
+        assertEquals("The forgotten location's weather should be gone",
+                0,
+                weatherCursor.getCount());
+        weatherCursor.close();
+    }
+
+    /**
+     * Tests that the forecasts of several locations passed to
+     * {@link WeatherContract#METHOD_RECONCILE_FORECASTS} are each stored for their own location,
+     * and that this background refresh doesn't make them more recently used than the location
+     * the user is looking at.
+     */
+    @Test
+    public void testReconcileForecastsOfSeveralLocations() {
+
+        testBulkInsert();
+
+        ContentResolver contentResolver = mContext.getContentResolver();
+
+        String[] locationSettings = {OTHER_LOCATION_SETTING + " 0", OTHER_LOCATION_SETTING + " 1"};
+        ForecastBatch forecast = ForecastBatch.fromContentValues(
+                createBulkInsertTestWeatherValues());
+
+        Bundle extras = new Bundle();
+        extras.putStringArray(WeatherContract.EXTRA_LOCATION_SETTINGS, locationSettings);
+        extras.putParcelableArray(WeatherContract.EXTRA_FORECAST_BATCHES,
+                new ForecastBatch[]{forecast, forecast});
+        extras.putDoubleArray(WeatherContract.EXTRA_COORDINATES,
+                new double[]{48.85, 2.35, Double.NaN, Double.NaN});
+
+        Bundle result = contentResolver.call(WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_RECONCILE_FORECASTS,
+                null,
+                extras);
+
+        assertNotNull("call should have returned a result", result);
+        assertEquals("Every day of both locations should have been written",
+                2 * BULK_INSERT_RECORDS_TO_INSERT,
+                result.getInt(WeatherContract.EXTRA_ROWS_WRITTEN));
+
+        Cursor locationCursor = contentResolver.query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                null,
+                null,
+                null,
+                null);
+
+        assertNotNull("Cursor was null.", locationCursor);
+        assertEquals(3, locationCursor.getCount());
+        assertTrue(locationCursor.moveToFirst());
+        assertEquals("The preferred location should still be the most recently used",
+                TestUtilities.TEST_LOCATION_ID,
+                locationCursor.getLong(
+                        locationCursor.getColumnIndex(WeatherContract.LocationEntry._ID)));
+        locationCursor.close();
+
+        for (String locationSetting : locationSettings) {
+            locationCursor = contentResolver.query(
+                    WeatherContract.LocationEntry.CONTENT_URI,
+                    new String[]{WeatherContract.LocationEntry._ID},
+                    WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                    new String[]{locationSetting},
+                    null);
+
+            assertNotNull("Cursor was null.", locationCursor);
+            assertTrue(locationSetting + " should be stored", locationCursor.moveToFirst());
+            long locationId = locationCursor.getLong(0);
+            locationCursor.close();
+
+            ContentValues[] expectedWeather = createBulkInsertTestWeatherValues();
+            for (ContentValues dayValues : expectedWeather) {
+                dayValues.put(WeatherContract.WeatherEntry.COLUMN_LOCATION_ID, locationId);
+            }
+            assertWeather(WeatherContract.WeatherEntry.buildLocationScopedUri(
+                    WeatherContract.WeatherEntry.CONTENT_URI, locationId), expectedWeather);
+        }
+    }
+
+    /**
+     * Queries every day stored at a weather URI, in date order, and checks them against the
+     * expected values.
+     */
+    private void assertWeather(Uri weatherUri, ContentValues[] expectedValues) {
+        Cursor cursor = mContext.getContentResolver().query(weatherUri,
+                null,
+                null,
+                null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+
+        assertNotNull("Cursor was null.", cursor);
+        assertEquals(expectedValues.length, cursor.getCount());
+
+        cursor.moveToFirst();
+        for (int i = 0; i < expectedValues.length; i++, cursor.moveToNext()) {
+            TestUtilities.validateCurrentRecord("Error validating " + weatherUri + " day " + i,
+                    cursor,
+                    expectedValues[i]);
+        }
+        cursor.close();
+    }
+
+    /**
+     * Tests that the days a sync drops from the forecast, once they have passed, are kept in the
+     * archive. Every test date is long gone, so both dropped days must be archived.
+     */
+    @Test
+    public void testPassedDaysAreArchived() {
+
+        testBulkInsert();
+
+        ContentValues[] storedValues = createBulkInsertTestWeatherValues();
+        ContentValues[] newForecast = new ContentValues[BULK_INSERT_RECORDS_TO_INSERT - 2];
+        System.arraycopy(storedValues, 2, newForecast, 0, newForecast.length);
+
+        ContentResolver contentResolver = mContext.getContentResolver();
+        contentResolver.bulkInsert(WeatherContract.WeatherEntry.CONTENT_RECONCILE_URI,
+                newForecast);
+
+        Cursor cursor = contentResolver.query(
+                WeatherContract.ArchiveEntry.CONTENT_URI,
+                null,
+                null,
+                null,
+                null);
+
+        assertNotNull("Cursor was null.", cursor);
+        assertEquals("Both dropped days should have been archived", 2, cursor.getCount());
+
+        cursor.moveToFirst();
+        for (int i = 0; i < 2; i++, cursor.moveToNext()) {
+            ContentValues expectedValues = new ContentValues(storedValues[i]);
+            expectedValues.remove(WeatherContract.WeatherEntry.COLUMN_DEGREES);
+            expectedValues.put(WeatherContract.ArchiveEntry.COLUMN_PERIOD,
+                    WeatherContract.PERIOD_DAY);
+            expectedValues.put(WeatherContract.ArchiveEntry.COLUMN_DAY_COUNT, 1);
+            TestUtilities.validateCurrentRecord(
+                    "testPassedDaysAreArchived. Error validating archived day " + i,
+                    cursor,
+                    expectedValues);
+        }
+        cursor.close();
+
+        /* The days still in the forecast stay where they are, even though they have passed too */
+        assertWeather(WeatherContract.WeatherEntry.CONTENT_URI, newForecast);
+    }
+
+    /**
+     * Tests that compacting the archive rolls old days up into weeks and months without losing
+     * what they summarize: the number of days, the extremes, and the averages all stay the same.
+     * A second compaction has nothing left to do.
+     */
+    @Test
+    public void testArchiveIsCompacted() {
+
+        int archivedDays = 120;
+        long today = SunshineDateUtils.getNormalizedUtcDateForToday();
+
+        WeatherDbHelper helper = new WeatherDbHelper(mContext);
+        SQLiteDatabase database = helper.getWritableDatabase();
+        for (int i = 0; i < archivedDays; i++) {
+            ContentValues dayValues = new ContentValues();
+            dayValues.put(WeatherContract.ArchiveEntry.COLUMN_LOCATION_ID,
+                    TestUtilities.TEST_LOCATION_ID);
+            dayValues.put(WeatherContract.ArchiveEntry.COLUMN_DATE,
+                    today - (archivedDays - i) * SunshineDateUtils.DAY_IN_MILLIS);
+            dayValues.put(WeatherContract.ArchiveEntry.COLUMN_PERIOD, WeatherContract.PERIOD_DAY);
+            dayValues.put(WeatherContract.ArchiveEntry.COLUMN_DAY_COUNT, 1);
+            dayValues.put(WeatherContract.ArchiveEntry.COLUMN_WEATHER_ID, 800);
+            dayValues.put(WeatherContract.ArchiveEntry.COLUMN_MIN_TEMP, i);
+            dayValues.put(WeatherContract.ArchiveEntry.COLUMN_MAX_TEMP, i + 10);
+            dayValues.put(WeatherContract.ArchiveEntry.COLUMN_HUMIDITY, 10 * (i % 7));
+            dayValues.put(WeatherContract.ArchiveEntry.COLUMN_PRESSURE, 1000 + i % 3);
+            dayValues.put(WeatherContract.ArchiveEntry.COLUMN_WIND_SPEED, i % 5);
+            database.insert(WeatherContract.ArchiveEntry.TABLE_NAME, null, dayValues);
+        }
+        database.close();
+
+        double[] summaryBefore = querySummaryOfArchive();
+
+        Bundle extras = new Bundle();
+        extras.putInt(WeatherContract.EXTRA_DAILY_RETENTION_DAYS, 14);
+        extras.putInt(WeatherContract.EXTRA_WEEKLY_RETENTION_DAYS, 60);
+        extras.putInt(WeatherContract.EXTRA_MONTHLY_RETENTION_DAYS, 3650);
+
+        ContentResolver contentResolver = mContext.getContentResolver();
+        Bundle result = contentResolver.call(WeatherContract.ArchiveEntry.CONTENT_URI,
+                WeatherContract.METHOD_COMPACT_ARCHIVE,
+                null,
+                extras);
+
+        assertNotNull("call should have returned a result", result);
+        assertTrue("Compaction should have removed rows",
+                result.getInt(WeatherContract.EXTRA_ROWS_REMOVED) > 0);
+
+        double[] summaryAfter = querySummaryOfArchive();
+        for (int i = 0; i < summaryBefore.length; i++) {
+            assertEquals("Compaction changed what the archive summarizes",
+                    summaryBefore[i],
+                    summaryAfter[i],
+                    1e-6);
+        }
+
+        long weekCutoff = WeatherArchive.startOfWeek(today - 14 * SunshineDateUtils.DAY_IN_MILLIS);
+        Cursor cursor = contentResolver.query(WeatherContract.ArchiveEntry.CONTENT_URI,
+                new String[]{WeatherContract.ArchiveEntry.COLUMN_PERIOD,
+                        WeatherContract.ArchiveEntry.COLUMN_DATE},
+                null,
+                null,
+                null);
+
+        assertNotNull("Cursor was null.", cursor);
+        Set<String> periods = new HashSet<>();
+        while (cursor.moveToNext()) {
+            periods.add(cursor.getString(0));
+            if (WeatherContract.PERIOD_DAY.equals(cursor.getString(0))) {
+                assertTrue("No day before " + weekCutoff + " should be left",
+                        cursor.getLong(1) >= weekCutoff);
+            }
+        }
+        cursor.close();
+        assertEquals("Days, weeks and months should all be archived", 3, periods.size());
+
+        result = contentResolver.call(WeatherContract.ArchiveEntry.CONTENT_URI,
+                WeatherContract.METHOD_COMPACT_ARCHIVE,
+                null,
+                extras);
+        assertNotNull("call should have returned a result", result);
+        assertEquals("A second compaction should have nothing to do",
+                0,
+                result.getInt(WeatherContract.EXTRA_ROWS_REMOVED));
+    }
+
+    /**
+     * Tests that storing an hourly forecast replaces the one stored before, that a range of it
+     * can be queried as rows, stored in tenths, and that
+     * {@link WeatherContract#METHOD_READ_HOURLY_FORECAST} reads the same range back by column,
+     * in the units it was written in.
+     */
+    @Test
+    public void testHourlyForecastIsReplacedAndReadByColumn() {
+
+        ContentResolver contentResolver = mContext.getContentResolver();
+        replaceHourlyForecast(TestUtilities.createTestHourlyForecast(40));
+        HourlyForecast forecast = TestUtilities.createTestHourlyForecast(8);
+        Bundle result = replaceHourlyForecast(forecast);
+
+        assertEquals("Every step should have been written",
+                8,
+                result.getInt(WeatherContract.EXTRA_ROWS_WRITTEN));
+
+        long from = forecast.getTime(2);
+        long to = forecast.getTime(5);
+        Cursor cursor = contentResolver.query(
+                WeatherContract.HourlyEntry.buildHourlyRangeUri(from, to),
+                null,
+                null,
+                null,
+                null);
+
+        assertNotNull("Cursor was null.", cursor);
+        assertEquals("The range should hold four steps of the new forecast",
+                4,
+                cursor.getCount());
+        int timeIndex = cursor.getColumnIndex(WeatherContract.HourlyEntry.COLUMN_TIME);
+        int tempIndex = cursor.getColumnIndex(WeatherContract.HourlyEntry.COLUMN_TEMP_TENTHS);
+        for (int i = 2; cursor.moveToNext(); i++) {
+            assertEquals(forecast.getTime(i), cursor.getLong(timeIndex));
+            assertEquals(Math.round(forecast.getTemp(i) * 10), cursor.getLong(tempIndex));
+        }
+        cursor.close();
+
+        Bundle extras = new Bundle();
+        extras.putLong(WeatherContract.EXTRA_FROM, from);
+        extras.putLong(WeatherContract.EXTRA_TO, to);
+        result = contentResolver.call(WeatherContract.HourlyEntry.CONTENT_URI,
+                WeatherContract.METHOD_READ_HOURLY_FORECAST,
+                null,
+                extras);
+
+        assertNotNull("call should have returned a result", result);
+        result.setClassLoader(HourlyForecast.class.getClassLoader());
+        HourlyForecast readForecast = result.getParcelable(WeatherContract.EXTRA_HOURLY_FORECAST);
+        assertNotNull("The hourly forecast should have been returned", readForecast);
+        assertEquals(4, readForecast.size());
+        for (int i = 0; i < readForecast.size(); i++) {
+            assertEquals(forecast.getTime(i + 2), readForecast.getTime(i));
+            assertEquals(forecast.getWeatherId(i + 2), readForecast.getWeatherId(i));
+            assertEquals(forecast.getTemp(i + 2), readForecast.getTemp(i), 0.05f);
+            assertEquals(forecast.getHumidity(i + 2), readForecast.getHumidity(i), 0.5f);
+            assertEquals(forecast.getPressure(i + 2), readForecast.getPressure(i), 0.05f);
+            assertEquals(forecast.getWindSpeed(i + 2), readForecast.getWindSpeed(i), 0.05f);
+            assertEquals(forecast.getDegrees(i + 2), readForecast.getDegrees(i), 0.5f);
+        }
+    }
+
+    private Bundle callFreshness() {
+        Bundle result = mContext.getContentResolver().call(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_FRESHNESS,
+                null,
+                null);
+        assertNotNull("call should have returned a result", result);
+        return result;
+    }
+
+    private Bundle replaceHourlyForecast(HourlyForecast forecast) {
+        Bundle extras = new Bundle();
+        extras.putParcelable(WeatherContract.EXTRA_HOURLY_FORECAST, forecast);
+
+        Bundle result = mContext.getContentResolver().call(
+                WeatherContract.HourlyEntry.CONTENT_URI,
+                WeatherContract.METHOD_REPLACE_HOURLY_FORECAST,
+                null,
+                extras);
+        assertNotNull("call should have returned a result", result);
+        return result;
+    }
+
+    /**
+     * @return The number of days the archive of the preferred location covers, its lowest low,
+     * its highest high, and its average humidity, pressure and wind speed
+     */
+    private double[] querySummaryOfArchive() {
+        String dayCount = WeatherContract.ArchiveEntry.COLUMN_DAY_COUNT;
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.ArchiveEntry.CONTENT_URI,
+                new String[]{
+                        "SUM(" + dayCount + ")",
+                        "MIN(" + WeatherContract.ArchiveEntry.COLUMN_MIN_TEMP + ")",
+                        "MAX(" + WeatherContract.ArchiveEntry.COLUMN_MAX_TEMP + ")",
+                        "SUM(" + WeatherContract.ArchiveEntry.COLUMN_HUMIDITY + " * " + dayCount
+                                + ") / SUM(" + dayCount + ")",
+                        "SUM(" + WeatherContract.ArchiveEntry.COLUMN_PRESSURE + " * " + dayCount
+                                + ") / SUM(" + dayCount + ")",
+                        "SUM(" + WeatherContract.ArchiveEntry.COLUMN_WIND_SPEED + " * " + dayCount
+                                + ") / SUM(" + dayCount + ")"},
+                null,
+                null,
+                null);
+
+        assertNotNull("Cursor was null.", cursor);
+        assertTrue(cursor.moveToFirst());
+        double[] summary = new double[cursor.getColumnCount()];
+        for (int i = 0; i < summary.length; i++) {
+            summary[i] = cursor.getDouble(i);
+        }
+        cursor.close();
+        return summary;
+    }
+
+    /**
+     * This method will clear all rows from the weather table in our database. It also forgets
+     * every location but the one in the preferences, which is stored under
+     * {@link TestUtilities#TEST_LOCATION_ID}.
      * <p>
      * Please note:
      * <p>
@@ -442,8 +1607,36 @@ public class TestWeatherProvider {
 
         /* The delete method deletes all of the desired rows from the table, not the table itself */
         database.delete(WeatherContract.WeatherEntry.TABLE_NAME, null, null);
+        database.delete(WeatherContract.LocationEntry.TABLE_NAME, null, null);
+        database.delete(WeatherContract.ArchiveEntry.TABLE_NAME, null, null);
+        database.delete(WeatherContract.HourlyEntry.TABLE_NAME, null, null);
+        TestUtilities.insertPreferredLocation(mContext, database);
 
         /* Always close the database when you're through with it */
         database.close();
+
+        invalidateForecastCache();
+    }
+
+    /**
+     * WeatherProvider keeps the stored forecast in memory between its own writes. Tests that
+     * write to the database directly call this afterwards, so that the next query reads the
+     * table again.
+     */
+    private void invalidateForecastCache() {
+        getWeatherProvider().getForecastCache().invalidate();
+    }
+
+    /**
+     * The provider runs in our process, so we can reach the instance behind the ContentResolver.
+     */
+    private WeatherProvider getWeatherProvider() {
+        ContentProviderClient client = mContext.getContentResolver()
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+        assertNotNull("WeatherProvider isn't registered", client);
+
+        WeatherProvider weatherProvider = (WeatherProvider) client.getLocalContentProvider();
+        client.release();
+        return weatherProvider;
     }
 }
\ No newline at end of file
@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Random;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Compares the two layouts the weather table has had for the queries Sunshine actually runs:
+ * MainActivity's range query for today onwards ({@link
+ * WeatherContract.WeatherEntry#getSqlSelectForTodayOnwards()}), and the point lookups by date
+ * behind CODE_WEATHER_WITH_DATE. Version 3 of the table is keyed by an AUTOINCREMENT _ID with a
+ * unique index on the date; version 4 is keyed by the date itself.
+ * <p>
+ * Both tables live side by side in an in-memory database, so that only their layout differs.
+ * The average time per query is written to logcat under the tag "TestWeatherReadBenchmark".
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestWeatherReadBenchmark {
+
+    private static final String TAG = TestWeatherReadBenchmark.class.getSimpleName();
+
+    /* The layout of version 3, under a name that doesn't clash with the current table */
+    private static final String TABLE_V3 = "weather_v3";
+
+    private static final String SQL_CREATE_WEATHER_TABLE_V3 = "CREATE TABLE " + TABLE_V3 + " ("
+            + "_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+            + "date INTEGER NOT NULL, "
+            + "weather_id INTEGER NOT NULL,"
+            + "min REAL NOT NULL, "
+            + "max REAL NOT NULL, "
+            + "humidity REAL NOT NULL, "
+            + "pressure REAL NOT NULL, "
+            + "wind REAL NOT NULL, "
+            + "degrees REAL NOT NULL, "
+            + " UNIQUE (date) ON CONFLICT REPLACE);";
+
+    /* The columns MainActivity asks for */
+    private static final String[] FORECAST_PROJECTION = {
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+    };
+
+    private static final int RANGE_QUERIES = 50;
+    private static final int POINT_LOOKUPS = 1000;
+
+    private SQLiteDatabase mDatabase;
+
+    @Before
+    public void setUp() {
+        mDatabase = SQLiteDatabase.create(null);
+        mDatabase.execSQL(SQL_CREATE_WEATHER_TABLE_V3);
+        mDatabase.execSQL(WeatherDbHelper.createWeatherTableV4Sql());
+    }
+
+    @After
+    public void tearDown() {
+        mDatabase.close();
+    }
+
+    @Test
+    public void benchmarkOneYearOfWeather() {
+        compareLayouts(365);
+    }
+
+    @Test
+    public void benchmarkTenThousandRows() {
+        compareLayouts(10000);
+    }
+
+    private void compareLayouts(int rowCount) {
+        /* Half of the rows lie in the past, so the range query has something to skip */
+        long firstDate = SunshineDateUtils.getNormalizedUtcDateForToday()
+                - (rowCount / 2) * SunshineDateUtils.DAY_IN_MILLIS;
+
+        fillTable(TABLE_V3, firstDate, rowCount);
+        fillTable(WeatherContract.WeatherEntry.TABLE_NAME, firstDate, rowCount);
+
+        /* Warm up the page cache for both tables */
+        queryTodayOnwards(TABLE_V3);
+        queryTodayOnwards(WeatherContract.WeatherEntry.TABLE_NAME);
+
+        long rangeV3Nanos = timeRangeQueries(TABLE_V3);
+        long rangeV4Nanos = timeRangeQueries(WeatherContract.WeatherEntry.TABLE_NAME);
+
+        long pointV3Nanos = timePointLookups(TABLE_V3, firstDate, rowCount);
+        long pointV4Nanos = timePointLookups(WeatherContract.WeatherEntry.TABLE_NAME,
+                firstDate, rowCount);
+
+        Log.i(TAG, rowCount + " rows: today onwards "
+                + micros(rangeV3Nanos, RANGE_QUERIES) + "us (v3) vs "
+                + micros(rangeV4Nanos, RANGE_QUERIES) + "us (v4) per query, point lookup "
+                + micros(pointV3Nanos, POINT_LOOKUPS) + "us (v3) vs "
+                + micros(pointV4Nanos, POINT_LOOKUPS) + "us (v4) per query");
+    }
+
+    private void fillTable(String tableName, long firstDate, int rowCount) {
+        SQLiteStatement insert = mDatabase.compileStatement("INSERT INTO " + tableName
+                + " (date, weather_id, min, max, humidity, pressure, wind, degrees)"
+                + " VALUES (?, 321, 65, 75, 1.2, 1.3, 5.5, 1.1)");
+
+        mDatabase.beginTransaction();
+        try {
+            for (int i = 0; i < rowCount; i++) {
+                insert.bindLong(1, firstDate + i * SunshineDateUtils.DAY_IN_MILLIS);
+                insert.executeInsert();
+            }
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+            insert.close();
+        }
+    }
+
+    private long timeRangeQueries(String tableName) {
+        long start = System.nanoTime();
+        for (int i = 0; i < RANGE_QUERIES; i++) {
+            queryTodayOnwards(tableName);
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Runs MainActivity's query and reads every row of it, as the list would.
+     */
+    private void queryTodayOnwards(String tableName) {
+        Cursor cursor = mDatabase.query(tableName,
+                FORECAST_PROJECTION,
+                WeatherContract.WeatherEntry.getSqlSelectForTodayOnwards(),
+                null,
+                null,
+                null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+
+        assertTrue("The range query returned no rows", cursor.getCount() > 0);
+        while (cursor.moveToNext()) {
+            cursor.getLong(0);
+            cursor.getDouble(1);
+            cursor.getDouble(2);
+            cursor.getInt(3);
+        }
+        cursor.close();
+    }
+
+    private long timePointLookups(String tableName, long firstDate, int rowCount) {
+        /* The same seed for both tables, so that they look up the same dates */
+        Random random = new Random(rowCount);
+        String selection = WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
+
+        long start = System.nanoTime();
+        for (int i = 0; i < POINT_LOOKUPS; i++) {
+            long date = firstDate + random.nextInt(rowCount) * SunshineDateUtils.DAY_IN_MILLIS;
+            Cursor cursor = mDatabase.query(tableName,
+                    null,
+                    selection,
+                    new String[]{Long.toString(date)},
+                    null,
+                    null,
+                    null);
+            assertEquals("Expected a single row for the date", 1, cursor.getCount());
+            cursor.close();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static long micros(long nanos, int count) {
+        return nanos / count / 1000;
+    }
+}
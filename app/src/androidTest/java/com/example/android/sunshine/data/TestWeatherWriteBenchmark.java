@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static junit.framework.Assert.assertEquals;
+
+/**
+ * Compares how quickly the weather table can be filled by inserting one ContentValues per row
+ * with SQLiteDatabase#insert (what WeatherProvider used to do) and by binding a ForecastBatch to
+ * the compiled statements of {@link WeatherStatements}. Both write inside a single transaction.
+ * <p>
+ * The rows per second of each approach are written to logcat under the tag
+ * "TestWeatherWriteBenchmark", for a two week forecast, a year of data and 10,000 rows. The test
+ * only fails if either approach writes the wrong number of rows; timings on a device vary too
+ * much to assert on.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestWeatherWriteBenchmark {
+
+    private static final String TAG = TestWeatherWriteBenchmark.class.getSimpleName();
+
+    /* Each measurement is repeated and the best run is reported, to smooth out GC pauses */
+    private static final int RUNS_PER_MEASUREMENT = 3;
+
+    private WeatherDbHelper mDbHelper;
+    private SQLiteDatabase mDatabase;
+
+    @Before
+    public void setUp() {
+        mDbHelper = new WeatherDbHelper(InstrumentationRegistry.getTargetContext());
+        mDatabase = mDbHelper.getWritableDatabase();
+        clearWeatherTable();
+    }
+
+    @After
+    public void tearDown() {
+        clearWeatherTable();
+        mDbHelper.close();
+    }
+
+    @Test
+    public void benchmarkTwoWeekForecast() {
+        compareInsertEngines(14);
+    }
+
+    @Test
+    public void benchmarkOneYearOfWeather() {
+        compareInsertEngines(365);
+    }
+
+    @Test
+    public void benchmarkTenThousandRows() {
+        compareInsertEngines(10000);
+    }
+
+    private void compareInsertEngines(int rowCount) {
+        ForecastBatch forecast =
+                TestUtilities.createTestForecast(TestUtilities.DATE_NORMALIZED, rowCount, 0);
+        ContentValues[] weatherValues = forecast.toContentValuesArray();
+        for (ContentValues value : weatherValues) {
+            value.put(WeatherContract.WeatherEntry.COLUMN_LOCATION_ID,
+                    TestUtilities.TEST_LOCATION_ID);
+        }
+
+        /* Warm up both code paths so that the first measurement isn't penalized */
+        insertWithContentValues(weatherValues);
+        insertWithCompiledStatements(forecast);
+
+        long contentValuesNanos = Long.MAX_VALUE;
+        long compiledStatementNanos = Long.MAX_VALUE;
+
+        for (int run = 0; run < RUNS_PER_MEASUREMENT; run++) {
+            clearWeatherTable();
+            long start = System.nanoTime();
+            insertWithContentValues(weatherValues);
+            contentValuesNanos = Math.min(contentValuesNanos, System.nanoTime() - start);
+            assertRowCount(rowCount);
+
+            clearWeatherTable();
+            start = System.nanoTime();
+            insertWithCompiledStatements(forecast);
+            compiledStatementNanos = Math.min(compiledStatementNanos, System.nanoTime() - start);
+            assertRowCount(rowCount);
+        }
+
+        Log.i(TAG, rowCount + " rows: ContentValues + insert "
+                + rowsPerSecond(rowCount, contentValuesNanos) + " rows/s, compiled statement "
+                + rowsPerSecond(rowCount, compiledStatementNanos) + " rows/s");
+    }
+
+    /**
+     * The way WeatherProvider#bulkInsert used to write rows.
+     */
+    private void insertWithContentValues(ContentValues[] weatherValues) {
+        mDatabase.beginTransaction();
+        try {
+            for (ContentValues value : weatherValues) {
+                long weatherDate = value.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+                if (!SunshineDateUtils.isDateNormalized(weatherDate)) {
+                    throw new IllegalArgumentException("Date must be normalized to insert");
+                }
+                mDatabase.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
+            }
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+        }
+    }
+
+    /**
+     * The way WeatherProvider#bulkInsert writes rows now.
+     */
+    private void insertWithCompiledStatements(ForecastBatch forecast) {
+        WeatherStatements.checkDatesNormalized(forecast);
+
+        mDatabase.beginTransaction();
+        WeatherStatements statements =
+                new WeatherStatements(mDatabase, TestUtilities.TEST_LOCATION_ID);
+        try {
+            for (int day = 0; day < forecast.size(); day++) {
+                statements.insert(forecast, day);
+            }
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            statements.close();
+            mDatabase.endTransaction();
+        }
+    }
+
+    private static long rowsPerSecond(int rowCount, long nanos) {
+        return rowCount * 1000000000L / Math.max(nanos, 1);
+    }
+
+    private void assertRowCount(int expectedRowCount) {
+        assertEquals("Unexpected number of rows in the weather table",
+                expectedRowCount,
+                DatabaseUtils.queryNumEntries(mDatabase, WeatherContract.WeatherEntry.TABLE_NAME));
+    }
+
+    private void clearWeatherTable() {
+        mDatabase.delete(WeatherContract.WeatherEntry.TABLE_NAME, null, null);
+    }
+}
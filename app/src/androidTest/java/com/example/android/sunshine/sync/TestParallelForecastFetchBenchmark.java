@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Compares fetching the forecasts of several locations one after the other, as a sync would
+ * without {@link ParallelForecastFetcher}, with fetching them side by side. Both fetch from a
+ * stand-in weather server on this device that answers after a fixed delay, so the numbers show
+ * the effect of waiting on the network rather than the speed of the real server.
+ * <p>
+ * The latency of each location and the wall-clock time of both ways are written to logcat under
+ * the tag "TestParallelForecastFetchBenchmark".
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestParallelForecastFetchBenchmark {
+
+    private static final String TAG = TestParallelForecastFetchBenchmark.class.getSimpleName();
+
+    /* How long the stand-in server waits before it answers, like a server far away would */
+    private static final long RESPONSE_DELAY_MILLIS = 200;
+
+    /* Requests for this path are answered too late to make the deadline */
+    private static final String PATH_SLOW = "/slow";
+
+    private static final int FORECAST_DAYS = 14;
+
+    private static final long DEADLINE_MILLIS = 10 * 1000;
+
+    private StandInWeatherServer mServer;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new StandInWeatherServer();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mServer.shutdown();
+    }
+
+    @Test
+    public void benchmarkFourLocations() throws IOException {
+        compareFetches(4);
+    }
+
+    @Test
+    public void benchmarkTwelveLocations() throws IOException {
+        compareFetches(12);
+    }
+
+    /**
+     * Tests that a location whose response doesn't arrive before the deadline is given up on,
+     * without costing the other locations their forecasts.
+     */
+    @Test
+    public void testSlowLocationIsAbandonedAtDeadline() throws IOException {
+        Map<String, URL> requests = createRequests(3);
+        requests.put("Slow", mServer.getUrl(PATH_SLOW, "Slow"));
+
+        long deadlineMillis = 4 * RESPONSE_DELAY_MILLIS;
+        long startNanos = System.nanoTime();
+        List<ParallelForecastFetcher.Result> results =
+                ParallelForecastFetcher.fetchAll(requests, deadlineMillis);
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+
+        assertEquals(requests.size(), results.size());
+        for (int i = 0; i < 3; i++) {
+            assertTrue(results.get(i).toString(), results.get(i).isSuccessful());
+            assertEquals(FORECAST_DAYS, results.get(i).getForecast().size());
+        }
+        assertFalse("The slow location should have timed out", results.get(3).isSuccessful());
+        assertTrue("Fetching took " + elapsedMillis + "ms, well past the deadline",
+                elapsedMillis < deadlineMillis + RESPONSE_DELAY_MILLIS);
+    }
+
+    private void compareFetches(int locationCount) throws IOException {
+        Map<String, URL> requests = createRequests(locationCount);
+
+        /* Warm up the fetch threads and the connection pool */
+        ParallelForecastFetcher.fetchAll(requests, DEADLINE_MILLIS);
+
+        /* The sequential baseline: each request waits for the one before it */
+        long startNanos = System.nanoTime();
+        for (Map.Entry<String, URL> request : requests.entrySet()) {
+            List<ParallelForecastFetcher.Result> results = ParallelForecastFetcher.fetchAll(
+                    Collections.singletonMap(request.getKey(), request.getValue()),
+                    DEADLINE_MILLIS);
+            assertTrue(results.get(0).toString(), results.get(0).isSuccessful());
+        }
+        long sequentialNanos = System.nanoTime() - startNanos;
+
+        startNanos = System.nanoTime();
+        List<ParallelForecastFetcher.Result> results =
+                ParallelForecastFetcher.fetchAll(requests, DEADLINE_MILLIS);
+        long parallelNanos = System.nanoTime() - startNanos;
+
+        for (ParallelForecastFetcher.Result result : results) {
+            assertTrue(result.toString(), result.isSuccessful());
+            assertEquals(FORECAST_DAYS, result.getForecast().size());
+            Log.i(TAG, "  " + result);
+        }
+
+        Log.i(TAG, locationCount + " locations: sequential "
+                + TimeUnit.NANOSECONDS.toMillis(sequentialNanos) + "ms vs parallel "
+                + TimeUnit.NANOSECONDS.toMillis(parallelNanos) + "ms wall-clock");
+
+        assertTrue("Fetching side by side should be faster than one after the other",
+                parallelNanos < sequentialNanos);
+    }
+
+    private Map<String, URL> createRequests(int locationCount) throws IOException {
+        Map<String, URL> requests = new LinkedHashMap<>();
+        for (int i = 0; i < locationCount; i++) {
+            String locationSetting = "City " + i;
+            requests.put(locationSetting, mServer.getUrl("/forecast", locationSetting));
+        }
+        return requests;
+    }
+
+    /**
+     * A forecast in the format of the weather server, with the same weather every day.
+     */
+    private static String createForecastJson() {
+        StringBuilder json = new StringBuilder()
+                .append("{\"city\":{\"name\":\"City\",\"coord\":{\"lat\":37.4,\"lon\":-122.1}},")
+                .append("\"cod\":200,\"cnt\":").append(FORECAST_DAYS).append(",\"list\":[");
+        for (int i = 0; i < FORECAST_DAYS; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"temp\":{\"min\":").append(10 + i).append(",\"max\":").append(20 + i)
+                    .append("},\"pressure\":1013.5,\"humidity\":60,")
+                    .append("\"weather\":[{\"id\":800,\"main\":\"Clear\"}],")
+                    .append("\"speed\":4.1,\"deg\":270}");
+        }
+        return json.append("]}").toString();
+    }
+
+    /**
+     * A minimal HTTP server on the loopback interface. Every request gets the same forecast,
+     * after {@link #RESPONSE_DELAY_MILLIS}, or after twenty times as long for {@link #PATH_SLOW}.
+     */
+    private static final class StandInWeatherServer {
+
+        private final ServerSocket mServerSocket = new ServerSocket(0);
+        private final ExecutorService mConnectionExecutor = Executors.newCachedThreadPool();
+        private final byte[] mResponseBody = createForecastJson().getBytes("UTF-8");
+
+        StandInWeatherServer() throws IOException {
+            mConnectionExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    acceptConnections();
+                }
+            });
+        }
+
+        URL getUrl(String path, String locationSetting) throws IOException {
+            return new URL("http://127.0.0.1:" + mServerSocket.getLocalPort() + path + "?q="
+                    + locationSetting.replace(' ', '+'));
+        }
+
+        void shutdown() throws IOException {
+            mServerSocket.close();
+            mConnectionExecutor.shutdownNow();
+        }
+
+        private void acceptConnections() {
+            while (!mServerSocket.isClosed()) {
+                try {
+                    final Socket socket = mServerSocket.accept();
+                    mConnectionExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            answer(socket);
+                        }
+                    });
+                } catch (IOException e) {
+                    /* The server socket was closed by shutdown */
+                    return;
+                }
+            }
+        }
+
+        private void answer(Socket socket) {
+            try {
+                BufferedReader reader = new BufferedReader(
+                        new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+                String requestLine = reader.readLine();
+                String header;
+                do {
+                    header = reader.readLine();
+                } while (header != null && !header.isEmpty());
+
+                boolean slow = requestLine != null && requestLine.contains(" " + PATH_SLOW);
+                Thread.sleep(slow ? 20 * RESPONSE_DELAY_MILLIS : RESPONSE_DELAY_MILLIS);
+
+                OutputStream out = socket.getOutputStream();
+                out.write(("HTTP/1.1 200 OK\r\n"
+                        + "Content-Type: application/json\r\n"
+                        + "Content-Length: " + mResponseBody.length + "\r\n"
+                        + "Connection: close\r\n\r\n").getBytes("US-ASCII"));
+                out.write(mResponseBody);
+                out.flush();
+            } catch (IOException | InterruptedException e) {
+                /* The client gave up on us, or the server is shutting down */
+            } finally {
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+}
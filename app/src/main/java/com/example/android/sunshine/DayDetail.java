@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine;
+
+import android.database.Cursor;
+
+/**
+ * Everything DetailActivity shows about one day, read out of a Cursor over
+ * {@link DetailActivity#WEATHER_DETAIL_PROJECTION}. Unlike a {@link ForecastRow}, nothing is
+ * formatted yet: the values are kept as they are stored, so that a DayDetail stays correct when
+ * the user changes their units. A DayDetail never changes once it has been read.
+ */
+final class DayDetail {
+
+    /* The normalized UTC date of the day */
+    final long date;
+
+    /* The weather condition ID provided by Open Weather Map */
+    final int weatherId;
+
+    /* The high and low temperatures, in degrees celsius */
+    final double maxTemp;
+    final double minTemp;
+
+    final float humidity;
+    final float pressure;
+
+    /* The wind speed, and its direction in compass degrees */
+    final float windSpeed;
+    final float degrees;
+
+    /**
+     * @param cursor A cursor over {@link DetailActivity#WEATHER_DETAIL_PROJECTION}, at the day to
+     *               read
+     */
+    DayDetail(Cursor cursor) {
+        date = cursor.getLong(DetailActivity.INDEX_WEATHER_DATE);
+        weatherId = cursor.getInt(DetailActivity.INDEX_WEATHER_CONDITION_ID);
+        maxTemp = cursor.getDouble(DetailActivity.INDEX_WEATHER_MAX_TEMP);
+        minTemp = cursor.getDouble(DetailActivity.INDEX_WEATHER_MIN_TEMP);
+        humidity = cursor.getFloat(DetailActivity.INDEX_WEATHER_HUMIDITY);
+        pressure = cursor.getFloat(DetailActivity.INDEX_WEATHER_PRESSURE);
+        windSpeed = cursor.getFloat(DetailActivity.INDEX_WEATHER_WIND_SPEED);
+        degrees = cursor.getFloat(DetailActivity.INDEX_WEATHER_DEGREES);
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.net.Uri;
+
+import com.example.android.sunshine.data.SunshinePreferences;
+import com.example.android.sunshine.data.WeatherContract;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The details of the days of the forecast list, kept in memory for the whole app, so that
+ * DetailActivity can show a day on its very first frame instead of waiting for a CursorLoader.
+ * <p>
+ * {@link ForecastRowsLoader} fills the cache every time it loads the list, as it reads the details
+ * of every day of the forecast anyway.
+ * <p>
+ * The cache holds the days of the preferred location only, and forgets all of them as soon as
+ * WeatherProvider tells us the stored weather changed. A day is never shown out of date; at
+ * worst, it isn't found and has to be queried.
+ */
+final class DayDetailCache {
+
+    /* Far more days than a forecast holds */
+    private static final int MAX_DAYS = 64;
+
+    /* Returned by getDate for a URI that isn't for a single day */
+    private static final long NO_DATE = Long.MIN_VALUE;
+
+    private static DayDetailCache sInstance;
+
+    private final Context mContext;
+
+    /* The days in the cache, replaced as a whole and never modified, so reading needs no lock */
+    private volatile Window mWindow = Window.EMPTY;
+
+    /*
+     * Counts the times the cache was cleared. Days read before the stored weather changed must
+     * not be cached after it, so whoever reads days notes the generation first, and the days
+     * are only cached if it is still the same. Guarded by this.
+     */
+    private long mGeneration;
+
+    /*
+     * WeatherProvider notifies the rows URI after every write to the weather table, and a delete
+     * of the whole table reaches it too. The observer has no Handler, so it runs on whichever
+     * thread the notification arrives on, which is all clearing the cache needs.
+     */
+    private final ContentObserver mObserver = new ContentObserver(null) {
+        @Override
+        public void onChange(boolean selfChange) {
+            invalidate();
+        }
+    };
+
+    private DayDetailCache(Context context) {
+        mContext = context;
+        context.getContentResolver().registerContentObserver(
+                WeatherContract.WeatherEntry.CONTENT_ROWS_URI, false, mObserver);
+    }
+
+    /**
+     * @param context Any Context; the cache keeps the application's
+     * @return The cache shared by the whole app
+     */
+    static synchronized DayDetailCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new DayDetailCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * @return The generation to pass to {@link #putForecast} with days read after this call
+     */
+    synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Replaces the cached days with the forecast the list has just loaded, unless the stored
+     * weather changed since it was read.
+     *
+     * @param generation      What {@link #getGeneration()} returned before the days were read
+     * @param locationSetting The location the days are for
+     * @param days            The days, sorted by date
+     */
+    void putForecast(long generation, String locationSetting, List<DayDetail> days) {
+        if (days.size() > MAX_DAYS) {
+            return;
+        }
+
+        synchronized (this) {
+            if (generation == mGeneration) {
+                mWindow = new Window(locationSetting, days);
+            }
+        }
+    }
+
+    /**
+     * Looks a day up. This only reads memory, so it can be called on the main thread.
+     *
+     * @param uri The URI DetailActivity was opened with
+     * @return The day, or null if it isn't cached, or if the URI isn't for a single day of the
+     * preferred location
+     */
+    DayDetail get(Uri uri) {
+        long date = getDate(uri);
+        if (date == NO_DATE) {
+            return null;
+        }
+
+        Window window = mWindow;
+        if (!window.isFor(SunshinePreferences.getPreferredWeatherLocation(mContext))) {
+            return null;
+        }
+        return window.get(date);
+    }
+
+    /**
+     * Forgets every cached day. Days that are being read while this is called aren't cached
+     * either.
+     */
+    synchronized void invalidate() {
+        mGeneration++;
+        mWindow = Window.EMPTY;
+    }
+
+    /**
+     * @return The normalized date of a URI built by
+     * {@link WeatherContract.WeatherEntry#buildWeatherUriWithDate}, or NO_DATE for any other URI,
+     * such as one for a stored location other than the preferred one
+     */
+    private static long getDate(Uri uri) {
+        List<String> segments = uri.getPathSegments();
+        if (uri.getQuery() != null
+                || segments.size() != 2
+                || !WeatherContract.PATH_WEATHER.equals(segments.get(0))) {
+            return NO_DATE;
+        }
+
+        try {
+            return SunshineDateUtils.normalizeDate(Long.parseLong(segments.get(1)));
+        } catch (NumberFormatException e) {
+            return NO_DATE;
+        }
+    }
+
+    /**
+     * The days of one location, sorted by date, so that a day is found with a binary search.
+     */
+    private static final class Window {
+
+        static final Window EMPTY = new Window(null, Collections.<DayDetail>emptyList());
+
+        private final String mLocationSetting;
+        private final long[] mDates;
+        private final DayDetail[] mDays;
+
+        Window(String locationSetting, List<DayDetail> days) {
+            mLocationSetting = locationSetting;
+            mDays = days.toArray(new DayDetail[days.size()]);
+            mDates = new long[mDays.length];
+            for (int i = 0; i < mDays.length; i++) {
+                mDates[i] = mDays[i].date;
+            }
+        }
+
+        boolean isFor(String locationSetting) {
+            return mLocationSetting != null && mLocationSetting.equals(locationSetting);
+        }
+
+        DayDetail get(long date) {
+            int index = Arrays.binarySearch(mDates, date);
+            return index >= 0 ? mDays[index] : null;
+        }
+    }
+}
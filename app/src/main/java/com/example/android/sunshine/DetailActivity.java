@@ -16,10 +16,12 @@
 package com.example.android.sunshine;
 
 import android.content.Intent;
+import android.database.ContentObserver;
 import android.database.Cursor;
 import android.databinding.DataBindingUtil;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
 import android.support.v4.app.LoaderManager;
 import android.support.v4.app.ShareCompat;
 import android.support.v4.content.CursorLoader;
@@ -97,6 +99,21 @@ public class DetailActivity extends AppCompatActivity implements
      */
     private ActivityDetailBinding mDetailBinding;
 
+    /*
+     * When the day is shown from the DayDetailCache, no loader is started, so nothing would tell
+     * us if a sync changed the day while it is on screen. This observer does, and then hands the
+     * day over to the loader, which keeps it up to date from there on.
+     */
+    private final ContentObserver mDayObserver = new ContentObserver(new Handler()) {
+        @Override
+        public void onChange(boolean selfChange) {
+            stopObservingDay();
+            getSupportLoaderManager().initLoader(ID_DETAIL_LOADER, null, DetailActivity.this);
+        }
+    };
+
+    private boolean mObservingDay;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -107,8 +124,34 @@ public class DetailActivity extends AppCompatActivity implements
         mUri = getIntent().getData();
         if (mUri == null) throw new NullPointerException("URI for DetailActivity cannot be null");
 
-        /* This connects our Activity into the loader lifecycle. */
-        getSupportLoaderManager().initLoader(ID_DETAIL_LOADER, null, this);
+        /*
+         * If the main list has loaded, the day is almost certainly in the DayDetailCache, and we
+         * can show it right away, rather than showing an empty screen until a query returns. If
+         * a loader is already running for the day, such as after the device was rotated, it is
+         * the one that is up to date.
+         */
+        DayDetail day = DayDetailCache.getInstance(this).get(mUri);
+        if (day != null && getSupportLoaderManager().getLoader(ID_DETAIL_LOADER) == null) {
+            bindDay(day);
+            getContentResolver().registerContentObserver(mUri, false, mDayObserver);
+            mObservingDay = true;
+        } else {
+            /* This connects our Activity into the loader lifecycle. */
+            getSupportLoaderManager().initLoader(ID_DETAIL_LOADER, null, this);
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        stopObservingDay();
+    }
+
+    private void stopObservingDay() {
+        if (mObservingDay) {
+            getContentResolver().unregisterContentObserver(mDayObserver);
+            mObservingDay = false;
+        }
     }
 
     /**
@@ -239,11 +282,23 @@ public class DetailActivity extends AppCompatActivity implements
             return;
         }
 
+        bindDay(new DayDetail(data));
+    }
+
+    /**
+     * Binds the details of a day to our views, so the user can see the details of the weather on
+     * the date they selected from the forecast. The day comes either from our loader or from the
+     * DayDetailCache.
+     *
+     * @param day The day to show
+     */
+    private void bindDay(DayDetail day) {
+
         /****************
          * Weather Icon *
          ****************/
-        /* Read weather condition ID from the cursor (ID provided by Open Weather Map) */
-        int weatherId = data.getInt(INDEX_WEATHER_CONDITION_ID);
+        /* Read weather condition ID (ID provided by Open Weather Map) */
+        int weatherId = day.weatherId;
         /* Use our utility method to determine the resource ID for the proper art */
         int weatherImageId = SunshineWeatherUtils.getLargeArtResourceIdForWeatherCondition(weatherId);
 
@@ -254,15 +309,15 @@ public class DetailActivity extends AppCompatActivity implements
          * Weather Date *
          ****************/
         /*
-         * Read the date from the cursor. It is important to note that the date from the cursor
-         * is the same date from the weather SQL table. The date that is stored is a GMT
+         * Read the date of the day. It is important to note that this date is the same date
+         * from the weather SQL table. The date that is stored is a GMT
          * representation at midnight of the date when the weather information was loaded for.
          *
          * When displaying this date, one must add the GMT offset (in milliseconds) to acquire
          * the date representation for the local date in local time.
          * SunshineDateUtils#getFriendlyDateString takes care of this for us.
          */
-        long localDateMidnightGmt = data.getLong(INDEX_WEATHER_DATE);
+        long localDateMidnightGmt = day.date;
         String dateText = SunshineDateUtils.getFriendlyDateString(this, localDateMidnightGmt, true);
 
         mDetailBinding.primaryInfo.date.setText(dateText);
@@ -286,8 +341,8 @@ public class DetailActivity extends AppCompatActivity implements
         /**************************
          * High (max) temperature *
          **************************/
-        /* Read high temperature from the cursor (in degrees celsius) */
-        double highInCelsius = data.getDouble(INDEX_WEATHER_MAX_TEMP);
+        /* Read high temperature (in degrees celsius) */
+        double highInCelsius = day.maxTemp;
         /*
          * If the user's preference for weather is fahrenheit, formatTemperature will convert
          * the temperature. This method will also append either °C or °F to the temperature
@@ -305,8 +360,8 @@ public class DetailActivity extends AppCompatActivity implements
         /*************************
          * Low (min) temperature *
          *************************/
-        /* Read low temperature from the cursor (in degrees celsius) */
-        double lowInCelsius = data.getDouble(INDEX_WEATHER_MIN_TEMP);
+        /* Read low temperature (in degrees celsius) */
+        double lowInCelsius = day.minTemp;
         /*
          * If the user's preference for weather is fahrenheit, formatTemperature will convert
          * the temperature. This method will also append either °C or °F to the temperature
@@ -323,8 +378,8 @@ public class DetailActivity extends AppCompatActivity implements
         /************
          * Humidity *
          ************/
-        /* Read humidity from the cursor */
-        float humidity = data.getFloat(INDEX_WEATHER_HUMIDITY);
+        /* Read humidity */
+        float humidity = day.humidity;
         String humidityString = getString(R.string.format_humidity, humidity);
 
         String humidityA11y = getString(R.string.a11y_humidity, humidityString);
@@ -338,9 +393,9 @@ public class DetailActivity extends AppCompatActivity implements
         /****************************
          * Wind speed and direction *
          ****************************/
-        /* Read wind speed (in MPH) and direction (in compass degrees) from the cursor  */
-        float windSpeed = data.getFloat(INDEX_WEATHER_WIND_SPEED);
-        float windDirection = data.getFloat(INDEX_WEATHER_DEGREES);
+        /* Read wind speed (in MPH) and direction (in compass degrees) */
+        float windSpeed = day.windSpeed;
+        float windDirection = day.degrees;
         String windString = SunshineWeatherUtils.getFormattedWind(this, windSpeed, windDirection);
 
         String windA11y = getString(R.string.a11y_wind, windString);
@@ -354,8 +409,8 @@ public class DetailActivity extends AppCompatActivity implements
         /************
          * Pressure *
          ************/
-        /* Read pressure from the cursor */
-        float pressure = data.getFloat(INDEX_WEATHER_PRESSURE);
+        /* Read pressure */
+        float pressure = day.pressure;
 
         /*
          * Format the pressure text using string resources. The reason we directly access
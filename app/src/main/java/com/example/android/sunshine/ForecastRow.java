@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine;
+
+import android.content.Context;
+
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+import com.example.android.sunshine.utilities.SunshineWeatherUtils;
+
+import java.util.Arrays;
+
+/**
+ * One day of the forecast list, formatted and ready to be shown. {@link ForecastRowsLoader}
+ * builds these on a background thread, so that when the RecyclerView binds a row while the user
+ * scrolls, {@link ForecastAdapter} only has to hand these Strings and resource IDs to its views.
+ * A ForecastRow never changes once it has been built; when the weather, the units or the day
+ * change, new rows are built instead.
+ */
+final class ForecastRow {
+
+    /* The normalized UTC date of the day, which is what DetailActivity is opened with */
+    final long date;
+
+    /* The art for the weather, large for the "today" layout and small for the other days */
+    final int largeArtResourceId;
+    final int smallArtResourceId;
+
+    /* The texts of the row, and their content descriptions (for accessibility purposes) */
+    final String dateText;
+    final String description;
+    final String descriptionA11y;
+    final String highText;
+    final String highA11y;
+    final String lowText;
+    final String lowA11y;
+
+    /*
+     * A hash of everything the row shows, so that telling whether a day changed in a sync
+     * usually takes a single comparison, see ForecastRows
+     */
+    final int contentHash;
+
+    /**
+     * Formats a day. ForecastRowsLoader also keeps the day for DetailActivity, see
+     * {@link DayDetailCache}. This reads preferences and resources, so it shouldn't be called on
+     * the main thread.
+     *
+     * @param context Used for the user's units and for the app's strings
+     * @param day     The day to format
+     */
+    ForecastRow(Context context, DayDetail day) {
+        date = day.date;
+        int weatherId = day.weatherId;
+
+        largeArtResourceId = SunshineWeatherUtils
+                .getLargeArtResourceIdForWeatherCondition(weatherId);
+        smallArtResourceId = SunshineWeatherUtils
+                .getSmallArtResourceIdForWeatherCondition(weatherId);
+
+        /* Get human readable string using our utility method */
+        dateText = SunshineDateUtils.getFriendlyDateString(context, date, false);
+
+        description = SunshineWeatherUtils.getStringForWeatherCondition(context, weatherId);
+        descriptionA11y = context.getString(R.string.a11y_forecast, description);
+
+        /*
+         * If the user's preference for weather is fahrenheit, formatTemperature will convert
+         * the temperature. This method will also append either °C or °F to the temperature
+         * String.
+         */
+        highText = SunshineWeatherUtils.formatTemperature(context, day.maxTemp);
+        highA11y = context.getString(R.string.a11y_high_temp, highText);
+
+        lowText = SunshineWeatherUtils.formatTemperature(context, day.minTemp);
+        lowA11y = context.getString(R.string.a11y_low_temp, lowText);
+
+        contentHash = hashContent(largeArtResourceId, smallArtResourceId, dateText,
+                descriptionA11y, highA11y, lowA11y);
+    }
+
+    /**
+     * Rebuilds a row that was formatted before, such as one read back from a
+     * {@link ForecastSnapshot}.
+     */
+    ForecastRow(long date, int largeArtResourceId, int smallArtResourceId, String dateText,
+                String description, String descriptionA11y, String highText, String highA11y,
+                String lowText, String lowA11y) {
+        this.date = date;
+        this.largeArtResourceId = largeArtResourceId;
+        this.smallArtResourceId = smallArtResourceId;
+        this.dateText = dateText;
+        this.description = description;
+        this.descriptionA11y = descriptionA11y;
+        this.highText = highText;
+        this.highA11y = highA11y;
+        this.lowText = lowText;
+        this.lowA11y = lowA11y;
+        contentHash = hashContent(largeArtResourceId, smallArtResourceId, dateText,
+                descriptionA11y, highA11y, lowA11y);
+    }
+
+    /* The content descriptions include the description and the temperatures */
+    private static int hashContent(int largeArtResourceId, int smallArtResourceId,
+                                   String dateText, String descriptionA11y, String highA11y,
+                                   String lowA11y) {
+        return Arrays.hashCode(new Object[]{
+                largeArtResourceId,
+                smallArtResourceId,
+                dateText,
+                descriptionA11y,
+                highA11y,
+                lowA11y});
+    }
+
+    /**
+     * @param other The row of the same day in another load
+     * @return Whether the two rows would show exactly the same thing
+     */
+    boolean hasSameContent(ForecastRow other) {
+        return contentHash == other.contentHash
+                && largeArtResourceId == other.largeArtResourceId
+                && smallArtResourceId == other.smallArtResourceId
+                && dateText.equals(other.dateText)
+                && description.equals(other.description)
+                && descriptionA11y.equals(other.descriptionA11y)
+                && highText.equals(other.highText)
+                && highA11y.equals(other.highA11y)
+                && lowText.equals(other.lowText)
+                && lowA11y.equals(other.lowA11y);
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine;
+
+import android.support.v7.util.DiffUtil;
+
+import java.util.List;
+
+/**
+ * What {@link ForecastRowsLoader} delivers: the rows of the forecast list, and how they differ
+ * from the rows it delivered before. The difference is worked out on the loader's background
+ * thread, so that after a sync {@link ForecastAdapter} only rebinds the days that changed,
+ * instead of every row on screen, and without diffing anything on the main thread.
+ */
+final class ForecastRows {
+
+    /* The rows of the list, which can't be modified */
+    final List<ForecastRow> rows;
+
+    /* The rows the diff was worked out from, or null if this is the first load */
+    final List<ForecastRow> previousRows;
+
+    /* How to turn previousRows into rows, or null if this is the first load */
+    final DiffUtil.DiffResult diff;
+
+    private ForecastRows(List<ForecastRow> rows, List<ForecastRow> previousRows,
+                         DiffUtil.DiffResult diff) {
+        this.rows = rows;
+        this.previousRows = previousRows;
+        this.diff = diff;
+    }
+
+    /**
+     * Works out how the list changed. This compares every row, so it shouldn't be called on the
+     * main thread.
+     *
+     * @param previousRows The rows that are shown now, or null if there are none
+     * @param rows         The rows that should be shown
+     * @return The rows, with the difference from previousRows
+     */
+    static ForecastRows diff(List<ForecastRow> previousRows, List<ForecastRow> rows) {
+        if (previousRows == null) {
+            return new ForecastRows(rows, null, null);
+        }
+
+        /* The rows are sorted by date and never change places, so there are no moves to find */
+        DiffUtil.DiffResult diff = DiffUtil.calculateDiff(
+                new RowsDiffCallback(previousRows, rows), false);
+        return new ForecastRows(rows, previousRows, diff);
+    }
+
+    /**
+     * Tells DiffUtil that two rows are the same day if they have the same date, and that the day
+     * is unchanged if every text and icon of the row is.
+     */
+    private static final class RowsDiffCallback extends DiffUtil.Callback {
+
+        private final List<ForecastRow> mOldRows;
+        private final List<ForecastRow> mNewRows;
+
+        RowsDiffCallback(List<ForecastRow> oldRows, List<ForecastRow> newRows) {
+            mOldRows = oldRows;
+            mNewRows = newRows;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOldRows.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNewRows.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldRows.get(oldItemPosition).date == mNewRows.get(newItemPosition).date;
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            /*
+             * The first row may have a layout of its own, see ForecastAdapter#getItemViewType.
+             * A day that moves into or out of the first row has to be bound again, even if it
+             * hasn't changed.
+             */
+            if ((oldItemPosition == 0) != (newItemPosition == 0)) {
+                return false;
+            }
+            return mOldRows.get(oldItemPosition).hasSameContent(mNewRows.get(newItemPosition));
+        }
+    }
+}
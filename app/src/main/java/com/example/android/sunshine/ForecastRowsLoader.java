@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.preference.PreferenceManager;
+import android.support.v4.content.AsyncTaskLoader;
+
+import com.example.android.sunshine.data.SunshinePreferences;
+import com.example.android.sunshine.data.WeatherContract;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Loads the forecast list from today onwards, like a CursorLoader would, but also formats every
+ * day into a {@link ForecastRow} while it is still on the background thread, and then closes the
+ * Cursor. ForecastAdapter then never touches a Cursor, a preference or a resource while the user
+ * scrolls.
+ * <p>
+ * The rows depend on three things, and are built again only when one of them changes:
+ * <ul>
+ * <li>the stored forecast, which WeatherProvider notifies us of on
+ * {@link WeatherContract.WeatherEntry#CONTENT_ROWS_URI}</li>
+ * <li>the user's units, which the temperatures are formatted in</li>
+ * <li>the day, as the list starts today and the first days are called "Today" and "Tomorrow"</li>
+ * </ul>
+ * A change that happens while the Activity is stopped is picked up when it is started again,
+ * just as a CursorLoader does. Each load is also compared with the rows delivered before it, see
+ * {@link ForecastRows}.
+ */
+class ForecastRowsLoader extends AsyncTaskLoader<ForecastRows> {
+
+    /* Sort order: Ascending by date */
+    private static final String SORT_ORDER = WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
+
+    /* Reloads when WeatherProvider writes the forecast */
+    private final ForceLoadContentObserver mObserver = new ForceLoadContentObserver();
+
+    private final String mUnitsKey;
+
+    /*
+     * SharedPreferences only keeps a weak reference to its listeners, so we keep a strong one
+     * here for as long as the loader observes.
+     */
+    private final SharedPreferences.OnSharedPreferenceChangeListener mUnitsListener =
+            new SharedPreferences.OnSharedPreferenceChangeListener() {
+                @Override
+                public void onSharedPreferenceChanged(SharedPreferences preferences,
+                                                      String key) {
+                    if (mUnitsKey.equals(key)) {
+                        onContentChanged();
+                    }
+                }
+            };
+
+    /* Reloads when midnight passes, or when the user changes the time or the time zone */
+    private final BroadcastReceiver mDayChangeReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (mRowsDay != SunshineDateUtils.getNormalizedUtcDateForToday()) {
+                onContentChanged();
+            }
+        }
+    };
+
+    private boolean mObserving;
+
+    /* The rows last delivered, which the next load is compared with */
+    private volatile ForecastRows mRows;
+
+    /* The day mRows were formatted on, as a normalized UTC date */
+    private volatile long mRowsDay;
+
+    /* The rows shown before the first load, from a ForecastSnapshot, or null */
+    private final List<ForecastRow> mSnapshotRows;
+
+    /**
+     * @param context      Used to query the forecast and to format it
+     * @param snapshotRows The rows of a {@link ForecastSnapshot} that are shown until the first
+     *                     load finishes, or null. The first load is compared with them, so only
+     *                     the days that changed since the snapshot are bound again.
+     */
+    ForecastRowsLoader(Context context, List<ForecastRow> snapshotRows) {
+        super(context);
+        mUnitsKey = context.getString(R.string.pref_units_key);
+        mSnapshotRows = snapshotRows;
+    }
+
+    /**
+     * Queries the forecast from today onwards, formats every day of it, and compares the rows
+     * with the ones delivered before. This runs on a background thread. The rows are also saved
+     * as the {@link ForecastSnapshot} the list starts from next time.
+     *
+     * @return The rows of the list, and how they changed
+     */
+    @Override
+    public ForecastRows loadInBackground() {
+        ForecastRows previous = mRows;
+        List<ForecastRow> previousRows = previous == null ? mSnapshotRows : previous.rows;
+
+        long day = SunshineDateUtils.getNormalizedUtcDateForToday();
+        List<ForecastRow> rows = loadRows(getContext());
+        mRowsDay = day;
+
+        ForecastSnapshot.write(getContext(), day, rows);
+        return ForecastRows.diff(previousRows, rows);
+    }
+
+    /**
+     * Queries and formats the forecast from today onwards. Every detail of each day is read, not
+     * only what the list shows, and put in the {@link DayDetailCache}, so that opening a day in
+     * DetailActivity doesn't have to query it again. This shouldn't be called on the main thread.
+     *
+     * @param context Used to query the forecast and to format it
+     * @return The formatted rows, which can't be modified
+     */
+    static List<ForecastRow> loadRows(Context context) {
+        DayDetailCache dayDetailCache = DayDetailCache.getInstance(context);
+        long generation = dayDetailCache.getGeneration();
+        String locationSetting = SunshinePreferences.getPreferredWeatherLocation(context);
+
+        /*
+         * The selection is built on every load, rather than once, so that after midnight the
+         * list starts from the new day.
+         */
+        Cursor cursor = context.getContentResolver().query(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                DetailActivity.WEATHER_DETAIL_PROJECTION,
+                WeatherContract.WeatherEntry.getSqlSelectForTodayOnwards(),
+                null,
+                SORT_ORDER);
+        if (cursor == null) {
+            return Collections.emptyList();
+        }
+
+        List<DayDetail> days = new ArrayList<>(cursor.getCount());
+        try {
+            while (cursor.moveToNext()) {
+                days.add(new DayDetail(cursor));
+            }
+        } finally {
+            cursor.close();
+        }
+        dayDetailCache.putForecast(generation, locationSetting, days);
+
+        List<ForecastRow> rows = new ArrayList<>(days.size());
+        for (DayDetail day : days) {
+            rows.add(new ForecastRow(context, day));
+        }
+        return Collections.unmodifiableList(rows);
+    }
+
+    @Override
+    public void deliverResult(ForecastRows rows) {
+        if (isReset()) {
+            return;
+        }
+
+        mRows = rows;
+        if (isStarted()) {
+            super.deliverResult(rows);
+        }
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (!mObserving) {
+            startObserving();
+        }
+
+        if (mRows != null) {
+            deliverResult(mRows);
+        }
+
+        boolean dayChanged = mRowsDay != SunshineDateUtils.getNormalizedUtcDateForToday();
+        if (takeContentChanged() || mRows == null || dayChanged) {
+            forceLoad();
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        onStopLoading();
+
+        if (mObserving) {
+            stopObserving();
+        }
+        mRows = null;
+    }
+
+    /**
+     * Starts listening for the changes the rows depend on. We keep listening while the Activity
+     * is stopped, so that a change made meanwhile, such as the units in SettingsActivity, is
+     * known about when the Activity comes back.
+     */
+    private void startObserving() {
+        Context context = getContext();
+
+        /*
+         * WeatherProvider notifies the rows URI once after every write to the weather table, and
+         * a notification of the whole table reaches it too. The URIs of single days it also
+         * notifies are siblings of the rows URI rather than its descendants, so a write notifies
+         * us once in total, not once per day it changed. Nothing is stored below the rows URI,
+         * so there are no descendants to be notified of.
+         */
+        context.getContentResolver().registerContentObserver(
+                WeatherContract.WeatherEntry.CONTENT_ROWS_URI, false, mObserver);
+
+        PreferenceManager.getDefaultSharedPreferences(context)
+                .registerOnSharedPreferenceChangeListener(mUnitsListener);
+
+        IntentFilter dayChangeFilter = new IntentFilter(Intent.ACTION_DATE_CHANGED);
+        dayChangeFilter.addAction(Intent.ACTION_TIME_CHANGED);
+        dayChangeFilter.addAction(Intent.ACTION_TIMEZONE_CHANGED);
+        context.registerReceiver(mDayChangeReceiver, dayChangeFilter);
+
+        mObserving = true;
+    }
+
+    private void stopObserving() {
+        Context context = getContext();
+        context.getContentResolver().unregisterContentObserver(mObserver);
+        PreferenceManager.getDefaultSharedPreferences(context)
+                .unregisterOnSharedPreferenceChangeListener(mUnitsListener);
+        context.unregisterReceiver(mDayChangeReceiver);
+        mObserving = false;
+    }
+}
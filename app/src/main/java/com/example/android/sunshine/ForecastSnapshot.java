@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.example.android.sunshine.data.SunshinePreferences;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The rows of the forecast list, formatted and saved to a small file, so that MainActivity can
+ * show the forecast on its very first frame, before its loader has started or the database has
+ * been opened. The snapshot is saved after every sync and every load of the list, and the loader
+ * replaces it with the live rows as soon as they are loaded.
+ * <p>
+ * The rows are saved as they are shown, with their dates as "Today" or "Tomorrow" and their
+ * temperatures in the user's units. So a snapshot is only used on the day it was saved, and only
+ * if the units, the location and the language are still the ones it was saved with.
+ */
+public final class ForecastSnapshot {
+
+    private static final String TAG = ForecastSnapshot.class.getSimpleName();
+
+    /* Kept with the app's cache, as the snapshot can always be built again from the database */
+    private static final String FILE_NAME = "forecast_rows.snapshot";
+
+    /* Changed whenever the format of the file changes, so that an old file is ignored */
+    private static final int VERSION = 1;
+
+    /* Far more days than a forecast has, to tell a damaged file from a snapshot */
+    private static final int MAX_ROWS = 1000;
+
+    /* Keeps a sync and the loader from writing the file at the same time */
+    private static final Object sWriteLock = new Object();
+
+    private ForecastSnapshot() {
+    }
+
+    /**
+     * Formats the stored forecast from today onwards and saves it as the snapshot. This is
+     * called after a sync, which may have run while Sunshine wasn't on screen. It queries the
+     * database, so it shouldn't be called on the main thread.
+     *
+     * @param context Used to query the forecast and to format it
+     */
+    public static void update(Context context) {
+        long day = SunshineDateUtils.getNormalizedUtcDateForToday();
+        write(context, day, ForecastRowsLoader.loadRows(context));
+    }
+
+    /**
+     * Saves rows as the snapshot. The file is written next to the old one and then renamed over
+     * it, so a snapshot that is read is never half written.
+     *
+     * @param context Used to find the file, and the settings the rows were formatted with
+     * @param day     The day the rows were formatted on, as a normalized UTC date
+     * @param rows    The formatted rows
+     */
+    static void write(Context context, long day, List<ForecastRow> rows) {
+        synchronized (sWriteLock) {
+            File file = getFile(context);
+            File newFile = new File(file.getPath() + ".new");
+
+            DataOutputStream out = null;
+            try {
+                out = new DataOutputStream(
+                        new BufferedOutputStream(new FileOutputStream(newFile)));
+                writeHeader(context, out, day);
+                out.writeInt(rows.size());
+                for (ForecastRow row : rows) {
+                    out.writeLong(row.date);
+                    out.writeInt(row.largeArtResourceId);
+                    out.writeInt(row.smallArtResourceId);
+                    out.writeUTF(row.dateText);
+                    out.writeUTF(row.description);
+                    out.writeUTF(row.descriptionA11y);
+                    out.writeUTF(row.highText);
+                    out.writeUTF(row.highA11y);
+                    out.writeUTF(row.lowText);
+                    out.writeUTF(row.lowA11y);
+                }
+                out.close();
+                out = null;
+
+                if (!newFile.renameTo(file)) {
+                    Log.w(TAG, "Couldn't replace " + file);
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Couldn't save the forecast snapshot", e);
+            } finally {
+                closeQuietly(out);
+                newFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Reads the snapshot back. The file is only a few kilobytes, so reading it on the main thread
+     * costs far less than waiting for the loader, which is the whole point of it.
+     *
+     * @param context Used to find the file, and the settings the rows must have been formatted
+     *                with
+     * @return The saved rows, which can't be modified, or null if there is no snapshot, or if it
+     * is from another day or was formatted with other settings
+     */
+    static List<ForecastRow> read(Context context) {
+        File file = getFile(context);
+        if (!file.exists()) {
+            return null;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (!readHeader(context, in, SunshineDateUtils.getNormalizedUtcDateForToday())) {
+                return null;
+            }
+
+            int rowCount = in.readInt();
+            if (rowCount < 0 || rowCount > MAX_ROWS) {
+                return null;
+            }
+
+            List<ForecastRow> rows = new ArrayList<>(rowCount);
+            for (int i = 0; i < rowCount; i++) {
+                rows.add(new ForecastRow(in.readLong(),
+                        in.readInt(),
+                        in.readInt(),
+                        in.readUTF(),
+                        in.readUTF(),
+                        in.readUTF(),
+                        in.readUTF(),
+                        in.readUTF(),
+                        in.readUTF(),
+                        in.readUTF()));
+            }
+            return Collections.unmodifiableList(rows);
+        } catch (IOException e) {
+            Log.w(TAG, "Couldn't read the forecast snapshot", e);
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Writes what the rows depend on, besides the forecast itself.
+     */
+    private static void writeHeader(Context context, DataOutputStream out, long day)
+            throws IOException {
+        out.writeInt(VERSION);
+        out.writeLong(day);
+        out.writeBoolean(SunshinePreferences.isMetric(context));
+        out.writeUTF(SunshinePreferences.getPreferredWeatherLocation(context));
+        out.writeUTF(Locale.getDefault().toString());
+    }
+
+    /**
+     * @return Whether the snapshot was saved today with the settings in use now
+     */
+    private static boolean readHeader(Context context, DataInputStream in, long today)
+            throws IOException {
+        return in.readInt() == VERSION
+                && in.readLong() == today
+                && in.readBoolean() == SunshinePreferences.isMetric(context)
+                && in.readUTF().equals(SunshinePreferences.getPreferredWeatherLocation(context))
+                && in.readUTF().equals(Locale.getDefault().toString());
+    }
+
+    private static File getFile(Context context) {
+        return new File(context.getCacheDir(), FILE_NAME);
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            /* Nothing more we can do about it */
+        }
+    }
+}
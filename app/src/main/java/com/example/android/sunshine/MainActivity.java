@@ -16,11 +16,9 @@
 package com.example.android.sunshine;
 
 import android.content.Intent;
-import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
 import android.support.v4.app.LoaderManager;
-import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.LinearLayoutManager;
@@ -36,34 +34,14 @@ import com.example.android.sunshine.data.SunshinePreferences;
 import com.example.android.sunshine.data.WeatherContract;
 import com.example.android.sunshine.sync.SunshineSyncUtils;
 
+import java.util.List;
+
 public class MainActivity extends AppCompatActivity implements
-        LoaderManager.LoaderCallbacks<Cursor>,
+        LoaderManager.LoaderCallbacks<ForecastRows>,
         ForecastAdapter.ForecastAdapterOnClickHandler {
 
     private final String TAG = MainActivity.class.getSimpleName();
 
-    /*
-     * The columns of data that we are interested in displaying within our MainActivity's list of
-     * weather data.
-     */
-    public static final String[] MAIN_FORECAST_PROJECTION = {
-            WeatherContract.WeatherEntry.COLUMN_DATE,
-            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-    };
-
-    /*
-     * We store the indices of the values in the array of Strings above to more quickly be able to
-     * access the data from our query. If the order of the Strings above changes, these indices
-     * must be adjusted to match the order of the Strings.
-     */
-    public static final int INDEX_WEATHER_DATE = 0;
-    public static final int INDEX_WEATHER_MAX_TEMP = 1;
-    public static final int INDEX_WEATHER_MIN_TEMP = 2;
-    public static final int INDEX_WEATHER_CONDITION_ID = 3;
-
-
     /*
      * This ID will be used to identify the Loader responsible for loading our weather forecast. In
      * some cases, one Activity can deal with many Loaders. However, in our case, there is only one.
@@ -79,6 +57,8 @@ public class MainActivity extends AppCompatActivity implements
 
     private ProgressBar mLoadingIndicator;
 
+    /* The rows of the ForecastSnapshot shown until the loader finishes, or null */
+    private List<ForecastRow> mSnapshotRows;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -145,6 +125,19 @@ public class MainActivity extends AppCompatActivity implements
 
         showLoading();
 
+        /*
+         * If the list was saved today, we show it right away, on the first frame, and let the
+         * loader bring it up to date. If the loader already exists, the Activity is being
+         * recreated, and the loader delivers its rows straight away instead.
+         */
+        if (getSupportLoaderManager().getLoader(ID_FORECAST_LOADER) == null) {
+            mSnapshotRows = ForecastSnapshot.read(this);
+            if (mSnapshotRows != null && !mSnapshotRows.isEmpty()) {
+                mForecastAdapter.swapRows(ForecastRows.diff(null, mSnapshotRows));
+                showWeatherDataView();
+            }
+        }
+
         /*
          * Ensures a loader is initialized and active. If the loader doesn't already exist, one is
          * created and (if the activity/fragment is currently started) starts the loader. Otherwise
@@ -192,29 +185,18 @@ public class MainActivity extends AppCompatActivity implements
      * @return A new Loader instance that is ready to start loading.
      */
     @Override
-    public Loader<Cursor> onCreateLoader(int loaderId, Bundle bundle) {
+    public Loader<ForecastRows> onCreateLoader(int loaderId, Bundle bundle) {
 
 
         switch (loaderId) {
 
             case ID_FORECAST_LOADER:
-                /* URI for all rows of weather data in our weather table */
-                Uri forecastQueryUri = WeatherContract.WeatherEntry.CONTENT_URI;
-                /* Sort order: Ascending by date */
-                String sortOrder = WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
                 /*
-                 * A SELECTION in SQL declares which rows you'd like to return. In our case, we
-                 * want all weather data from today onwards that is stored in our weather table.
-                 * We created a handy method to do that in our WeatherEntry class.
+                 * ForecastRowsLoader queries all weather data from today onwards, sorted by
+                 * date, and formats each day for the list while it is still in the background.
+                 * Its first rows are compared with the snapshot we are showing, if any.
                  */
-                String selection = WeatherContract.WeatherEntry.getSqlSelectForTodayOnwards();
-
-                return new CursorLoader(this,
-                        forecastQueryUri,
-                        MAIN_FORECAST_PROJECTION,
-                        selection,
-                        null,
-                        sortOrder);
+                return new ForecastRowsLoader(this, mSnapshotRows);
 
             default:
                 throw new RuntimeException("Loader Not Implemented: " + loaderId);
@@ -233,13 +215,18 @@ public class MainActivity extends AppCompatActivity implements
      * @param data   The data generated by the Loader.
      */
     @Override
-    public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
+    public void onLoadFinished(Loader<ForecastRows> loader, ForecastRows data) {
 
 
-        mForecastAdapter.swapCursor(data);
+        /*
+         * Only the first rows scroll the list into place. Later loads, such as after a sync,
+         * update the rows that changed where they are, and the user keeps their place.
+         */
+        boolean firstRows = mForecastAdapter.getItemCount() == 0;
+        mForecastAdapter.swapRows(data);
         if (mPosition == RecyclerView.NO_POSITION) mPosition = 0;
-        mRecyclerView.smoothScrollToPosition(mPosition);
-        if (data.getCount() != 0) showWeatherDataView();
+        if (firstRows) mRecyclerView.smoothScrollToPosition(mPosition);
+        if (data.rows.size() != 0) showWeatherDataView();
     }
 
     /**
@@ -249,12 +236,12 @@ public class MainActivity extends AppCompatActivity implements
      * @param loader The Loader that is being reset.
      */
     @Override
-    public void onLoaderReset(Loader<Cursor> loader) {
+    public void onLoaderReset(Loader<ForecastRows> loader) {
         /*
          * Since this Loader's data is now invalid, we need to clear the Adapter that is
          * displaying the data.
          */
-        mForecastAdapter.swapCursor(null);
+        mForecastAdapter.swapRows(null);
     }
 
     /**
@@ -98,7 +98,10 @@ public class SettingsFragment extends PreferenceFragmentCompat implements
             // we've changed the location
             // Wipe out any potential PlacePicker latlng values so that we can use this text entry.
             SunshinePreferences.resetLocationCoordinates(activity);
-            SunshineSyncUtils.startImmediateSync(activity);
+            SunshineSyncUtils.startUserInitiatedSync(activity);
+            // show whatever weather is already stored for the new location while the sync runs
+            activity.getContentResolver().notifyChange(
+                    WeatherContract.WeatherEntry.CONTENT_URI, null);
         } else if (key.equals(getString(R.string.pref_units_key))) {
             // units have changed. update lists of weather entries accordingly
             activity.getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
@@ -0,0 +1,292 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentValues;
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+
+import java.util.Arrays;
+
+/**
+ * A forecast held as one primitive array per column of the weather table, rather than as one
+ * ContentValues (a HashMap of boxed values) per day. The parser fills it, and our ContentProvider
+ * writes it to SQLite, without boxing and unboxing every value of every day along the way.
+ * <p>
+ * Days are stored in the order they were added; index i of every column belongs to the same day.
+ */
+public final class ForecastBatch implements Parcelable {
+
+    /* Enough for the 14 day forecast Sunshine requests without growing the arrays */
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private int mSize;
+
+    private long[] mDate;
+    private int[] mWeatherId;
+    private double[] mMinTemp;
+    private double[] mMaxTemp;
+    private double[] mHumidity;
+    private double[] mPressure;
+    private double[] mWindSpeed;
+    private double[] mDegrees;
+
+    public ForecastBatch() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity The number of days this batch can hold before its arrays need to grow
+     */
+    public ForecastBatch(int capacity) {
+        mDate = new long[capacity];
+        mWeatherId = new int[capacity];
+        mMinTemp = new double[capacity];
+        mMaxTemp = new double[capacity];
+        mHumidity = new double[capacity];
+        mPressure = new double[capacity];
+        mWindSpeed = new double[capacity];
+        mDegrees = new double[capacity];
+    }
+
+    /**
+     * Appends a day to the end of this batch.
+     *
+     * @param date      Normalized UTC date in milliseconds, see {@link WeatherEntry#COLUMN_DATE}
+     * @param weatherId Weather condition ID as returned by the API
+     * @param minTemp   Minimum temperature in °C
+     * @param maxTemp   Maximum temperature in °C
+     * @param humidity  Humidity as a percentage
+     * @param pressure  Pressure
+     * @param windSpeed Wind speed
+     * @param degrees   Wind direction in meteorological degrees
+     */
+    public void add(long date, int weatherId, double minTemp, double maxTemp, double humidity,
+                    double pressure, double windSpeed, double degrees) {
+        if (mSize == mDate.length) {
+            grow();
+        }
+
+        mDate[mSize] = date;
+        mWeatherId[mSize] = weatherId;
+        mMinTemp[mSize] = minTemp;
+        mMaxTemp[mSize] = maxTemp;
+        mHumidity[mSize] = humidity;
+        mPressure[mSize] = pressure;
+        mWindSpeed[mSize] = windSpeed;
+        mDegrees[mSize] = degrees;
+        mSize++;
+    }
+
+    private void grow() {
+        int capacity = Math.max(DEFAULT_CAPACITY, mDate.length * 2);
+
+        mDate = Arrays.copyOf(mDate, capacity);
+        mWeatherId = Arrays.copyOf(mWeatherId, capacity);
+        mMinTemp = Arrays.copyOf(mMinTemp, capacity);
+        mMaxTemp = Arrays.copyOf(mMaxTemp, capacity);
+        mHumidity = Arrays.copyOf(mHumidity, capacity);
+        mPressure = Arrays.copyOf(mPressure, capacity);
+        mWindSpeed = Arrays.copyOf(mWindSpeed, capacity);
+        mDegrees = Arrays.copyOf(mDegrees, capacity);
+    }
+
+    /**
+     * Copies a stretch of consecutive days into a batch of their own.
+     *
+     * @param from The index of the first day to copy
+     * @param to   The index after the last day to copy
+     * @return A new batch holding the days from {@code from} up to, but not including, {@code to}
+     */
+    public ForecastBatch copyOfRange(int from, int to) {
+        if (from < 0 || from > to || to > mSize) {
+            throw new IndexOutOfBoundsException("Days " + from + " to " + to + " of " + mSize);
+        }
+
+        ForecastBatch copy = new ForecastBatch(0);
+        copy.mSize = to - from;
+        copy.mDate = Arrays.copyOfRange(mDate, from, to);
+        copy.mWeatherId = Arrays.copyOfRange(mWeatherId, from, to);
+        copy.mMinTemp = Arrays.copyOfRange(mMinTemp, from, to);
+        copy.mMaxTemp = Arrays.copyOfRange(mMaxTemp, from, to);
+        copy.mHumidity = Arrays.copyOfRange(mHumidity, from, to);
+        copy.mPressure = Arrays.copyOfRange(mPressure, from, to);
+        copy.mWindSpeed = Arrays.copyOfRange(mWindSpeed, from, to);
+        copy.mDegrees = Arrays.copyOfRange(mDegrees, from, to);
+        return copy;
+    }
+
+    /**
+     * @return The number of days in this batch
+     */
+    public int size() {
+        return mSize;
+    }
+
+    public long getDate(int index) {
+        return mDate[index];
+    }
+
+    public int getWeatherId(int index) {
+        return mWeatherId[index];
+    }
+
+    public double getMinTemp(int index) {
+        return mMinTemp[index];
+    }
+
+    public double getMaxTemp(int index) {
+        return mMaxTemp[index];
+    }
+
+    public double getHumidity(int index) {
+        return mHumidity[index];
+    }
+
+    public double getPressure(int index) {
+        return mPressure[index];
+    }
+
+    public double getWindSpeed(int index) {
+        return mWindSpeed[index];
+    }
+
+    public double getDegrees(int index) {
+        return mDegrees[index];
+    }
+
+    /**
+     * Finds the day with the given date.
+     *
+     * @param date Normalized UTC date in milliseconds
+     * @return The index of that day, or -1 if this batch doesn't contain it
+     */
+    public int indexOfDate(long date) {
+        for (int i = 0; i < mSize; i++) {
+            if (mDate[i] == date) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Copies a single day into a new set of ContentValues, for callers that still need them.
+     *
+     * @param index The index of the day
+     * @return ContentValues that can be inserted into the weather table
+     */
+    public ContentValues toContentValues(int index) {
+        ContentValues weatherValues = new ContentValues();
+        weatherValues.put(WeatherEntry.COLUMN_DATE, mDate[index]);
+        weatherValues.put(WeatherEntry.COLUMN_WEATHER_ID, mWeatherId[index]);
+        weatherValues.put(WeatherEntry.COLUMN_MIN_TEMP, mMinTemp[index]);
+        weatherValues.put(WeatherEntry.COLUMN_MAX_TEMP, mMaxTemp[index]);
+        weatherValues.put(WeatherEntry.COLUMN_HUMIDITY, mHumidity[index]);
+        weatherValues.put(WeatherEntry.COLUMN_PRESSURE, mPressure[index]);
+        weatherValues.put(WeatherEntry.COLUMN_WIND_SPEED, mWindSpeed[index]);
+        weatherValues.put(WeatherEntry.COLUMN_DEGREES, mDegrees[index]);
+        return weatherValues;
+    }
+
+    /**
+     * @return One set of ContentValues per day in this batch
+     */
+    public ContentValues[] toContentValuesArray() {
+        ContentValues[] weatherContentValues = new ContentValues[mSize];
+        for (int i = 0; i < mSize; i++) {
+            weatherContentValues[i] = toContentValues(i);
+        }
+        return weatherContentValues;
+    }
+
+    /**
+     * Copies rows of the weather table given as ContentValues into a new batch.
+     *
+     * @param values One set of ContentValues per day, each containing every column of the
+     *               weather table
+     * @return A batch holding the same days, in the same order
+     * @throws IllegalArgumentException If any of the ContentValues is missing a column
+     */
+    public static ForecastBatch fromContentValues(ContentValues[] values) {
+        ForecastBatch batch = new ForecastBatch(values.length);
+
+        for (ContentValues value : values) {
+            Long date = value.getAsLong(WeatherEntry.COLUMN_DATE);
+            Integer weatherId = value.getAsInteger(WeatherEntry.COLUMN_WEATHER_ID);
+            Double minTemp = value.getAsDouble(WeatherEntry.COLUMN_MIN_TEMP);
+            Double maxTemp = value.getAsDouble(WeatherEntry.COLUMN_MAX_TEMP);
+            Double humidity = value.getAsDouble(WeatherEntry.COLUMN_HUMIDITY);
+            Double pressure = value.getAsDouble(WeatherEntry.COLUMN_PRESSURE);
+            Double windSpeed = value.getAsDouble(WeatherEntry.COLUMN_WIND_SPEED);
+            Double degrees = value.getAsDouble(WeatherEntry.COLUMN_DEGREES);
+
+            if (date == null || weatherId == null || minTemp == null || maxTemp == null
+                    || humidity == null || pressure == null || windSpeed == null
+                    || degrees == null) {
+                throw new IllegalArgumentException("Weather values are missing a column: " + value);
+            }
+
+            batch.add(date, weatherId, minTemp, maxTemp, humidity, pressure, windSpeed, degrees);
+        }
+
+        return batch;
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeInt(mSize);
+        dest.writeLongArray(Arrays.copyOf(mDate, mSize));
+        dest.writeIntArray(Arrays.copyOf(mWeatherId, mSize));
+        dest.writeDoubleArray(Arrays.copyOf(mMinTemp, mSize));
+        dest.writeDoubleArray(Arrays.copyOf(mMaxTemp, mSize));
+        dest.writeDoubleArray(Arrays.copyOf(mHumidity, mSize));
+        dest.writeDoubleArray(Arrays.copyOf(mPressure, mSize));
+        dest.writeDoubleArray(Arrays.copyOf(mWindSpeed, mSize));
+        dest.writeDoubleArray(Arrays.copyOf(mDegrees, mSize));
+    }
+
+    private ForecastBatch(Parcel in) {
+        mSize = in.readInt();
+        mDate = in.createLongArray();
+        mWeatherId = in.createIntArray();
+        mMinTemp = in.createDoubleArray();
+        mMaxTemp = in.createDoubleArray();
+        mHumidity = in.createDoubleArray();
+        mPressure = in.createDoubleArray();
+        mWindSpeed = in.createDoubleArray();
+        mDegrees = in.createDoubleArray();
+    }
+
+    public static final Creator<ForecastBatch> CREATOR = new Creator<ForecastBatch>() {
+        @Override
+        public ForecastBatch createFromParcel(Parcel in) {
+            return new ForecastBatch(in);
+        }
+
+        @Override
+        public ForecastBatch[] newArray(int size) {
+            return new ForecastBatch[size];
+        }
+    };
+}
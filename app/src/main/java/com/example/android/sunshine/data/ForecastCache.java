@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * WeatherProvider's in-memory copy of the weather table. Nearly every query Sunshine makes (the
+ * forecast list, the detail screen, today's notification, the watch face) reads the same couple
+ * of weeks of rows, so they are read from SQLite once and kept here as a {@link ForecastBatch},
+ * sorted by date, until the next write.
+ * <p>
+ * Only one location's forecast is kept: the one that was read last, which is nearly always the
+ * location in the preferences. Reading another location replaces it.
+ * <p>
+ * The cached forecast is held in an immutable {@link Snapshot}. A write to the table replaces the
+ * snapshot with a new, empty one. A query that finds an empty snapshot loads the table and
+ * publishes what it read, but only if the snapshot it started from is still current. That way a
+ * load that raced with a write can never put the old rows back after the write has invalidated
+ * them.
+ * <p>
+ * This only works because nothing but WeatherProvider writes to the weather table. Code that
+ * writes to weather.db directly, as some tests do, must call {@link #invalidate()} afterwards.
+ */
+final class ForecastCache {
+
+    /*
+     * The most days we are willing to keep in memory. Sunshine stores a 14 day forecast; if the
+     * table ever holds more than this, queries simply go to SQLite.
+     */
+    static final int MAX_CACHED_DAYS = 64;
+
+    /**
+     * What the cache held at one point in time. Never modified once created.
+     */
+    static final class Snapshot {
+
+        private final boolean mLoaded;
+        private final String mLocationKey;
+        private final long mLocationId;
+        private final ForecastBatch mForecast;
+
+        private Snapshot(boolean loaded, String locationKey, long locationId,
+                         ForecastBatch forecast) {
+            mLoaded = loaded;
+            mLocationKey = locationKey;
+            mLocationId = locationId;
+            mForecast = forecast;
+        }
+
+        /**
+         * @param locationKey Identifies the location the query is about
+         * @return Whether that location's weather has been read since the last write
+         */
+        boolean isLoadedFor(String locationKey) {
+            return mLoaded && mLocationKey.equals(locationKey);
+        }
+
+        /**
+         * @return The _ID of the location the forecast is for, or -1 if it holds no days
+         */
+        long getLocationId() {
+            return mLocationId;
+        }
+
+        /**
+         * @return Every stored day sorted by date, or null if the snapshot isn't loaded or the
+         * table was too large to cache. The returned batch must not be modified.
+         */
+        ForecastBatch getForecast() {
+            return mForecast;
+        }
+    }
+
+    private final AtomicReference<Snapshot> mSnapshot =
+            new AtomicReference<>(new Snapshot(false, null, -1, null));
+
+    private final AtomicLong mHitCount = new AtomicLong();
+    private final AtomicLong mMissCount = new AtomicLong();
+    private final AtomicLong mTotalHitNanos = new AtomicLong();
+    private final AtomicLong mTotalMissNanos = new AtomicLong();
+
+    Snapshot getSnapshot() {
+        return mSnapshot.get();
+    }
+
+    /**
+     * Publishes a forecast that was read from the table while {@code expected} was the current
+     * snapshot. If the table was written to in the meantime, the forecast is not kept, but the
+     * returned snapshot may still be used to answer the query that loaded it.
+     *
+     * @param expected    The snapshot that was current before the table was read
+     * @param locationKey Identifies the location the forecast was read for
+     * @param locationId  The _ID of that location, or -1 if no days were read
+     * @param forecast    Every day stored for the location sorted by date, or null if there
+     *                    were too many to cache
+     * @return A loaded snapshot holding the forecast
+     */
+    Snapshot publish(Snapshot expected, String locationKey, long locationId,
+                     ForecastBatch forecast) {
+        Snapshot loaded = new Snapshot(true, locationKey, locationId, forecast);
+        mSnapshot.compareAndSet(expected, loaded);
+        return loaded;
+    }
+
+    /**
+     * Drops the cached forecast. Must be called after every write to the weather table has been
+     * committed, and before observers are notified of the change.
+     */
+    void invalidate() {
+        mSnapshot.set(new Snapshot(false, null, -1, null));
+    }
+
+    /**
+     * @param elapsedNanos How long a query answered from an already loaded snapshot took
+     */
+    void recordHit(long elapsedNanos) {
+        mHitCount.incrementAndGet();
+        mTotalHitNanos.addAndGet(elapsedNanos);
+    }
+
+    /**
+     * @param elapsedNanos How long a query that had to load the table first took
+     */
+    void recordMiss(long elapsedNanos) {
+        mMissCount.incrementAndGet();
+        mTotalMissNanos.addAndGet(elapsedNanos);
+    }
+
+    long getHitCount() {
+        return mHitCount.get();
+    }
+
+    long getMissCount() {
+        return mMissCount.get();
+    }
+
+    /**
+     * Starts counting from zero, for example at the start of a test.
+     */
+    void resetStats() {
+        mHitCount.set(0);
+        mMissCount.set(0);
+        mTotalHitNanos.set(0);
+        mTotalMissNanos.set(0);
+    }
+
+    /**
+     * Finds the first day of a forecast, sorted by date, that is on or after the given date.
+     *
+     * @return The index of that day, or the size of the forecast if there is none
+     */
+    static int indexOfFirstDayFrom(ForecastBatch forecast, long date) {
+        int low = 0;
+        int high = forecast.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (forecast.getDate(middle) < date) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    @Override
+    public String toString() {
+        long hitCount = getHitCount();
+        long missCount = getMissCount();
+        long lookupCount = hitCount + missCount;
+
+        return "hits=" + hitCount
+                + " misses=" + missCount
+                + " hitRate=" + (lookupCount == 0 ? 0 : hitCount * 100 / lookupCount) + "%"
+                + " avgHitUs=" + averageMicros(mTotalHitNanos.get(), hitCount)
+                + " avgMissUs=" + averageMicros(mTotalMissNanos.get(), missCount);
+    }
+
+    private static long averageMicros(long totalNanos, long count) {
+        return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalNanos / count);
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.database.AbstractCursor;
+
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+
+/**
+ * A read-only Cursor over a range of days in a {@link ForecastBatch}. WeatherProvider returns one
+ * of these when it can answer a query from its cached forecast, instead of running the query
+ * against SQLite. The values are read straight out of the batch's primitive arrays; nothing is
+ * copied when the cursor is created.
+ * <p>
+ * The cursor has the same columns, in the same order, as the Cursor SQLite would have returned
+ * for the same projection, including the _ID alias for the date. Every day in it is for the same
+ * location.
+ */
+final class ForecastCursor extends AbstractCursor {
+
+    /* Identifies the value each column of the cursor is read from */
+    private static final int COLUMN_DATE = 0;
+    private static final int COLUMN_WEATHER_ID = 1;
+    private static final int COLUMN_MIN_TEMP = 2;
+    private static final int COLUMN_MAX_TEMP = 3;
+    private static final int COLUMN_HUMIDITY = 4;
+    private static final int COLUMN_PRESSURE = 5;
+    private static final int COLUMN_WIND_SPEED = 6;
+    private static final int COLUMN_DEGREES = 7;
+    private static final int COLUMN_LOCATION_ID = 8;
+
+    /* What a null projection returns: every column of the table, followed by the _ID alias */
+    private static final String[] ALL_COLUMNS = {
+            WeatherEntry.COLUMN_LOCATION_ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES,
+            WeatherEntry._ID,
+    };
+
+    /* CursorWindow formats REAL values with "%g", which keeps 6 significant digits */
+    private static final MathContext REAL_FORMAT_PRECISION = new MathContext(6);
+
+    private final ForecastBatch mForecast;
+    private final long mLocationId;
+    private final int mFirstDay;
+    private final int mCount;
+    private final String[] mColumnNames;
+    private final int[] mColumns;
+
+    /**
+     * Creates a cursor over the days [firstDay, firstDay + count) of the forecast.
+     *
+     * @param forecast   The forecast to read from, which must not change while the cursor is in
+     *                   use
+     * @param locationId The _ID of the location the forecast is for
+     * @param firstDay   The index of the first day in the cursor
+     * @param count      The number of days in the cursor
+     * @param projection The columns to return, or null for every column
+     * @param columns    What {@link #mapColumns} returned for the projection
+     */
+    ForecastCursor(ForecastBatch forecast, long locationId, int firstDay, int count,
+                   String[] projection, int[] columns) {
+        mForecast = forecast;
+        mLocationId = locationId;
+        mFirstDay = firstDay;
+        mCount = count;
+        mColumnNames = projection == null ? ALL_COLUMNS : projection.clone();
+        mColumns = columns;
+    }
+
+    /**
+     * Works out where each column of a projection is read from. This is done before anything is
+     * read, so that WeatherProvider can tell up front whether a query can be answered from its
+     * cache.
+     *
+     * @param projection The columns to return, or null for every column
+     * @return The columns to pass to the constructor, or null if the projection asks for a column
+     * this cursor can't return, in which case the query should go to SQLite instead
+     */
+    static int[] mapColumns(String[] projection) {
+        String[] columnNames = projection == null ? ALL_COLUMNS : projection;
+        int[] columns = new int[columnNames.length];
+
+        for (int i = 0; i < columnNames.length; i++) {
+            int column = columnFor(columnNames[i]);
+            if (column == -1) {
+                return null;
+            }
+            columns[i] = column;
+        }
+        return columns;
+    }
+
+    private static int columnFor(String columnName) {
+        if (columnName == null) {
+            return -1;
+        }
+
+        switch (columnName) {
+            case WeatherEntry.COLUMN_LOCATION_ID:
+                return COLUMN_LOCATION_ID;
+            case WeatherEntry._ID:
+            case WeatherEntry.COLUMN_DATE:
+                return COLUMN_DATE;
+            case WeatherEntry.COLUMN_WEATHER_ID:
+                return COLUMN_WEATHER_ID;
+            case WeatherEntry.COLUMN_MIN_TEMP:
+                return COLUMN_MIN_TEMP;
+            case WeatherEntry.COLUMN_MAX_TEMP:
+                return COLUMN_MAX_TEMP;
+            case WeatherEntry.COLUMN_HUMIDITY:
+                return COLUMN_HUMIDITY;
+            case WeatherEntry.COLUMN_PRESSURE:
+                return COLUMN_PRESSURE;
+            case WeatherEntry.COLUMN_WIND_SPEED:
+                return COLUMN_WIND_SPEED;
+            case WeatherEntry.COLUMN_DEGREES:
+                return COLUMN_DEGREES;
+            default:
+                return -1;
+        }
+    }
+
+    @Override
+    public int getCount() {
+        return mCount;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return mColumnNames;
+    }
+
+    @Override
+    public int getType(int column) {
+        switch (mColumns[column]) {
+            case COLUMN_LOCATION_ID:
+            case COLUMN_DATE:
+            case COLUMN_WEATHER_ID:
+                return FIELD_TYPE_INTEGER;
+            default:
+                return FIELD_TYPE_FLOAT;
+        }
+    }
+
+    @Override
+    public String getString(int column) {
+        switch (mColumns[column]) {
+            case COLUMN_LOCATION_ID:
+            case COLUMN_DATE:
+            case COLUMN_WEATHER_ID:
+                return Long.toString(getLong(column));
+            default:
+                return formatReal(getDouble(column));
+        }
+    }
+
+    @Override
+    public short getShort(int column) {
+        return (short) getLong(column);
+    }
+
+    @Override
+    public int getInt(int column) {
+        return (int) getLong(column);
+    }
+
+    @Override
+    public long getLong(int column) {
+        int day = mFirstDay + getPosition();
+        switch (mColumns[column]) {
+            case COLUMN_LOCATION_ID:
+                return mLocationId;
+            case COLUMN_DATE:
+                return mForecast.getDate(day);
+            case COLUMN_WEATHER_ID:
+                return mForecast.getWeatherId(day);
+            default:
+                return (long) getDouble(column);
+        }
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return (float) getDouble(column);
+    }
+
+    @Override
+    public double getDouble(int column) {
+        int day = mFirstDay + getPosition();
+        switch (mColumns[column]) {
+            case COLUMN_LOCATION_ID:
+                return mLocationId;
+            case COLUMN_DATE:
+                return mForecast.getDate(day);
+            case COLUMN_WEATHER_ID:
+                return mForecast.getWeatherId(day);
+            case COLUMN_MIN_TEMP:
+                return mForecast.getMinTemp(day);
+            case COLUMN_MAX_TEMP:
+                return mForecast.getMaxTemp(day);
+            case COLUMN_HUMIDITY:
+                return mForecast.getHumidity(day);
+            case COLUMN_PRESSURE:
+                return mForecast.getPressure(day);
+            case COLUMN_WIND_SPEED:
+                return mForecast.getWindSpeed(day);
+            case COLUMN_DEGREES:
+                return mForecast.getDegrees(day);
+            default:
+                throw new IllegalStateException("Unknown column " + column);
+        }
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        /* Every column of the weather table is declared NOT NULL */
+        return false;
+    }
+
+    /*
+     * Formats a REAL value the way a Cursor from SQLite does, so that getString returns the same
+     * text no matter where the row came from. For example, 75.0 becomes "75" and 1.2 stays "1.2".
+     */
+    private static String formatReal(double value) {
+        if (value == 0 || Double.isNaN(value) || Double.isInfinite(value)) {
+            return value == 0 ? "0" : Double.toString(value);
+        }
+
+        BigDecimal rounded = new BigDecimal(value)
+                .round(REAL_FORMAT_PRECISION)
+                .stripTrailingZeros();
+
+        /* Outside of this range, "%g" switches to an exponent, which weather values never need */
+        int exponent = rounded.precision() - rounded.scale() - 1;
+        if (exponent < -4 || exponent >= REAL_FORMAT_PRECISION.getPrecision()) {
+            return Double.toString(value);
+        }
+        return rounded.toPlainString();
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import com.example.android.sunshine.data.WeatherContract.HourlyEntry;
+
+import java.util.Arrays;
+
+/**
+ * The hourly forecast of one location, held as one primitive array per column, like
+ * {@link ForecastBatch} holds the daily one. It is what the parser fills during a sync, what
+ * WeatherProvider writes to the hourly table, and what it hands back to a chart that asks for a
+ * stretch of the forecast through {@link WeatherContract#METHOD_READ_HOURLY_FORECAST}: a chart
+ * wants all the temperatures, then all the times, rather than one row at a time.
+ * <p>
+ * The values are floats. The hourly table keeps them to a tenth anyway, and there are several
+ * times as many hours as days, so the arrays are worth keeping small.
+ */
+public final class HourlyForecast implements Parcelable {
+
+    /* Enough for the 5 day forecast in 3 hour steps that the weather server sends */
+    private static final int DEFAULT_CAPACITY = 40;
+
+    private int mSize;
+
+    private long[] mTime;
+    private int[] mWeatherId;
+    private float[] mTemp;
+    private float[] mHumidity;
+    private float[] mPressure;
+    private float[] mWindSpeed;
+    private float[] mDegrees;
+
+    public HourlyForecast() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity The number of steps this forecast can hold before its arrays need to grow
+     */
+    public HourlyForecast(int capacity) {
+        mTime = new long[capacity];
+        mWeatherId = new int[capacity];
+        mTemp = new float[capacity];
+        mHumidity = new float[capacity];
+        mPressure = new float[capacity];
+        mWindSpeed = new float[capacity];
+        mDegrees = new float[capacity];
+    }
+
+    /**
+     * Appends a step to the end of this forecast. Steps are expected in time order.
+     *
+     * @param time      UTC time in milliseconds of the start of the step, see
+     *                  {@link HourlyEntry#COLUMN_TIME}
+     * @param weatherId Weather condition ID as returned by the API
+     * @param temp      Temperature in °C
+     * @param humidity  Humidity as a percentage
+     * @param pressure  Pressure in hPa
+     * @param windSpeed Wind speed
+     * @param degrees   Wind direction in meteorological degrees
+     */
+    public void add(long time, int weatherId, double temp, double humidity, double pressure,
+                    double windSpeed, double degrees) {
+        if (mSize == mTime.length) {
+            grow();
+        }
+
+        mTime[mSize] = time;
+        mWeatherId[mSize] = weatherId;
+        mTemp[mSize] = (float) temp;
+        mHumidity[mSize] = (float) humidity;
+        mPressure[mSize] = (float) pressure;
+        mWindSpeed[mSize] = (float) windSpeed;
+        mDegrees[mSize] = (float) degrees;
+        mSize++;
+    }
+
+    private void grow() {
+        int capacity = Math.max(DEFAULT_CAPACITY, mTime.length * 2);
+
+        mTime = Arrays.copyOf(mTime, capacity);
+        mWeatherId = Arrays.copyOf(mWeatherId, capacity);
+        mTemp = Arrays.copyOf(mTemp, capacity);
+        mHumidity = Arrays.copyOf(mHumidity, capacity);
+        mPressure = Arrays.copyOf(mPressure, capacity);
+        mWindSpeed = Arrays.copyOf(mWindSpeed, capacity);
+        mDegrees = Arrays.copyOf(mDegrees, capacity);
+    }
+
+    /**
+     * @return The number of steps in this forecast
+     */
+    public int size() {
+        return mSize;
+    }
+
+    public long getTime(int index) {
+        return mTime[index];
+    }
+
+    public int getWeatherId(int index) {
+        return mWeatherId[index];
+    }
+
+    public float getTemp(int index) {
+        return mTemp[index];
+    }
+
+    public float getHumidity(int index) {
+        return mHumidity[index];
+    }
+
+    public float getPressure(int index) {
+        return mPressure[index];
+    }
+
+    public float getWindSpeed(int index) {
+        return mWindSpeed[index];
+    }
+
+    public float getDegrees(int index) {
+        return mDegrees[index];
+    }
+
+    /**
+     * @return A copy of the times of every step, for a chart's x axis
+     */
+    public long[] getTimes() {
+        return Arrays.copyOf(mTime, mSize);
+    }
+
+    /**
+     * @return A copy of the temperatures of every step, for a chart's y axis
+     */
+    public float[] getTemps() {
+        return Arrays.copyOf(mTemp, mSize);
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeInt(mSize);
+        dest.writeLongArray(Arrays.copyOf(mTime, mSize));
+        dest.writeIntArray(Arrays.copyOf(mWeatherId, mSize));
+        dest.writeFloatArray(Arrays.copyOf(mTemp, mSize));
+        dest.writeFloatArray(Arrays.copyOf(mHumidity, mSize));
+        dest.writeFloatArray(Arrays.copyOf(mPressure, mSize));
+        dest.writeFloatArray(Arrays.copyOf(mWindSpeed, mSize));
+        dest.writeFloatArray(Arrays.copyOf(mDegrees, mSize));
+    }
+
+    private HourlyForecast(Parcel in) {
+        mSize = in.readInt();
+        mTime = in.createLongArray();
+        mWeatherId = in.createIntArray();
+        mTemp = in.createFloatArray();
+        mHumidity = in.createFloatArray();
+        mPressure = in.createFloatArray();
+        mWindSpeed = in.createFloatArray();
+        mDegrees = in.createFloatArray();
+    }
+
+    public static final Creator<HourlyForecast> CREATOR = new Creator<HourlyForecast>() {
+        @Override
+        public HourlyForecast createFromParcel(Parcel in) {
+            return new HourlyForecast(in);
+        }
+
+        @Override
+        public HourlyForecast[] newArray(int size) {
+            return new HourlyForecast[size];
+        }
+    };
+}
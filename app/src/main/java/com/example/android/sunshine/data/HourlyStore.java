@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.sunshine.data.WeatherContract.HourlyEntry;
+
+/**
+ * Writes a {@link HourlyForecast} to the hourly table, and reads it back. A sync writes several
+ * times as many steps as days, so the steps are written with a single compiled statement that is
+ * bound again for every step, never through ContentValues, and always inside the caller's
+ * transaction, so that the whole forecast costs a single commit.
+ * <p>
+ * The table stores its values as whole numbers, see {@link HourlyEntry#COLUMN_TEMP_TENTHS}; this
+ * is the only class that converts them.
+ */
+final class HourlyStore {
+
+    private static final String SQL_INSERT_HOURLY =
+            "INSERT INTO " + HourlyEntry.TABLE_NAME + " ("
+                    + HourlyEntry.COLUMN_LOCATION_ID + ", "
+                    + HourlyEntry.COLUMN_TIME + ", "
+                    + HourlyEntry.COLUMN_WEATHER_ID + ", "
+                    + HourlyEntry.COLUMN_TEMP_TENTHS + ", "
+                    + HourlyEntry.COLUMN_HUMIDITY + ", "
+                    + HourlyEntry.COLUMN_PRESSURE_TENTHS + ", "
+                    + HourlyEntry.COLUMN_WIND_SPEED_TENTHS + ", "
+                    + HourlyEntry.COLUMN_DEGREES
+                    + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+
+    /* The columns read back into a HourlyForecast, in the order of the INDEX constants */
+    private static final String[] READ_COLUMNS = {
+            HourlyEntry.COLUMN_TIME,
+            HourlyEntry.COLUMN_WEATHER_ID,
+            HourlyEntry.COLUMN_TEMP_TENTHS,
+            HourlyEntry.COLUMN_HUMIDITY,
+            HourlyEntry.COLUMN_PRESSURE_TENTHS,
+            HourlyEntry.COLUMN_WIND_SPEED_TENTHS,
+            HourlyEntry.COLUMN_DEGREES,
+    };
+
+    private static final int INDEX_TIME = 0;
+    private static final int INDEX_WEATHER_ID = 1;
+    private static final int INDEX_TEMP = 2;
+    private static final int INDEX_HUMIDITY = 3;
+    private static final int INDEX_PRESSURE = 4;
+    private static final int INDEX_WIND_SPEED = 5;
+    private static final int INDEX_DEGREES = 6;
+
+    private static final String TIME_ASCENDING = HourlyEntry.COLUMN_TIME + " ASC";
+
+    private HourlyStore() {
+    }
+
+    /**
+     * Replaces every step stored for a location with the steps of the given forecast. Steps that
+     * have passed are dropped along with the rest, so the table never holds more than the latest
+     * forecast of each location.
+     *
+     * @param db         The database, which should already be in a transaction
+     * @param locationId The _ID of the location in the location table
+     * @param forecast   The steps to store
+     * @return The number of steps written
+     */
+    static int replace(SQLiteDatabase db, long locationId, HourlyForecast forecast) {
+        db.delete(HourlyEntry.TABLE_NAME,
+                HourlyEntry.COLUMN_LOCATION_ID + " = ?",
+                new String[]{Long.toString(locationId)});
+
+        SQLiteStatement insertStatement = db.compileStatement(SQL_INSERT_HOURLY);
+        try {
+            insertStatement.bindLong(1, locationId);
+            for (int i = 0; i < forecast.size(); i++) {
+                insertStatement.bindLong(2, forecast.getTime(i));
+                insertStatement.bindLong(3, forecast.getWeatherId(i));
+                insertStatement.bindLong(4, toTenths(forecast.getTemp(i)));
+                insertStatement.bindLong(5, Math.round(forecast.getHumidity(i)));
+                insertStatement.bindLong(6, toTenths(forecast.getPressure(i)));
+                insertStatement.bindLong(7, toTenths(forecast.getWindSpeed(i)));
+                insertStatement.bindLong(8, Math.round(forecast.getDegrees(i)));
+                insertStatement.executeInsert();
+            }
+        } finally {
+            insertStatement.close();
+        }
+        return forecast.size();
+    }
+
+    /**
+     * Reads the steps matching a selection, in time order, straight into the arrays of a
+     * {@link HourlyForecast}. Nothing is boxed, and no row is turned into an object of its own.
+     *
+     * @param db            The database to read from
+     * @param selection     Chooses the location and the stretch of time
+     * @param selectionArgs The arguments of the selection
+     * @return The steps that were found, which may be none
+     */
+    static HourlyForecast read(SQLiteDatabase db, String selection, String[] selectionArgs) {
+        Cursor cursor = db.query(HourlyEntry.TABLE_NAME,
+                READ_COLUMNS,
+                selection,
+                selectionArgs,
+                null,
+                null,
+                TIME_ASCENDING);
+        try {
+            HourlyForecast forecast = new HourlyForecast(Math.max(1, cursor.getCount()));
+            while (cursor.moveToNext()) {
+                forecast.add(cursor.getLong(INDEX_TIME),
+                        cursor.getInt(INDEX_WEATHER_ID),
+                        fromTenths(cursor.getInt(INDEX_TEMP)),
+                        cursor.getInt(INDEX_HUMIDITY),
+                        fromTenths(cursor.getInt(INDEX_PRESSURE)),
+                        fromTenths(cursor.getInt(INDEX_WIND_SPEED)),
+                        cursor.getInt(INDEX_DEGREES));
+            }
+            return forecast;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    static long toTenths(double value) {
+        return Math.round(value * 10);
+    }
+
+    static double fromTenths(int tenths) {
+        return tenths / 10.0;
+    }
+}
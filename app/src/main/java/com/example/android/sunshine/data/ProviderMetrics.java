@@ -0,0 +1,257 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.pm.PackageManager;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import com.example.android.sunshine.data.WeatherContract.MetricsEntry;
+
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records what WeatherProvider spends its time on: a latency histogram and a row count for
+ * every kind of operation on every kind of URI (a query of a single date, a bulkInsert of a
+ * forecast, a call to reconcile it), for each write transaction, and how many operations each
+ * calling app made. It can be read at {@link MetricsEntry#CONTENT_URI}, or with dumpsys, so that
+ * a slow sync can be told apart from a slow query on a device in the field.
+ * <p>
+ * Operations run on many threads at once, so, like {@link ReaderWaitStats}, every counter is
+ * updated without locking. A histogram is created the first time its operation is recorded;
+ * after that, recording is a lookup in a ConcurrentHashMap, which doesn't lock either, and a few
+ * atomic additions.
+ */
+final class ProviderMetrics {
+
+    /* The kinds of operation, which come first in the name of each histogram */
+    static final String QUERY = "query";
+    static final String INSERT = "insert";
+    static final String BULK_INSERT = "bulkInsert";
+    static final String UPDATE = "update";
+    static final String DELETE = "delete";
+    static final String CALL = "call";
+    static final String TRANSACTION = "transaction";
+
+    /*
+     * Latencies are counted in buckets that double in width: bucket 0 holds everything under a
+     * microsecond, bucket b everything from 2^(b-1) up to 2^b microseconds, and the last bucket
+     * everything from about 4 seconds up.
+     */
+    static final int BUCKET_COUNT = 24;
+
+    /**
+     * The latencies and row counts of one kind of operation.
+     */
+    static final class Histogram {
+
+        private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+        private final AtomicLong mCount = new AtomicLong();
+        private final AtomicLong mRows = new AtomicLong();
+        private final AtomicLong mTotalNanos = new AtomicLong();
+        private final AtomicLong mMaxNanos = new AtomicLong();
+
+        void record(long rows, long elapsedNanos) {
+            mBuckets.incrementAndGet(bucketOf(elapsedNanos));
+            mCount.incrementAndGet();
+            mRows.addAndGet(rows);
+            mTotalNanos.addAndGet(elapsedNanos);
+
+            long maxNanos = mMaxNanos.get();
+            while (elapsedNanos > maxNanos && !mMaxNanos.compareAndSet(maxNanos, elapsedNanos)) {
+                maxNanos = mMaxNanos.get();
+            }
+        }
+
+        long getCount() {
+            return mCount.get();
+        }
+
+        long getRows() {
+            return mRows.get();
+        }
+
+        long getAverageMicros() {
+            long count = getCount();
+            return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(mTotalNanos.get() / count);
+        }
+
+        long getMaxMicros() {
+            return TimeUnit.NANOSECONDS.toMicros(mMaxNanos.get());
+        }
+
+        /**
+         * Estimates a percentile of the latencies from the buckets. The estimate is the upper
+         * bound of the bucket the percentile falls in, so it is at most twice the real value,
+         * and never more than the slowest operation.
+         *
+         * @param fraction The percentile as a fraction, such as 0.95
+         * @return The estimated latency in microseconds, or 0 if nothing was recorded
+         */
+        long getPercentileMicros(double fraction) {
+            long count = getCount();
+            if (count == 0) {
+                return 0;
+            }
+
+            long target = (long) Math.ceil(fraction * count);
+            long seen = 0;
+            for (int bucket = 0; bucket < BUCKET_COUNT - 1; bucket++) {
+                seen += mBuckets.get(bucket);
+                if (seen >= target) {
+                    return Math.min(1L << bucket, getMaxMicros());
+                }
+            }
+            return getMaxMicros();
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + getCount()
+                    + " rows=" + getRows()
+                    + " avgUs=" + getAverageMicros()
+                    + " p50Us=" + getPercentileMicros(0.5)
+                    + " p95Us=" + getPercentileMicros(0.95)
+                    + " p99Us=" + getPercentileMicros(0.99)
+                    + " maxUs=" + getMaxMicros();
+        }
+    }
+
+    private final ConcurrentHashMap<String, Histogram> mHistograms = new ConcurrentHashMap<>();
+
+    /* How many operations each calling app, by its UID, has made */
+    private final ConcurrentHashMap<Integer, AtomicLong> mOperationsByUid =
+            new ConcurrentHashMap<>();
+
+    /**
+     * @param operation    The kind of operation, such as {@link #QUERY}
+     * @param target       What it was on: the path of a URI, the name of a call method, or the
+     *                     name of a transaction
+     * @param rows         How many rows it returned or wrote
+     * @param elapsedNanos How long it took
+     */
+    void record(String operation, String target, long rows, long elapsedNanos) {
+        String name = operation + " " + target;
+        Histogram histogram = mHistograms.get(name);
+        if (histogram == null) {
+            Histogram newHistogram = new Histogram();
+            histogram = mHistograms.putIfAbsent(name, newHistogram);
+            if (histogram == null) {
+                histogram = newHistogram;
+            }
+        }
+        histogram.record(rows, elapsedNanos);
+    }
+
+    /**
+     * @param uid The UID of the app that made an operation, from Binder#getCallingUid
+     */
+    void recordCaller(int uid) {
+        AtomicLong operations = mOperationsByUid.get(uid);
+        if (operations == null) {
+            AtomicLong newOperations = new AtomicLong();
+            operations = mOperationsByUid.putIfAbsent(uid, newOperations);
+            if (operations == null) {
+                operations = newOperations;
+            }
+        }
+        operations.incrementAndGet();
+    }
+
+    /**
+     * @param name The name of a histogram, which is the operation and its target, separated by
+     *             a space
+     * @return The histogram, or null if no such operation was recorded
+     */
+    Histogram getHistogram(String name) {
+        return mHistograms.get(name);
+    }
+
+    /**
+     * Starts counting from zero, for example at the start of a test.
+     */
+    void reset() {
+        mHistograms.clear();
+        mOperationsByUid.clear();
+    }
+
+    /**
+     * @return A row per histogram, sorted by name. See {@link MetricsEntry} for the columns. The
+     * calling apps are left out, as any app can query the provider, and they are only printed by
+     * {@link #dump}, which needs the DUMP permission.
+     */
+    Cursor toCursor() {
+        MatrixCursor cursor = new MatrixCursor(new String[]{
+                MetricsEntry.COLUMN_NAME,
+                MetricsEntry.COLUMN_COUNT,
+                MetricsEntry.COLUMN_ROWS,
+                MetricsEntry.COLUMN_AVG_MICROS,
+                MetricsEntry.COLUMN_P50_MICROS,
+                MetricsEntry.COLUMN_P95_MICROS,
+                MetricsEntry.COLUMN_P99_MICROS,
+                MetricsEntry.COLUMN_MAX_MICROS});
+
+        for (Map.Entry<String, Histogram> entry : new TreeMap<>(mHistograms).entrySet()) {
+            Histogram histogram = entry.getValue();
+            cursor.addRow(new Object[]{
+                    entry.getKey(),
+                    histogram.getCount(),
+                    histogram.getRows(),
+                    histogram.getAverageMicros(),
+                    histogram.getPercentileMicros(0.5),
+                    histogram.getPercentileMicros(0.95),
+                    histogram.getPercentileMicros(0.99),
+                    histogram.getMaxMicros()});
+        }
+
+        return cursor;
+    }
+
+    /**
+     * Prints every histogram, sorted by name, and then the calling apps.
+     */
+    void dump(PrintWriter writer, PackageManager packageManager) {
+        for (Map.Entry<String, Histogram> entry : new TreeMap<>(mHistograms).entrySet()) {
+            writer.println("  " + entry.getKey() + ": " + entry.getValue());
+        }
+        for (Map.Entry<Integer, AtomicLong> entry : new TreeMap<>(mOperationsByUid).entrySet()) {
+            writer.println("  caller " + getCallerName(packageManager, entry.getKey())
+                    + ": count=" + entry.getValue().get());
+        }
+    }
+
+    private static String getCallerName(PackageManager packageManager, int uid) {
+        String name = packageManager.getNameForUid(uid);
+        return name == null ? Integer.toString(uid) : name;
+    }
+
+    /**
+     * @return The bucket a latency is counted in
+     */
+    static int bucketOf(long elapsedNanos) {
+        long micros = TimeUnit.NANOSECONDS.toMicros(elapsedNanos);
+        if (micros <= 0) {
+            return 0;
+        }
+        return Math.min(64 - Long.numberOfLeadingZeros(micros), BUCKET_COUNT - 1);
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records how long queries to WeatherProvider took to get their first rows back from SQLite.
+ * In rollback journal mode, a query that arrives while a sync is writing has to wait for the
+ * write transaction to finish, so this is where a writer blocking readers shows up.
+ * <p>
+ * Queries run on many threads at once (CursorLoaders, the sync, notifications), so every counter
+ * is updated without locking.
+ */
+final class ReaderWaitStats {
+
+    private final AtomicLong mReadCount = new AtomicLong();
+    private final AtomicLong mTotalWaitNanos = new AtomicLong();
+    private final AtomicLong mMaxWaitNanos = new AtomicLong();
+
+    /**
+     * @param waitNanos How long a single query took to return its first rows, in nanoseconds
+     */
+    void record(long waitNanos) {
+        mReadCount.incrementAndGet();
+        mTotalWaitNanos.addAndGet(waitNanos);
+
+        long maxWaitNanos = mMaxWaitNanos.get();
+        while (waitNanos > maxWaitNanos
+                && !mMaxWaitNanos.compareAndSet(maxWaitNanos, waitNanos)) {
+            maxWaitNanos = mMaxWaitNanos.get();
+        }
+    }
+
+    long getReadCount() {
+        return mReadCount.get();
+    }
+
+    long getTotalWaitNanos() {
+        return mTotalWaitNanos.get();
+    }
+
+    long getMaxWaitNanos() {
+        return mMaxWaitNanos.get();
+    }
+
+    /**
+     * Starts counting from zero, for example at the start of a test.
+     */
+    void reset() {
+        mReadCount.set(0);
+        mTotalWaitNanos.set(0);
+        mMaxWaitNanos.set(0);
+    }
+
+    @Override
+    public String toString() {
+        long readCount = getReadCount();
+        long averageWaitMicros = readCount == 0
+                ? 0
+                : TimeUnit.NANOSECONDS.toMicros(getTotalWaitNanos() / readCount);
+
+        return "reads=" + readCount
+                + " avgWaitUs=" + averageWaitMicros
+                + " maxWaitUs=" + TimeUnit.NANOSECONDS.toMicros(getMaxWaitNanos());
+    }
+}
@@ -31,11 +31,40 @@ public final class SunshinePreferences {
     public static final String PREF_COORD_LAT = "coord_lat";
     public static final String PREF_COORD_LONG = "coord_long";
 
+    /*
+     * The HTTP validators (ETag and Last-Modified) of the forecast we have stored, along with the
+     * request URL it was downloaded from, so that the next sync can ask the server whether
+     * anything has changed.
+     */
+    private static final String PREF_VALIDATED_URL = "validated_url";
+    private static final String PREF_ETAG = "etag";
+    private static final String PREF_LAST_MODIFIED = "last_modified";
+
+    /* Counters of how many syncs ran, and how many of those found the forecast unchanged */
+    private static final String PREF_SYNC_COUNT = "sync_count";
+    private static final String PREF_SYNC_NOT_MODIFIED_COUNT = "sync_not_modified_count";
+
+    /* When the last sync completed, in UNIX time, to tell how old the stored forecast is */
+    private static final String PREF_LAST_SYNC_TIME = "last_sync_time";
+
+    /*
+     * How many days back the archive keeps single days, weeks and months. About a month of days
+     * covers "this time last week" and the charts of recent weeks; weeks then cover a year, and
+     * months a few more.
+     */
+    private static final String PREF_ARCHIVE_DAILY_DAYS = "archive_daily_days";
+    private static final String PREF_ARCHIVE_WEEKLY_DAYS = "archive_weekly_days";
+    private static final String PREF_ARCHIVE_MONTHLY_DAYS = "archive_monthly_days";
+    private static final int DEFAULT_ARCHIVE_DAILY_DAYS = 31;
+    private static final int DEFAULT_ARCHIVE_WEEKLY_DAYS = 365;
+    private static final int DEFAULT_ARCHIVE_MONTHLY_DAYS = 5 * 365;
+
     /**
      * Helper method to handle setting location details in Preferences (city name, latitude,
      * longitude)
      * <p>
-     * When the location details are updated, the database should to be cleared.
+     * The coordinates are also stored with the location's weather, in the location table, when
+     * a sync writes it.
      *
      * @param context  Context used to get the SharedPreferences
      * @param lat      the latitude of the city
@@ -242,4 +271,135 @@ public final class SunshinePreferences {
         editor.putLong(lastNotificationKey, timeOfNotification);
         editor.apply();
     }
-}
\ No newline at end of file
+
+    /**
+     * Returns the HTTP validators of the forecast we have stored, if it was downloaded from the
+     * given URL. The validators of a different URL (a different location, say) are no use to us,
+     * since we don't have the data they describe.
+     *
+     * @param context Used to access SharedPreferences
+     * @param url     The request URL we are about to fetch
+     * @return an array containing the ETag and the Last-Modified value, either of which may be
+     * null if the server didn't send it or the stored forecast came from another URL
+     */
+    public static String[] getResponseValidators(Context context, String url) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+
+        String[] validators = new String[2];
+        if (url.equals(sp.getString(PREF_VALIDATED_URL, null))) {
+            validators[0] = sp.getString(PREF_ETAG, null);
+            validators[1] = sp.getString(PREF_LAST_MODIFIED, null);
+        }
+
+        return validators;
+    }
+
+    /**
+     * Saves the HTTP validators of a forecast once it has been stored.
+     *
+     * @param context      Used to access SharedPreferences
+     * @param url          The request URL the forecast was downloaded from
+     * @param eTag         The ETag header of the response, or null
+     * @param lastModified The Last-Modified header of the response, or null
+     */
+    public static void saveResponseValidators(Context context, String url, String eTag,
+                                              String lastModified) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        SharedPreferences.Editor editor = sp.edit();
+
+        editor.putString(PREF_VALIDATED_URL, url);
+        editor.putString(PREF_ETAG, eTag);
+        editor.putString(PREF_LAST_MODIFIED, lastModified);
+        editor.apply();
+    }
+
+    /**
+     * Records that a sync completed, and whether the server told us the forecast had not changed
+     * since the last one.
+     *
+     * @param context     Used to access SharedPreferences
+     * @param notModified true if the sync was short-circuited by a 304 Not Modified response
+     */
+    public static void recordSyncResult(Context context, boolean notModified) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        SharedPreferences.Editor editor = sp.edit();
+
+        editor.putLong(PREF_SYNC_COUNT, sp.getLong(PREF_SYNC_COUNT, 0) + 1);
+        editor.putLong(PREF_LAST_SYNC_TIME, System.currentTimeMillis());
+        if (notModified) {
+            editor.putLong(PREF_SYNC_NOT_MODIFIED_COUNT,
+                    sp.getLong(PREF_SYNC_NOT_MODIFIED_COUNT, 0) + 1);
+        }
+        editor.apply();
+    }
+
+    /**
+     * Returns the number of syncs that have completed.
+     *
+     * @param context Used to access SharedPreferences
+     * @return the number of completed syncs
+     */
+    public static long getSyncCount(Context context) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        return sp.getLong(PREF_SYNC_COUNT, 0);
+    }
+
+    /**
+     * Returns when the last sync completed. A sync that found the forecast unchanged counts, as
+     * it confirmed that the stored forecast is still the latest one.
+     *
+     * @param context Used to access SharedPreferences
+     * @return UNIX time of when the last sync completed, or 0 if none ever has
+     */
+    public static long getLastSyncTimeInMillis(Context context) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        return sp.getLong(PREF_LAST_SYNC_TIME, 0);
+    }
+
+    /**
+     * Returns the number of syncs that were short-circuited because the forecast on the server
+     * had not changed.
+     *
+     * @param context Used to access SharedPreferences
+     * @return the number of syncs that ended with a 304 Not Modified response
+     */
+    public static long getNotModifiedSyncCount(Context context) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        return sp.getLong(PREF_SYNC_NOT_MODIFIED_COUNT, 0);
+    }
+
+    /**
+     * Returns how long the archive keeps its weather at each level of detail. Older days are
+     * compacted into weeks, older weeks into months, and older months are deleted.
+     *
+     * @param context Used to access SharedPreferences
+     * @return an array containing the number of days back that days, weeks and months are kept
+     */
+    public static int[] getArchiveRetentionDays(Context context) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        return new int[]{
+                sp.getInt(PREF_ARCHIVE_DAILY_DAYS, DEFAULT_ARCHIVE_DAILY_DAYS),
+                sp.getInt(PREF_ARCHIVE_WEEKLY_DAYS, DEFAULT_ARCHIVE_WEEKLY_DAYS),
+                sp.getInt(PREF_ARCHIVE_MONTHLY_DAYS, DEFAULT_ARCHIVE_MONTHLY_DAYS)};
+    }
+
+    /**
+     * Changes how long the archive keeps its weather. The next compaction applies the new
+     * windows; weather that has already been compacted can't be brought back in more detail.
+     *
+     * @param context     Used to access SharedPreferences
+     * @param dailyDays   How many days back days are kept
+     * @param weeklyDays  How many days back weeks are kept
+     * @param monthlyDays How many days back months are kept
+     */
+    public static void setArchiveRetentionDays(Context context, int dailyDays, int weeklyDays,
+                                               int monthlyDays) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+        SharedPreferences.Editor editor = sp.edit();
+
+        editor.putInt(PREF_ARCHIVE_DAILY_DAYS, dailyDays);
+        editor.putInt(PREF_ARCHIVE_WEEKLY_DAYS, weeklyDays);
+        editor.putInt(PREF_ARCHIVE_MONTHLY_DAYS, monthlyDays);
+        editor.apply();
+    }
+}
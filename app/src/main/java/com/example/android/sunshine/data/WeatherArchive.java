@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.sunshine.data.WeatherContract.ArchiveEntry;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * Keeps the archive table from growing without bound. Every day that passes adds a row per
+ * stored location, which is what a chart of the last few weeks wants, but nobody needs the
+ * humidity of a single day two years ago. So the archive is compacted in tiers: recent days stay
+ * as they are, older days are rolled up into one row per week, older weeks into one row per
+ * month, and the oldest months are dropped. A location's history then never takes more than a
+ * few hundred rows, and a query over any range of it reads at most that many.
+ * <p>
+ * A rolled up row keeps the lowest low and the highest high of its days, and the averages of the
+ * other columns, weighted by the number of days behind each row. That way rolling up weeks that
+ * were themselves rolled up from days gives the same result as rolling up the days directly.
+ */
+final class WeatherArchive {
+
+    /*
+     * The first day of the week, and of the month, of the date column, in SQL. They must agree
+     * with startOfWeek and startOfMonth. Day 0 of the epoch was a Thursday, so adding 3 makes
+     * Monday the first day of the week.
+     */
+    private static final String WEEK_OF_DATE = "(" + ArchiveEntry.COLUMN_DATE
+            + " - ((" + ArchiveEntry.COLUMN_DATE + " / " + SunshineDateUtils.DAY_IN_MILLIS
+            + " + 3) % 7) * " + SunshineDateUtils.DAY_IN_MILLIS + ")";
+    private static final String MONTH_OF_DATE = "(CAST(strftime('%s', "
+            + ArchiveEntry.COLUMN_DATE + " / 1000, 'unixepoch', 'start of month') AS INTEGER)"
+            + " * 1000)";
+
+    private static final String PERIOD_BEFORE_SELECTION =
+            ArchiveEntry.COLUMN_PERIOD + " = ? AND " + ArchiveEntry.COLUMN_DATE + " < ?";
+
+    private WeatherArchive() {
+    }
+
+    /**
+     * Rolls up and expires the archived weather of every location. The caller should run this
+     * in a transaction, so that no reader ever sees a period both as days and as a week.
+     *
+     * @param db          The database holding the archive
+     * @param today       Today's normalized date
+     * @param dailyDays   How many days back days are kept as they are
+     * @param weeklyDays  How many days back weeks are kept; at least dailyDays
+     * @param monthlyDays How many days back months are kept; at least weeklyDays
+     * @return The number of rows the archive shrank by
+     */
+    static int compact(SQLiteDatabase db, long today, int dailyDays, int weeklyDays,
+                       int monthlyDays) {
+        weeklyDays = Math.max(weeklyDays, dailyDays);
+        monthlyDays = Math.max(monthlyDays, weeklyDays);
+
+        long rowsBefore = DatabaseUtils.queryNumEntries(db, ArchiveEntry.TABLE_NAME);
+
+        /*
+         * Only whole weeks and whole months are rolled up, so that every week or month is rolled
+         * up once, from all of its days, rather than a bit at a time.
+         */
+        long weekCutoff = startOfWeek(today - dailyDays * SunshineDateUtils.DAY_IN_MILLIS);
+        long monthCutoff = Math.min(weekCutoff,
+                startOfMonth(today - weeklyDays * SunshineDateUtils.DAY_IN_MILLIS));
+        long expiryCutoff = startOfMonth(today - monthlyDays * SunshineDateUtils.DAY_IN_MILLIS);
+
+        rollUp(db, WeatherContract.PERIOD_DAY, WeatherContract.PERIOD_WEEK, WEEK_OF_DATE,
+                weekCutoff);
+        rollUp(db, WeatherContract.PERIOD_WEEK, WeatherContract.PERIOD_MONTH, MONTH_OF_DATE,
+                monthCutoff);
+
+        db.delete(ArchiveEntry.TABLE_NAME,
+                PERIOD_BEFORE_SELECTION,
+                new String[]{WeatherContract.PERIOD_MONTH, Long.toString(expiryCutoff)});
+
+        return (int) (rowsBefore - DatabaseUtils.queryNumEntries(db, ArchiveEntry.TABLE_NAME));
+    }
+
+    /**
+     * Replaces every row of one period that starts before the cutoff with rows of a longer
+     * period. A row of the longer period that already exists for the same stretch of time is
+     * rolled up along with the new rows, so nothing that was rolled up before is lost.
+     *
+     * @param fromPeriod The period of the rows to roll up
+     * @param toPeriod   The period of the rows they are rolled up into
+     * @param bucket     SQL for the first day of the longer period a row falls in
+     * @param cutoff     The first day of a longer period; only rows before it are rolled up
+     */
+    private static void rollUp(SQLiteDatabase db, String fromPeriod, String toPeriod,
+                               String bucket, long cutoff) {
+        String[] periodBeforeArgs = {fromPeriod, Long.toString(cutoff)};
+
+        /* Longer periods that have nothing new to roll up are left alone */
+        String firstBucket = DatabaseUtils.stringForQuery(db,
+                "SELECT MIN(" + bucket + ") FROM " + ArchiveEntry.TABLE_NAME
+                        + " WHERE " + PERIOD_BEFORE_SELECTION,
+                periodBeforeArgs);
+        if (firstBucket == null) {
+            return;
+        }
+
+        db.execSQL("INSERT INTO " + ArchiveEntry.TABLE_NAME + " ("
+                        + ArchiveEntry.COLUMN_LOCATION_ID + ", "
+                        + ArchiveEntry.COLUMN_DATE + ", "
+                        + ArchiveEntry.COLUMN_PERIOD + ", "
+                        + ArchiveEntry.COLUMN_DAY_COUNT + ", "
+                        + ArchiveEntry.COLUMN_WEATHER_ID + ", "
+                        + ArchiveEntry.COLUMN_MIN_TEMP + ", "
+                        + ArchiveEntry.COLUMN_MAX_TEMP + ", "
+                        + ArchiveEntry.COLUMN_HUMIDITY + ", "
+                        + ArchiveEntry.COLUMN_PRESSURE + ", "
+                        + ArchiveEntry.COLUMN_WIND_SPEED
+                        + ") SELECT "
+                        + ArchiveEntry.COLUMN_LOCATION_ID + ", "
+                        + bucket + " AS bucket, "
+                        + "?, "
+                        + "SUM(" + ArchiveEntry.COLUMN_DAY_COUNT + "), "
+                        + "NULL, "
+                        + "MIN(" + ArchiveEntry.COLUMN_MIN_TEMP + "), "
+                        + "MAX(" + ArchiveEntry.COLUMN_MAX_TEMP + "), "
+                        + weightedAverage(ArchiveEntry.COLUMN_HUMIDITY) + ", "
+                        + weightedAverage(ArchiveEntry.COLUMN_PRESSURE) + ", "
+                        + weightedAverage(ArchiveEntry.COLUMN_WIND_SPEED)
+                        + " FROM " + ArchiveEntry.TABLE_NAME
+                        + " WHERE " + ArchiveEntry.COLUMN_PERIOD + " IN (?, ?)"
+                        + " AND " + ArchiveEntry.COLUMN_DATE + " >= ?"
+                        + " AND " + ArchiveEntry.COLUMN_DATE + " < ?"
+                        + " GROUP BY " + ArchiveEntry.COLUMN_LOCATION_ID + ", bucket",
+                new Object[]{toPeriod, fromPeriod, toPeriod, Long.parseLong(firstBucket), cutoff});
+
+        db.delete(ArchiveEntry.TABLE_NAME, PERIOD_BEFORE_SELECTION, periodBeforeArgs);
+    }
+
+    private static String weightedAverage(String column) {
+        return "SUM(" + column + " * " + ArchiveEntry.COLUMN_DAY_COUNT + ") / SUM("
+                + ArchiveEntry.COLUMN_DAY_COUNT + ")";
+    }
+
+    /**
+     * @param date A normalized date
+     * @return The normalized date of the Monday of its week
+     */
+    static long startOfWeek(long date) {
+        long day = date / SunshineDateUtils.DAY_IN_MILLIS;
+        return (day - (day + 3) % 7) * SunshineDateUtils.DAY_IN_MILLIS;
+    }
+
+    /**
+     * @param date A normalized date
+     * @return The normalized date of the first day of its month
+     */
+    static long startOfMonth(long date) {
+        Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        calendar.setTimeInMillis(date);
+        calendar.set(Calendar.DAY_OF_MONTH, 1);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        return calendar.getTimeInMillis();
+    }
+}
@@ -56,6 +56,392 @@ public class WeatherContract {
      */
     public static final String PATH_WEATHER = "weather";
 
+    /*
+     * The path of the locations Sunshine has stored weather for:
+     *
+     *     content://com.example.android.sunshine/location/
+     */
+    public static final String PATH_LOCATION = "location";
+
+    /*
+     * The path of the archive, which keeps the weather of the days that have passed:
+     *
+     *     content://com.example.android.sunshine/archive?from=1475280000000&to=1475798400000
+     *
+     * QUERY_PARAMETER_FROM and QUERY_PARAMETER_TO are the first and last dates to include, as for
+     * an aggregate; either may be left out. Like a weather URI, it is about the location in the
+     * preferences unless QUERY_PARAMETER_LOCATION_ID is added.
+     */
+    public static final String PATH_ARCHIVE = "archive";
+
+    /*
+     * The stretch of time an archived row covers, stored in ArchiveEntry#COLUMN_PERIOD. Days that
+     * have passed are archived one row per day; as they get older, they are compacted into one
+     * row per week, and later one row per month.
+     */
+    public static final String PERIOD_DAY = "day";
+    public static final String PERIOD_WEEK = "week";
+    public static final String PERIOD_MONTH = "month";
+
+    /*
+     * The path of the hourly forecast, which the weather server gives in steps of 3 hours:
+     *
+     *     content://com.example.android.sunshine/hourly?from=1475280000000&to=1475452800000
+     *
+     * QUERY_PARAMETER_FROM and QUERY_PARAMETER_TO are the first and last times to include, in
+     * milliseconds; unlike dates, they aren't normalized. Either may be left out. Like a weather
+     * URI, it is about the location in the preferences unless QUERY_PARAMETER_LOCATION_ID is
+     * added.
+     */
+    public static final String PATH_HOURLY = "hourly";
+
+    /*
+     * The path of WeatherProvider's own metrics: how many times each kind of operation ran, on
+     * which kind of URI, how long it took and how many rows it touched. It can only be queried,
+     * and isn't stored anywhere, so it starts from zero whenever the app's process does:
+     *
+     *     adb shell content query --uri content://com.example.android.sunshine/metrics
+     *
+     * The same metrics are printed by dumpsys activity provider WeatherProvider, along with the
+     * number of operations each calling app made. Those are left out of the query, as the
+     * provider is exported and any app could otherwise learn which other apps use it.
+     */
+    public static final String PATH_METRICS = "metrics";
+
+    /*
+     * Added to any weather URI to read or write the weather of one stored location, by its _ID
+     * in the location table:
+     *
+     *     content://com.example.android.sunshine/weather?location_id=2
+     *
+     * Without it, a weather URI is about the location the user has set in the preferences.
+     */
+    public static final String QUERY_PARAMETER_LOCATION_ID = "location_id";
+
+    /*
+     * Appended to the weather path to bulkInsert a complete forecast that should be reconciled
+     * with the forecast that is already stored, rather than simply added to it.
+     */
+    public static final String PATH_RECONCILE = "reconcile";
+
+    /*
+     * Appended to the weather path to form the URI that cursors over more than one day are
+     * notified on. Nothing can be queried at it. A write notifies it once, however many days it
+     * changed, and notifies the URI of each changed date on its own. As it isn't a date's parent,
+     * a Cursor over a single day is only notified when that day changes.
+     */
+    public static final String PATH_ROWS = "rows";
+
+    /*
+     * Appended to the weather path, followed by a first and a last date, to query the weather for
+     * a range of days:
+     *
+     *     content://com.example.android.sunshine/weather/range/1475280000000/1475798400000
+     */
+    public static final String PATH_RANGE = "range";
+
+    /*
+     * Appended to the weather path, followed by a date, to query one page of the days after that
+     * date. The size of the page is given by the QUERY_PARAMETER_LIMIT query parameter:
+     *
+     *     content://com.example.android.sunshine/weather/after/1475280000000?limit=14
+     *
+     * To get the next page, ask for the days after the last date of the page you just read. Each
+     * page is a single lookup in the table's date index, no matter how far into the table it is.
+     */
+    public static final String PATH_AFTER = "after";
+    public static final String QUERY_PARAMETER_LIMIT = "limit";
+
+    /* The number of days in a page when QUERY_PARAMETER_LIMIT isn't given */
+    public static final int DEFAULT_PAGE_SIZE = 14;
+
+    /*
+     * Appended to the weather path to summarize a range of days in a single row, computed by
+     * SQLite rather than by reading every day into a Cursor:
+     *
+     *     content://com.example.android.sunshine/weather/aggregate?from=1475280000000&fn=max
+     *
+     * QUERY_PARAMETER_FROM and QUERY_PARAMETER_TO are the first and last dates to include; either
+     * may be left out. See WeatherEntry#getAggregateColumnName for the columns of the row.
+     */
+    public static final String PATH_AGGREGATE = "aggregate";
+    public static final String QUERY_PARAMETER_FROM = "from";
+    public static final String QUERY_PARAMETER_TO = "to";
+
+    /*
+     * The aggregate functions, passed in QUERY_PARAMETER_FUNCTION to choose the columns of an
+     * aggregate query that has no projection. Without it, every function is computed.
+     */
+    public static final String QUERY_PARAMETER_FUNCTION = "fn";
+    public static final String FUNCTION_MIN = "min";
+    public static final String FUNCTION_MAX = "max";
+    public static final String FUNCTION_AVG = "avg";
+    public static final String FUNCTION_COUNT = "count";
+
+    /*
+     * The name of the ContentProvider#call method that reconciles the stored forecast with a
+     * ForecastBatch, passed in the extras under EXTRA_FORECAST_BATCH. This does the same as a
+     * bulkInsert to CONTENT_RECONCILE_URI without first turning every day into ContentValues.
+     * The number of rows that were written is returned under EXTRA_ROWS_WRITTEN.
+     */
+    public static final String METHOD_RECONCILE_FORECAST = "reconcile_forecast";
+    public static final String EXTRA_FORECAST_BATCH = "forecast_batch";
+    public static final String EXTRA_ROWS_WRITTEN = "rows_written";
+
+    /*
+     * The call's arg is the location setting the forecast is for, or null for the preferred
+     * location. If the response told us where that location is, its coordinates are passed in
+     * the extras as doubles under these keys, to be stored with the location.
+     */
+    public static final String EXTRA_COORD_LAT = "coord_lat";
+    public static final String EXTRA_COORD_LONG = "coord_long";
+
+    /*
+     * Reconciles the forecasts of several locations in a single transaction. The extras hold the
+     * location settings as a String array under EXTRA_LOCATION_SETTINGS, and the ForecastBatch of
+     * each location, in the same order, as a Parcelable array under EXTRA_FORECAST_BATCHES. The
+     * coordinates of the locations may be passed as a double array of latitude and longitude
+     * pairs under EXTRA_COORDINATES, with NaN for a location whose coordinates are unknown. The
+     * call's arg is unused. This is meant for refreshing locations in the background, so unlike
+     * METHOD_RECONCILE_FORECAST it doesn't mark the locations as recently used. The number of
+     * rows that were written, in all locations together, is returned under EXTRA_ROWS_WRITTEN.
+     */
+    public static final String METHOD_RECONCILE_FORECASTS = "reconcile_forecasts";
+    public static final String EXTRA_LOCATION_SETTINGS = "location_settings";
+    public static final String EXTRA_FORECAST_BATCHES = "forecast_batches";
+    public static final String EXTRA_COORDINATES = "coordinates";
+
+    /*
+     * Reads a window of the stored forecast of a location back as a ForecastBatch, under
+     * EXTRA_FORECAST_BATCH: one primitive array per column, rather than a Cursor with one row per
+     * day. Readers that want a few values of a few days, such as the notification or the watch,
+     * then skip building a CursorWindow and, from another process, copying it across. The first
+     * and last dates to include may be passed as longs under EXTRA_FROM and EXTRA_TO. The call's
+     * arg is the location setting, or null for the preferred location.
+     */
+    public static final String METHOD_READ_FORECAST = "read_forecast";
+
+    /*
+     * Compacts the archive of every stored location. Days older than EXTRA_DAILY_RETENTION_DAYS
+     * are rolled up into weeks, weeks older than EXTRA_WEEKLY_RETENTION_DAYS into months, and
+     * months older than EXTRA_MONTHLY_RETENTION_DAYS are deleted. All three are ints in the
+     * extras. The number of rows the archive shrank by is returned under EXTRA_ROWS_REMOVED.
+     */
+    public static final String METHOD_COMPACT_ARCHIVE = "compact_archive";
+    public static final String EXTRA_DAILY_RETENTION_DAYS = "daily_retention_days";
+    public static final String EXTRA_WEEKLY_RETENTION_DAYS = "weekly_retention_days";
+    public static final String EXTRA_MONTHLY_RETENTION_DAYS = "monthly_retention_days";
+    public static final String EXTRA_ROWS_REMOVED = "rows_removed";
+
+    /* Inner class that defines the table contents of the archive table */
+    public static final class ArchiveEntry {
+
+        /* The base CONTENT_URI used to query the archive from the content provider */
+        public static final Uri CONTENT_URI = BASE_CONTENT_URI.buildUpon()
+                .appendPath(PATH_ARCHIVE)
+                .build();
+
+        /* Used internally as the name of our archive table. */
+        public static final String TABLE_NAME = "archive";
+
+        /* The _ID of the row in the location table this weather was stored for */
+        public static final String COLUMN_LOCATION_ID = "location_id";
+
+        /* One of PERIOD_DAY, PERIOD_WEEK or PERIOD_MONTH */
+        public static final String COLUMN_PERIOD = "period";
+
+        /*
+         * The normalized date of the first day of the period. Weeks start on Monday, and months
+         * on the first of the month, both in UTC.
+         */
+        public static final String COLUMN_DATE = "date";
+
+        /* How many archived days the row summarizes; always 1 for a day */
+        public static final String COLUMN_DAY_COUNT = "day_count";
+
+        /* The weather ID of a day. Null for a week or a month, which have no single icon. */
+        public static final String COLUMN_WEATHER_ID = "weather_id";
+
+        /* The lowest low and the highest high of the period, in °C */
+        public static final String COLUMN_MIN_TEMP = "min";
+        public static final String COLUMN_MAX_TEMP = "max";
+
+        /* The average humidity, pressure and wind speed of the period */
+        public static final String COLUMN_HUMIDITY = "humidity";
+        public static final String COLUMN_PRESSURE = "pressure";
+        public static final String COLUMN_WIND_SPEED = "wind";
+
+        /**
+         * Builds a URI to query the archived weather from startDate to endDate, both included.
+         * The rows are sorted by date unless the query asks for another sort order. Use
+         * {@link WeatherEntry#buildLocationScopedUri} to query another stored location.
+         *
+         * @param startDate Normalized date in milliseconds of the first day
+         * @param endDate   Normalized date in milliseconds of the last day
+         * @return Uri to query the archive
+         */
+        public static Uri buildArchiveRangeUri(long startDate, long endDate) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_FROM, Long.toString(startDate))
+                    .appendQueryParameter(QUERY_PARAMETER_TO, Long.toString(endDate))
+                    .build();
+        }
+    }
+
+    /*
+     * Replaces the stored hourly forecast of a location with a HourlyForecast, passed in the
+     * extras under EXTRA_HOURLY_FORECAST. The call's arg is the location setting, or null for the
+     * preferred location. The number of steps written is returned under EXTRA_ROWS_WRITTEN.
+     */
+    public static final String METHOD_REPLACE_HOURLY_FORECAST = "replace_hourly_forecast";
+    public static final String EXTRA_HOURLY_FORECAST = "hourly_forecast";
+
+    /*
+     * Reads the stored hourly forecast of a location back as a HourlyForecast, under
+     * EXTRA_HOURLY_FORECAST, with one array per column rather than a Cursor with one row per
+     * step. This is the way to read it for a chart. The first and last times to include may be
+     * passed as longs under EXTRA_FROM and EXTRA_TO. The call's arg is the location setting, or
+     * null for the preferred location.
+     */
+    public static final String METHOD_READ_HOURLY_FORECAST = "read_hourly_forecast";
+    public static final String EXTRA_FROM = "from";
+    public static final String EXTRA_TO = "to";
+
+    /*
+     * Tells how fresh the stored forecast of a location is, without reading any of it. Whether
+     * there is a day from today onwards is returned as a boolean under EXTRA_HAS_FORECAST, and
+     * when the last sync completed, in UNIX time or 0 if none ever has, as a long under
+     * EXTRA_LAST_SYNC_TIME. The call's arg is the location setting, or null for the preferred
+     * location.
+     */
+    public static final String METHOD_FRESHNESS = "freshness";
+    public static final String EXTRA_HAS_FORECAST = "has_forecast";
+    public static final String EXTRA_LAST_SYNC_TIME = "last_sync_time";
+
+    /* Inner class that defines the table contents of the hourly table */
+    public static final class HourlyEntry {
+
+        /* The base CONTENT_URI used to query the hourly table from the content provider */
+        public static final Uri CONTENT_URI = BASE_CONTENT_URI.buildUpon()
+                .appendPath(PATH_HOURLY)
+                .build();
+
+        /* Used internally as the name of our hourly table. */
+        public static final String TABLE_NAME = "hourly";
+
+        /* The _ID of the row in the location table this forecast was stored for */
+        public static final String COLUMN_LOCATION_ID = "location_id";
+
+        /* The UTC time in milliseconds at which the step starts */
+        public static final String COLUMN_TIME = "time";
+
+        /* Weather id as returned by API, used to identify the icon to be used */
+        public static final String COLUMN_WEATHER_ID = "weather_id";
+
+        /*
+         * There are several times as many steps as days, so the hourly table is kept small by
+         * storing the values as whole numbers, which SQLite packs into one or two bytes, rather
+         * than as 8 byte REALs. The temperature, pressure and wind speed are in tenths of °C, of
+         * hPa and of a unit of speed; the humidity is a percentage and the direction in whole
+         * degrees. METHOD_READ_HOURLY_FORECAST converts them back.
+         */
+        public static final String COLUMN_TEMP_TENTHS = "temp";
+        public static final String COLUMN_HUMIDITY = "humidity";
+        public static final String COLUMN_PRESSURE_TENTHS = "pressure";
+        public static final String COLUMN_WIND_SPEED_TENTHS = "wind";
+        public static final String COLUMN_DEGREES = "degrees";
+
+        /**
+         * Builds a URI to query the hourly forecast from startTime to endTime, both included.
+         * The rows are sorted by time unless the query asks for another sort order. Use
+         * {@link WeatherEntry#buildLocationScopedUri} to query another stored location.
+         *
+         * @param startTime UTC time in milliseconds of the first step
+         * @param endTime   UTC time in milliseconds of the last step
+         * @return Uri to query the hourly forecast
+         */
+        public static Uri buildHourlyRangeUri(long startTime, long endTime) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_FROM, Long.toString(startTime))
+                    .appendQueryParameter(QUERY_PARAMETER_TO, Long.toString(endTime))
+                    .build();
+        }
+    }
+
+    /* Inner class that defines the columns of the metrics, which aren't stored in a table */
+    public static final class MetricsEntry {
+
+        /* The CONTENT_URI used to query the metrics from the content provider */
+        public static final Uri CONTENT_URI = BASE_CONTENT_URI.buildUpon()
+                .appendPath(PATH_METRICS)
+                .build();
+
+        /*
+         * What the row measures: the kind of operation followed by what it was on, such as
+         * "query weather/#", "call reconcile_forecast" or "transaction reconcile".
+         */
+        public static final String COLUMN_NAME = "name";
+
+        /* How many times the operation ran */
+        public static final String COLUMN_COUNT = "count";
+
+        /* How many rows it returned or wrote, in total */
+        public static final String COLUMN_ROWS = "rows";
+
+        /*
+         * How long it took, in microseconds. The percentiles are estimated from a histogram, and
+         * can be up to twice the real value.
+         */
+        public static final String COLUMN_AVG_MICROS = "avg_us";
+        public static final String COLUMN_P50_MICROS = "p50_us";
+        public static final String COLUMN_P95_MICROS = "p95_us";
+        public static final String COLUMN_P99_MICROS = "p99_us";
+        public static final String COLUMN_MAX_MICROS = "max_us";
+    }
+
+    /* Inner class that defines the table contents of the location table */
+    public static final class LocationEntry implements BaseColumns {
+
+        /* The base CONTENT_URI used to query the location table from the content provider */
+        public static final Uri CONTENT_URI = BASE_CONTENT_URI.buildUpon()
+                .appendPath(PATH_LOCATION)
+                .build();
+
+        /* Used internally as the name of our location table. */
+        public static final String TABLE_NAME = "location";
+
+        /*
+         * The location setting is the string the user typed into the preferences, such as
+         * "94043,USA", which is what we send to OpenWeatherMap. Every setting is stored once.
+         */
+        public static final String COLUMN_LOCATION_SETTING = "location_setting";
+
+        /*
+         * The latitude and longitude of the city, as OpenWeatherMap reported them in the last
+         * response for this location. Null until the first sync for it has finished.
+         */
+        public static final String COLUMN_COORD_LAT = "coord_lat";
+        public static final String COLUMN_COORD_LONG = "coord_long";
+
+        /*
+         * When the weather for this location was last written, in milliseconds since the epoch.
+         * Only the most recently used locations are kept, along with their weather.
+         */
+        public static final String COLUMN_LAST_USED = "last_used";
+
+        /**
+         * Builds a URI to query a single stored location by its _ID.
+         *
+         * @param id The _ID of the location
+         * @return Uri to query a single location
+         */
+        public static Uri buildLocationUri(long id) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(Long.toString(id))
+                    .build();
+        }
+    }
+
     /* Inner class that defines the table contents of the weather table */
     public static final class WeatherEntry implements BaseColumns {
 
@@ -64,6 +450,22 @@ public class WeatherContract {
                 .appendPath(PATH_WEATHER)
                 .build();
 
+        /*
+         * The URI used to bulkInsert a freshly downloaded forecast. Only the days that changed are
+         * written, and days that are no longer part of the forecast are removed.
+         */
+        public static final Uri CONTENT_RECONCILE_URI = CONTENT_URI.buildUpon()
+                .appendPath(PATH_RECONCILE)
+                .build();
+
+        /*
+         * The URI that cursors over more than one day of weather, such as the forecast list, are
+         * notified on. See PATH_ROWS.
+         */
+        public static final Uri CONTENT_ROWS_URI = CONTENT_URI.buildUpon()
+                .appendPath(PATH_ROWS)
+                .build();
+
         /* Used internally as the name of our weather table. */
         public static final String TABLE_NAME = "weather";
 
@@ -82,9 +484,20 @@ public class WeatherContract {
          * displaying the date. Normalizing the date also allows us an easy way to convert to
          * local time at midnight, as all we have to do is add a particular time zone's GMT
          * offset to this date to get local time at midnight on the appropriate date.
+         *
+         * Along with the location, the date is also the primary key of the weather table. The
+         * table has no _ID column of its own; as every query is about a single location, the date
+         * is unique within its result, so when _ID is part of a query's projection,
+         * WeatherProvider returns the date under that name.
          */
         public static final String COLUMN_DATE = "date";
 
+        /*
+         * The _ID of the row in the location table this weather is for. Together with the date,
+         * it is the primary key of the weather table, so every location keeps its own forecast.
+         */
+        public static final String COLUMN_LOCATION_ID = "location_id";
+
         /* Weather ID as returned by API, used to identify the icon to be used */
         public static final String COLUMN_WEATHER_ID = "weather_id";
 
@@ -123,6 +536,95 @@ public class WeatherContract {
                     .build();
         }
 
+        /**
+         * Builds a URI to query the weather for every day from startDate to endDate, both
+         * included. The days are sorted by date unless the query asks for another sort order.
+         *
+         * @param startDate Normalized date in milliseconds of the first day
+         * @param endDate   Normalized date in milliseconds of the last day
+         * @return Uri to query the weather for a range of days
+         */
+        public static Uri buildWeatherRangeUri(long startDate, long endDate) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(PATH_RANGE)
+                    .appendPath(Long.toString(startDate))
+                    .appendPath(Long.toString(endDate))
+                    .build();
+        }
+
+        /**
+         * Builds a URI to query a page of at most pageSize days after the given date, sorted by
+         * date. To page through the whole table, start with a date before the first stored day
+         * (0 will do), then pass the date of the last day of each page to get the next one. A
+         * page with fewer than pageSize days is the last one.
+         *
+         * @param date     Normalized date in milliseconds. Only days after it are returned.
+         * @param pageSize The most days to return
+         * @return Uri to query a page of weather
+         */
+        public static Uri buildWeatherPageUri(long date, int pageSize) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(PATH_AFTER)
+                    .appendPath(Long.toString(date))
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, Integer.toString(pageSize))
+                    .build();
+        }
+
+        /**
+         * Builds a URI to summarize the weather from startDate to endDate, both included, in a
+         * single row.
+         *
+         * @param startDate Normalized date in milliseconds of the first day
+         * @param endDate   Normalized date in milliseconds of the last day
+         * @param function  One of the FUNCTION_ constants in {@link WeatherContract}, or null to
+         *                  compute all of them
+         * @return Uri to query an aggregate of the weather
+         */
+        public static Uri buildWeatherAggregateUri(long startDate, long endDate, String function) {
+            Uri.Builder builder = CONTENT_URI.buildUpon()
+                    .appendPath(PATH_AGGREGATE)
+                    .appendQueryParameter(QUERY_PARAMETER_FROM, Long.toString(startDate))
+                    .appendQueryParameter(QUERY_PARAMETER_TO, Long.toString(endDate));
+
+            if (function != null) {
+                builder.appendQueryParameter(QUERY_PARAMETER_FUNCTION, function);
+            }
+            return builder.build();
+        }
+
+        /**
+         * Scopes any of the weather URIs built above to a stored location, rather than the
+         * location the user has set in the preferences. This is how a screen can show the weather
+         * of another city that Sunshine has already stored, without a sync.
+         *
+         * @param weatherUri A weather URI, such as CONTENT_URI or one built by this class
+         * @param locationId The _ID of the location in the location table
+         * @return The same URI, for the given location
+         */
+        public static Uri buildLocationScopedUri(Uri weatherUri, long locationId) {
+            return weatherUri.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_LOCATION_ID, Long.toString(locationId))
+                    .build();
+        }
+
+        /**
+         * Returns the name of a column in the row of an aggregate query. FUNCTION_MIN,
+         * FUNCTION_MAX and FUNCTION_AVG can be applied to COLUMN_MIN_TEMP, COLUMN_MAX_TEMP,
+         * COLUMN_HUMIDITY, COLUMN_PRESSURE and COLUMN_WIND_SPEED; the average high temperature,
+         * for example, is in the column named
+         * {@code getAggregateColumnName(FUNCTION_AVG, COLUMN_MAX_TEMP)}. The number of days is
+         * in the column named FUNCTION_COUNT.
+         * <p>
+         * If no day falls in the range, the count is 0 and every other column is null.
+         *
+         * @param function One of FUNCTION_MIN, FUNCTION_MAX or FUNCTION_AVG
+         * @param column   The column the function is applied to
+         * @return The name of the column holding the result
+         */
+        public static String getAggregateColumnName(String function, String column) {
+            return function + "_" + column;
+        }
+
         /**
          * Returns just the selection part of the weather query from a normalized today value.
          * This is used to get a weather forecast from today's date. To make this easy to use
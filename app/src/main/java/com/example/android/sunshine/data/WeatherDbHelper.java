@@ -16,10 +16,26 @@
 package com.example.android.sunshine.data;
 
 import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+import android.text.TextUtils;
 
+import com.example.android.sunshine.data.WeatherContract.ArchiveEntry;
+import com.example.android.sunshine.data.WeatherContract.HourlyEntry;
+import com.example.android.sunshine.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Manages a local database for weather data.
@@ -43,39 +59,208 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
      * use-case, we wanted to watch out for it and warn you what could happen if you mistakenly
      * version your databases.
      */
-    private static final int DATABASE_VERSION = 3;
+    private static final int DATABASE_VERSION = 7;
+
+    /*
+     * In write-ahead logging mode, SQLite appends every committed transaction to a separate log
+     * file and copies it back into the database file during a "checkpoint". By default, SQLite
+     * checkpoints once the log reaches 1000 pages. Our syncs only write a few pages at a time, so
+     * we checkpoint after every sync instead (see checkpoint) and keep the automatic checkpoint
+     * for very large writes, at a lower threshold so that the log stays small.
+     */
+    private static final int WAL_AUTOCHECKPOINT_PAGES = 100;
+
+    /*
+     * A checkpoint doesn't shrink the log file, it only starts overwriting it from the beginning.
+     * After a large write, SQLite truncates the file back down to this size.
+     */
+    private static final long WAL_JOURNAL_SIZE_LIMIT_BYTES = 512 * 1024;
+
+    /* Selects the rows whose date is normalized, the only rows migrations carry forward */
+    private static final String NORMALIZED_DATE_FILTER =
+            WeatherEntry.COLUMN_DATE + " % " + SunshineDateUtils.DAY_IN_MILLIS + " = 0";
+
+    /* Used by the migration to version 5 to find the location the stored weather is for */
+    private final Context mContext;
 
     public WeatherDbHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        mContext = context;
+
+        /*
+         * In the default rollback journal mode, a write transaction locks the whole database, so
+         * MainActivity, DetailActivity and notifications can't read the weather while a sync is
+         * writing it. With write-ahead logging, readers keep seeing the last committed forecast
+         * while a sync writes the next one, and Android gives them their own connections to do so.
+         */
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            setWriteAheadLoggingEnabled(true);
+        }
     }
 
     /**
-     * Called when the database is created for the first time. This is where the creation of
-     * tables and the initial population of the tables should happen.
+     * Called when the database has been opened. Before Jelly Bean, SQLiteOpenHelper can't enable
+     * write-ahead logging for us, so we do it here. We also apply our checkpoint policy, which
+     * only matters for the connection that writes.
      *
      * @param sqLiteDatabase The database.
      */
     @Override
-    public void onCreate(SQLiteDatabase sqLiteDatabase) {
+    public void onOpen(SQLiteDatabase sqLiteDatabase) {
+        super.onOpen(sqLiteDatabase);
 
-        /*
-         * This String will contain a simple SQL statement that will create a table that will
-         * cache our weather data.
-         */
-        final String SQL_CREATE_WEATHER_TABLE =
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            sqLiteDatabase.enableWriteAheadLogging();
+        }
+
+        /* PRAGMAs that set a value also return it, so they are run as queries */
+        DatabaseUtils.longForQuery(sqLiteDatabase,
+                "PRAGMA wal_autocheckpoint = " + WAL_AUTOCHECKPOINT_PAGES, null);
+        DatabaseUtils.longForQuery(sqLiteDatabase,
+                "PRAGMA journal_size_limit = " + WAL_JOURNAL_SIZE_LIMIT_BYTES, null);
+    }
+
+    /**
+     * Copies whatever has been committed to the write-ahead log back into the database file,
+     * without waiting for readers that are still using older pages. WeatherProvider calls this
+     * after each bulk write, while the app is otherwise idle, so that readers don't have to look
+     * through a growing log to find the current version of each page.
+     *
+     * @param sqLiteDatabase The database, which must not be in a transaction
+     */
+    static void checkpoint(SQLiteDatabase sqLiteDatabase) {
+        /* In rollback journal mode, this does nothing */
+        DatabaseUtils.longForQuery(sqLiteDatabase, "PRAGMA wal_checkpoint(PASSIVE)", null);
+    }
+
+    /*
+     * This String contains the SQL statement that creates the table that caches our weather data,
+     * as it was laid out in version 3 of our database. Every version keeps its own statement, as
+     * the migration to a version must create the table exactly as it was in that version, even
+     * once later versions have changed it.
+     */
+    private static final String SQL_CREATE_WEATHER_TABLE_V3 =
+
+            "CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
+
+            /*
+             * WeatherEntry did not explicitly declare a column called "_ID". However,
+             * WeatherEntry implements the interface, "BaseColumns", which does have a field
+             * named "_ID". We use that here to designate our table's primary key.
+             */
+            WeatherEntry._ID               + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+
+            WeatherEntry.COLUMN_DATE       + " INTEGER NOT NULL, "                 +
+
+            WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL,"                  +
+
+            WeatherEntry.COLUMN_MIN_TEMP   + " REAL NOT NULL, "                    +
+            WeatherEntry.COLUMN_MAX_TEMP   + " REAL NOT NULL, "                    +
+
+            WeatherEntry.COLUMN_HUMIDITY   + " REAL NOT NULL, "                    +
+            WeatherEntry.COLUMN_PRESSURE   + " REAL NOT NULL, "                    +
+
+            WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, "                    +
+            WeatherEntry.COLUMN_DEGREES    + " REAL NOT NULL, "                    +
+
+            /*
+             * To ensure this table can only contain one weather entry per date, we declare
+             * the date column to be unique. We also specify "ON CONFLICT REPLACE". This tells
+             * SQLite that if we have a weather entry for a certain date and we attempt to
+             * insert another weather entry with that date, we replace the old weather entry.
+             */
+            " UNIQUE (" + WeatherEntry.COLUMN_DATE + ") ON CONFLICT REPLACE);";
+
+    /**
+     * Spells out the SQL statement that creates the weather table as of version 4 of our
+     * database. Version 3 kept each row under an _ID, with a separate unique index on the date,
+     * so every write had to update two B-trees (and sqlite_sequence, for AUTOINCREMENT), while
+     * every query looked rows up by date. From version 4, the normalized date is the primary key
+     * and the table is stored in date order, so a lookup by date or a range of dates reads a
+     * single B-tree. Cursor consumers that need an _ID get the date under that name from
+     * WeatherProvider.
+     *
+     * @return The CREATE TABLE statement for the weather table
+     */
+    static String createWeatherTableV4Sql() {
+        return "CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
+
+                /*
+                 * Declaring the date as the primary key, "ON CONFLICT REPLACE" means that if we
+                 * have a weather entry for a certain date and we attempt to insert another weather
+                 * entry with that date, we replace the old weather entry.
+                 */
+                WeatherEntry.COLUMN_DATE       + " INTEGER NOT NULL "                  +
+                        "PRIMARY KEY ON CONFLICT REPLACE, "                            +
 
-                "CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
+                WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, "                 +
+
+                WeatherEntry.COLUMN_MIN_TEMP   + " REAL NOT NULL, "                    +
+                WeatherEntry.COLUMN_MAX_TEMP   + " REAL NOT NULL, "                    +
+
+                WeatherEntry.COLUMN_HUMIDITY   + " REAL NOT NULL, "                    +
+                WeatherEntry.COLUMN_PRESSURE   + " REAL NOT NULL, "                    +
+
+                WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, "                    +
+                WeatherEntry.COLUMN_DEGREES    + " REAL NOT NULL)"                     +
 
                 /*
-                 * WeatherEntry did not explicitly declare a column called "_ID". However,
-                 * WeatherEntry implements the interface, "BaseColumns", which does have a field
-                 * named "_ID". We use that here to designate our table's primary key.
+                 * WITHOUT ROWID stores the rows in the primary key's B-tree itself. It needs
+                 * SQLite 3.8.2, which Android ships from Lollipop. On older versions, an INTEGER
+                 * PRIMARY KEY becomes the rowid instead, which also stores the rows in date
+                 * order, in a single B-tree.
                  */
-                WeatherEntry._ID               + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                (isWithoutRowidSupported() ? " WITHOUT ROWID;" : ";");
+    }
+
+    /*
+     * This String contains the SQL statement that creates the table of the locations we have
+     * weather for, as of version 5 of our database.
+     */
+    private static final String SQL_CREATE_LOCATION_TABLE =
+
+            "CREATE TABLE " + LocationEntry.TABLE_NAME + " (" +
+
+            LocationEntry._ID                     + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+
+            /*
+             * Each location setting is stored once, so that the weather of a city the user
+             * switches back to is found again, rather than stored a second time.
+             */
+            LocationEntry.COLUMN_LOCATION_SETTING + " TEXT NOT NULL UNIQUE, "              +
+
+            /* Unknown until the first sync for the location has finished */
+            LocationEntry.COLUMN_COORD_LAT        + " REAL, "                              +
+            LocationEntry.COLUMN_COORD_LONG       + " REAL, "                              +
+
+            /*
+             * Locations that were left behind by older versions of Sunshine were never used by
+             * this one, so they are the first to go.
+             */
+            LocationEntry.COLUMN_LAST_USED        + " INTEGER NOT NULL DEFAULT 0);";
+
+    /**
+     * Spells out the SQL statement that creates the weather table as of version 5 of our
+     * database, which stores the weather of more than one location. The rows are keyed by their
+     * location and their date, in that order, so that the forecast of one location is stored in
+     * date order in a single stretch of the primary key, and every query Sunshine makes is still
+     * a single range of that key.
+     *
+     * @return The CREATE TABLE statement for the weather table
+     */
+    static String createWeatherTableV5Sql() {
+        return "CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
+
+                /*
+                 * The _ID of the location in the location table. SQLite doesn't enforce foreign
+                 * keys unless asked to, so WeatherProvider deletes the weather of a location
+                 * along with the location.
+                 */
+                WeatherEntry.COLUMN_LOCATION_ID + " INTEGER NOT NULL, "                +
 
                 WeatherEntry.COLUMN_DATE       + " INTEGER NOT NULL, "                 +
 
-                WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL,"                  +
+                WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, "                 +
 
                 WeatherEntry.COLUMN_MIN_TEMP   + " REAL NOT NULL, "                    +
                 WeatherEntry.COLUMN_MAX_TEMP   + " REAL NOT NULL, "                    +
@@ -87,27 +272,124 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 WeatherEntry.COLUMN_DEGREES    + " REAL NOT NULL, "                    +
 
                 /*
-                 * To ensure this table can only contain one weather entry per date, we declare
-                 * the date column to be unique. We also specify "ON CONFLICT REPLACE". This tells
-                 * SQLite that if we have a weather entry for a certain date and we attempt to
-                 * insert another weather entry with that date, we replace the old weather entry.
+                 * One weather entry per location and date. Inserting another one for the same
+                 * location and date replaces the old one.
                  */
-                " UNIQUE (" + WeatherEntry.COLUMN_DATE + ") ON CONFLICT REPLACE);";
+                "PRIMARY KEY (" + WeatherEntry.COLUMN_LOCATION_ID + ", "
+                        + WeatherEntry.COLUMN_DATE + ") ON CONFLICT REPLACE)"          +
+
+                /*
+                 * Without WITHOUT ROWID, which needs Lollipop, a composite primary key is a
+                 * separate index next to the rowid table. Queries still find their rows through
+                 * that index, at the cost of a second lookup per row.
+                 */
+                (isWithoutRowidSupported() ? " WITHOUT ROWID;" : ";");
+    }
+
+    /**
+     * Spells out the SQL statement that creates the archive table, added in version 6 of our
+     * database. The rows are keyed by location, then date, then period, so that the history of a
+     * location over a range of dates, whatever mix of days, weeks and months it has been
+     * compacted into, is a single range of the primary key.
+     *
+     * @return The CREATE TABLE statement for the archive table
+     */
+    static String createArchiveTableSql() {
+        return "CREATE TABLE " + ArchiveEntry.TABLE_NAME + " (" +
+
+                ArchiveEntry.COLUMN_LOCATION_ID + " INTEGER NOT NULL, "                +
+                ArchiveEntry.COLUMN_DATE        + " INTEGER NOT NULL, "                +
+                ArchiveEntry.COLUMN_PERIOD      + " TEXT NOT NULL, "                   +
+
+                ArchiveEntry.COLUMN_DAY_COUNT   + " INTEGER NOT NULL, "                +
+
+                /* Null once days have been compacted into a week or a month */
+                ArchiveEntry.COLUMN_WEATHER_ID  + " INTEGER, "                         +
+
+                ArchiveEntry.COLUMN_MIN_TEMP    + " REAL NOT NULL, "                   +
+                ArchiveEntry.COLUMN_MAX_TEMP    + " REAL NOT NULL, "                   +
+
+                ArchiveEntry.COLUMN_HUMIDITY    + " REAL NOT NULL, "                   +
+                ArchiveEntry.COLUMN_PRESSURE    + " REAL NOT NULL, "                   +
+                ArchiveEntry.COLUMN_WIND_SPEED  + " REAL NOT NULL, "                   +
+
+                /*
+                 * A day that is archived again replaces its earlier copy, and a compacted week or
+                 * month replaces the row it was compacted into before.
+                 */
+                "PRIMARY KEY (" + ArchiveEntry.COLUMN_LOCATION_ID + ", "
+                        + ArchiveEntry.COLUMN_DATE + ", "
+                        + ArchiveEntry.COLUMN_PERIOD + ") ON CONFLICT REPLACE)"        +
+
+                (isWithoutRowidSupported() ? " WITHOUT ROWID;" : ";");
+    }
+
+    /**
+     * Spells out the SQL statement that creates the hourly table, added in version 7 of our
+     * database. The rows are keyed by location, then time, so that the steps of one location are
+     * stored in time order in a single stretch of the primary key: a chart of the next day is a
+     * single range scan, and needs no index of its own. The values are stored as whole numbers,
+     * see {@link HourlyEntry#COLUMN_TEMP_TENTHS}.
+     *
+     * @return The CREATE TABLE statement for the hourly table
+     */
+    static String createHourlyTableSql() {
+        return "CREATE TABLE " + HourlyEntry.TABLE_NAME + " (" +
+
+                HourlyEntry.COLUMN_LOCATION_ID       + " INTEGER NOT NULL, "           +
+                HourlyEntry.COLUMN_TIME              + " INTEGER NOT NULL, "           +
+
+                HourlyEntry.COLUMN_WEATHER_ID        + " INTEGER NOT NULL, "           +
+                HourlyEntry.COLUMN_TEMP_TENTHS       + " INTEGER NOT NULL, "           +
+                HourlyEntry.COLUMN_HUMIDITY          + " INTEGER NOT NULL, "           +
+                HourlyEntry.COLUMN_PRESSURE_TENTHS   + " INTEGER NOT NULL, "           +
+                HourlyEntry.COLUMN_WIND_SPEED_TENTHS + " INTEGER NOT NULL, "           +
+                HourlyEntry.COLUMN_DEGREES           + " INTEGER NOT NULL, "           +
+
+                "PRIMARY KEY (" + HourlyEntry.COLUMN_LOCATION_ID + ", "
+                        + HourlyEntry.COLUMN_TIME + ") ON CONFLICT REPLACE)"           +
+
+                (isWithoutRowidSupported() ? " WITHOUT ROWID;" : ";");
+    }
+
+    /**
+     * @return true if this device's SQLite supports WITHOUT ROWID tables
+     */
+    static boolean isWithoutRowidSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP;
+    }
+
+    /**
+     * Called when the database is created for the first time. This is where the creation of
+     * tables and the initial population of the tables should happen.
+     *
+     * @param sqLiteDatabase The database.
+     */
+    @Override
+    public void onCreate(SQLiteDatabase sqLiteDatabase) {
 
         /*
          * After we've spelled out our SQLite table creation statement above, we actually execute
-         * that SQL with the execSQL method of our SQLite database object.
+         * that SQL with the execSQL method of our SQLite database object. A new database always
+         * gets the layout of the current version.
          */
-        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
+        sqLiteDatabase.execSQL(createWeatherTableV5Sql());
+        sqLiteDatabase.execSQL(createArchiveTableSql());
+        sqLiteDatabase.execSQL(createHourlyTableSql());
     }
 
     /**
-     * This database is only a cache for online data, so its upgrade policy is simply to discard
-     * the data and call through to onCreate to recreate the table. Note that this only fires if
-     * you change the version number for your database (in our case, DATABASE_VERSION). It does NOT
-     * depend on the version number for your application found in your app/build.gradle file. If
-     * you want to update the schema without wiping data, commenting out the current body of this
-     * method should be your top priority before modifying this method.
+     * Although this database is only a cache for online data, discarding it on upgrade would
+     * force a full sync on the next launch, which is exactly when the user is waiting to see the
+     * weather. So instead, we migrate the database one version at a time, from oldVersion to
+     * newVersion, and every migration carries the existing rows forward. Note that this only
+     * fires if you change the version number for your database (in our case, DATABASE_VERSION).
+     * It does NOT depend on the version number for your application found in your
+     * app/build.gradle file.
+     * <p>
+     * SQLiteOpenHelper runs this method in a transaction, so if any migration fails, the database
+     * is left exactly as it was.
      *
      * @param sqLiteDatabase Database that is being upgraded
      * @param oldVersion     The old database version
@@ -115,7 +397,222 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
      */
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
-        onCreate(sqLiteDatabase);
+        for (int version = oldVersion + 1; version <= newVersion; version++) {
+            migrateTo(sqLiteDatabase, version);
+        }
+    }
+
+    /**
+     * Migrates the database from the previous version to the given one. To change the schema,
+     * increment DATABASE_VERSION, add a case for the new version here, and make onCreate create
+     * the new layout.
+     *
+     * @param sqLiteDatabase Database that is being upgraded
+     * @param version        The version to migrate to
+     */
+    private void migrateTo(SQLiteDatabase sqLiteDatabase, int version) {
+        switch (version) {
+
+            /*
+             * Versions 1 and 2 of weather.db were created by earlier releases of Sunshine. Their
+             * weather table had more columns than ours, such as a key into a separate location
+             * table, and was then changed again by version 3. The migration to version 3 takes
+             * care of both.
+             */
+            case 1:
+            case 2:
+                break;
+
+            /*
+             * Rows from earlier versions are copied into the layout of version 3, as long as
+             * their date has been normalized. Should an older table
+             * have held more than one row for a date, the last one wins, as the date is unique.
+             */
+            case 3:
+                rebuildTable(sqLiteDatabase,
+                        WeatherEntry.TABLE_NAME,
+                        SQL_CREATE_WEATHER_TABLE_V3,
+                        NORMALIZED_DATE_FILTER);
+                break;
+
+            /*
+             * Version 4 keys the weather on its date, so the _ID column is left behind. As the
+             * date is now the key, we make sure once more that only normalized dates get in.
+             */
+            case 4:
+                rebuildTable(sqLiteDatabase,
+                        WeatherEntry.TABLE_NAME,
+                        createWeatherTableV4Sql(),
+                        NORMALIZED_DATE_FILTER);
+                break;
+
+            /*
+             * Version 5 stores the weather of more than one location. Everything stored so far
+             * was synced for the location in the preferences, so that is the location the
+             * existing rows are given. Versions 1 and 2 had a location table of their own, whose
+             * rows are carried forward as well, for what they are worth.
+             */
+            case 5: {
+                rebuildTable(sqLiteDatabase,
+                        LocationEntry.TABLE_NAME,
+                        SQL_CREATE_LOCATION_TABLE,
+                        null);
+
+                long locationId = insertLocation(sqLiteDatabase,
+                        SunshinePreferences.getPreferredWeatherLocation(mContext));
+
+                rebuildTable(sqLiteDatabase,
+                        WeatherEntry.TABLE_NAME,
+                        createWeatherTableV5Sql(),
+                        NORMALIZED_DATE_FILTER,
+                        Collections.singletonMap(WeatherEntry.COLUMN_LOCATION_ID,
+                                Long.toString(locationId)));
+                break;
+            }
+
+            /*
+             * Version 6 keeps the weather of the days that have passed in an archive table of
+             * its own. There is no history to carry forward; it starts filling with the next sync.
+             */
+            case 6:
+                rebuildTable(sqLiteDatabase,
+                        ArchiveEntry.TABLE_NAME,
+                        createArchiveTableSql(),
+                        null);
+                break;
+
+            /*
+             * Version 7 keeps the hourly forecast in a table of its own. It is filled by the next
+             * sync.
+             */
+            case 7:
+                rebuildTable(sqLiteDatabase,
+                        HourlyEntry.TABLE_NAME,
+                        createHourlyTableSql(),
+                        null);
+                break;
+
+            default:
+                throw new IllegalStateException("No migration to database version " + version);
+        }
+    }
+
+    /**
+     * Adds a location setting to the location table, unless it is already there.
+     *
+     * @param sqLiteDatabase  Database holding the location table
+     * @param locationSetting The location setting, as typed into the preferences
+     * @return The _ID of the location
+     */
+    static long insertLocation(SQLiteDatabase sqLiteDatabase, String locationSetting) {
+        String[] locationArgs = new String[]{locationSetting};
+
+        sqLiteDatabase.execSQL("INSERT OR IGNORE INTO " + LocationEntry.TABLE_NAME + " ("
+                        + LocationEntry.COLUMN_LOCATION_SETTING + ", "
+                        + LocationEntry.COLUMN_LAST_USED + ") VALUES (?, ?)",
+                new Object[]{locationSetting, System.currentTimeMillis()});
+
+        return DatabaseUtils.longForQuery(sqLiteDatabase,
+                "SELECT " + LocationEntry._ID + " FROM " + LocationEntry.TABLE_NAME
+                        + " WHERE " + LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                locationArgs);
+    }
+
+    /**
+     * Changes the layout of a table without losing its rows, copying only the columns that both
+     * layouts have in common. See the five-argument version.
+     */
+    static void rebuildTable(SQLiteDatabase sqLiteDatabase, String tableName,
+                             String createTableSql, String rowFilter) {
+        rebuildTable(sqLiteDatabase, tableName, createTableSql, rowFilter,
+                Collections.<String, String>emptyMap());
+    }
+
+    /**
+     * Changes the layout of a table without losing its rows. SQLite's ALTER TABLE can only rename
+     * a table or add a column, so for anything else we follow the copy-table strategy: the old
+     * table is renamed out of the way, the table is created again with its new layout, every row
+     * is copied across, and then the old table is dropped.
+     * <p>
+     * Only the columns that both layouts have in common are copied, along with any new column
+     * that is given a value for every row. If the new layout requires another column that the
+     * old one doesn't have, the rows can't be carried forward and the table is left empty, to be
+     * filled by the next sync.
+     *
+     * @param sqLiteDatabase Database that is being upgraded
+     * @param tableName      The table to change
+     * @param createTableSql Creates the table with its new layout
+     * @param rowFilter      An SQL WHERE clause (without WHERE) for the rows worth keeping, or
+     *                       null to keep every row
+     * @param newColumnValues SQL expressions, by column name, for the columns that the new
+     *                        layout adds
+     */
+    static void rebuildTable(SQLiteDatabase sqLiteDatabase, String tableName,
+                             String createTableSql, String rowFilter,
+                             Map<String, String> newColumnValues) {
+
+        if (!tableExists(sqLiteDatabase, tableName)) {
+            sqLiteDatabase.execSQL(createTableSql);
+            return;
+        }
+
+        String oldTableName = tableName + "_old";
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + oldTableName);
+        sqLiteDatabase.execSQL("ALTER TABLE " + tableName + " RENAME TO " + oldTableName);
+        sqLiteDatabase.execSQL(createTableSql);
+
+        Set<String> oldColumns = new HashSet<>();
+        Cursor oldTableInfo = sqLiteDatabase.rawQuery(
+                "PRAGMA table_info(" + oldTableName + ")", null);
+        try {
+            int nameIndex = oldTableInfo.getColumnIndexOrThrow("name");
+            while (oldTableInfo.moveToNext()) {
+                oldColumns.add(oldTableInfo.getString(nameIndex).toLowerCase(Locale.US));
+            }
+        } finally {
+            oldTableInfo.close();
+        }
+
+        List<String> copiedColumns = new ArrayList<>();
+        List<String> copiedValues = new ArrayList<>();
+        boolean canCopyRows = true;
+
+        Cursor newTableInfo = sqLiteDatabase.rawQuery(
+                "PRAGMA table_info(" + tableName + ")", null);
+        try {
+            int nameIndex = newTableInfo.getColumnIndexOrThrow("name");
+            int notNullIndex = newTableInfo.getColumnIndexOrThrow("notnull");
+            int defaultValueIndex = newTableInfo.getColumnIndexOrThrow("dflt_value");
+            while (newTableInfo.moveToNext()) {
+                String column = newTableInfo.getString(nameIndex);
+                if (oldColumns.contains(column.toLowerCase(Locale.US))) {
+                    copiedColumns.add(column);
+                    copiedValues.add(column);
+                } else if (newColumnValues.containsKey(column)) {
+                    copiedColumns.add(column);
+                    copiedValues.add(newColumnValues.get(column));
+                } else if (newTableInfo.getInt(notNullIndex) != 0
+                        && newTableInfo.isNull(defaultValueIndex)) {
+                    canCopyRows = false;
+                }
+            }
+        } finally {
+            newTableInfo.close();
+        }
+
+        if (canCopyRows && !copiedColumns.isEmpty()) {
+            sqLiteDatabase.execSQL("INSERT INTO " + tableName
+                    + " (" + TextUtils.join(", ", copiedColumns) + ")"
+                    + " SELECT " + TextUtils.join(", ", copiedValues) + " FROM " + oldTableName
+                    + (rowFilter == null ? "" : " WHERE " + rowFilter));
+        }
+
+        sqLiteDatabase.execSQL("DROP TABLE " + oldTableName);
+    }
+
+    private static boolean tableExists(SQLiteDatabase sqLiteDatabase, String tableName) {
+        return DatabaseUtils.longForQuery(sqLiteDatabase,
+                "SELECT COUNT(*) FROM sqlite_master WHERE type = 'table' AND name = ?",
+                new String[]{tableName}) > 0;
     }
-}
\ No newline at end of file
+}
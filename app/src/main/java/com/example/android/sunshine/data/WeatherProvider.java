@@ -15,26 +15,53 @@
  */
 package com.example.android.sunshine.data;
 
-import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
+import android.os.Binder;
+import android.os.Bundle;
+import android.os.Parcelable;
 import android.support.annotation.NonNull;
+import android.support.v4.util.LongSparseArray;
 
+import com.example.android.sunshine.R;
 import com.example.android.sunshine.utilities.SunshineDateUtils;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
 /**
  * This class serves as the ContentProvider for all of Sunshine's data. This class allows us to
- * bulkInsert data, query data, and delete data.
+ * bulkInsert data, reconcile the stored forecast with a new one (through bulkInsert or call),
+ * write single days (through insert, update or applyBatch), query data, and delete data.
+ * <p>
+ * Sunshine keeps the weather of the few locations the user has used most recently, so that
+ * switching back to one of them is a local read. Every weather URI is about a single location:
+ * the one in the preferences, unless the URI names a stored location with
+ * {@link WeatherContract#QUERY_PARAMETER_LOCATION_ID}.
  * <p>
- * Although ContentProvider implementation requires the implementation of additional methods to
- * perform single inserts, updates, and the ability to get the type of the data from a URI.
- * However, here, they are not implemented for the sake of brevity and simplicity. If you would
- * like, you may implement them on your own. However, we are not going to be teaching how to do
- * so in this course.
+ * Although ContentProvider implementation requires the implementation of an additional method to
+ * get the type of the data from a URI, here, it is not implemented for the sake of brevity and
+ * simplicity. If you would like, you may implement it on your own. However, we are not going to
+ * be teaching how to do so in this course.
  */
 public class WeatherProvider extends ContentProvider {
 
@@ -45,6 +72,102 @@ public class WeatherProvider extends ContentProvider {
      */
     public static final int CODE_WEATHER = 100;
     public static final int CODE_WEATHER_WITH_DATE = 101;
+    public static final int CODE_WEATHER_RECONCILE = 102;
+    public static final int CODE_WEATHER_RANGE = 103;
+    public static final int CODE_WEATHER_AFTER = 104;
+    public static final int CODE_WEATHER_AGGREGATE = 105;
+    public static final int CODE_LOCATION = 200;
+    public static final int CODE_LOCATION_WITH_ID = 201;
+    public static final int CODE_ARCHIVE = 300;
+    public static final int CODE_HOURLY = 400;
+    public static final int CODE_METRICS = 500;
+
+    /*
+     * The most locations whose weather we keep. Switching back to any of them shows its stored
+     * weather right away; the least recently used location beyond these is forgotten.
+     */
+    static final int MAX_STORED_LOCATIONS = 5;
+
+    /*
+     * Every weather query and write is about a single location, chosen by one of these
+     * selections. The location in the preferences is found by its setting within the query
+     * itself, so no query has to look up the location's _ID first.
+     */
+    private static final String LOCATION_ID_SELECTION =
+            WeatherContract.WeatherEntry.COLUMN_LOCATION_ID + " = ?";
+    private static final String LOCATION_SETTING_SELECTION =
+            WeatherContract.WeatherEntry.COLUMN_LOCATION_ID + " = (SELECT "
+                    + WeatherContract.LocationEntry._ID + " FROM "
+                    + WeatherContract.LocationEntry.TABLE_NAME + " WHERE "
+                    + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?)";
+
+    /* A single day of a location's weather: a single lookup in the table's primary key */
+    private static final String LOCATION_AND_DATE_SELECTION =
+            WeatherContract.WeatherEntry.COLUMN_LOCATION_ID + " = ? AND "
+                    + WeatherContract.WeatherEntry.COLUMN_DATE + " = ?";
+
+    /*
+     * Stored locations are listed most recently used first, unless asked otherwise. Of two
+     * locations used within the same millisecond, the one stored last counts as more recent.
+     */
+    private static final String LAST_USED_DESCENDING =
+            WeatherContract.LocationEntry.COLUMN_LAST_USED + " DESC, "
+                    + WeatherContract.LocationEntry._ID + " DESC";
+
+    /*
+     * The columns compared by reconcileWeather to decide whether a stored day has changed. The
+     * date isn't included, as it is what we match the rows on. isSameWeather depends on the order
+     * of these columns.
+     */
+    private static final String[] RECONCILE_COLUMNS = {
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES,
+    };
+
+    /*
+     * The weather table is keyed by date and has no _ID column of its own. Cursor consumers such
+     * as CursorAdapter still expect one, so when a query asks for _ID (or for every column), the
+     * date is returned under that name as well.
+     */
+    private static final String ID_ALIAS =
+            WeatherContract.WeatherEntry.COLUMN_DATE + " AS " + WeatherContract.WeatherEntry._ID;
+
+    /*
+     * The columns an aggregate query can return, by name, with the SQL that computes each of them.
+     * Kept in the order a query with no projection returns them.
+     */
+    private static final Map<String, String> sAggregateColumns = buildAggregateColumns();
+
+    /* The sort order of ranges and pages */
+    private static final String DATE_ASCENDING = WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
+
+    /*
+     * The columns read into mForecastCache, in the order ForecastBatch#add takes them, followed by
+     * the location. The table is read in date order, so that the cached days are sorted by date.
+     */
+    private static final String[] CACHE_COLUMNS = {
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES,
+            WeatherContract.WeatherEntry.COLUMN_LOCATION_ID,
+    };
+
+    /*
+     * Matches the selection built by WeatherEntry#getSqlSelectForTodayOnwards, which is the only
+     * selection we answer from mForecastCache. Anything else goes to SQLite.
+     */
+    private static final Pattern TODAY_ONWARDS_SELECTION = Pattern.compile(
+            Pattern.quote(WeatherContract.WeatherEntry.COLUMN_DATE + " >= ") + "(-?\\d+)");
 
     /*
      * The URI Matcher used by this content provider. The leading "s" in this variable name
@@ -54,6 +177,91 @@ public class WeatherProvider extends ContentProvider {
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private WeatherDbHelper mOpenHelper;
 
+    /*
+     * Limits the number of queries that run against the database at the same time. The size of
+     * SQLite's connection pool is decided by Android, so this is where we make it configurable,
+     * through R.integer.weather_db_max_concurrent_readers.
+     */
+    private Semaphore mReaderPermits;
+
+    /* How long queries waited for their first rows, reported by dump */
+    private final ReaderWaitStats mReaderWaitStats = new ReaderWaitStats();
+
+    /* The stored forecast, kept in memory between writes so most queries never reach SQLite */
+    private final ForecastCache mForecastCache = new ForecastCache();
+
+    /* How long each kind of operation took and how many rows it touched, see MetricsEntry */
+    private final ProviderMetrics mMetrics = new ProviderMetrics();
+
+    /*
+     * The URIs that the writes of the applyBatch running on this thread have changed, or null
+     * outside applyBatch. Observers are only notified once the whole batch has been committed.
+     */
+    private final ThreadLocal<Set<Uri>> mBatchNotifications = new ThreadLocal<>();
+
+    /**
+     * The location a weather URI is about: either a stored location, chosen by its _ID with
+     * {@link WeatherContract#QUERY_PARAMETER_LOCATION_ID}, or the location in the preferences,
+     * chosen by its setting. Either way, it is a selection on the weather table's location_id
+     * column with a single argument.
+     */
+    private static final class LocationScope {
+
+        private final boolean mById;
+        private final String mSelection;
+        private final String mArgument;
+
+        private LocationScope(boolean byId, String argument) {
+            mById = byId;
+            mSelection = byId ? LOCATION_ID_SELECTION : LOCATION_SETTING_SELECTION;
+            mArgument = argument;
+        }
+
+        static LocationScope forId(long locationId) {
+            return new LocationScope(true, Long.toString(locationId));
+        }
+
+        static LocationScope forSetting(String locationSetting) {
+            return new LocationScope(false, locationSetting);
+        }
+
+        /* Tells the location's forecast apart from any other in mForecastCache */
+        String getCacheKey() {
+            return (mById ? "id:" : "setting:") + mArgument;
+        }
+    }
+
+    /**
+     * Lists every column an aggregate query can return: each of {@link
+     * WeatherContract#FUNCTION_MIN}, {@link WeatherContract#FUNCTION_MAX} and {@link
+     * WeatherContract#FUNCTION_AVG} applied to each summarized column, then the number of days.
+     */
+    private static Map<String, String> buildAggregateColumns() {
+        String[] functions = {
+                WeatherContract.FUNCTION_MIN,
+                WeatherContract.FUNCTION_MAX,
+                WeatherContract.FUNCTION_AVG,
+        };
+        String[] summarizedColumns = {
+                WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+                WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+                WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+                WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+                WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+        };
+
+        Map<String, String> aggregateColumns = new LinkedHashMap<>();
+        for (String function : functions) {
+            for (String column : summarizedColumns) {
+                String name = WeatherContract.WeatherEntry.getAggregateColumnName(function, column);
+                aggregateColumns.put(name, function + "(" + column + ") AS " + name);
+            }
+        }
+        aggregateColumns.put(WeatherContract.FUNCTION_COUNT,
+                "count(*) AS " + WeatherContract.FUNCTION_COUNT);
+        return aggregateColumns;
+    }
+
     /**
      * Creates the UriMatcher that will match each URI to the CODE_WEATHER and
      * CODE_WEATHER_WITH_DATE constants defined above.
@@ -96,6 +304,48 @@ public class WeatherProvider extends ContentProvider {
          */
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/#", CODE_WEATHER_WITH_DATE);
 
+        /* This URI is content://com.example.android.sunshine/weather/reconcile */
+        matcher.addURI(authority,
+                WeatherContract.PATH_WEATHER + "/" + WeatherContract.PATH_RECONCILE,
+                CODE_WEATHER_RECONCILE);
+
+        /*
+         * This URI would look something like
+         * content://com.example.android.sunshine/weather/range/1472169600000/1472688000000
+         */
+        matcher.addURI(authority,
+                WeatherContract.PATH_WEATHER + "/" + WeatherContract.PATH_RANGE + "/#/#",
+                CODE_WEATHER_RANGE);
+
+        /*
+         * This URI would look something like
+         * content://com.example.android.sunshine/weather/after/1472169600000?limit=14
+         * The query parameter isn't part of the match.
+         */
+        matcher.addURI(authority,
+                WeatherContract.PATH_WEATHER + "/" + WeatherContract.PATH_AFTER + "/#",
+                CODE_WEATHER_AFTER);
+
+        /* This URI is content://com.example.android.sunshine/weather/aggregate */
+        matcher.addURI(authority,
+                WeatherContract.PATH_WEATHER + "/" + WeatherContract.PATH_AGGREGATE,
+                CODE_WEATHER_AGGREGATE);
+
+        /* This URI is content://com.example.android.sunshine/location/ */
+        matcher.addURI(authority, WeatherContract.PATH_LOCATION, CODE_LOCATION);
+
+        /* This URI would look something like content://com.example.android.sunshine/location/2 */
+        matcher.addURI(authority, WeatherContract.PATH_LOCATION + "/#", CODE_LOCATION_WITH_ID);
+
+        /* This URI is content://com.example.android.sunshine/archive */
+        matcher.addURI(authority, WeatherContract.PATH_ARCHIVE, CODE_ARCHIVE);
+
+        /* This URI is content://com.example.android.sunshine/hourly */
+        matcher.addURI(authority, WeatherContract.PATH_HOURLY, CODE_HOURLY);
+
+        /* This URI is content://com.example.android.sunshine/metrics */
+        matcher.addURI(authority, WeatherContract.PATH_METRICS, CODE_METRICS);
+
         return matcher;
     }
 
@@ -122,15 +372,18 @@ public class WeatherProvider extends ContentProvider {
          * very lightweight, we are safe to perform that initialization here.
          */
         mOpenHelper = new WeatherDbHelper(getContext());
+
+        int maxConcurrentReaders = getContext().getResources()
+                .getInteger(R.integer.weather_db_max_concurrent_readers);
+        mReaderPermits = new Semaphore(maxConcurrentReaders, true);
         return true;
     }
 
     /**
-     * Handles requests to insert a set of new rows. In Sunshine, we are only going to be
-     * inserting multiple rows of data at a time from a weather forecast. There is no use case
-     * for inserting a single row of data into our ContentProvider, and so we are only going to
-     * implement bulkInsert. In a normal ContentProvider's implementation, you will probably want
-     * to provide proper functionality for the insert method as well.
+     * Handles requests to insert a set of new rows. In Sunshine, the sync inserts multiple rows
+     * of data at a time from a weather forecast, all of them in a single transaction. Writers
+     * that only have a day or two to write can use {@link #insert} or {@link #update} instead,
+     * or several of them at once through {@link #applyBatch}.
      *
      * @param uri    The content:// URI of the insertion request.
      * @param values An array of sets of column_name/value pairs to add to the database.
@@ -140,68 +393,1107 @@ public class WeatherProvider extends ContentProvider {
      */
     @Override
     public int bulkInsert(@NonNull Uri uri, @NonNull ContentValues[] values) {
+        long startNanos = System.nanoTime();
+        int match = sUriMatcher.match(uri);
+        int rowsInserted;
+
+        switch (match) {
+
+            case CODE_WEATHER:
+                rowsInserted = insertWeather(ForecastBatch.fromContentValues(values),
+                        getLocationScope(uri));
+                break;
+
+            case CODE_WEATHER_RECONCILE:
+                rowsInserted = reconcileWeather(ForecastBatch.fromContentValues(values),
+                        getLocationScope(uri), null);
+                break;
+
+            default:
+                return super.bulkInsert(uri, values);
+        }
+
+        recordOperation(ProviderMetrics.BULK_INSERT, match, rowsInserted, startNanos);
+        return rowsInserted;
+    }
+
+    /**
+     * Handles the methods of our ContentProvider that don't map onto a URI. In Sunshine, that is
+     * {@link WeatherContract#METHOD_RECONCILE_FORECAST}, which reconciles the stored forecast with
+     * a {@link ForecastBatch}, {@link WeatherContract#METHOD_RECONCILE_FORECASTS}, which does
+     * the same for several locations at once, {@link WeatherContract#METHOD_COMPACT_ARCHIVE},
+     * {@link WeatherContract#METHOD_READ_FORECAST}, which reads a window of the forecast into a
+     * ForecastBatch, {@link WeatherContract#METHOD_REPLACE_HOURLY_FORECAST} and
+     * {@link WeatherContract#METHOD_READ_HOURLY_FORECAST}, which write and read the hourly
+     * forecast one array per column, and {@link WeatherContract#METHOD_FRESHNESS}, which tells
+     * whether there is a forecast to show and how old it is. When the caller is in our own
+     * process, as SunshineSyncTask is, the extras are handed to us as they are, so the batch is
+     * never copied or turned into ContentValues on its way to the database.
+     *
+     * @param method The name of the method to call
+     * @param arg    The location setting the forecast is for, or null for the location in the
+     *               preferences
+     * @param extras Holds the ForecastBatch under {@link WeatherContract#EXTRA_FORECAST_BATCH},
+     *               and optionally the coordinates of the location under
+     *               {@link WeatherContract#EXTRA_COORD_LAT} and
+     *               {@link WeatherContract#EXTRA_COORD_LONG}. For several locations, the arrays
+     *               described at {@link WeatherContract#METHOD_RECONCILE_FORECASTS}.
+     * @return A Bundle holding the number of rows written under
+     * {@link WeatherContract#EXTRA_ROWS_WRITTEN}, or for the methods that read, what was read
+     */
+    @Override
+    public Bundle call(@NonNull String method, String arg, Bundle extras) {
+        long startNanos = System.nanoTime();
+        Bundle result = callMethod(method, arg, extras);
+
+        /* Unknown methods aren't recorded, so a caller can't fill the metrics with names */
+        if (result != null) {
+            mMetrics.record(ProviderMetrics.CALL, method, getRowCount(result),
+                    System.nanoTime() - startNanos);
+            mMetrics.recordCaller(Binder.getCallingUid());
+        }
+        return result;
+    }
+
+    /**
+     * Runs one of the methods described at {@link #call}.
+     */
+    private Bundle callMethod(@NonNull String method, String arg, Bundle extras) {
+        if (WeatherContract.METHOD_RECONCILE_FORECAST.equals(method)) {
+            if (extras == null) {
+                throw new IllegalArgumentException("A forecast is required to reconcile");
+            }
+
+            /* Only needed if the extras were parceled by a caller in another process */
+            extras.setClassLoader(ForecastBatch.class.getClassLoader());
+            ForecastBatch forecast = extras.getParcelable(WeatherContract.EXTRA_FORECAST_BATCH);
+            if (forecast == null) {
+                throw new IllegalArgumentException("A forecast is required to reconcile");
+            }
+
+            LocationScope location = getLocationScope(arg);
+
+            double[] coordinates = null;
+            if (extras.containsKey(WeatherContract.EXTRA_COORD_LAT)
+                    && extras.containsKey(WeatherContract.EXTRA_COORD_LONG)) {
+                coordinates = new double[]{
+                        extras.getDouble(WeatherContract.EXTRA_COORD_LAT),
+                        extras.getDouble(WeatherContract.EXTRA_COORD_LONG)};
+            }
+
+            Bundle result = new Bundle();
+            result.putInt(WeatherContract.EXTRA_ROWS_WRITTEN,
+                    reconcileWeather(forecast, location, coordinates));
+            return result;
+        }
+
+        if (WeatherContract.METHOD_COMPACT_ARCHIVE.equals(method)) {
+            if (extras == null
+                    || !extras.containsKey(WeatherContract.EXTRA_DAILY_RETENTION_DAYS)
+                    || !extras.containsKey(WeatherContract.EXTRA_WEEKLY_RETENTION_DAYS)
+                    || !extras.containsKey(WeatherContract.EXTRA_MONTHLY_RETENTION_DAYS)) {
+                throw new IllegalArgumentException("Retention windows are required to compact");
+            }
+
+            Bundle result = new Bundle();
+            result.putInt(WeatherContract.EXTRA_ROWS_REMOVED, compactArchive(
+                    extras.getInt(WeatherContract.EXTRA_DAILY_RETENTION_DAYS),
+                    extras.getInt(WeatherContract.EXTRA_WEEKLY_RETENTION_DAYS),
+                    extras.getInt(WeatherContract.EXTRA_MONTHLY_RETENTION_DAYS)));
+            return result;
+        }
+
+        if (WeatherContract.METHOD_REPLACE_HOURLY_FORECAST.equals(method)) {
+            if (extras == null) {
+                throw new IllegalArgumentException("An hourly forecast is required to replace");
+            }
+
+            extras.setClassLoader(HourlyForecast.class.getClassLoader());
+            HourlyForecast forecast = extras.getParcelable(WeatherContract.EXTRA_HOURLY_FORECAST);
+            if (forecast == null) {
+                throw new IllegalArgumentException("An hourly forecast is required to replace");
+            }
+
+            Bundle result = new Bundle();
+            result.putInt(WeatherContract.EXTRA_ROWS_WRITTEN,
+                    replaceHourlyForecast(forecast, getLocationScope(arg)));
+            return result;
+        }
+
+        if (WeatherContract.METHOD_READ_FORECAST.equals(method)) {
+            long from = Long.MIN_VALUE;
+            long to = Long.MAX_VALUE;
+            if (extras != null) {
+                from = extras.getLong(WeatherContract.EXTRA_FROM, from);
+                to = extras.getLong(WeatherContract.EXTRA_TO, to);
+            }
+
+            Bundle result = new Bundle();
+            result.putParcelable(WeatherContract.EXTRA_FORECAST_BATCH,
+                    readForecast(getLocationScope(arg), from, to));
+            return result;
+        }
+
+        if (WeatherContract.METHOD_READ_HOURLY_FORECAST.equals(method)) {
+            String from = null;
+            String to = null;
+            if (extras != null && extras.containsKey(WeatherContract.EXTRA_FROM)) {
+                from = Long.toString(extras.getLong(WeatherContract.EXTRA_FROM));
+            }
+            if (extras != null && extras.containsKey(WeatherContract.EXTRA_TO)) {
+                to = Long.toString(extras.getLong(WeatherContract.EXTRA_TO));
+            }
+
+            Bundle result = new Bundle();
+            result.putParcelable(WeatherContract.EXTRA_HOURLY_FORECAST,
+                    readHourlyForecast(getLocationScope(arg), from, to));
+            return result;
+        }
+
+        if (WeatherContract.METHOD_FRESHNESS.equals(method)) {
+            Bundle result = new Bundle();
+            result.putBoolean(WeatherContract.EXTRA_HAS_FORECAST,
+                    hasForecastFromToday(getLocationScope(arg)));
+            result.putLong(WeatherContract.EXTRA_LAST_SYNC_TIME,
+                    SunshinePreferences.getLastSyncTimeInMillis(getContext()));
+            return result;
+        }
+
+        if (WeatherContract.METHOD_RECONCILE_FORECASTS.equals(method)) {
+            if (extras == null) {
+                throw new IllegalArgumentException("Forecasts are required to reconcile");
+            }
+
+            extras.setClassLoader(ForecastBatch.class.getClassLoader());
+            String[] locationSettings =
+                    extras.getStringArray(WeatherContract.EXTRA_LOCATION_SETTINGS);
+            Parcelable[] parcelables =
+                    extras.getParcelableArray(WeatherContract.EXTRA_FORECAST_BATCHES);
+            double[] pairs = extras.getDoubleArray(WeatherContract.EXTRA_COORDINATES);
+            if (locationSettings == null || parcelables == null
+                    || parcelables.length != locationSettings.length
+                    || (pairs != null && pairs.length != 2 * locationSettings.length)) {
+                throw new IllegalArgumentException(
+                        "A location setting and a forecast are required for each location");
+            }
+
+            int locationCount = locationSettings.length;
+            ForecastBatch[] forecasts = new ForecastBatch[locationCount];
+            LocationScope[] locations = new LocationScope[locationCount];
+            double[][] coordinates = new double[locationCount][];
+            for (int i = 0; i < locationCount; i++) {
+                forecasts[i] = (ForecastBatch) parcelables[i];
+                locations[i] = LocationScope.forSetting(locationSettings[i]);
+                if (pairs != null && !Double.isNaN(pairs[2 * i])) {
+                    coordinates[i] = new double[]{pairs[2 * i], pairs[2 * i + 1]};
+                }
+            }
+
+            Bundle result = new Bundle();
+            result.putInt(WeatherContract.EXTRA_ROWS_WRITTEN,
+                    reconcileWeather(forecasts, locations, coordinates, false));
+            return result;
+        }
+
+        return super.call(method, arg, extras);
+    }
+
+    /**
+     * @return The number of rows a call wrote, removed or read, for the metrics
+     */
+    private static int getRowCount(Bundle result) {
+        if (result.containsKey(WeatherContract.EXTRA_ROWS_WRITTEN)) {
+            return result.getInt(WeatherContract.EXTRA_ROWS_WRITTEN);
+        }
+        if (result.containsKey(WeatherContract.EXTRA_ROWS_REMOVED)) {
+            return result.getInt(WeatherContract.EXTRA_ROWS_REMOVED);
+        }
+
+        Parcelable read = result.getParcelable(WeatherContract.EXTRA_FORECAST_BATCH);
+        if (read == null) {
+            read = result.getParcelable(WeatherContract.EXTRA_HOURLY_FORECAST);
+        }
+        if (read instanceof ForecastBatch) {
+            return ((ForecastBatch) read).size();
+        }
+        if (read instanceof HourlyForecast) {
+            return ((HourlyForecast) read).size();
+        }
+        return 0;
+    }
+
+    /**
+     * Inserts every day of the forecast in a single transaction. Any stored day with the same
+     * location and date is replaced, as they are the primary key of the table, declared ON
+     * CONFLICT REPLACE. Observers are notified of each inserted date, as
+     * {@link #notifyWeatherChanged} describes.
+     *
+     * @param forecast The days to insert
+     * @param location The location the forecast is for
+     * @return The number of rows that were inserted
+     */
+    private int insertWeather(ForecastBatch forecast, LocationScope location) {
+        WeatherStatements.checkDatesNormalized(forecast);
+
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        Set<Long> insertedDates = new LinkedHashSet<>();
+        int rowsInserted = 0;
+
+        long startNanos = System.nanoTime();
+        db.beginTransaction();
+        WeatherStatements statements = null;
+        try {
+            statements = new WeatherStatements(db, useLocation(db, location, null, true));
+
+            for (int day = 0; day < forecast.size(); day++) {
+                long _id = statements.insert(forecast, day);
+                if (_id != -1) {
+                    rowsInserted++;
+                    insertedDates.add(forecast.getDate(day));
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            if (statements != null) {
+                statements.close();
+            }
+            db.endTransaction();
+            mForecastCache.invalidate();
+        }
+        mMetrics.record(ProviderMetrics.TRANSACTION, "insert", rowsInserted,
+                System.nanoTime() - startNanos);
+
+        if (rowsInserted > 0) {
+            checkpoint(db);
+        }
+
+        notifyChange(WeatherContract.LocationEntry.CONTENT_URI);
+        notifyWeatherChanged(insertedDates);
+        return rowsInserted;
+    }
+
+    /**
+     * Makes the weather table match a freshly downloaded forecast, touching as few rows as
+     * possible. Each incoming day is compared with the stored row for the same date: new days are
+     * inserted, changed days are updated in place, identical days are left alone, and stored days
+     * that are no longer part of the forecast (such as yesterday) are deleted. All of this happens
+     * in a single transaction.
+     * <p>
+     * Deleted days that have passed are copied into the archive first, so that their weather is
+     * still there for a look back, after it has dropped out of the forecast.
+     * <p>
+     * Instead of notifying observers of the whole table, we only notify the URI of each date that
+     * actually changed, see {@link #notifyWeatherChanged}.
+     * <p>
+     * Only the weather of the given location is compared and written; the weather stored for
+     * other locations is left alone, so that it is still there when the user switches back.
+     *
+     * @param forecast    The complete forecast
+     * @param location    The location the forecast is for
+     * @param coordinates The latitude and longitude of the location, or null if unknown
+     * @return The number of rows that were inserted or updated
+     */
+    private int reconcileWeather(ForecastBatch forecast, LocationScope location,
+                                 double[] coordinates) {
+        return reconcileWeather(new ForecastBatch[]{forecast},
+                new LocationScope[]{location},
+                new double[][]{coordinates},
+                true);
+    }
+
+    /**
+     * Reconciles the forecasts of several locations, as
+     * {@link #reconcileWeather(ForecastBatch, LocationScope, double[])} does for one, but in a
+     * single transaction. That means a single commit, and a single fsync of the journal, however
+     * many locations were synced, and observers of a date are notified once even if the date
+     * changed in several locations.
+     *
+     * @param forecasts   The complete forecast of each location
+     * @param locations   The location each forecast is for
+     * @param coordinates The latitude and longitude of each location; an element may be null
+     * @param markAsUsed  Whether the locations become the most recently used ones, which is
+     *                    false for a background refresh of locations the user isn't looking at
+     * @return The number of rows that were inserted or updated, in all locations together
+     */
+    private int reconcileWeather(ForecastBatch[] forecasts, LocationScope[] locations,
+                                 double[][] coordinates, boolean markAsUsed) {
+        for (ForecastBatch forecast : forecasts) {
+            WeatherStatements.checkDatesNormalized(forecast);
+        }
+
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+
+        Set<Long> changedDates = new LinkedHashSet<>();
+        int rowsWritten = 0;
+        long today = SunshineDateUtils.getNormalizedUtcDateForToday();
+
+        long startNanos = System.nanoTime();
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < forecasts.length; i++) {
+                rowsWritten += reconcileLocation(db, forecasts[i], locations[i], coordinates[i],
+                        markAsUsed, today, changedDates);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            mForecastCache.invalidate();
+        }
+        mMetrics.record(ProviderMetrics.TRANSACTION, "reconcile", rowsWritten,
+                System.nanoTime() - startNanos);
+
+        if (!changedDates.isEmpty()) {
+            WeatherDbHelper.checkpoint(db);
+        }
+
+        ContentResolver contentResolver = getContext().getContentResolver();
+        contentResolver.notifyChange(WeatherContract.LocationEntry.CONTENT_URI, null);
+        notifyWeatherChanged(changedDates);
+        for (long changedDate : changedDates) {
+            if (changedDate < today) {
+                contentResolver.notifyChange(WeatherContract.ArchiveEntry.CONTENT_URI, null);
+                break;
+            }
+        }
+
+        return rowsWritten;
+    }
+
+    /**
+     * Tells observers which days a write changed, once the write has been committed. Each
+     * changed date's URI is notified on its own, so a Cursor over a single day, such as the one
+     * DetailActivity shows, is only requeried if its own day changed. Cursors over more than one
+     * day are notified once, on {@link WeatherContract.WeatherEntry#CONTENT_ROWS_URI}, however
+     * many days changed, so the forecast list is requeried once per sync rather than once per
+     * day.
+     * <p>
+     * The whole table's URI is the parent of every date's URI, so notifying it would requery
+     * every open day too. That is left to writes that can't tell which days they changed, such
+     * as a delete with a selection.
+     *
+     * @param changedDates The dates of the rows that were inserted, updated or deleted
+     */
+    private void notifyWeatherChanged(Set<Long> changedDates) {
+        if (changedDates.isEmpty()) {
+            return;
+        }
+
+        for (long changedDate : changedDates) {
+            notifyChange(WeatherContract.WeatherEntry.buildWeatherUriWithDate(changedDate));
+        }
+        notifyChange(WeatherContract.WeatherEntry.CONTENT_ROWS_URI);
+    }
+
+    /**
+     * Notifies the observers of a URI that its data changed, or, inside {@link #applyBatch},
+     * remembers to once the batch has been committed. A URI is only notified once per batch,
+     * however many of the batch's operations changed it.
+     */
+    private void notifyChange(Uri uri) {
+        Set<Uri> batchNotifications = mBatchNotifications.get();
+        if (batchNotifications != null) {
+            batchNotifications.add(uri);
+        } else {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
+
+    /**
+     * Checkpoints the write-ahead log after a write, unless the write is part of an
+     * {@link #applyBatch}, which is checkpointed once, when it ends. A checkpoint can't copy
+     * pages that a transaction that is still open has written.
+     */
+    private void checkpoint(SQLiteDatabase db) {
+        if (mBatchNotifications.get() == null) {
+            WeatherDbHelper.checkpoint(db);
+        }
+    }
+
+    /**
+     * Reconciles the forecast of one location, inside the transaction of
+     * {@link #reconcileWeather(ForecastBatch[], LocationScope[], double[][], boolean)}.
+     *
+     * @param today        Today's normalized date; deleted days before it are archived
+     * @param changedDates Collects the date of every row that was written or deleted
+     * @return The number of rows that were inserted or updated
+     */
+    private static int reconcileLocation(SQLiteDatabase db, ForecastBatch forecast,
+                                         LocationScope location, double[] coordinates,
+                                         boolean markAsUsed, long today,
+                                         Set<Long> changedDates) {
+        long locationId = useLocation(db, location, coordinates, markAsUsed);
+        LongSparseArray<double[]> storedWeather = readStoredWeather(db, locationId);
+        int rowsWritten = 0;
+
+        WeatherStatements statements = new WeatherStatements(db, locationId);
+        try {
+            for (int day = 0; day < forecast.size(); day++) {
+                long weatherDate = forecast.getDate(day);
+                double[] storedValues = storedWeather.get(weatherDate);
+
+                if (storedValues == null) {
+                    long _id = statements.insert(forecast, day);
+                    if (_id != -1) {
+                        rowsWritten++;
+                        changedDates.add(weatherDate);
+                    }
+                } else {
+                    storedWeather.remove(weatherDate);
+
+                    if (!isSameWeather(storedValues, forecast, day)) {
+                        statements.update(forecast, day);
+                        rowsWritten++;
+                        changedDates.add(weatherDate);
+                    }
+                }
+            }
+
+            /* Whatever is left over is no longer part of the forecast */
+            for (int i = 0; i < storedWeather.size(); i++) {
+                long expiredDate = storedWeather.keyAt(i);
+                if (expiredDate < today) {
+                    statements.archive(expiredDate);
+                }
+                statements.delete(expiredDate);
+                changedDates.add(expiredDate);
+            }
+        } finally {
+            statements.close();
+        }
+
+        return rowsWritten;
+    }
+
+    /**
+     * Compacts the archive of every stored location in a single transaction. See
+     * {@link WeatherArchive} for how.
+     *
+     * @param dailyDays   How many days back days are kept as they are
+     * @param weeklyDays  How many days back weeks are kept
+     * @param monthlyDays How many days back months are kept
+     * @return The number of rows the archive shrank by
+     */
+    private int compactArchive(int dailyDays, int weeklyDays, int monthlyDays) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        int rowsRemoved;
+
+        long startNanos = System.nanoTime();
+        db.beginTransaction();
+        try {
+            rowsRemoved = WeatherArchive.compact(db,
+                    SunshineDateUtils.getNormalizedUtcDateForToday(),
+                    dailyDays,
+                    weeklyDays,
+                    monthlyDays);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        mMetrics.record(ProviderMetrics.TRANSACTION, "compact_archive", rowsRemoved,
+                System.nanoTime() - startNanos);
+
+        if (rowsRemoved != 0) {
+            WeatherDbHelper.checkpoint(db);
+            getContext().getContentResolver()
+                    .notifyChange(WeatherContract.ArchiveEntry.CONTENT_URI, null);
+        }
+        return rowsRemoved;
+    }
+
+    /**
+     * Replaces the stored hourly forecast of a location in a single transaction. See
+     * {@link HourlyStore#replace}.
+     *
+     * @param forecast The steps to store
+     * @param location The location the forecast is for
+     * @return The number of steps written
+     */
+    private int replaceHourlyForecast(HourlyForecast forecast, LocationScope location) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        int rowsWritten;
+
+        long startNanos = System.nanoTime();
+        db.beginTransaction();
+        try {
+            /* The daily forecast that is synced along with it has marked the location as used */
+            rowsWritten = HourlyStore.replace(db, useLocation(db, location, null, false),
+                    forecast);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        mMetrics.record(ProviderMetrics.TRANSACTION, "replace_hourly", rowsWritten,
+                System.nanoTime() - startNanos);
+
+        WeatherDbHelper.checkpoint(db);
+        getContext().getContentResolver()
+                .notifyChange(WeatherContract.HourlyEntry.CONTENT_URI, null);
+        return rowsWritten;
+    }
+
+    /**
+     * Reads the stored hourly forecast of a location into a {@link HourlyForecast}, for
+     * {@link WeatherContract#METHOD_READ_HOURLY_FORECAST}. Like a query, it waits for one of
+     * {@link #mReaderPermits}.
+     *
+     * @param location The location to read
+     * @param from     The first time to include, or null
+     * @param to       The last time to include, or null
+     * @return The steps that were found
+     */
+    private HourlyForecast readHourlyForecast(LocationScope location, String from, String to) {
+        List<String> timeArguments = new ArrayList<>();
+        String timeSelection = getTimeRangeSelection(location, from, to, timeArguments);
+
+        mReaderPermits.acquireUninterruptibly();
+        try {
+            return HourlyStore.read(mOpenHelper.getReadableDatabase(),
+                    timeSelection,
+                    timeArguments.toArray(new String[timeArguments.size()]));
+        } finally {
+            mReaderPermits.release();
+        }
+    }
+
+    /**
+     * Finds the location that weather is about to be written for, inside the write's transaction.
+     * A location setting that isn't stored yet is added to the location table, and unless the
+     * write is a background refresh, the location is marked as the most recently used one. If
+     * that leaves more than
+     * {@link #MAX_STORED_LOCATIONS} locations, the least recently used ones are forgotten, along
+     * with their weather, its archive and their hourly forecast.
+     *
+     * @param db          The database, which must be in a transaction
+     * @param location    The location the weather is for
+     * @param coordinates The latitude and longitude of the location, or null to leave them as
+     *                    they are
+     * @param markAsUsed  Whether the user is looking at the location. A background refresh of
+     *                    a location the user isn't looking at mustn't change which locations are
+     *                    the least recently used.
+     * @return The _ID of the location
+     */
+    private static long useLocation(SQLiteDatabase db, LocationScope location,
+                                    double[] coordinates, boolean markAsUsed) {
+        long locationId = location.mById
+                ? Long.parseLong(location.mArgument)
+                : WeatherDbHelper.insertLocation(db, location.mArgument);
+
+        ContentValues locationValues = new ContentValues();
+        if (markAsUsed) {
+            locationValues.put(WeatherContract.LocationEntry.COLUMN_LAST_USED,
+                    System.currentTimeMillis());
+        }
+        if (coordinates != null) {
+            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, coordinates[0]);
+            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, coordinates[1]);
+        }
+
+        if (locationValues.size() > 0) {
+            int locationsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME,
+                    locationValues,
+                    WeatherContract.LocationEntry._ID + " = ?",
+                    new String[]{Long.toString(locationId)});
+            if (locationsUpdated == 0) {
+                throw new IllegalArgumentException("Unknown location: " + locationId);
+            }
+        }
+
+        if (DatabaseUtils.queryNumEntries(db, WeatherContract.LocationEntry.TABLE_NAME)
+                > MAX_STORED_LOCATIONS) {
+            String recentLocations = "SELECT " + WeatherContract.LocationEntry._ID
+                    + " FROM " + WeatherContract.LocationEntry.TABLE_NAME
+                    + " ORDER BY " + LAST_USED_DESCENDING
+                    + " LIMIT " + MAX_STORED_LOCATIONS;
+
+            db.delete(WeatherContract.WeatherEntry.TABLE_NAME,
+                    WeatherContract.WeatherEntry.COLUMN_LOCATION_ID
+                            + " NOT IN (" + recentLocations + ")",
+                    null);
+            db.delete(WeatherContract.ArchiveEntry.TABLE_NAME,
+                    WeatherContract.ArchiveEntry.COLUMN_LOCATION_ID
+                            + " NOT IN (" + recentLocations + ")",
+                    null);
+            db.delete(WeatherContract.HourlyEntry.TABLE_NAME,
+                    WeatherContract.HourlyEntry.COLUMN_LOCATION_ID
+                            + " NOT IN (" + recentLocations + ")",
+                    null);
+            db.delete(WeatherContract.LocationEntry.TABLE_NAME,
+                    WeatherContract.LocationEntry._ID + " NOT IN (" + recentLocations + ")",
+                    null);
+        }
+
+        return locationId;
+    }
+
+    /**
+     * Reads every row stored for a location, keyed by date, with the values of
+     * {@link #RECONCILE_COLUMNS}.
+     */
+    private static LongSparseArray<double[]> readStoredWeather(SQLiteDatabase db,
+                                                               long locationId) {
+        String[] projection = new String[RECONCILE_COLUMNS.length + 1];
+        projection[0] = WeatherContract.WeatherEntry.COLUMN_DATE;
+        System.arraycopy(RECONCILE_COLUMNS, 0, projection, 1, RECONCILE_COLUMNS.length);
+
+        Cursor cursor = db.query(WeatherContract.WeatherEntry.TABLE_NAME,
+                projection,
+                LOCATION_ID_SELECTION,
+                new String[]{Long.toString(locationId)},
+                null,
+                null,
+                null);
+
+        LongSparseArray<double[]> storedWeather = new LongSparseArray<>(cursor.getCount());
+        try {
+            while (cursor.moveToNext()) {
+                double[] storedValues = new double[RECONCILE_COLUMNS.length];
+                for (int i = 0; i < storedValues.length; i++) {
+                    storedValues[i] = cursor.getDouble(i + 1);
+                }
+                storedWeather.put(cursor.getLong(0), storedValues);
+            }
+        } finally {
+            cursor.close();
+        }
+        return storedWeather;
+    }
+
+    /**
+     * Compares a stored row with a day of the incoming forecast, column by column. The stored
+     * values are in the order of {@link #RECONCILE_COLUMNS}.
+     */
+    private static boolean isSameWeather(double[] storedValues, ForecastBatch forecast, int day) {
+        return storedValues[0] == forecast.getWeatherId(day)
+                && storedValues[1] == forecast.getMinTemp(day)
+                && storedValues[2] == forecast.getMaxTemp(day)
+                && storedValues[3] == forecast.getHumidity(day)
+                && storedValues[4] == forecast.getPressure(day)
+                && storedValues[5] == forecast.getWindSpeed(day)
+                && storedValues[6] == forecast.getDegrees(day);
+    }
+
+    /**
+     * Handles query requests from clients. We will use this method in Sunshine to query for all
+     * of our weather data as well as to query for the weather on a particular day.
+     *
+     * @param uri           The URI to query
+     * @param projection    The list of columns to put into the cursor. If null, all columns are
+     *                      included.
+     * @param selection     A selection criteria to apply when filtering rows. If null, then all
+     *                      rows are included.
+     * @param selectionArgs You may include ?s in selection, which will be replaced by
+     *                      the values from selectionArgs, in order that they appear in the
+     *                      selection.
+     * @param sortOrder     How the rows in the cursor should be sorted.
+     * @return A Cursor containing the results of the query. In our implementation,
+     */
+    @Override
+    public Cursor query(@NonNull Uri uri, String[] projection, String selection,
+                        String[] selectionArgs, String sortOrder) {
+
+        int match = sUriMatcher.match(uri);
+        if (match == CODE_METRICS) {
+            return mMetrics.toCursor();
+        }
+
+        long startNanos = System.nanoTime();
+        Cursor cursor = queryForecastCache(uri, projection, selection, selectionArgs, sortOrder);
+
+        if (cursor == null) {
+            mReaderPermits.acquireUninterruptibly();
+            try {
+                cursor = queryWeather(uri, projection, selection, selectionArgs, sortOrder);
+
+                /*
+                 * A Cursor doesn't run its query until it is first asked for rows. We ask for the
+                 * count here, which fills the first window of rows, so that the time we record
+                 * includes any time spent waiting for a connection or for a writer to finish.
+                 * CursorLoader asks for the count right away anyway.
+                 */
+                cursor.getCount();
+            } finally {
+                mReaderPermits.release();
+            }
+
+            mReaderWaitStats.record(System.nanoTime() - startNanos);
+        }
+
+        cursor.setNotificationUri(getContext().getContentResolver(), getNotificationUri(uri));
+        recordOperation(ProviderMetrics.QUERY, match, cursor.getCount(), startNanos);
+        return cursor;
+    }
+
+    /**
+     * Records an operation on a URI in {@link #mMetrics}, along with the app that called it.
+     *
+     * @param operation  The kind of operation, such as {@link ProviderMetrics#QUERY}
+     * @param match      The code sUriMatcher matched the URI to
+     * @param rows       How many rows it returned or wrote
+     * @param startNanos When it started, from System#nanoTime
+     */
+    private void recordOperation(String operation, int match, long rows, long startNanos) {
+        mMetrics.record(operation, getUriName(match), rows, System.nanoTime() - startNanos);
+        mMetrics.recordCaller(Binder.getCallingUid());
+    }
+
+    /**
+     * @return The path a sUriMatcher code was registered with, to name its metrics by
+     */
+    private static String getUriName(int match) {
+        switch (match) {
+            case CODE_WEATHER:
+                return WeatherContract.PATH_WEATHER;
+            case CODE_WEATHER_WITH_DATE:
+                return WeatherContract.PATH_WEATHER + "/#";
+            case CODE_WEATHER_RECONCILE:
+                return WeatherContract.PATH_WEATHER + "/" + WeatherContract.PATH_RECONCILE;
+            case CODE_WEATHER_RANGE:
+                return WeatherContract.PATH_WEATHER + "/" + WeatherContract.PATH_RANGE + "/#/#";
+            case CODE_WEATHER_AFTER:
+                return WeatherContract.PATH_WEATHER + "/" + WeatherContract.PATH_AFTER + "/#";
+            case CODE_WEATHER_AGGREGATE:
+                return WeatherContract.PATH_WEATHER + "/" + WeatherContract.PATH_AGGREGATE;
+            case CODE_LOCATION:
+                return WeatherContract.PATH_LOCATION;
+            case CODE_LOCATION_WITH_ID:
+                return WeatherContract.PATH_LOCATION + "/#";
+            case CODE_ARCHIVE:
+                return WeatherContract.PATH_ARCHIVE;
+            case CODE_HOURLY:
+                return WeatherContract.PATH_HOURLY;
+            default:
+                return "unknown";
+        }
+    }
+
+    /**
+     * Writes notify the URI of each date they changed, and then
+     * {@link WeatherContract.WeatherEntry#CONTENT_ROWS_URI} once, see
+     * {@link #notifyWeatherChanged}. A Cursor over a single date watches that date's URI, and
+     * cursors over more than one day, including a range, a page or an aggregate, watch the rows
+     * URI. Both are children of the whole table's URI, so they are notified of changes to it too.
+     */
+    private static Uri getNotificationUri(Uri uri) {
+        switch (sUriMatcher.match(uri)) {
+            case CODE_WEATHER:
+            case CODE_WEATHER_RANGE:
+            case CODE_WEATHER_AFTER:
+            case CODE_WEATHER_AGGREGATE:
+                return WeatherContract.WeatherEntry.CONTENT_ROWS_URI;
+
+            default:
+                return uri;
+        }
+    }
+
+    /**
+     * Answers a query from {@link #mForecastCache}, reading the table into it first if it was
+     * written to since it was last read. Only the queries Sunshine itself makes are answered this
+     * way: every row, the rows from today onwards, the row for a single date, and any range or
+     * page with no selection of its own, in date order, with a projection made up of the table's
+     * columns and _ID. The cache holds the weather of one location at a time. See {@link #query}
+     * for the parameters.
+     *
+     * @return A {@link ForecastCursor} over the cached rows, or null if the query has to go to
+     * SQLite instead
+     */
+    private Cursor queryForecastCache(Uri uri, String[] projection, String selection,
+                                      String[] selectionArgs, String sortOrder) {
+
+        long startNanos = System.nanoTime();
+
+        int[] columns = ForecastCursor.mapColumns(projection);
+        if (columns == null || selectionArgs != null || !isSortedByDate(sortOrder)) {
+            return null;
+        }
+
+        int match = sUriMatcher.match(uri);
+        long firstDate;
+        /* The first date after the returned rows, if there is one */
+        long endDate = Long.MAX_VALUE;
+        int limit = Integer.MAX_VALUE;
+
+        switch (match) {
+
+            case CODE_WEATHER_WITH_DATE:
+                /* The selection is ignored for a single date, as it is by queryWeather */
+                firstDate = getDateFromUri(uri, 1);
+                endDate = firstDate + 1;
+                break;
+
+            case CODE_WEATHER_RANGE:
+                if (selection != null) {
+                    return null;
+                }
+                firstDate = getDateFromUri(uri, 2);
+                endDate = getDateFromUri(uri, 3) + 1;
+                break;
+
+            case CODE_WEATHER_AFTER:
+                if (selection != null) {
+                    return null;
+                }
+                firstDate = getDateFromUri(uri, 2) + 1;
+                limit = getPageLimit(uri);
+                break;
+
+            case CODE_WEATHER:
+                if (selection == null) {
+                    firstDate = Long.MIN_VALUE;
+                } else {
+                    Matcher todayOnwards = TODAY_ONWARDS_SELECTION.matcher(selection);
+                    if (!todayOnwards.matches()) {
+                        return null;
+                    }
+                    firstDate = Long.parseLong(todayOnwards.group(1));
+                }
+                break;
+
+            default:
+                return null;
+        }
+
+        LocationScope location = getLocationScope(uri);
+        ForecastCache.Snapshot snapshot = mForecastCache.getSnapshot();
+        boolean hit = snapshot.isLoadedFor(location.getCacheKey());
+        if (!hit) {
+            snapshot = loadForecast(snapshot, location);
+        }
+
+        ForecastBatch forecast = snapshot.getForecast();
+        if (forecast == null) {
+            /* Too many rows to keep in memory */
+            return null;
+        }
+
+        int firstDay = ForecastCache.indexOfFirstDayFrom(forecast, firstDate);
+        int endDay = endDate == Long.MAX_VALUE
+                ? forecast.size()
+                : ForecastCache.indexOfFirstDayFrom(forecast, endDate);
+        int dayCount = Math.min(Math.max(endDay - firstDay, 0), limit);
+
+        Cursor cursor = new ForecastCursor(forecast, snapshot.getLocationId(), firstDay, dayCount,
+                projection, columns);
+
+        long elapsedNanos = System.nanoTime() - startNanos;
+        if (hit) {
+            mForecastCache.recordHit(elapsedNanos);
+        } else {
+            mForecastCache.recordMiss(elapsedNanos);
+        }
+        return cursor;
+    }
+
+    /**
+     * A query with no sort order returns the rows in date order too, as the date is the table's
+     * primary key.
+     */
+    private static boolean isSortedByDate(String sortOrder) {
+        if (sortOrder == null) {
+            return true;
+        }
+
+        String trimmedSortOrder = sortOrder.trim();
+        return trimmedSortOrder.equalsIgnoreCase(WeatherContract.WeatherEntry.COLUMN_DATE)
+                || trimmedSortOrder.equalsIgnoreCase(DATE_ASCENDING);
+    }
+
+    /**
+     * Reads the weather of a location for {@link #mForecastCache}, in date order, and publishes
+     * it.
+     *
+     * @param expected The snapshot that was current before the table was read
+     * @param location The location to read
+     * @return A loaded snapshot holding every day stored for the location, or no forecast if
+     * there are more than {@link ForecastCache#MAX_CACHED_DAYS} of them
+     */
+    private ForecastCache.Snapshot loadForecast(ForecastCache.Snapshot expected,
+                                                LocationScope location) {
+        long startNanos = System.nanoTime();
+
+        mReaderPermits.acquireUninterruptibly();
+        Cursor cursor = null;
+        try {
+            cursor = mOpenHelper.getReadableDatabase().query(
+                    WeatherContract.WeatherEntry.TABLE_NAME,
+                    CACHE_COLUMNS,
+                    location.mSelection,
+                    new String[]{location.mArgument},
+                    null,
+                    null,
+                    DATE_ASCENDING,
+                    /* One more than we can keep, so we know when there are too many */
+                    String.valueOf(ForecastCache.MAX_CACHED_DAYS + 1));
+
+            String locationKey = location.getCacheKey();
+            int rowCount = cursor.getCount();
+            if (rowCount > ForecastCache.MAX_CACHED_DAYS) {
+                return mForecastCache.publish(expected, locationKey, -1, null);
+            }
+
+            ForecastBatch forecast = readForecastBatch(cursor);
+            long locationId = cursor.moveToFirst() ? cursor.getLong(8) : -1;
+            return mForecastCache.publish(expected, locationKey, locationId, forecast);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+            mReaderPermits.release();
+            mReaderWaitStats.record(System.nanoTime() - startNanos);
+        }
+    }
+
+    /**
+     * Reads every row of a Cursor over {@link #CACHE_COLUMNS} into a ForecastBatch, in the
+     * Cursor's order.
+     */
+    private static ForecastBatch readForecastBatch(Cursor cursor) {
+        ForecastBatch forecast = new ForecastBatch(cursor.getCount());
+        while (cursor.moveToNext()) {
+            forecast.add(cursor.getLong(0),
+                    cursor.getInt(1),
+                    cursor.getDouble(2),
+                    cursor.getDouble(3),
+                    cursor.getDouble(4),
+                    cursor.getDouble(5),
+                    cursor.getDouble(6),
+                    cursor.getDouble(7));
+        }
+        return forecast;
+    }
+
+    /**
+     * Reads a window of a location's forecast into a ForecastBatch, for
+     * {@link WeatherContract#METHOD_READ_FORECAST}. The window is copied out of
+     * {@link #mForecastCache}, loading it first if it was written to since it was last read, just
+     * as a query would be answered. Only if the location has too many days to cache is the window
+     * read from SQLite, and then without a Cursor ever leaving this process.
+     *
+     * @param location The location to read
+     * @param from     The first date to include
+     * @param to       The last date to include
+     * @return The days that were found, in date order; the caller may keep and modify them
+     */
+    private ForecastBatch readForecast(LocationScope location, long from, long to) {
+        long startNanos = System.nanoTime();
 
-        switch (sUriMatcher.match(uri)) {
+        ForecastCache.Snapshot snapshot = mForecastCache.getSnapshot();
+        boolean hit = snapshot.isLoadedFor(location.getCacheKey());
+        if (!hit) {
+            snapshot = loadForecast(snapshot, location);
+        }
 
-            case CODE_WEATHER:
-                db.beginTransaction();
-                int rowsInserted = 0;
-                try {
-                    for (ContentValues value : values) {
-                        long weatherDate =
-                                value.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
-                        if (!SunshineDateUtils.isDateNormalized(weatherDate)) {
-                            throw new IllegalArgumentException("Date must be normalized to insert");
-                        }
-
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
-                        if (_id != -1) {
-                            rowsInserted++;
-                        }
-                    }
-                    db.setTransactionSuccessful();
-                } finally {
-                    db.endTransaction();
-                }
+        ForecastBatch forecast = snapshot.getForecast();
+        if (forecast != null) {
+            int firstDay = ForecastCache.indexOfFirstDayFrom(forecast, from);
+            int endDay = to == Long.MAX_VALUE
+                    ? forecast.size()
+                    : ForecastCache.indexOfFirstDayFrom(forecast, to + 1);
 
-                if (rowsInserted > 0) {
-                    getContext().getContentResolver().notifyChange(uri, null);
-                }
+            /* The cached batch is shared by every query, so the caller gets a copy */
+            ForecastBatch window = forecast.copyOfRange(firstDay, Math.max(firstDay, endDay));
 
-                return rowsInserted;
+            long elapsedNanos = System.nanoTime() - startNanos;
+            if (hit) {
+                mForecastCache.recordHit(elapsedNanos);
+            } else {
+                mForecastCache.recordMiss(elapsedNanos);
+            }
+            return window;
+        }
 
-            default:
-                return super.bulkInsert(uri, values);
+        mReaderPermits.acquireUninterruptibly();
+        Cursor cursor = null;
+        try {
+            cursor = mOpenHelper.getReadableDatabase().query(
+                    WeatherContract.WeatherEntry.TABLE_NAME,
+                    CACHE_COLUMNS,
+                    DatabaseUtils.concatenateWhere(location.mSelection,
+                            WeatherContract.WeatherEntry.COLUMN_DATE + " BETWEEN ? AND ?"),
+                    new String[]{location.mArgument, Long.toString(from), Long.toString(to)},
+                    null,
+                    null,
+                    DATE_ASCENDING);
+            return readForecastBatch(cursor);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+            mReaderPermits.release();
+            mReaderWaitStats.record(System.nanoTime() - startNanos);
         }
     }
 
     /**
-     * Handles query requests from clients. We will use this method in Sunshine to query for all
-     * of our weather data as well as to query for the weather on a particular day.
-     *
-     * @param uri           The URI to query
-     * @param projection    The list of columns to put into the cursor. If null, all columns are
-     *                      included.
-     * @param selection     A selection criteria to apply when filtering rows. If null, then all
-     *                      rows are included.
-     * @param selectionArgs You may include ?s in selection, which will be replaced by
-     *                      the values from selectionArgs, in order that they appear in the
-     *                      selection.
-     * @param sortOrder     How the rows in the cursor should be sorted.
-     * @return A Cursor containing the results of the query. In our implementation,
+     * Tells whether a location has a day of weather from today onwards, for
+     * {@link WeatherContract#METHOD_FRESHNESS}. If the location's forecast is in mForecastCache,
+     * the answer is there. Otherwise SQLite is asked whether such a row EXISTS, which stops at
+     * the first one it finds in the (location, date) index, rather than counting or reading rows.
      */
-    @Override
-    public Cursor query(@NonNull Uri uri, String[] projection, String selection,
-                        String[] selectionArgs, String sortOrder) {
+    private boolean hasForecastFromToday(LocationScope location) {
+        long today = SunshineDateUtils.getNormalizedUtcDateForToday();
+
+        ForecastCache.Snapshot snapshot = mForecastCache.getSnapshot();
+        ForecastBatch forecast = snapshot.isLoadedFor(location.getCacheKey())
+                ? snapshot.getForecast()
+                : null;
+        if (forecast != null) {
+            return ForecastCache.indexOfFirstDayFrom(forecast, today) < forecast.size();
+        }
+
+        long startNanos = System.nanoTime();
+        mReaderPermits.acquireUninterruptibly();
+        try {
+            return DatabaseUtils.longForQuery(mOpenHelper.getReadableDatabase(),
+                    "SELECT EXISTS (SELECT 1 FROM " + WeatherContract.WeatherEntry.TABLE_NAME
+                            + " WHERE " + location.mSelection
+                            + " AND " + WeatherContract.WeatherEntry.COLUMN_DATE + " >= ?"
+                            + " LIMIT 1)",
+                    new String[]{location.mArgument, Long.toString(today)}) != 0;
+        } finally {
+            mReaderPermits.release();
+            mReaderWaitStats.record(System.nanoTime() - startNanos);
+        }
+    }
+
+    /**
+     * Builds the query for the given URI. See {@link #query} for the parameters.
+     */
+    private Cursor queryWeather(Uri uri, String[] projection, String selection,
+                                String[] selectionArgs, String sortOrder) {
 
         Cursor cursor;
+        int match = sUriMatcher.match(uri);
+
+        /* The location table has an _ID of its own */
+        if (match == CODE_LOCATION || match == CODE_LOCATION_WITH_ID) {
+            return queryLocation(uri, match, projection, selection, selectionArgs, sortOrder);
+        }
+
+        LocationScope location = getLocationScope(uri);
+
+        /* Archived rows are keyed by their period as well as their date, so they get no _ID */
+        if (match == CODE_ARCHIVE) {
+            return queryArchive(uri, location, projection, selection, selectionArgs, sortOrder);
+        }
+
+        /* The hourly table is keyed by time, and has no _ID either */
+        if (match == CODE_HOURLY) {
+            return queryHourly(uri, location, projection, selection, selectionArgs, sortOrder);
+        }
+
+        /* An aggregate has columns of its own, so it has no use for the _ID alias */
+        if (match == CODE_WEATHER_AGGREGATE) {
+            return queryAggregate(uri, location, projection, selection, selectionArgs);
+        }
+
+        projection = aliasIdColumn(projection);
 
         /*
          * Here's the switch statement that, given a URI, will determine what kind of request is
          * being made and query the database accordingly.
          */
-        switch (sUriMatcher.match(uri)) {
+        switch (match) {
 
             /*
              * When sUriMatcher's match method is called with a URI that looks something like this
@@ -231,7 +1523,8 @@ public class WeatherProvider extends ContentProvider {
                  * one "?", we have to create a string array that only contains one element
                  * because this method signature accepts a string array.
                  */
-                String[] selectionArguments = new String[]{normalizedUtcDateString};
+                String[] selectionArguments =
+                        new String[]{location.mArgument, normalizedUtcDateString};
 
                 cursor = mOpenHelper.getReadableDatabase().query(
                         /* Table we are going to query */
@@ -252,7 +1545,8 @@ public class WeatherProvider extends ContentProvider {
                          * within the selectionArguments array will be inserted into the
                          * selection statement by SQLite under the hood.
                          */
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ",
+                        location.mSelection + " AND "
+                                + WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ",
                         selectionArguments,
                         null,
                         null,
@@ -261,6 +1555,62 @@ public class WeatherProvider extends ContentProvider {
                 break;
             }
 
+            /*
+             * A range of days, such as a week, from its first to its last date. Both dates are
+             * part of the range. Any selection of the caller's own is added to the range.
+             */
+            case CODE_WEATHER_RANGE: {
+                String[] rangeArguments = new String[]{
+                        location.mArgument,
+                        String.valueOf(getDateFromUri(uri, 2)),
+                        String.valueOf(getDateFromUri(uri, 3))};
+
+                cursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.WeatherEntry.TABLE_NAME,
+                        projection,
+                        DatabaseUtils.concatenateWhere(location.mSelection + " AND "
+                                        + WeatherContract.WeatherEntry.COLUMN_DATE
+                                        + " BETWEEN ? AND ?",
+                                selection),
+                        DatabaseUtils.appendSelectionArgs(rangeArguments, selectionArgs),
+                        null,
+                        null,
+                        sortOrder == null ? DATE_ASCENDING : sortOrder);
+
+                break;
+            }
+
+            /*
+             * A page of days after a date, found by seeking to that date in the primary key
+             * rather than by skipping over an OFFSET of rows, so every page takes as long to read
+             * as the first one. Pages only make sense in date order, so no other sort order is
+             * allowed.
+             */
+            case CODE_WEATHER_AFTER: {
+                if (!isSortedByDate(sortOrder)) {
+                    throw new IllegalArgumentException(
+                            "Pages of weather are always sorted by date: " + sortOrder);
+                }
+
+                String[] afterArguments = new String[]{
+                        location.mArgument,
+                        String.valueOf(getDateFromUri(uri, 2))};
+
+                cursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.WeatherEntry.TABLE_NAME,
+                        projection,
+                        DatabaseUtils.concatenateWhere(location.mSelection + " AND "
+                                        + WeatherContract.WeatherEntry.COLUMN_DATE + " > ?",
+                                selection),
+                        DatabaseUtils.appendSelectionArgs(afterArguments, selectionArgs),
+                        null,
+                        null,
+                        DATE_ASCENDING,
+                        String.valueOf(getPageLimit(uri)));
+
+                break;
+            }
+
             /*
              * When sUriMatcher's match method is called with a URI that looks EXACTLY like this
              *
@@ -270,14 +1620,15 @@ public class WeatherProvider extends ContentProvider {
              * to return all of the weather in our weather table.
              *
              * In this case, we want to return a cursor that contains every row of weather data
-             * in our weather table.
+             * in our weather table for the location.
              */
             case CODE_WEATHER: {
                 cursor = mOpenHelper.getReadableDatabase().query(
                         WeatherContract.WeatherEntry.TABLE_NAME,
                         projection,
-                        selection,
-                        selectionArgs,
+                        DatabaseUtils.concatenateWhere(location.mSelection, selection),
+                        DatabaseUtils.appendSelectionArgs(
+                                new String[]{location.mArgument}, selectionArgs),
                         null,
                         null,
                         sortOrder);
@@ -289,10 +1640,291 @@ public class WeatherProvider extends ContentProvider {
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
 
-        cursor.setNotificationUri(getContext().getContentResolver(), uri);
         return cursor;
     }
 
+    /**
+     * Summarizes a range of days in a single row, letting SQLite compute the minimum, maximum,
+     * average and count rather than returning every day for the caller to go through. See
+     * {@link WeatherContract#PATH_AGGREGATE} for the URI, and {@link #query} for the other
+     * parameters.
+     *
+     * @param location   The location to summarize the weather of
+     * @param projection Names of aggregate columns, as returned by
+     *                   {@link WeatherContract.WeatherEntry#getAggregateColumnName}, or null for
+     *                   every column of the function in the URI
+     */
+    private Cursor queryAggregate(Uri uri, LocationScope location, String[] projection,
+                                  String selection, String[] selectionArgs) {
+
+        List<String> dateArguments = new ArrayList<>();
+        String dateSelection = getDateRangeSelection(uri, location, dateArguments);
+
+        String function = uri.getQueryParameter(WeatherContract.QUERY_PARAMETER_FUNCTION);
+
+        return mOpenHelper.getReadableDatabase().query(
+                WeatherContract.WeatherEntry.TABLE_NAME,
+                getAggregateProjection(function, projection),
+                DatabaseUtils.concatenateWhere(dateSelection, selection),
+                DatabaseUtils.appendSelectionArgs(
+                        dateArguments.toArray(new String[dateArguments.size()]),
+                        selectionArgs),
+                null,
+                null,
+                null);
+    }
+
+    /**
+     * Selects the rows of a location between the dates given by
+     * {@link WeatherContract#QUERY_PARAMETER_FROM} and {@link WeatherContract#QUERY_PARAMETER_TO},
+     * either of which may be left out. Works for the weather table as well as the archive, as
+     * both name their location and date columns alike.
+     *
+     * @param arguments Receives the arguments of the returned selection
+     * @return The selection
+     */
+    private static String getDateRangeSelection(Uri uri, LocationScope location,
+                                                List<String> arguments) {
+        String dateSelection = location.mSelection;
+        arguments.add(location.mArgument);
+
+        String from = uri.getQueryParameter(WeatherContract.QUERY_PARAMETER_FROM);
+        if (from != null) {
+            dateSelection = DatabaseUtils.concatenateWhere(dateSelection,
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " >= ?");
+            arguments.add(String.valueOf(SunshineDateUtils.normalizeDate(parseDate(from))));
+        }
+
+        String to = uri.getQueryParameter(WeatherContract.QUERY_PARAMETER_TO);
+        if (to != null) {
+            dateSelection = DatabaseUtils.concatenateWhere(dateSelection,
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?");
+            arguments.add(String.valueOf(SunshineDateUtils.normalizeDate(parseDate(to))));
+        }
+        return dateSelection;
+    }
+
+    /**
+     * Reads the archived weather of a location, between the dates in the URI, in date order
+     * unless the query asks for another sort order. Days, weeks and months come back side by
+     * side, as far as the archive has been compacted. See {@link #query} for the parameters.
+     */
+    private Cursor queryArchive(Uri uri, LocationScope location, String[] projection,
+                                String selection, String[] selectionArgs, String sortOrder) {
+        List<String> dateArguments = new ArrayList<>();
+        String dateSelection = getDateRangeSelection(uri, location, dateArguments);
+
+        return mOpenHelper.getReadableDatabase().query(
+                WeatherContract.ArchiveEntry.TABLE_NAME,
+                projection,
+                DatabaseUtils.concatenateWhere(dateSelection, selection),
+                DatabaseUtils.appendSelectionArgs(
+                        dateArguments.toArray(new String[dateArguments.size()]),
+                        selectionArgs),
+                null,
+                null,
+                sortOrder == null ? WeatherContract.ArchiveEntry.COLUMN_DATE + " ASC" : sortOrder);
+    }
+
+    /**
+     * Selects the steps of a location's hourly forecast between two times, either of which may
+     * be left out. Unlike dates, the times are used as they are.
+     *
+     * @param from      The first time to include, or null
+     * @param to        The last time to include, or null
+     * @param arguments Receives the arguments of the returned selection
+     * @return The selection
+     */
+    private static String getTimeRangeSelection(LocationScope location, String from, String to,
+                                                List<String> arguments) {
+        String timeSelection = location.mSelection;
+        arguments.add(location.mArgument);
+
+        if (from != null) {
+            timeSelection = DatabaseUtils.concatenateWhere(timeSelection,
+                    WeatherContract.HourlyEntry.COLUMN_TIME + " >= ?");
+            arguments.add(String.valueOf(parseDate(from)));
+        }
+        if (to != null) {
+            timeSelection = DatabaseUtils.concatenateWhere(timeSelection,
+                    WeatherContract.HourlyEntry.COLUMN_TIME + " <= ?");
+            arguments.add(String.valueOf(parseDate(to)));
+        }
+        return timeSelection;
+    }
+
+    /**
+     * Reads the stored hourly forecast of a location, between the times in the URI, in time
+     * order unless the query asks for another sort order. The values come back as they are
+     * stored, in tenths; to chart them, {@link WeatherContract#METHOD_READ_HOURLY_FORECAST} is
+     * the cheaper way. See {@link #query} for the parameters.
+     */
+    private Cursor queryHourly(Uri uri, LocationScope location, String[] projection,
+                               String selection, String[] selectionArgs, String sortOrder) {
+        List<String> timeArguments = new ArrayList<>();
+        String timeSelection = getTimeRangeSelection(location,
+                uri.getQueryParameter(WeatherContract.QUERY_PARAMETER_FROM),
+                uri.getQueryParameter(WeatherContract.QUERY_PARAMETER_TO),
+                timeArguments);
+
+        return mOpenHelper.getReadableDatabase().query(
+                WeatherContract.HourlyEntry.TABLE_NAME,
+                projection,
+                DatabaseUtils.concatenateWhere(timeSelection, selection),
+                DatabaseUtils.appendSelectionArgs(
+                        timeArguments.toArray(new String[timeArguments.size()]),
+                        selectionArgs),
+                null,
+                null,
+                sortOrder == null ? WeatherContract.HourlyEntry.COLUMN_TIME + " ASC" : sortOrder);
+    }
+
+    /**
+     * Turns the columns asked for by an aggregate query into the SQL that computes them.
+     *
+     * @param function   The function in the URI, which chooses the columns if projection is null
+     * @param projection The names of the aggregate columns to return, or null
+     * @return The projection to pass to SQLite
+     */
+    private static String[] getAggregateProjection(String function, String[] projection) {
+        if (projection == null) {
+            List<String> aggregateProjection = new ArrayList<>();
+
+            for (Map.Entry<String, String> column : sAggregateColumns.entrySet()) {
+                String name = column.getKey();
+                if (function == null
+                        || name.equals(function)
+                        || name.startsWith(function + "_")) {
+                    aggregateProjection.add(column.getValue());
+                }
+            }
+
+            if (aggregateProjection.isEmpty()) {
+                throw new IllegalArgumentException("Unknown aggregate function: " + function);
+            }
+            return aggregateProjection.toArray(new String[aggregateProjection.size()]);
+        }
+
+        String[] aggregateProjection = new String[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            aggregateProjection[i] = sAggregateColumns.get(projection[i]);
+            if (aggregateProjection[i] == null) {
+                throw new IllegalArgumentException("Unknown aggregate column: " + projection[i]);
+            }
+        }
+        return aggregateProjection;
+    }
+
+    /**
+     * Lists the stored locations, most recently used first unless the query asks for another
+     * sort order, or a single location by its _ID. See {@link #query} for the other parameters.
+     *
+     * @param match CODE_LOCATION or CODE_LOCATION_WITH_ID
+     */
+    private Cursor queryLocation(Uri uri, int match, String[] projection, String selection,
+                                 String[] selectionArgs, String sortOrder) {
+        if (match == CODE_LOCATION_WITH_ID) {
+            selection = DatabaseUtils.concatenateWhere(
+                    WeatherContract.LocationEntry._ID + " = ?", selection);
+            selectionArgs = DatabaseUtils.appendSelectionArgs(
+                    new String[]{uri.getLastPathSegment()}, selectionArgs);
+        }
+
+        return mOpenHelper.getReadableDatabase().query(
+                WeatherContract.LocationEntry.TABLE_NAME,
+                projection,
+                selection,
+                selectionArgs,
+                null,
+                null,
+                sortOrder == null ? LAST_USED_DESCENDING : sortOrder);
+    }
+
+    /**
+     * Works out which location the arg of a call is about: the given location setting, or the
+     * location in the preferences if there is none.
+     */
+    private LocationScope getLocationScope(String locationSetting) {
+        return LocationScope.forSetting(locationSetting != null
+                ? locationSetting
+                : SunshinePreferences.getPreferredWeatherLocation(getContext()));
+    }
+
+    /**
+     * Works out which location a weather URI is about: the stored location given by
+     * {@link WeatherContract#QUERY_PARAMETER_LOCATION_ID}, or else the location in the
+     * preferences.
+     */
+    private LocationScope getLocationScope(Uri uri) {
+        String locationId = uri.getQueryParameter(WeatherContract.QUERY_PARAMETER_LOCATION_ID);
+        if (locationId == null) {
+            return LocationScope.forSetting(
+                    SunshinePreferences.getPreferredWeatherLocation(getContext()));
+        }
+
+        try {
+            return LocationScope.forId(Long.parseLong(locationId));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid location: " + locationId);
+        }
+    }
+
+    private static long parseDate(String date) {
+        try {
+            return Long.parseLong(date);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid date: " + date);
+        }
+    }
+
+    /**
+     * Reads a date from one of the URI's path segments, which UriMatcher has already checked is
+     * a number, and normalizes it.
+     */
+    private static long getDateFromUri(Uri uri, int segment) {
+        return SunshineDateUtils.normalizeDate(Long.parseLong(uri.getPathSegments().get(segment)));
+    }
+
+    /**
+     * @return The page size asked for by a {@link #CODE_WEATHER_AFTER} URI, or
+     * {@link WeatherContract#DEFAULT_PAGE_SIZE} if it doesn't ask for one
+     */
+    private static int getPageLimit(Uri uri) {
+        String limit = uri.getQueryParameter(WeatherContract.QUERY_PARAMETER_LIMIT);
+        if (limit == null) {
+            return WeatherContract.DEFAULT_PAGE_SIZE;
+        }
+
+        try {
+            int pageSize = Integer.parseInt(limit);
+            if (pageSize > 0) {
+                return pageSize;
+            }
+        } catch (NumberFormatException e) {
+            /* Reported below, along with page sizes that aren't positive */
+        }
+        throw new IllegalArgumentException("Invalid page size: " + limit);
+    }
+
+    /**
+     * Replaces a request for the _ID column with {@link #ID_ALIAS}. A null projection, which asks
+     * for every column, gets the alias added to the end.
+     */
+    private static String[] aliasIdColumn(String[] projection) {
+        if (projection == null) {
+            return new String[]{"*", ID_ALIAS};
+        }
+
+        for (int i = 0; i < projection.length; i++) {
+            if (WeatherContract.WeatherEntry._ID.equals(projection[i])) {
+                String[] aliasedProjection = projection.clone();
+                aliasedProjection[i] = ID_ALIAS;
+                return aliasedProjection;
+            }
+        }
+        return projection;
+    }
+
     /**
      * Deletes data at a given URI with optional arguments for more fine tuned deletions.
      *
@@ -316,25 +1948,61 @@ public class WeatherProvider extends ContentProvider {
          */
         if (null == selection) selection = "1";
 
-        switch (sUriMatcher.match(uri)) {
+        long startNanos = System.nanoTime();
+        int match = sUriMatcher.match(uri);
+        switch (match) {
 
+            /* Only the weather of the URI's location is deleted */
             case CODE_WEATHER:
+                LocationScope location = getLocationScope(uri);
+                try {
+                    numRowsDeleted = mOpenHelper.getWritableDatabase().delete(
+                            WeatherContract.WeatherEntry.TABLE_NAME,
+                            DatabaseUtils.concatenateWhere(location.mSelection, selection),
+                            DatabaseUtils.appendSelectionArgs(
+                                    new String[]{location.mArgument}, selectionArgs));
+                } finally {
+                    mForecastCache.invalidate();
+                }
+
+                break;
+
+            /* Only the archive of the URI's location is deleted */
+            case CODE_ARCHIVE: {
+                LocationScope archiveLocation = getLocationScope(uri);
                 numRowsDeleted = mOpenHelper.getWritableDatabase().delete(
-                        WeatherContract.WeatherEntry.TABLE_NAME,
-                        selection,
-                        selectionArgs);
+                        WeatherContract.ArchiveEntry.TABLE_NAME,
+                        DatabaseUtils.concatenateWhere(archiveLocation.mSelection, selection),
+                        DatabaseUtils.appendSelectionArgs(
+                                new String[]{archiveLocation.mArgument}, selectionArgs));
+                break;
+            }
 
+            /* Only the hourly forecast of the URI's location is deleted */
+            case CODE_HOURLY: {
+                LocationScope hourlyLocation = getLocationScope(uri);
+                numRowsDeleted = mOpenHelper.getWritableDatabase().delete(
+                        WeatherContract.HourlyEntry.TABLE_NAME,
+                        DatabaseUtils.concatenateWhere(hourlyLocation.mSelection, selection),
+                        DatabaseUtils.appendSelectionArgs(
+                                new String[]{hourlyLocation.mArgument}, selectionArgs));
                 break;
+            }
 
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
 
-        /* If we actually deleted any rows, notify that a change has occurred to this URI */
+        /*
+         * If we actually deleted any rows, notify that a change has occurred to this URI. We
+         * don't know which days of weather the selection matched, so this notifies the whole
+         * table, and with it every open day.
+         */
         if (numRowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
 
+        recordOperation(ProviderMetrics.DELETE, match, numRowsDeleted, startNanos);
         return numRowsDeleted;
     }
 
@@ -354,25 +2022,237 @@ public class WeatherProvider extends ContentProvider {
     }
 
     /**
-     * In Sunshine, we aren't going to do anything with this method. However, we are required to
-     * override it as WeatherProvider extends ContentProvider and insert is an abstract method in
-     * ContentProvider. Rather than the single insert method, we are only going to implement
-     * {@link WeatherProvider#bulkInsert}.
+     * Inserts a single day of weather, as a one day {@link #bulkInsert}: a stored day with the
+     * same location and date is replaced, so inserting a day is an upsert of the whole row.
+     * Every column of the weather table must be given.
      *
-     * @param uri    The URI of the insertion request. This must not be null.
-     * @param values A set of column_name/value pairs to add to the database.
-     *               This must not be null
-     * @return nothing in Sunshine, but normally the URI for the newly inserted item.
+     * @param uri    {@link WeatherContract.WeatherEntry#CONTENT_URI}, optionally for a location
+     *               chosen by {@link WeatherContract#QUERY_PARAMETER_LOCATION_ID}
+     * @param values The columns of the day, including its normalized date
+     * @return The URI of the day that was written, or null if nothing was written
      */
     @Override
     public Uri insert(@NonNull Uri uri, ContentValues values) {
-        throw new RuntimeException(
-                "We are not implementing insert in Sunshine. Use bulkInsert instead");
+        long startNanos = System.nanoTime();
+        if (sUriMatcher.match(uri) != CODE_WEATHER) {
+            throw new UnsupportedOperationException("Unknown uri: " + uri);
+        }
+
+        ForecastBatch day = ForecastBatch.fromContentValues(new ContentValues[]{values});
+        int rowsInserted = insertWeather(day, getLocationScope(uri));
+        recordOperation(ProviderMetrics.INSERT, CODE_WEATHER, rowsInserted, startNanos);
+        if (rowsInserted == 0) {
+            return null;
+        }
+        return uri.buildUpon().appendPath(Long.toString(day.getDate(0))).build();
+    }
+
+    /**
+     * Updates a single day of weather by its date, as an upsert: if the location already has
+     * weather for the date, only the given columns are overwritten, in place; otherwise, the day
+     * is inserted, and then every column must be given. Refreshing part of the forecast, such as
+     * just today, is then a single lookup in the table's primary key, instead of a delete and a
+     * bulkInsert of the whole forecast.
+     *
+     * @param uri           The URI of the day, as built by
+     *                      {@link WeatherContract.WeatherEntry#buildWeatherUriWithDate}, or
+     *                      {@link WeatherContract.WeatherEntry#CONTENT_URI} with the date in the
+     *                      values. Either may choose a location with
+     *                      {@link WeatherContract#QUERY_PARAMETER_LOCATION_ID}.
+     * @param values        The columns to write
+     * @param selection     Must be null; the date is what chooses the row
+     * @param selectionArgs Must be null
+     * @return The number of rows written, which is 1
+     */
+    @Override
+    public int update(@NonNull Uri uri, ContentValues values, String selection,
+                      String[] selectionArgs) {
+        if (selection != null) {
+            throw new UnsupportedOperationException(
+                    "Weather is updated by date, not by selection: " + uri);
+        }
+
+        long startNanos = System.nanoTime();
+        int match = sUriMatcher.match(uri);
+        long date;
+        switch (match) {
+
+            case CODE_WEATHER_WITH_DATE:
+                date = Long.parseLong(uri.getLastPathSegment());
+                break;
+
+            case CODE_WEATHER: {
+                Long valuesDate = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+                if (valuesDate == null) {
+                    throw new IllegalArgumentException("A date is required to update weather");
+                }
+                date = valuesDate;
+                break;
+            }
+
+            default:
+                throw new UnsupportedOperationException("Unknown uri: " + uri);
+        }
+
+        int rowsWritten = upsertWeather(date, values, getLocationScope(uri));
+        recordOperation(ProviderMetrics.UPDATE, match, rowsWritten, startNanos);
+        return rowsWritten;
+    }
+
+    /**
+     * Writes the given columns of a single day. See {@link #update}.
+     *
+     * @param date     The normalized date of the day
+     * @param values   The columns to write; a date or location_id among them is ignored
+     * @param location The location the day is for
+     * @return The number of rows written, which is 1
+     */
+    private int upsertWeather(long date, ContentValues values, LocationScope location) {
+        if (!SunshineDateUtils.isDateNormalized(date)) {
+            throw new IllegalArgumentException("Date must be normalized to update");
+        }
+
+        ContentValues dayValues = new ContentValues(values);
+        dayValues.remove(WeatherContract.WeatherEntry.COLUMN_DATE);
+        dayValues.remove(WeatherContract.WeatherEntry.COLUMN_LOCATION_ID);
+        if (dayValues.size() == 0) {
+            throw new IllegalArgumentException("No weather columns to update");
+        }
+
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+
+        long startNanos = System.nanoTime();
+        db.beginTransaction();
+        try {
+            long locationId = useLocation(db, location, null, true);
+
+            int rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME,
+                    dayValues,
+                    LOCATION_AND_DATE_SELECTION,
+                    new String[]{Long.toString(locationId), Long.toString(date)});
+
+            if (rowsUpdated == 0) {
+                /* fromContentValues checks that a new day has every column */
+                dayValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, date);
+                ForecastBatch day = ForecastBatch.fromContentValues(new ContentValues[]{dayValues});
+
+                WeatherStatements statements = new WeatherStatements(db, locationId);
+                try {
+                    statements.insert(day, 0);
+                } finally {
+                    statements.close();
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            mForecastCache.invalidate();
+        }
+        mMetrics.record(ProviderMetrics.TRANSACTION, "upsert", 1, System.nanoTime() - startNanos);
+
+        checkpoint(db);
+        notifyChange(WeatherContract.LocationEntry.CONTENT_URI);
+        notifyWeatherChanged(Collections.singleton(date));
+        return 1;
+    }
+
+    /**
+     * Applies a batch of operations in a single transaction, so a batch of any size costs a
+     * single commit, instead of one per operation. Observers are notified once, after the
+     * commit, of every URI the batch changed, and the write-ahead log is checkpointed once.
+     * <p>
+     * An operation built with {@link ContentProviderOperation.Builder#withYieldAllowed} marks a
+     * yield point: if another thread is waiting for the database, what the batch has written so
+     * far is committed there, and a new transaction is started for the rest. A long batch then
+     * doesn't hold up the queries of the UI. The batch is only atomic between yield points.
+     *
+     * @param operations The operations to apply, in order
+     * @return The result of each operation
+     * @throws OperationApplicationException If an operation fails; the batch is rolled back to
+     *                                       its last yield point
+     */
+    @NonNull
+    @Override
+    public ContentProviderResult[] applyBatch(
+            @NonNull ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        Set<Uri> batchNotifications = new LinkedHashSet<>();
+        ContentProviderResult[] results = new ContentProviderResult[operations.size()];
+
+        long startNanos = System.nanoTime();
+        mBatchNotifications.set(batchNotifications);
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < operations.size(); i++) {
+                ContentProviderOperation operation = operations.get(i);
+                if (i > 0 && operation.isYieldAllowed()) {
+                    db.yieldIfContendedSafely();
+                }
+                results[i] = operation.apply(this, results, i);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            mBatchNotifications.remove();
+            mMetrics.record(ProviderMetrics.TRANSACTION, "apply_batch", operations.size(),
+                    System.nanoTime() - startNanos);
+
+            /*
+             * Queries on other threads may have cached the forecast as it was before the batch
+             * committed, or as it was at a yield point. Whatever was committed, observers are
+             * told about it, even if the rest of the batch failed.
+             */
+            mForecastCache.invalidate();
+            if (!batchNotifications.isEmpty()) {
+                WeatherDbHelper.checkpoint(db);
+                ContentResolver contentResolver = getContext().getContentResolver();
+                for (Uri uri : batchNotifications) {
+                    contentResolver.notifyChange(uri, null);
+                }
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * @return How long queries have waited for their first rows since this provider was created
+     */
+    ReaderWaitStats getReaderWaitStats() {
+        return mReaderWaitStats;
+    }
+
+    /**
+     * @return The in-memory forecast, which counts how often queries were answered from it
+     */
+    ForecastCache getForecastCache() {
+        return mForecastCache;
+    }
+
+    /**
+     * @return The latencies and row counts of every kind of operation since this provider was
+     * created
+     */
+    ProviderMetrics getMetrics() {
+        return mMetrics;
     }
 
+    /**
+     * Prints how long queries have waited for the database, how well the in-memory forecast is
+     * doing, and the metrics of every kind of operation, as {@link WeatherContract.MetricsEntry}
+     * describes them. To see it, run
+     * <pre>
+     * adb shell dumpsys activity provider com.example.android.sunshine/.data.WeatherProvider
+     * </pre>
+     */
     @Override
-    public int update(@NonNull Uri uri, ContentValues values, String selection, String[] selectionArgs) {
-        throw new RuntimeException("We are not implementing update in Sunshine");
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        writer.println("Reader wait: " + mReaderWaitStats);
+        writer.println("Forecast cache: " + mForecastCache);
+        writer.println("Metrics:");
+        mMetrics.dump(writer, getContext().getPackageManager());
     }
 
     /**
@@ -381,7 +2261,6 @@ public class WeatherProvider extends ContentProvider {
      * http://developer.android.com/reference/android/content/ContentProvider.html#shutdown()
      */
     @Override
-    @TargetApi(11)
     public void shutdown() {
         mOpenHelper.close();
         super.shutdown();
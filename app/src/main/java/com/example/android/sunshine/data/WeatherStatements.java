@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.sunshine.data.WeatherContract.ArchiveEntry;
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
+
+/**
+ * The write engine behind WeatherProvider. SQLiteDatabase#insert and #update build a new SQL
+ * String from the keys of a ContentValues every time they are called, have SQLite compile it, and
+ * then bind every value by looking it up in the map. For a forecast of 14 days that is 14 times
+ * the same work; for a year of data it is 365.
+ * <p>
+ * Instead, a WeatherStatements compiles each statement once, when it is created inside a
+ * transaction, and then binds the values of each day from a {@link ForecastBatch} by position.
+ * Call {@link #close()} before the transaction ends.
+ * <p>
+ * A WeatherStatements writes the weather of a single location, whose _ID is bound once, when
+ * each statement is compiled.
+ */
+final class WeatherStatements {
+
+    /*
+     * The columns are bound in this order, so that the statements below can share
+     * bindWeatherValues. The date and the location come last so that they line up with the
+     * WHERE clause of the UPDATE statement.
+     */
+    private static final String SQL_INSERT_WEATHER =
+            "INSERT INTO " + WeatherEntry.TABLE_NAME + " ("
+                    + WeatherEntry.COLUMN_WEATHER_ID + ", "
+                    + WeatherEntry.COLUMN_MIN_TEMP + ", "
+                    + WeatherEntry.COLUMN_MAX_TEMP + ", "
+                    + WeatherEntry.COLUMN_HUMIDITY + ", "
+                    + WeatherEntry.COLUMN_PRESSURE + ", "
+                    + WeatherEntry.COLUMN_WIND_SPEED + ", "
+                    + WeatherEntry.COLUMN_DEGREES + ", "
+                    + WeatherEntry.COLUMN_DATE + ", "
+                    + WeatherEntry.COLUMN_LOCATION_ID
+                    + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String SQL_UPDATE_WEATHER =
+            "UPDATE " + WeatherEntry.TABLE_NAME + " SET "
+                    + WeatherEntry.COLUMN_WEATHER_ID + " = ?, "
+                    + WeatherEntry.COLUMN_MIN_TEMP + " = ?, "
+                    + WeatherEntry.COLUMN_MAX_TEMP + " = ?, "
+                    + WeatherEntry.COLUMN_HUMIDITY + " = ?, "
+                    + WeatherEntry.COLUMN_PRESSURE + " = ?, "
+                    + WeatherEntry.COLUMN_WIND_SPEED + " = ?, "
+                    + WeatherEntry.COLUMN_DEGREES + " = ? "
+                    + "WHERE " + WeatherEntry.COLUMN_DATE + " = ? "
+                    + "AND " + WeatherEntry.COLUMN_LOCATION_ID + " = ?";
+
+    private static final String SQL_DELETE_WEATHER =
+            "DELETE FROM " + WeatherEntry.TABLE_NAME
+                    + " WHERE " + WeatherEntry.COLUMN_DATE + " = ?"
+                    + " AND " + WeatherEntry.COLUMN_LOCATION_ID + " = ?";
+
+    /* Copies a stored day into the archive before it is deleted */
+    private static final String SQL_ARCHIVE_WEATHER =
+            "INSERT INTO " + ArchiveEntry.TABLE_NAME + " ("
+                    + ArchiveEntry.COLUMN_LOCATION_ID + ", "
+                    + ArchiveEntry.COLUMN_DATE + ", "
+                    + ArchiveEntry.COLUMN_PERIOD + ", "
+                    + ArchiveEntry.COLUMN_DAY_COUNT + ", "
+                    + ArchiveEntry.COLUMN_WEATHER_ID + ", "
+                    + ArchiveEntry.COLUMN_MIN_TEMP + ", "
+                    + ArchiveEntry.COLUMN_MAX_TEMP + ", "
+                    + ArchiveEntry.COLUMN_HUMIDITY + ", "
+                    + ArchiveEntry.COLUMN_PRESSURE + ", "
+                    + ArchiveEntry.COLUMN_WIND_SPEED
+                    + ") SELECT "
+                    + WeatherEntry.COLUMN_LOCATION_ID + ", "
+                    + WeatherEntry.COLUMN_DATE + ", "
+                    + "'" + WeatherContract.PERIOD_DAY + "', "
+                    + "1, "
+                    + WeatherEntry.COLUMN_WEATHER_ID + ", "
+                    + WeatherEntry.COLUMN_MIN_TEMP + ", "
+                    + WeatherEntry.COLUMN_MAX_TEMP + ", "
+                    + WeatherEntry.COLUMN_HUMIDITY + ", "
+                    + WeatherEntry.COLUMN_PRESSURE + ", "
+                    + WeatherEntry.COLUMN_WIND_SPEED
+                    + " FROM " + WeatherEntry.TABLE_NAME
+                    + " WHERE " + WeatherEntry.COLUMN_DATE + " = ?"
+                    + " AND " + WeatherEntry.COLUMN_LOCATION_ID + " = ?";
+
+    /* Where the location's _ID is bound in each statement */
+    private static final int INSERT_LOCATION_INDEX = 9;
+    private static final int UPDATE_LOCATION_INDEX = 9;
+    private static final int DELETE_LOCATION_INDEX = 2;
+    private static final int ARCHIVE_LOCATION_INDEX = 2;
+
+    private final SQLiteDatabase mDb;
+    private final long mLocationId;
+
+    /* Each statement is compiled the first time it is needed */
+    private SQLiteStatement mInsertStatement;
+    private SQLiteStatement mUpdateStatement;
+    private SQLiteStatement mDeleteStatement;
+    private SQLiteStatement mArchiveStatement;
+
+    /**
+     * @param db         The database to write to, which should already be in a transaction
+     * @param locationId The _ID of the location the weather is for
+     */
+    WeatherStatements(SQLiteDatabase db, long locationId) {
+        mDb = db;
+        mLocationId = locationId;
+    }
+
+    /**
+     * Makes sure every date in the forecast is normalized before anything is written. This is a
+     * plain loop over the primitive dates of the batch, so a bad date fails the whole write
+     * before the first row touches the database.
+     *
+     * @param forecast The forecast that is about to be written
+     * @throws IllegalArgumentException If any of the dates isn't normalized
+     */
+    static void checkDatesNormalized(ForecastBatch forecast) {
+        for (int day = 0, size = forecast.size(); day < size; day++) {
+            if (!SunshineDateUtils.isDateNormalized(forecast.getDate(day))) {
+                throw new IllegalArgumentException("Date must be normalized to insert");
+            }
+        }
+    }
+
+    /**
+     * Inserts a day of the forecast, replacing any stored row with the same location and date.
+     *
+     * @return The row ID of the new row
+     */
+    long insert(ForecastBatch forecast, int day) {
+        if (mInsertStatement == null) {
+            mInsertStatement = mDb.compileStatement(SQL_INSERT_WEATHER);
+            mInsertStatement.bindLong(INSERT_LOCATION_INDEX, mLocationId);
+        }
+        bindWeatherValues(mInsertStatement, forecast, day);
+        return mInsertStatement.executeInsert();
+    }
+
+    /**
+     * Overwrites the stored row with the same location and date as a day of the forecast.
+     *
+     * @return The number of rows that were updated
+     */
+    int update(ForecastBatch forecast, int day) {
+        if (mUpdateStatement == null) {
+            mUpdateStatement = mDb.compileStatement(SQL_UPDATE_WEATHER);
+            mUpdateStatement.bindLong(UPDATE_LOCATION_INDEX, mLocationId);
+        }
+        bindWeatherValues(mUpdateStatement, forecast, day);
+        return mUpdateStatement.executeUpdateDelete();
+    }
+
+    /**
+     * Deletes the location's stored row for a date.
+     *
+     * @return The number of rows that were deleted
+     */
+    int delete(long date) {
+        if (mDeleteStatement == null) {
+            mDeleteStatement = mDb.compileStatement(SQL_DELETE_WEATHER);
+            mDeleteStatement.bindLong(DELETE_LOCATION_INDEX, mLocationId);
+        }
+        mDeleteStatement.bindLong(1, date);
+        return mDeleteStatement.executeUpdateDelete();
+    }
+
+    /**
+     * Copies the location's stored row for a date into the archive, as a day. Call this before
+     * deleting a day that has passed.
+     *
+     * @return The number of rows archived, which is 0 if there was no stored row for the date.
+     * The archive may be WITHOUT ROWID, so there is no row ID to return.
+     */
+    int archive(long date) {
+        if (mArchiveStatement == null) {
+            mArchiveStatement = mDb.compileStatement(SQL_ARCHIVE_WEATHER);
+            mArchiveStatement.bindLong(ARCHIVE_LOCATION_INDEX, mLocationId);
+        }
+        mArchiveStatement.bindLong(1, date);
+        return mArchiveStatement.executeUpdateDelete();
+    }
+
+    /**
+     * Releases the compiled statements. Call this before ending the transaction.
+     */
+    void close() {
+        if (mInsertStatement != null) {
+            mInsertStatement.close();
+        }
+        if (mUpdateStatement != null) {
+            mUpdateStatement.close();
+        }
+        if (mDeleteStatement != null) {
+            mDeleteStatement.close();
+        }
+        if (mArchiveStatement != null) {
+            mArchiveStatement.close();
+        }
+    }
+
+    /*
+     * Binding replaces whatever was bound before, so there is no need to clear the bindings
+     * between days. The location's _ID is never rebound, so it stays bound for every day.
+     */
+    private static void bindWeatherValues(SQLiteStatement statement, ForecastBatch forecast,
+                                          int day) {
+        statement.bindLong(1, forecast.getWeatherId(day));
+        statement.bindDouble(2, forecast.getMinTemp(day));
+        statement.bindDouble(3, forecast.getMaxTemp(day));
+        statement.bindDouble(4, forecast.getHumidity(day));
+        statement.bindDouble(5, forecast.getPressure(day));
+        statement.bindDouble(6, forecast.getWindSpeed(day));
+        statement.bindDouble(7, forecast.getDegrees(day));
+        statement.bindLong(8, forecast.getDate(day));
+    }
+}
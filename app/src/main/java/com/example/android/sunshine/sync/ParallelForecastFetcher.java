@@ -0,0 +1,307 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.os.Process;
+import android.util.Log;
+
+import com.example.android.sunshine.data.ForecastBatch;
+import com.example.android.sunshine.utilities.NetworkUtils;
+import com.example.android.sunshine.utilities.OpenWeatherJsonUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Downloads and parses the forecasts of several locations at once. Fetching them one after the
+ * other means the total time is the sum of every round trip; most of that time is spent waiting
+ * for the server, so running the requests side by side brings it down to roughly the slowest one.
+ * <p>
+ * The requests run on a small pool of background threads, so that a long list of locations can't
+ * start an unbounded number of threads. On top of that, no more than
+ * {@link #MAX_FETCHES_PER_HOST} requests go to the same server at a time, which is all a server
+ * (or the HTTP connection pool) can be expected to take from one client. And the whole fetch has
+ * a deadline: whatever hasn't arrived by then is abandoned, rather than holding up the forecasts
+ * that did arrive.
+ * <p>
+ * Nothing is written here. The caller gets back the parsed forecasts and stores them all at
+ * once.
+ */
+final class ParallelForecastFetcher {
+
+    private static final String TAG = ParallelForecastFetcher.class.getSimpleName();
+
+    /* The most requests that are in flight at the same time, to all servers together */
+    static final int MAX_CONCURRENT_FETCHES = 6;
+
+    /* The most requests that are in flight at the same time to a single server */
+    static final int MAX_FETCHES_PER_HOST = 4;
+
+    /* How long an idle fetch thread is kept around before it is let go */
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static final ThreadPoolExecutor sExecutor = createExecutor();
+
+    /* One semaphore per host name, holding MAX_FETCHES_PER_HOST permits */
+    private static final ConcurrentHashMap<String, Semaphore> sHostPermits =
+            new ConcurrentHashMap<>();
+
+    /**
+     * What happened to the request for one location.
+     */
+    static final class Result {
+
+        private final String mLocationSetting;
+        private final ForecastBatch mForecast;
+        private final double[] mCoordinates;
+        private final long mLatencyNanos;
+        private final String mFailure;
+
+        private Result(String locationSetting, ForecastBatch forecast, double[] coordinates,
+                       long latencyNanos, String failure) {
+            mLocationSetting = locationSetting;
+            mForecast = forecast;
+            mCoordinates = coordinates;
+            mLatencyNanos = latencyNanos;
+            mFailure = failure;
+        }
+
+        String getLocationSetting() {
+            return mLocationSetting;
+        }
+
+        /**
+         * @return The parsed forecast, or null if the request failed or didn't finish in time
+         */
+        ForecastBatch getForecast() {
+            return mForecast;
+        }
+
+        /**
+         * @return The latitude and longitude the response gave for the location, or null
+         */
+        double[] getCoordinates() {
+            return mCoordinates;
+        }
+
+        /**
+         * @return How long the request took, from being sent until its response was parsed. A
+         * request that was abandoned at the deadline reports the time until the deadline.
+         */
+        long getLatencyNanos() {
+            return mLatencyNanos;
+        }
+
+        boolean isSuccessful() {
+            return mForecast != null;
+        }
+
+        @Override
+        public String toString() {
+            return mLocationSetting + ": "
+                    + (isSuccessful() ? mForecast.size() + " days" : mFailure)
+                    + " in " + TimeUnit.NANOSECONDS.toMillis(mLatencyNanos) + "ms";
+        }
+    }
+
+    private ParallelForecastFetcher() {
+    }
+
+    private static ThreadPoolExecutor createExecutor() {
+        ThreadFactory threadFactory = new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, "ForecastFetch #" + mCount.incrementAndGet());
+            }
+        };
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                MAX_CONCURRENT_FETCHES,
+                MAX_CONCURRENT_FETCHES,
+                KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                threadFactory);
+
+        /* Sync runs a few times a day, so there is no point in keeping idle threads around */
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Fetches and parses the forecast of every location, several at a time, and waits until they
+     * have all finished or the deadline has passed. The requests are unconditional; a response
+     * can only be skipped as Not Modified if we keep its validators, and we only do that for the
+     * preferred location.
+     *
+     * @param requests      The URL to request for each location setting
+     * @param timeoutMillis How long all of the requests together may take
+     * @return One result per location, in the iteration order of the map
+     */
+    static List<Result> fetchAll(Map<String, URL> requests, long timeoutMillis) {
+        long fetchStartNanos = System.nanoTime();
+        long deadlineNanos = fetchStartNanos + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+
+        List<String> locationSettings = new ArrayList<>(requests.size());
+        List<Future<Result>> futures = new ArrayList<>(requests.size());
+        for (Map.Entry<String, URL> request : requests.entrySet()) {
+            locationSettings.add(request.getKey());
+            futures.add(sExecutor.submit(
+                    new FetchTask(request.getKey(), request.getValue(), deadlineNanos)));
+        }
+
+        List<Result> results = new ArrayList<>(futures.size());
+        for (int i = 0; i < futures.size(); i++) {
+            Future<Result> future = futures.get(i);
+            String locationSetting = locationSettings.get(i);
+            try {
+                results.add(future.get(Math.max(0, deadlineNanos - System.nanoTime()),
+                        TimeUnit.NANOSECONDS));
+            } catch (TimeoutException e) {
+                /*
+                 * Interrupting the task stops its parser at the next day. A read that is blocked
+                 * on the network ends on its own, as its timeout ends at the deadline too.
+                 */
+                future.cancel(true);
+                results.add(new Result(locationSetting, null, null,
+                        deadlineNanos - fetchStartNanos, "timed out"));
+            } catch (ExecutionException e) {
+                Log.w(TAG, "Fetch for " + locationSetting + " failed", e.getCause());
+                results.add(new Result(locationSetting, null, null, 0,
+                        String.valueOf(e.getCause())));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                future.cancel(true);
+                results.add(new Result(locationSetting, null, null, 0, "interrupted"));
+            }
+        }
+        return results;
+    }
+
+    private static Semaphore getHostPermits(String host) {
+        Semaphore permits = sHostPermits.get(host);
+        if (permits == null) {
+            Semaphore newPermits = new Semaphore(MAX_FETCHES_PER_HOST);
+            permits = sHostPermits.putIfAbsent(host, newPermits);
+            if (permits == null) {
+                permits = newPermits;
+            }
+        }
+        return permits;
+    }
+
+    /**
+     * Downloads and parses the forecast of one location, on one of the fetch threads.
+     */
+    private static final class FetchTask implements Callable<Result> {
+
+        private final String mLocationSetting;
+        private final URL mUrl;
+        private final long mDeadlineNanos;
+
+        FetchTask(String locationSetting, URL url, long deadlineNanos) {
+            mLocationSetting = locationSetting;
+            mUrl = url;
+            mDeadlineNanos = deadlineNanos;
+        }
+
+        @Override
+        public Result call() throws IOException, InterruptedException {
+            Semaphore hostPermits = getHostPermits(mUrl.getHost());
+            if (!hostPermits.tryAcquire(mDeadlineNanos - System.nanoTime(),
+                    TimeUnit.NANOSECONDS)) {
+                return new Result(mLocationSetting, null, null, 0, "timed out waiting for host");
+            }
+
+            long startNanos = System.nanoTime();
+            try {
+                int timeoutMillis = (int) Math.max(1,
+                        TimeUnit.NANOSECONDS.toMillis(mDeadlineNanos - startNanos));
+                final CollectingHandler handler = new CollectingHandler();
+                final boolean[] forecastParsed = new boolean[1];
+
+                NetworkUtils.streamResponseFromHttpUrl(mUrl, new String[2], timeoutMillis,
+                        new NetworkUtils.ResponseStreamHandler() {
+                            @Override
+                            public void onResponseStream(InputStream in) throws IOException {
+                                forecastParsed[0] = OpenWeatherJsonUtils
+                                        .parseWeatherStream(in, handler);
+                            }
+                        });
+
+                long latencyNanos = System.nanoTime() - startNanos;
+                if (!forecastParsed[0]) {
+                    return new Result(mLocationSetting, null, null, latencyNanos,
+                            "error response");
+                }
+                return new Result(mLocationSetting, handler.mForecast, handler.mCoordinates,
+                        latencyNanos, null);
+            } finally {
+                hostPermits.release();
+            }
+        }
+    }
+
+    /**
+     * Collects the days handed to it by the streaming parser, and stops the parser once the task
+     * has been abandoned.
+     */
+    private static final class CollectingHandler implements OpenWeatherJsonUtils.ForecastHandler {
+
+        final ForecastBatch mForecast = new ForecastBatch();
+        double[] mCoordinates;
+
+        @Override
+        public void onCityCoordinates(double latitude, double longitude) {
+            mCoordinates = new double[]{latitude, longitude};
+        }
+
+        @Override
+        public void onForecastDay(long date, int weatherId, double minTemp, double maxTemp,
+                                  double humidity, double pressure, double windSpeed,
+                                  double degrees) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new CancellationException();
+            }
+            mForecast.add(date, weatherId, minTemp, maxTemp, humidity, pressure, windSpeed,
+                    degrees);
+        }
+    }
+}
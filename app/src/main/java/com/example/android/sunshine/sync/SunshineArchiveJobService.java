@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.util.Log;
+
+import com.example.android.sunshine.data.SunshinePreferences;
+import com.example.android.sunshine.data.WeatherContract;
+import com.firebase.jobdispatcher.JobParameters;
+import com.firebase.jobdispatcher.JobService;
+
+/**
+ * Compacts the weather archive once a day, while the device is charging. Compaction rewrites
+ * the older part of the archive, which is more work than a sync, and nobody is waiting for it,
+ * so it runs as a job of its own rather than as part of the sync.
+ */
+public class SunshineArchiveJobService extends JobService {
+
+    private static final String TAG = SunshineArchiveJobService.class.getSimpleName();
+
+    private AsyncTask<Void, Void, Void> mCompactArchiveTask;
+
+    @Override
+    public boolean onStartJob(final JobParameters jobParameters) {
+
+        mCompactArchiveTask = new AsyncTask<Void, Void, Void>() {
+            @Override
+            protected Void doInBackground(Void... voids) {
+                compactArchive(getApplicationContext());
+                return null;
+            }
+
+            @Override
+            protected void onPostExecute(Void aVoid) {
+                jobFinished(jobParameters, false);
+            }
+        };
+
+        mCompactArchiveTask.execute();
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters jobParameters) {
+        if (mCompactArchiveTask != null) {
+            mCompactArchiveTask.cancel(true);
+        }
+        return true;
+    }
+
+    /**
+     * Asks our ContentProvider to compact the archive, with the retention windows in the
+     * preferences.
+     *
+     * @param context Used to access the preferences and the ContentResolver
+     */
+    static void compactArchive(Context context) {
+        int[] retentionDays = SunshinePreferences.getArchiveRetentionDays(context);
+
+        Bundle extras = new Bundle();
+        extras.putInt(WeatherContract.EXTRA_DAILY_RETENTION_DAYS, retentionDays[0]);
+        extras.putInt(WeatherContract.EXTRA_WEEKLY_RETENTION_DAYS, retentionDays[1]);
+        extras.putInt(WeatherContract.EXTRA_MONTHLY_RETENTION_DAYS, retentionDays[2]);
+
+        Bundle result = context.getContentResolver().call(
+                WeatherContract.ArchiveEntry.CONTENT_URI,
+                WeatherContract.METHOD_COMPACT_ARCHIVE,
+                null,
+                extras);
+
+        if (result != null) {
+            Log.d(TAG, "Compacted the archive by "
+                    + result.getInt(WeatherContract.EXTRA_ROWS_REMOVED) + " rows");
+        }
+    }
+}
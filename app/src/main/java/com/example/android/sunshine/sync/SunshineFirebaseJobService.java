@@ -45,7 +45,13 @@ public class SunshineFirebaseJobService extends JobService {
             @Override
             protected Void doInBackground(Void... voids) {
                 Context context = getApplicationContext();
-                SunshineSyncTask.syncWeather(context);
+                SunshineSyncCoordinator.requestSync(context, false);
+
+                /*
+                 * While we're at it, refresh the other locations the user has recently looked
+                 * at, so that switching back to one of them never shows a stale forecast.
+                 */
+                SunshineSyncTask.syncStoredLocations(context);
                 jobFinished(jobParameters, false);
                 return null;
             }
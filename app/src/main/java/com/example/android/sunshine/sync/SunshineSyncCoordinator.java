@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+
+import com.example.android.sunshine.data.SunshinePreferences;
+import com.example.android.sunshine.utilities.NetworkUtils;
+
+import java.net.URL;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Makes sure that only one sync runs at a time, without making every trigger wait its turn to
+ * perform its own, redundant fetch. A sync can be requested by SunshineSyncIntentService,
+ * SunshineFirebaseJobService and SunshineSyncUtils at any time; if a sync is already in flight,
+ * the request simply waits for that sync to finish.
+ * <p>
+ * The one exception is a sync the user asked for by changing their location. If the sync in
+ * flight is fetching the weather for a location that is no longer the preferred one, it is stale:
+ * it is cancelled before it can write anything, and a new sync for the new location takes its
+ * place.
+ */
+final class SunshineSyncCoordinator {
+
+    /*
+     * Held by a sync while it writes to the ContentProvider. A sync checks whether it has been
+     * cancelled while holding this lock, so a stale sync can never write its data after (or over)
+     * the data of the sync that replaced it.
+     */
+    static final Object WRITE_LOCK = new Object();
+
+    private static final Object sLock = new Object();
+
+    /* The sync currently in flight, or null. Guarded by sLock. */
+    private static SyncFlight sCurrentFlight;
+
+    private SunshineSyncCoordinator() {
+    }
+
+    /**
+     * A single run of {@link SunshineSyncTask#syncWeather(Context, SyncFlight)}, which any number
+     * of requests can wait on.
+     */
+    static final class SyncFlight {
+
+        private final URL mRequestUrl;
+        private final String mLocationSetting;
+        private final CountDownLatch mFinished = new CountDownLatch(1);
+        private volatile boolean mCancelled;
+
+        private SyncFlight(URL requestUrl, String locationSetting) {
+            mRequestUrl = requestUrl;
+            mLocationSetting = locationSetting;
+        }
+
+        /**
+         * @return The URL this sync fetches the forecast from
+         */
+        URL getRequestUrl() {
+            return mRequestUrl;
+        }
+
+        /**
+         * @return The location setting this sync fetches the forecast for, which is where its
+         * forecast is stored, even if the user has chosen another location since
+         */
+        String getLocationSetting() {
+            return mLocationSetting;
+        }
+
+        /**
+         * @return true if this sync has been replaced by one for a different location, in which
+         * case it must not write anything
+         */
+        boolean isCancelled() {
+            return mCancelled;
+        }
+
+        /*
+         * URL.equals resolves host names, which we don't want to do while holding a lock. The
+         * string form is all we need to tell two forecast requests apart.
+         */
+        private boolean isFor(URL requestUrl) {
+            return mRequestUrl.toString().equals(requestUrl.toString());
+        }
+    }
+
+    /**
+     * Syncs the weather, or waits for the sync that is already in flight. Either way, this method
+     * blocks until the sync has finished and must not be called on the main thread.
+     *
+     * @param context       Used to build the request URL and passed on to the sync
+     * @param userInitiated true if the user asked for this sync, which lets it replace a sync
+     *                      in flight that is fetching a location the user no longer wants
+     */
+    static void requestSync(Context context, boolean userInitiated) {
+        String locationSetting = SunshinePreferences.getPreferredWeatherLocation(context);
+        URL requestUrl = NetworkUtils.getUrl(context);
+        if (requestUrl == null) {
+            return;
+        }
+
+        SyncFlight flight;
+        boolean joinedFlight;
+
+        synchronized (sLock) {
+            if (sCurrentFlight != null
+                    && (!userInitiated || sCurrentFlight.isFor(requestUrl))) {
+                flight = sCurrentFlight;
+                joinedFlight = true;
+            } else {
+                if (sCurrentFlight != null) {
+                    sCurrentFlight.mCancelled = true;
+                }
+                flight = new SyncFlight(requestUrl, locationSetting);
+                sCurrentFlight = flight;
+                joinedFlight = false;
+            }
+        }
+
+        if (joinedFlight) {
+            awaitFlight(flight);
+            return;
+        }
+
+        try {
+            SunshineSyncTask.syncWeather(context, flight);
+        } finally {
+            synchronized (sLock) {
+                if (sCurrentFlight == flight) {
+                    sCurrentFlight = null;
+                }
+            }
+            flight.mFinished.countDown();
+        }
+    }
+
+    /**
+     * Cancels the sync in flight if it is fetching the weather for a location other than the
+     * preferred one. This is called on the main thread as soon as the location changes, so that
+     * a stale sync stops before the sync for the new location has even been started.
+     *
+     * @param context Used to build the request URL for the preferred location
+     */
+    static void cancelStaleSync(Context context) {
+        URL requestUrl = NetworkUtils.getUrl(context);
+
+        synchronized (sLock) {
+            if (sCurrentFlight != null
+                    && (requestUrl == null || !sCurrentFlight.isFor(requestUrl))) {
+                sCurrentFlight.mCancelled = true;
+                /* The next request should start a new sync, not join the cancelled one */
+                sCurrentFlight = null;
+            }
+        }
+    }
+
+    private static void awaitFlight(SyncFlight flight) {
+        try {
+            flight.mFinished.await();
+        } catch (InterruptedException e) {
+            /* Whoever interrupted us no longer needs the result */
+            Thread.currentThread().interrupt();
+        }
+    }
+}
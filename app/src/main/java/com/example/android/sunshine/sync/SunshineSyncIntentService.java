@@ -24,12 +24,17 @@ import android.content.Intent;
  */
 public class SunshineSyncIntentService extends IntentService {
 
+    /* Set on the Intent when the user asked for this sync, for example by changing location */
+    static final String EXTRA_USER_INITIATED = "user_initiated";
+
     public SunshineSyncIntentService() {
         super("SunshineSyncIntentService");
     }
 
     @Override
     protected void onHandleIntent(Intent intent) {
-        SunshineSyncTask.syncWeather(this);
+        boolean userInitiated = intent != null
+                && intent.getBooleanExtra(EXTRA_USER_INITIATED, false);
+        SunshineSyncCoordinator.requestSync(this, userInitiated);
     }
 }
\ No newline at end of file
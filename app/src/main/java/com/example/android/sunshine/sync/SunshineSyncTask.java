@@ -15,18 +15,22 @@
  */
 package com.example.android.sunshine.sync;
 
-import android.content.ContentResolver;
-import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.Bundle;
 import android.text.format.DateUtils;
+import android.util.Log;
 
+import com.example.android.sunshine.ForecastSnapshot;
+import com.example.android.sunshine.data.ForecastBatch;
+import com.example.android.sunshine.data.HourlyForecast;
 import com.example.android.sunshine.data.SunshinePreferences;
 import com.example.android.sunshine.data.WeatherContract;
 import com.example.android.sunshine.utilities.NetworkUtils;
 import com.example.android.sunshine.utilities.NotificationUtils;
 import com.example.android.sunshine.utilities.OpenWeatherJsonUtils;
+import com.example.android.sunshine.utilities.SunshineDateUtils;
 import com.example.android.sunshine.utilities.SunshineWeatherUtils;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
@@ -35,71 +39,153 @@ import com.google.android.gms.wearable.PutDataMapRequest;
 import com.google.android.gms.wearable.PutDataRequest;
 import com.google.android.gms.wearable.Wearable;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
-import static com.example.android.sunshine.utilities.NotificationUtils.INDEX_MAX_TEMP;
-import static com.example.android.sunshine.utilities.NotificationUtils.INDEX_MIN_TEMP;
-import static com.example.android.sunshine.utilities.NotificationUtils.INDEX_WEATHER_ID;
-
 public class SunshineSyncTask {
 
+    private static final String TAG = SunshineSyncTask.class.getSimpleName();
+
     private static final String PATH_WEATHER = "/weather";
     private static final String KEY_HIGH = "high_temp";
     private static final String KEY_LOW = "low_temp";
     private static final String KEY_ID = "weather_id";
 
-    private static final String[] NOTIFY_WEATHER_PROJECTION = new String[]{
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+    /* How long the forecasts of all the stored locations together may take to download */
+    private static final long STORED_LOCATIONS_DEADLINE_MILLIS = 30 * 1000;
+
+    /* The columns of the location table needed to request the forecast of a location */
+    private static final String[] LOCATION_PROJECTION = {
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+            WeatherContract.LocationEntry.COLUMN_COORD_LONG,
     };
 
+    private static final int INDEX_LOCATION_SETTING = 0;
+    private static final int INDEX_COORD_LAT = 1;
+    private static final int INDEX_COORD_LONG = 2;
+
     /**
      * Performs the network request for updated weather, parses the JSON from that request, and
      * inserts the new weather information into our ContentProvider. Will notify the user that new
      * weather has been loaded if the user hasn't been notified of the weather within the last day
      * AND they haven't disabled notifications in the preferences screen.
+     * <p>
+     * This is only ever called by {@link SunshineSyncCoordinator}, which makes sure there is at
+     * most one sync in flight (plus, briefly, a cancelled one winding down). To request a sync,
+     * use {@link SunshineSyncCoordinator#requestSync(Context, boolean)}.
+     *
+     * <p>
+     * The hourly forecast of the same location is synced right after the daily one, whether or
+     * not the daily one had changed.
      *
      * @param context Used to access utility methods and the ContentResolver
+     * @param flight  The run of the sync this call performs, used to check for cancellation
+     */
+    static void syncWeather(final Context context,
+                            final SunshineSyncCoordinator.SyncFlight flight) {
+        syncDailyForecast(context, flight);
+        syncHourlyForecast(context, flight);
+    }
+
+    /**
+     * Syncs the daily forecast of the location of the flight, see
+     * {@link #syncWeather(Context, SunshineSyncCoordinator.SyncFlight)}.
      */
-    synchronized public static void syncWeather(Context context) {
+    private static void syncDailyForecast(final Context context,
+                                          final SunshineSyncCoordinator.SyncFlight flight) {
 
         try {
             /*
-             * The getUrl method will return the URL that we need to get the forecast JSON for the
-             * weather. It will decide whether to create a URL based off of the latitude and
-             * longitude or off of a simple location as a String.
+             * The coordinator has already asked NetworkUtils.getUrl for the URL that we need to
+             * get the forecast JSON for the weather, based off of the latitude and longitude or
+             * off of a simple location as a String.
+             */
+            URL weatherRequestUrl = flight.getRequestUrl();
+            String requestUrl = weatherRequestUrl.toString();
+
+            /*
+             * A 304 Not Modified response is only useful if we still have the forecast it refers
+             * to. If today's weather is missing (the database was cleared or upgraded, say), we
+             * don't send our validators, so that the request below is unconditional.
              */
-            URL weatherRequestUrl = NetworkUtils.getUrl(context);
+            String[] validators = hasWeatherForToday(context)
+                    ? SunshinePreferences.getResponseValidators(context, requestUrl)
+                    : new String[2];
 
-            /* Use the URL to retrieve the JSON */
-            String jsonWeatherResponse = NetworkUtils.getResponseFromHttpUrl(weatherRequestUrl);
+            /*
+             * Rather than reading the whole response into a String and then parsing it, we parse
+             * the JSON while it is still being downloaded and hand each day to the writer, which
+             * reconciles the new forecast with the one in our ContentProvider.
+             */
+            final StreamingForecastWriter forecastWriter =
+                    new StreamingForecastWriter(context, flight);
+            final boolean[] forecastParsed = new boolean[1];
 
-            /* Parse the JSON into a list of weather values */
-            ContentValues[] weatherValues = OpenWeatherJsonUtils
-                    .getWeatherContentValuesFromJson(context, jsonWeatherResponse);
+            boolean modified = NetworkUtils.streamResponseFromHttpUrl(weatherRequestUrl, validators,
+                    new NetworkUtils.ResponseStreamHandler() {
+                        @Override
+                        public void onResponseStream(InputStream in) throws IOException {
+                            forecastParsed[0] = OpenWeatherJsonUtils
+                                    .parseWeatherStream(in, forecastWriter);
+                        }
+                    });
 
             /*
-             * In cases where our JSON contained an error code, getWeatherContentValuesFromJson
-             * would have returned null. We need to check for those cases here to prevent any
-             * NullPointerExceptions being thrown. We also have no reason to insert fresh data if
-             * there isn't any to insert.
+             * If the server tells us the forecast hasn't changed since our last sync, the data we
+             * already have is current. There is nothing to parse, write, or tell anybody about.
              */
-            if (weatherValues != null && weatherValues.length != 0) {
-                /* Get a handle on the ContentResolver to delete and insert data */
-                ContentResolver sunshineContentResolver = context.getContentResolver();
+            if (!modified) {
+                SunshinePreferences.recordSyncResult(context, true);
+                Log.d(TAG, "Forecast not modified, skipped sync "
+                        + SunshinePreferences.getNotModifiedSyncCount(context) + " of "
+                        + SunshinePreferences.getSyncCount(context));
+                return;
+            }
 
-                /* Delete old weather data because we don't need to keep multiple days' data */
-                sunshineContentResolver.delete(
-                        WeatherContract.WeatherEntry.CONTENT_URI,
-                        null,
-                        null);
+            /*
+             * In cases where our JSON contained an error code, parseWeatherStream will have
+             * returned false, and there is nothing to write.
+             */
+            if (!forecastParsed[0]) {
+                return;
+            }
 
-                /* Insert our new weather data into Sunshine's ContentProvider */
-                sunshineContentResolver.bulkInsert(
-                        WeatherContract.WeatherEntry.CONTENT_URI,
-                        weatherValues);
+            /*
+             * If the user changed their location while we were downloading, this sync has been
+             * cancelled and the forecast we have is for the wrong place. We check under the write
+             * lock so that the sync that replaced us can't have written before we do.
+             */
+            int rowsWritten;
+            synchronized (SunshineSyncCoordinator.WRITE_LOCK) {
+                if (flight.isCancelled()) {
+                    Log.d(TAG, "Sync for " + requestUrl + " was cancelled");
+                    return;
+                }
+
+                rowsWritten = forecastWriter.finish();
+
+                /* Only now that the forecast is stored are its validators of any use */
+                SunshinePreferences.saveResponseValidators(context, requestUrl,
+                        validators[0], validators[1]);
+            }
+
+            SunshinePreferences.recordSyncResult(context, false);
+
+            if (rowsWritten != 0) {
+                /*
+                 * The list starts from this forecast the next time Sunshine is opened. When
+                 * nothing was written, the snapshot already holds the stored forecast.
+                 */
+                ForecastSnapshot.update(context);
 
                 /*
                  * Finally, after we insert data into the ContentProvider, determine whether or not
@@ -129,48 +215,349 @@ public class SunshineSyncTask {
                     NotificationUtils.notifyUserOfNewWeather(context);
                 }
 
-                setWeatherDataToWear(context);
+                setWeatherDataToWear(context, forecastWriter.getForecast());
             /* If the code reaches this point, we have successfully performed our sync */
 
             }
 
+        } catch (SyncCancelledException e) {
+            Log.d(TAG, "Sync for " + flight.getRequestUrl() + " was cancelled");
         } catch (Exception e) {
             /* Server probably invalid */
             e.printStackTrace();
         }
     }
-        private static void setWeatherDataToWear(Context context) {
-            String location = SunshinePreferences.getPreferredWeatherLocation(context);
-            Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherUriWithDate(System.currentTimeMillis());
-            Cursor cursor = context.getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION, null,
-                    null, null);
-            if (cursor == null) {
+
+    /**
+     * Downloads the hourly forecast of the location of the flight and replaces the stored one
+     * with it. The steps are parsed straight into a {@link HourlyForecast}, which is handed to
+     * our ContentProvider in a single call, and so written in a single transaction. Without an
+     * hourly URL, which needs an API key, there is nothing to do.
+     *
+     * @param context Used to access the preferences and the ContentResolver
+     * @param flight  The run of the sync this call performs, used to check for cancellation
+     */
+    private static void syncHourlyForecast(Context context,
+                                           SunshineSyncCoordinator.SyncFlight flight) {
+        double[] coordinates = SunshinePreferences.isLocationLatLonAvailable(context)
+                ? SunshinePreferences.getLocationCoordinates(context)
+                : null;
+        URL hourlyRequestUrl = NetworkUtils.getHourlyUrl(flight.getLocationSetting(),
+                coordinates);
+        if (hourlyRequestUrl == null || flight.isCancelled()) {
+            return;
+        }
+
+        try {
+            long startNanos = System.nanoTime();
+            final HourlyForecastCollector collector = new HourlyForecastCollector(flight);
+            final boolean[] forecastParsed = new boolean[1];
+
+            NetworkUtils.streamResponseFromHttpUrl(hourlyRequestUrl, new String[2],
+                    new NetworkUtils.ResponseStreamHandler() {
+                        @Override
+                        public void onResponseStream(InputStream in) throws IOException {
+                            forecastParsed[0] = OpenWeatherJsonUtils
+                                    .parseHourlyWeatherStream(in, collector);
+                        }
+                    });
+
+            HourlyForecast forecast = collector.mForecast;
+            if (!forecastParsed[0] || forecast.size() == 0) {
                 return;
             }
-            if (!cursor.moveToFirst()) {
-                cursor.close();
-                return;
+
+            Bundle extras = new Bundle();
+            extras.putParcelable(WeatherContract.EXTRA_HOURLY_FORECAST, forecast);
+
+            synchronized (SunshineSyncCoordinator.WRITE_LOCK) {
+                if (flight.isCancelled()) {
+                    return;
+                }
+                context.getContentResolver().call(
+                        WeatherContract.HourlyEntry.CONTENT_URI,
+                        WeatherContract.METHOD_REPLACE_HOURLY_FORECAST,
+                        flight.getLocationSetting(),
+                        extras);
             }
 
-            GoogleApiClient googleApiClient = new GoogleApiClient.Builder(context)
-                    .addApi(Wearable.API)
-                    .build();
+            Log.d(TAG, "Synced " + forecast.size() + " hourly steps in "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos) + "ms");
 
-            ConnectionResult connectionResult = googleApiClient.blockingConnect(30, TimeUnit.SECONDS);
-            if (!connectionResult.isSuccess()) {
-                return;
+        } catch (SyncCancelledException e) {
+            Log.d(TAG, "Hourly sync for " + flight.getLocationSetting() + " was cancelled");
+        } catch (Exception e) {
+            /* The daily forecast is stored already; the hourly one waits for the next sync */
+            Log.w(TAG, "Hourly sync failed", e);
+        }
+    }
+
+    /**
+     * Refreshes the weather of every stored location other than the preferred one, which
+     * {@link #syncWeather(Context, SunshineSyncCoordinator.SyncFlight)} takes care of. Those are
+     * the locations the user has recently looked at, and keeping their forecasts current means
+     * switching back to one of them shows today's weather right away.
+     * <p>
+     * The forecasts are fetched side by side by {@link ParallelForecastFetcher}, and whatever
+     * arrived before the deadline is written in a single call to our ContentProvider, and so in a
+     * single transaction. The user isn't notified, and nothing is sent to the wearable; both are
+     * about the preferred location only.
+     *
+     * @param context Used to access the ContentResolver
+     * @return The results of the individual requests, in the order the locations are stored
+     */
+    static List<ParallelForecastFetcher.Result> syncStoredLocations(Context context) {
+        String preferredLocation = SunshinePreferences.getPreferredWeatherLocation(context);
+        Map<String, URL> requests = new LinkedHashMap<>();
+
+        Cursor cursor = context.getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                LOCATION_PROJECTION,
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " != ?",
+                new String[]{preferredLocation},
+                null);
+        if (cursor == null) {
+            return Collections.emptyList();
+        }
+        try {
+            while (cursor.moveToNext()) {
+                String locationSetting = cursor.getString(INDEX_LOCATION_SETTING);
+                double[] coordinates = null;
+                if (!cursor.isNull(INDEX_COORD_LAT) && !cursor.isNull(INDEX_COORD_LONG)) {
+                    coordinates = new double[]{
+                            cursor.getDouble(INDEX_COORD_LAT),
+                            cursor.getDouble(INDEX_COORD_LONG)};
+                }
+                URL url = NetworkUtils.getUrl(locationSetting, coordinates);
+                if (url != null) {
+                    requests.put(locationSetting, url);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+
+        if (requests.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        long startNanos = System.nanoTime();
+        List<ParallelForecastFetcher.Result> results =
+                ParallelForecastFetcher.fetchAll(requests, STORED_LOCATIONS_DEADLINE_MILLIS);
+        long fetchNanos = System.nanoTime() - startNanos;
+
+        List<String> locationSettings = new ArrayList<>(results.size());
+        List<ForecastBatch> forecasts = new ArrayList<>(results.size());
+        double[] coordinates = new double[2 * results.size()];
+        for (ParallelForecastFetcher.Result result : results) {
+            Log.d(TAG, "Fetched " + result);
+            if (!result.isSuccessful() || result.getForecast().size() == 0) {
+                continue;
+            }
+
+            double[] cityCoordinates = result.getCoordinates();
+            int pair = 2 * locationSettings.size();
+            coordinates[pair] = cityCoordinates != null ? cityCoordinates[0] : Double.NaN;
+            coordinates[pair + 1] = cityCoordinates != null ? cityCoordinates[1] : Double.NaN;
+            locationSettings.add(result.getLocationSetting());
+            forecasts.add(result.getForecast());
+        }
+
+        int rowsWritten = 0;
+        if (!forecasts.isEmpty()) {
+            Bundle extras = new Bundle();
+            extras.putStringArray(WeatherContract.EXTRA_LOCATION_SETTINGS,
+                    locationSettings.toArray(new String[locationSettings.size()]));
+            extras.putParcelableArray(WeatherContract.EXTRA_FORECAST_BATCHES,
+                    forecasts.toArray(new ForecastBatch[forecasts.size()]));
+            extras.putDoubleArray(WeatherContract.EXTRA_COORDINATES,
+                    Arrays.copyOf(coordinates, 2 * locationSettings.size()));
+
+            /* Keeps us from writing in between the checks and the write of a preferred sync */
+            synchronized (SunshineSyncCoordinator.WRITE_LOCK) {
+                Bundle result = context.getContentResolver().call(
+                        WeatherContract.WeatherEntry.CONTENT_URI,
+                        WeatherContract.METHOD_RECONCILE_FORECASTS,
+                        null,
+                        extras);
+                rowsWritten = result == null ? 0 : result.getInt(
+                        WeatherContract.EXTRA_ROWS_WRITTEN);
+            }
+        }
+
+        Log.d(TAG, "Synced " + forecasts.size() + " of " + results.size()
+                + " stored locations, " + rowsWritten + " rows written, fetch took "
+                + TimeUnit.NANOSECONDS.toMillis(fetchNanos) + "ms, in total "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos) + "ms");
+        return results;
+    }
+
+    /**
+     * Checks whether the ContentProvider holds a row for today, which is a cheap point lookup on
+     * the date index.
+     *
+     * @param context Used to access the ContentResolver
+     * @return true if we have weather for today
+     */
+    private static boolean hasWeatherForToday(Context context) {
+        Uri todayUri = WeatherContract.WeatherEntry
+                .buildWeatherUriWithDate(SunshineDateUtils.getNormalizedUtcDateForToday());
+        Cursor cursor = context.getContentResolver().query(
+                todayUri,
+                new String[]{WeatherContract.WeatherEntry.COLUMN_DATE},
+                null,
+                null,
+                null);
+        if (cursor == null) {
+            return false;
+        }
+        boolean hasWeather = cursor.moveToFirst();
+        cursor.close();
+        return hasWeather;
+    }
+
+    /**
+     * Sends today's weather to the connected wearable. Today's weather is taken from the forecast
+     * we have just written, so there is no need to read it back from our ContentProvider.
+     *
+     * @param context  Used to format the temperatures and to connect to the Wearable API
+     * @param forecast The forecast that was just synced
+     */
+    private static void setWeatherDataToWear(Context context, ForecastBatch forecast) {
+        int today = forecast.indexOfDate(SunshineDateUtils.getNormalizedUtcDateForToday());
+        if (today == -1) {
+            return;
+        }
+
+        GoogleApiClient googleApiClient = new GoogleApiClient.Builder(context)
+                .addApi(Wearable.API)
+                .build();
+
+        ConnectionResult connectionResult = googleApiClient.blockingConnect(30, TimeUnit.SECONDS);
+        if (!connectionResult.isSuccess()) {
+            return;
+        }
+
+        PutDataMapRequest mapRequest = PutDataMapRequest.create(PATH_WEATHER);
+        DataMap dataMap = mapRequest.getDataMap();
+        dataMap.putString(KEY_HIGH,
+                SunshineWeatherUtils.formatTemperature(context, forecast.getMaxTemp(today)));
+        dataMap.putString(KEY_LOW,
+                SunshineWeatherUtils.formatTemperature(context, forecast.getMinTemp(today)));
+        dataMap.putInt(KEY_ID, forecast.getWeatherId(today));
+        PutDataRequest putDataRequest = mapRequest.asPutDataRequest();
+        Wearable.DataApi.putDataItem(googleApiClient, putDataRequest);
+    }
+
+    /**
+     * Collects the days handed to it by the streaming parser into a {@link ForecastBatch} and, once
+     * the whole forecast has been read, reconciles it with the stored forecast in a single call to
+     * our ContentProvider. Only
+     * the days that changed are written; if the response can't be parsed, nothing is written and
+     * the old data is left alone.
+     * <p>
+     * Parsing stops as soon as the sync is cancelled, and the coordinates of the city are only
+     * saved along with the forecast, so a cancelled sync never overwrites the location the user
+     * has just chosen.
+     */
+    private static class StreamingForecastWriter implements OpenWeatherJsonUtils.ForecastHandler {
+
+        private final Context mContext;
+        private final SunshineSyncCoordinator.SyncFlight mFlight;
+        private final ForecastBatch mForecast = new ForecastBatch();
+
+        private boolean mHasCityCoordinates;
+        private double mCityLatitude;
+        private double mCityLongitude;
+
+        StreamingForecastWriter(Context context, SunshineSyncCoordinator.SyncFlight flight) {
+            mContext = context;
+            mFlight = flight;
+        }
+
+        @Override
+        public void onCityCoordinates(double latitude, double longitude) {
+            mHasCityCoordinates = true;
+            mCityLatitude = latitude;
+            mCityLongitude = longitude;
+        }
+
+        @Override
+        public void onForecastDay(long date, int weatherId, double minTemp, double maxTemp,
+                                  double humidity, double pressure, double windSpeed,
+                                  double degrees) {
+            if (mFlight.isCancelled()) {
+                throw new SyncCancelledException();
+            }
+            mForecast.add(date, weatherId, minTemp, maxTemp, humidity, pressure, windSpeed,
+                    degrees);
+        }
+
+        /**
+         * @return Every day that has been parsed so far
+         */
+        ForecastBatch getForecast() {
+            return mForecast;
+        }
+
+        /**
+         * Saves the city coordinates and reconciles the collected forecast with the one stored in
+         * our ContentProvider for the location this sync was started for. The coordinates are
+         * stored with that location too.
+         *
+         * @return The number of rows that were inserted or updated
+         */
+        int finish() {
+            if (mHasCityCoordinates) {
+                SunshinePreferences.setLocationDetails(mContext, mCityLatitude, mCityLongitude);
             }
 
-            PutDataMapRequest mapRequest = PutDataMapRequest.create(PATH_WEATHER);
-            DataMap dataMap = mapRequest.getDataMap();
-            dataMap.putString(KEY_HIGH, SunshineWeatherUtils.formatTemperature(context, cursor
-                    .getDouble
-                            (INDEX_MAX_TEMP)));
-            dataMap.putString(KEY_LOW, SunshineWeatherUtils.formatTemperature(context, cursor.getDouble
-                    (INDEX_MIN_TEMP)));
-            dataMap.putInt(KEY_ID, cursor.getInt(INDEX_WEATHER_ID));
-            PutDataRequest putDataRequest = mapRequest.asPutDataRequest();
-            Wearable.DataApi.putDataItem(googleApiClient, putDataRequest);
+            if (mForecast.size() == 0) {
+                return 0;
+            }
 
+            Bundle extras = new Bundle();
+            extras.putParcelable(WeatherContract.EXTRA_FORECAST_BATCH, mForecast);
+            if (mHasCityCoordinates) {
+                extras.putDouble(WeatherContract.EXTRA_COORD_LAT, mCityLatitude);
+                extras.putDouble(WeatherContract.EXTRA_COORD_LONG, mCityLongitude);
+            }
+            Bundle result = mContext.getContentResolver().call(
+                    WeatherContract.WeatherEntry.CONTENT_URI,
+                    WeatherContract.METHOD_RECONCILE_FORECAST,
+                    mFlight.getLocationSetting(),
+                    extras);
+            return result == null ? 0 : result.getInt(WeatherContract.EXTRA_ROWS_WRITTEN);
+        }
+    }
+
+    /**
+     * Collects the steps handed to it by the streaming parser into a {@link HourlyForecast}, and
+     * stops the parser as soon as the sync is cancelled.
+     */
+    private static class HourlyForecastCollector
+            implements OpenWeatherJsonUtils.HourlyForecastHandler {
+
+        private final SunshineSyncCoordinator.SyncFlight mFlight;
+        final HourlyForecast mForecast = new HourlyForecast();
+
+        HourlyForecastCollector(SunshineSyncCoordinator.SyncFlight flight) {
+            mFlight = flight;
+        }
+
+        @Override
+        public void onForecastStep(long time, int weatherId, double temp, double humidity,
+                                   double pressure, double windSpeed, double degrees) {
+            if (mFlight.isCancelled()) {
+                throw new SyncCancelledException();
+            }
+            mForecast.add(time, weatherId, temp, humidity, pressure, windSpeed, degrees);
+        }
+    }
+
+    /**
+     * Thrown from within the parser to stop reading the response of a cancelled sync.
+     */
+    private static class SyncCancelledException extends RuntimeException {
     }
-}
\ No newline at end of file
+}
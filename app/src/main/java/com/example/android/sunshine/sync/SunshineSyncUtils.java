@@ -17,11 +17,11 @@ package com.example.android.sunshine.sync;
 
 import android.content.Context;
 import android.content.Intent;
-import android.database.Cursor;
-import android.net.Uri;
+import android.os.Bundle;
 import android.support.annotation.NonNull;
 
 import com.example.android.sunshine.data.WeatherContract;
+import com.example.android.sunshine.utilities.SunshineExecutors;
 import com.firebase.jobdispatcher.Constraint;
 import com.firebase.jobdispatcher.Driver;
 import com.firebase.jobdispatcher.FirebaseJobDispatcher;
@@ -42,10 +42,27 @@ public class SunshineSyncUtils {
     private static final int SYNC_INTERVAL_SECONDS = (int) TimeUnit.HOURS.toSeconds(SYNC_INTERVAL_HOURS);
     private static final int SYNC_FLEXTIME_SECONDS = SYNC_INTERVAL_SECONDS / 3;
 
+    /*
+     * The oldest the stored forecast may be when Sunshine starts. The periodic sync should never
+     * let it get older than its interval and flextime together, so a forecast that is older
+     * missed a sync, and is synced right away.
+     */
+    private static final long MAX_FORECAST_AGE_MILLIS =
+            TimeUnit.SECONDS.toMillis(SYNC_INTERVAL_SECONDS + SYNC_FLEXTIME_SECONDS);
+
     private static boolean sInitialized;
 
     private static final String SUNSHINE_SYNC_TAG = "sunshine-sync";
 
+    /*
+     * Interval at which to compact the weather archive. The archive only grows by a day a day, so
+     * once a day is plenty, and a few hours of flex give the device time to be put on a charger.
+     */
+    private static final int ARCHIVE_INTERVAL_SECONDS = (int) TimeUnit.DAYS.toSeconds(1);
+    private static final int ARCHIVE_FLEXTIME_SECONDS = (int) TimeUnit.HOURS.toSeconds(6);
+
+    private static final String SUNSHINE_ARCHIVE_TAG = "sunshine-archive";
+
     /**
      * Schedules a repeating sync of Sunshine's weather data using FirebaseJobDispatcher.
      * @param context Context used to create the GooglePlayDriver that powers the
@@ -99,6 +116,35 @@ public class SunshineSyncUtils {
         /* Schedule the Job with the dispatcher */
         dispatcher.schedule(syncSunshineJob);
     }
+
+    /**
+     * Schedules a daily compaction of Sunshine's weather archive using FirebaseJobDispatcher.
+     * Compaction doesn't need the network, but it rewrites a fair part of the archive, so it only
+     * runs while the device is charging.
+     *
+     * @param context Context used to create the GooglePlayDriver that powers the
+     *                FirebaseJobDispatcher
+     */
+    static void scheduleFirebaseJobDispatcherArchiveCompaction(@NonNull final Context context) {
+
+        Driver driver = new GooglePlayDriver(context);
+        FirebaseJobDispatcher dispatcher = new FirebaseJobDispatcher(driver);
+
+        Job compactArchiveJob = dispatcher.newJobBuilder()
+                .setService(SunshineArchiveJobService.class)
+                .setTag(SUNSHINE_ARCHIVE_TAG)
+                .setConstraints(Constraint.DEVICE_CHARGING)
+                .setLifetime(Lifetime.FOREVER)
+                .setRecurring(true)
+                .setTrigger(Trigger.executionWindow(
+                        ARCHIVE_INTERVAL_SECONDS,
+                        ARCHIVE_INTERVAL_SECONDS + ARCHIVE_FLEXTIME_SECONDS))
+                .setReplaceCurrent(true)
+                .build();
+
+        dispatcher.schedule(compactArchiveJob);
+    }
+
     /**
      * Creates periodic sync tasks and checks to see if an immediate sync is required. If an
      * immediate sync is required, this method will take care of making sure that sync occurs.
@@ -122,61 +168,75 @@ public class SunshineSyncUtils {
          */
         scheduleFirebaseJobDispatcherSync(context);
 
+        /* And this one its task to keep the archive of past weather small */
+        scheduleFirebaseJobDispatcherArchiveCompaction(context);
+
         /*
-         * We need to check to see if our ContentProvider has data to display in our forecast
-         * list. However, performing a query on the main thread is a bad idea as this may
-         * cause our UI to lag. Therefore, we create a thread in which we will run the query
-         * to check the contents of our ContentProvider.
+         * We need to check to see if our ContentProvider has fresh data to display in our
+         * forecast list. However, asking the ContentProvider on the main thread is a bad idea as
+         * this may cause our UI to lag. Therefore, we queue the check on the app's shared
+         * background thread, rather than creating a thread just for it.
          */
-        Thread checkForEmpty = new Thread(new Runnable() {
+        SunshineExecutors.getBackgroundExecutor().execute(new Runnable() {
             @Override
             public void run() {
-
-                /* URI for every row of weather data in our weather table*/
-                Uri forecastQueryUri = WeatherContract.WeatherEntry.CONTENT_URI;
-
-                /*
-                 * Since this query is going to be used only as a check to see if we have any
-                 * data (rather than to display data), we just need to PROJECT the ID of each
-                 * row. In our queries where we display data, we need to PROJECT more columns
-                 * to determine what weather details need to be displayed.
-                 */
-                String[] projectionColumns = {WeatherContract.WeatherEntry._ID};
-                String selectionStatement = WeatherContract.WeatherEntry
-                        .getSqlSelectForTodayOnwards();
-
-                /* Here, we perform the query to check to see if we have any weather data */
-                Cursor cursor = context.getContentResolver().query(
-                        forecastQueryUri,
-                        projectionColumns,
-                        selectionStatement,
-                        null,
-                        null);
-                /*
-                 * A Cursor object can be null for various different reasons. A few are
-                 * listed below.
-                 *
-                 *   1) Invalid URI
-                 *   2) A certain ContentProvider's query method returns null
-                 *   3) A RemoteException was thrown.
-                 *
-                 * Bottom line, it is generally a good idea to check if a Cursor returned
-                 * from a ContentResolver is null.
-                 *
-                 * If the Cursor was null OR if it was empty, we need to sync immediately to
-                 * be able to display data to the user.
-                 */
-                if (null == cursor || cursor.getCount() == 0) {
+                if (isForecastStale(context)) {
                     startImmediateSync(context);
                 }
-
-                /* Make sure to close the Cursor to avoid memory leaks! */
-                cursor.close();
             }
         });
+    }
+
+    /**
+     * Asks the ContentProvider how fresh the forecast of the preferred location is. This used to
+     * query the _ID of every day from today onwards and count them, which fills a whole
+     * CursorWindow just to learn whether there was at least one. The
+     * {@link WeatherContract#METHOD_FRESHNESS} call stops at the first day it finds, and also
+     * tells us when the last sync completed.
+     *
+     * @param context Used to access the ContentResolver
+     * @return Whether the forecast should be synced right away
+     */
+    private static boolean isForecastStale(@NonNull Context context) {
+        Bundle freshness = context.getContentResolver().call(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                WeatherContract.METHOD_FRESHNESS,
+                null,
+                null);
+
+        /*
+         * A result can be null for various different reasons, such as a ContentProvider that
+         * doesn't know the method. Without an answer, it is safest to sync.
+         */
+        if (freshness == null) {
+            return true;
+        }
+
+        return isForecastStale(freshness.getBoolean(WeatherContract.EXTRA_HAS_FORECAST),
+                freshness.getLong(WeatherContract.EXTRA_LAST_SYNC_TIME),
+                System.currentTimeMillis());
+    }
 
-        /* Finally, once the thread is prepared, fire it off to perform our checks. */
-        checkForEmpty.start();
+    /**
+     * Decides whether the forecast should be synced right away, rather than waiting for the
+     * periodic sync. That is the case if there is nothing from today onwards to show, but also if
+     * the last sync is older than the periodic sync should ever let it get, which happens when
+     * the device was off or offline for a while: the forecast is then still there, but out of
+     * date.
+     *
+     * @param hasForecast  Whether a day from today onwards is stored
+     * @param lastSyncTime UNIX time of when the last sync completed, or 0 if none ever has
+     * @param now          The current UNIX time
+     * @return Whether the forecast should be synced right away
+     */
+    static boolean isForecastStale(boolean hasForecast, long lastSyncTime, long now) {
+        if (!hasForecast) {
+            return true;
+        }
+
+        /* A last sync in the future means the clock was changed, so its age can't be trusted */
+        long age = now - lastSyncTime;
+        return lastSyncTime <= 0 || age < 0 || age > MAX_FORECAST_AGE_MILLIS;
     }
 
     /**
@@ -189,4 +249,19 @@ public class SunshineSyncUtils {
         Intent intentToSyncImmediately = new Intent(context, SunshineSyncIntentService.class);
         context.startService(intentToSyncImmediately);
     }
-}
\ No newline at end of file
+
+    /**
+     * Helper method to perform a sync the user asked for, such as after they changed their
+     * location. Unlike {@link #startImmediateSync(Context)}, this first cancels a sync in flight
+     * for a location the user no longer wants, rather than waiting for it to finish.
+     *
+     * @param context The Context used to start the IntentService for the sync.
+     */
+    public static void startUserInitiatedSync(@NonNull final Context context) {
+        SunshineSyncCoordinator.cancelStaleSync(context);
+
+        Intent intentToSyncImmediately = new Intent(context, SunshineSyncIntentService.class);
+        intentToSyncImmediately.putExtra(SunshineSyncIntentService.EXTRA_USER_INITIATED, true);
+        context.startService(intentToSyncImmediately);
+    }
+}
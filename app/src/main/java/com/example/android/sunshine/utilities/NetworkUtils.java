@@ -17,10 +17,12 @@ package com.example.android.sunshine.utilities;
 
 import android.content.Context;
 import android.net.Uri;
+import android.text.TextUtils;
 import android.util.Log;
 
 import com.example.android.sunshine.data.SunshinePreferences;
 
+import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
@@ -56,6 +58,15 @@ public final class NetworkUtils {
 
     private static final String FORECAST_BASE_URL = STATIC_WEATHER_URL;
 
+    /*
+     * The fake weather server only has the daily forecast. The hourly forecast, in steps of 3
+     * hours, comes from OpenWeatherMap's 5 day forecast, which needs an API key. Until one is
+     * filled in here, getHourlyUrl returns null and Sunshine syncs the daily forecast only.
+     */
+    private static final String HOURLY_FORECAST_BASE_URL =
+            "https://api.openweathermap.org/data/2.5/forecast";
+    private static final String OWM_API_KEY = "";
+
     /*
      * NOTE: These values only effect responses from OpenWeatherMap, NOT from the fake weather
      * server. They are simply here to allow us to teach you how to build a URL if you were to use
@@ -82,6 +93,29 @@ public final class NetworkUtils {
     private static final String UNITS_PARAM = "units";
     /* The days parameter allows us to designate how many days of weather data we want */
     private static final String DAYS_PARAM = "cnt";
+    /* The API key parameter, which OpenWeatherMap's own API requires */
+    private static final String APPID_PARAM = "appid";
+
+    /* Headers used to make the forecast request conditional on the server's copy having changed */
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+
+    /**
+     * Interface used to consume the body of an HTTP response while it is still being read from
+     * the network, rather than after it has been copied into a String.
+     */
+    public interface ResponseStreamHandler {
+        /**
+         * Called with the body of a successful HTTP response. The stream is closed, and the
+         * connection released, once this method returns.
+         *
+         * @param in The (buffered) body of the HTTP response
+         * @throws IOException Related to network and stream reading
+         */
+        void onResponseStream(InputStream in) throws IOException;
+    }
 
     /**
      * Retrieves the proper URL to query for the weather data. The reason for both this method as
@@ -109,6 +143,57 @@ public final class NetworkUtils {
         }
     }
 
+    /**
+     * Retrieves the URL to query for the weather of any stored location, not just the preferred
+     * one. Like {@link #getUrl(Context)}, it prefers the coordinates of the location when we know
+     * them, and falls back to the location setting when we don't.
+     *
+     * @param locationSetting The location as the user typed it in the preferences
+     * @param coordinates     The latitude and longitude of the location, or null if unknown
+     * @return URL to query weather service
+     */
+    public static URL getUrl(String locationSetting, double[] coordinates) {
+        if (coordinates != null) {
+            return buildUrlWithLatitudeLongitude(coordinates[0], coordinates[1]);
+        } else {
+            return buildUrlWithLocationQuery(locationSetting);
+        }
+    }
+
+    /**
+     * Retrieves the URL to query for the hourly forecast of a location, in the same way as
+     * {@link #getUrl(String, double[])} does for the daily forecast.
+     *
+     * @param locationSetting The location as the user typed it in the preferences
+     * @param coordinates     The latitude and longitude of the location, or null if unknown
+     * @return URL to query for the hourly forecast, or null if there is no API key to query with
+     */
+    public static URL getHourlyUrl(String locationSetting, double[] coordinates) {
+        if (TextUtils.isEmpty(OWM_API_KEY)) {
+            return null;
+        }
+
+        Uri.Builder hourlyQueryUri = Uri.parse(HOURLY_FORECAST_BASE_URL).buildUpon();
+        if (coordinates != null) {
+            hourlyQueryUri
+                    .appendQueryParameter(LAT_PARAM, String.valueOf(coordinates[0]))
+                    .appendQueryParameter(LON_PARAM, String.valueOf(coordinates[1]));
+        } else {
+            hourlyQueryUri.appendQueryParameter(QUERY_PARAM, locationSetting);
+        }
+        hourlyQueryUri
+                .appendQueryParameter(FORMAT_PARAM, format)
+                .appendQueryParameter(UNITS_PARAM, units)
+                .appendQueryParameter(APPID_PARAM, OWM_API_KEY);
+
+        try {
+            return new URL(hourlyQueryUri.build().toString());
+        } catch (MalformedURLException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
     /**
      * Builds the URL used to talk to the weather server using latitude and longitude of a
      * location.
@@ -187,4 +272,79 @@ public final class NetworkUtils {
             urlConnection.disconnect();
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Hands the body of the HTTP response to the given handler as a stream. Unlike
+     * {@link #getResponseFromHttpUrl(URL)}, the response is never held in memory as a whole, which
+     * lets the handler parse it while it is still being downloaded.
+     * <p>
+     * The request is conditional: if validators are passed in, they are sent back to the server
+     * as If-None-Match and If-Modified-Since. If the server answers 304 Not Modified, the handler
+     * is never called. Otherwise, the validators array is updated with the ETag and Last-Modified
+     * values of the new response, so the caller can save them once it has stored the response.
+     *
+     * @param url        The URL to fetch the HTTP response from.
+     * @param validators The ETag and Last-Modified values of our copy of the response, either of
+     *                   which may be null. Replaced by the values of the new response.
+     * @param handler    The handler that will consume the response body.
+     * @return true if the response was handed to the handler, false if the server reported that
+     * it had not been modified
+     * @throws IOException Related to network and stream reading
+     */
+    public static boolean streamResponseFromHttpUrl(URL url, String[] validators,
+                                                    ResponseStreamHandler handler)
+            throws IOException {
+        return streamResponseFromHttpUrl(url, validators, 0, handler);
+    }
+
+    /**
+     * Same as {@link #streamResponseFromHttpUrl(URL, String[], ResponseStreamHandler)}, but gives
+     * up if connecting, or waiting for the next bytes of the response, takes longer than the
+     * given timeout. Without one, a server that stops answering can hold a thread indefinitely.
+     *
+     * @param url           The URL to fetch the HTTP response from.
+     * @param validators    The ETag and Last-Modified values of our copy of the response, either
+     *                      of which may be null. Replaced by the values of the new response.
+     * @param timeoutMillis The connect and read timeout in milliseconds, or 0 for none
+     * @param handler       The handler that will consume the response body.
+     * @return true if the response was handed to the handler, false if the server reported that
+     * it had not been modified
+     * @throws IOException Related to network and stream reading, including
+     *                     {@link java.net.SocketTimeoutException} if the timeout expired
+     */
+    public static boolean streamResponseFromHttpUrl(URL url, String[] validators,
+                                                    int timeoutMillis,
+                                                    ResponseStreamHandler handler)
+            throws IOException {
+        HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+        try {
+            urlConnection.setConnectTimeout(timeoutMillis);
+            urlConnection.setReadTimeout(timeoutMillis);
+
+            if (validators[0] != null) {
+                urlConnection.setRequestProperty(HEADER_IF_NONE_MATCH, validators[0]);
+            }
+            if (validators[1] != null) {
+                urlConnection.setRequestProperty(HEADER_IF_MODIFIED_SINCE, validators[1]);
+            }
+
+            if (urlConnection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                Log.v(TAG, "Not modified: " + url);
+                return false;
+            }
+
+            validators[0] = urlConnection.getHeaderField(HEADER_ETAG);
+            validators[1] = urlConnection.getHeaderField(HEADER_LAST_MODIFIED);
+
+            InputStream in = new BufferedInputStream(urlConnection.getInputStream());
+            try {
+                handler.onResponseStream(in);
+            } finally {
+                in.close();
+            }
+            return true;
+        } finally {
+            urlConnection.disconnect();
+        }
+    }
+}
@@ -58,8 +58,8 @@ public class NotificationUtils {
                 .buildWeatherUriWithDate(SunshineDateUtils.normalizeDate(System.currentTimeMillis()));
 
         /*
-         * The MAIN_FORECAST_PROJECTION array passed in as the second parameter is defined in our WeatherContract
-         * class and is used to limit the columns returned in our cursor.
+         * The WEATHER_NOTIFICATION_PROJECTION array passed in as the second parameter is defined
+         * at the top of this class and is used to limit the columns returned in our cursor.
          */
         Cursor todayWeatherCursor = context.getContentResolver().query(
                 todaysWeatherUri,
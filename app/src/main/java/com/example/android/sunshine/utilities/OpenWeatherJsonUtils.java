@@ -17,14 +17,17 @@ package com.example.android.sunshine.utilities;
 
 import android.content.ContentValues;
 import android.content.Context;
+import android.util.JsonReader;
 
+import com.example.android.sunshine.data.ForecastBatch;
 import com.example.android.sunshine.data.SunshinePreferences;
-import com.example.android.sunshine.data.WeatherContract;
 
-import org.json.JSONArray;
 import org.json.JSONException;
-import org.json.JSONObject;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
 import java.net.HttpURLConnection;
 
 /**
@@ -60,52 +63,211 @@ public final class OpenWeatherJsonUtils {
 
     private static final String OWM_MESSAGE_CODE = "cod";
 
+    /*
+     * Each step of the hourly forecast is an element of the "list" array too, with its time in
+     * "dt", its temperature, pressure and humidity in "main", and its wind in "wind"
+     */
+    private static final String OWM_DATE_TIME = "dt";
+    private static final String OWM_MAIN = "main";
+    private static final String OWM_WIND = "wind";
+
+    /*
+     * Each value of a day, or of a step of the hourly forecast, is marked as seen as it is read.
+     * All of them are required: a day that lacks one would otherwise be stored with a 0 in its
+     * place, and replace the good day we had. The days are dated by their position in the list,
+     * so a bad day can't be skipped either; the whole response is rejected, as org.json did.
+     */
+    private static final int FIELD_PRESSURE = 1;
+    private static final int FIELD_HUMIDITY = 1 << 1;
+    private static final int FIELD_WIND_SPEED = 1 << 2;
+    private static final int FIELD_WIND_DIRECTION = 1 << 3;
+    private static final int FIELD_WEATHER_ID = 1 << 4;
+    private static final int FIELD_MAX = 1 << 5;
+    private static final int FIELD_MIN = 1 << 6;
+    private static final int FIELD_TEMPERATURE = 1 << 7;
+    private static final int FIELD_DATE_TIME = 1 << 8;
+
+    private static final int REQUIRED_DAY_FIELDS = FIELD_PRESSURE | FIELD_HUMIDITY
+            | FIELD_WIND_SPEED | FIELD_WIND_DIRECTION | FIELD_WEATHER_ID | FIELD_MAX | FIELD_MIN;
+    private static final int REQUIRED_STEP_FIELDS = FIELD_DATE_TIME | FIELD_TEMPERATURE
+            | FIELD_PRESSURE | FIELD_HUMIDITY | FIELD_WIND_SPEED | FIELD_WIND_DIRECTION
+            | FIELD_WEATHER_ID;
+
+    /**
+     * Receives each day of the forecast as soon as it has been read from the JSON stream, so that
+     * callers never need to hold the whole response (or an array of every day) in memory.
+     */
+    public interface ForecastHandler {
+        /**
+         * Called with the coordinates of the city the forecast is for.
+         *
+         * @param latitude  The latitude of the city
+         * @param longitude The longitude of the city
+         */
+        void onCityCoordinates(double latitude, double longitude);
+
+        /**
+         * Called once per day of the forecast, in order, with the values for a single row of the
+         * weather table. The values are passed as primitives so that a handler can add them to a
+         * {@link ForecastBatch} without boxing them first.
+         *
+         * @param date      Normalized UTC date of the day, in milliseconds
+         * @param weatherId Weather condition ID
+         * @param minTemp   Minimum temperature
+         * @param maxTemp   Maximum temperature
+         * @param humidity  Humidity as a percentage
+         * @param pressure  Pressure
+         * @param windSpeed Wind speed
+         * @param degrees   Wind direction in meteorological degrees
+         */
+        void onForecastDay(long date, int weatherId, double minTemp, double maxTemp,
+                           double humidity, double pressure, double windSpeed, double degrees);
+    }
+
     /**
-     * This method parses JSON from a web response and returns an array of Strings
-     * describing the weather over various days from the forecast.
+     * Receives each step of the hourly forecast as soon as it has been read from the JSON stream.
+     */
+    public interface HourlyForecastHandler {
+        /**
+         * Called once per step of the forecast, in order, with the values for a single row of
+         * the hourly table.
+         *
+         * @param time      UTC time in milliseconds of the start of the step
+         * @param weatherId Weather condition ID
+         * @param temp      Temperature
+         * @param humidity  Humidity as a percentage
+         * @param pressure  Pressure
+         * @param windSpeed Wind speed
+         * @param degrees   Wind direction in meteorological degrees
+         */
+        void onForecastStep(long time, int weatherId, double temp, double humidity,
+                            double pressure, double windSpeed, double degrees);
+    }
+
+    /**
+     * This method parses JSON from a web response and returns an array of ContentValues, one
+     * per day of the forecast.
      * <p/>
-     * Later on, we'll be parsing the JSON into structured data within the
-     * getFullWeatherDataFromJson function, leveraging the data we have stored in the JSON. For
-     * now, we just convert the JSON into human-readable strings.
+     * This is a compatibility wrapper around {@link #parseWeatherStream}; it is kept for callers
+     * that already hold the response as a String.
      *
      * @param forecastJsonStr JSON response from server
      *
-     * @return Array of Strings describing weather data
+     * @return Array of ContentValues describing weather data, or null if the server reported an
+     * error
      *
      * @throws JSONException If JSON data cannot be properly parsed
      */
-    public static ContentValues[] getWeatherContentValuesFromJson(Context context, String forecastJsonStr)
+    public static ContentValues[] getWeatherContentValuesFromJson(final Context context,
+                                                                  String forecastJsonStr)
             throws JSONException {
 
-        JSONObject forecastJson = new JSONObject(forecastJsonStr);
-
-        /* Is there an error? */
-        if (forecastJson.has(OWM_MESSAGE_CODE)) {
-            int errorCode = forecastJson.getInt(OWM_MESSAGE_CODE);
-
-            switch (errorCode) {
-                case HttpURLConnection.HTTP_OK:
-                    break;
-                case HttpURLConnection.HTTP_NOT_FOUND:
-                    /* Location invalid */
-                    return null;
-                default:
-                    /* Server probably down */
-                    return null;
+        final ForecastBatch forecast = new ForecastBatch();
+
+        JsonReader reader = new JsonReader(new StringReader(forecastJsonStr));
+        try {
+            boolean parsed = parseWeather(reader, new ForecastHandler() {
+                @Override
+                public void onCityCoordinates(double latitude, double longitude) {
+                    SunshinePreferences.setLocationDetails(context, latitude, longitude);
+                }
+
+                @Override
+                public void onForecastDay(long date, int weatherId, double minTemp,
+                                          double maxTemp, double humidity, double pressure,
+                                          double windSpeed, double degrees) {
+                    forecast.add(date, weatherId, minTemp, maxTemp, humidity, pressure,
+                            windSpeed, degrees);
+                }
+            });
+
+            if (!parsed) {
+                return null;
             }
+        } catch (IOException | IllegalStateException | NumberFormatException e) {
+            throw new JSONException(e.getMessage());
         }
 
-        JSONArray jsonWeatherArray = forecastJson.getJSONArray(OWM_LIST);
-
-        JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
+        return forecast.toContentValuesArray();
+    }
 
-        JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
-        double cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
-        double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
+    /**
+     * Parses the forecast JSON directly from the network stream with a pull parser, handing each
+     * day to the given handler as soon as it has been read. Neither the response String nor a
+     * JSON object tree is ever built, so peak memory no longer grows with the number of days that
+     * were requested.
+     *
+     * @param in      The body of the HTTP response
+     * @param handler Receives the city coordinates and the values of each day, in order
+     * @return true if the forecast was parsed, false if the server reported an error
+     * @throws IOException If the stream cannot be read or does not contain valid JSON, or if a
+     *                     day is missing one of its values
+     */
+    public static boolean parseWeatherStream(InputStream in, ForecastHandler handler)
+            throws IOException {
+        JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            return parseWeather(reader, handler);
+        } catch (IllegalStateException | NumberFormatException e) {
+            /* JsonReader reports unexpected tokens with unchecked exceptions */
+            throw new IOException(e);
+        } finally {
+            reader.close();
+        }
+    }
 
-        SunshinePreferences.setLocationDetails(context, cityLatitude, cityLongitude);
+    /**
+     * Parses the hourly forecast JSON directly from the network stream, the same way
+     * {@link #parseWeatherStream} parses the daily one. Unlike the days of the daily forecast,
+     * each step carries its own time, which is used as it is.
+     *
+     * @param in      The body of the HTTP response
+     * @param handler Receives the values of each step, in order
+     * @return true if the forecast was parsed, false if the server reported an error
+     * @throws IOException If the stream cannot be read or does not contain valid JSON, or if a
+     *                     step is missing one of its values
+     */
+    public static boolean parseHourlyWeatherStream(InputStream in, HourlyForecastHandler handler)
+            throws IOException {
+        JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+
+                if (OWM_MESSAGE_CODE.equals(name)) {
+                    /* The hourly forecast sends its code as a String, which nextInt accepts */
+                    if (reader.nextInt() != HttpURLConnection.HTTP_OK) {
+                        return false;
+                    }
+
+                } else if (OWM_LIST.equals(name)) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        parseStep(reader, handler);
+                    }
+                    reader.endArray();
+
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            return true;
+        } catch (IllegalStateException | NumberFormatException e) {
+            throw new IOException(e);
+        } finally {
+            reader.close();
+        }
+    }
 
-        ContentValues[] weatherContentValues = new ContentValues[jsonWeatherArray.length()];
+    /**
+     * Walks the top level object of the forecast JSON. OWM sends the "city" object before the
+     * "list" array, but we don't depend on that order; we only need the error code, the city
+     * coordinates, and each day of the list.
+     */
+    private static boolean parseWeather(JsonReader reader, ForecastHandler handler)
+            throws IOException {
 
         /*
          * OWM returns daily forecasts based upon the local time of the city that is being asked
@@ -113,72 +275,274 @@ public final class OpenWeatherJsonUtils {
          * Since this data is also sent in-order and the first day is always the current day, we're
          * going to take advantage of that to get a nice normalized UTC date for all of our weather.
          */
-//        long now = System.currentTimeMillis();
-//        long normalizedUtcStartDay = SunshineDateUtils.normalizeDate(now);
-
         long normalizedUtcStartDay = SunshineDateUtils.getNormalizedUtcDateForToday();
 
-        for (int i = 0; i < jsonWeatherArray.length(); i++) {
-
-            long dateTimeMillis;
-            double pressure;
-            int humidity;
-            double windSpeed;
-            double windDirection;
-
-            double high;
-            double low;
-
-            int weatherId;
-
-            /* Get the JSON object representing the day */
-            JSONObject dayForecast = jsonWeatherArray.getJSONObject(i);
-
-            /*
-             * We ignore all the datetime values embedded in the JSON and assume that
-             * the values are returned in-order by day (which is not guaranteed to be correct).
-             */
-            dateTimeMillis = normalizedUtcStartDay + SunshineDateUtils.DAY_IN_MILLIS * i;
-
-            pressure = dayForecast.getDouble(OWM_PRESSURE);
-            humidity = dayForecast.getInt(OWM_HUMIDITY);
-            windSpeed = dayForecast.getDouble(OWM_WINDSPEED);
-            windDirection = dayForecast.getDouble(OWM_WIND_DIRECTION);
-
-            /*
-             * Description is in a child array called "weather", which is 1 element long.
-             * That element also contains a weather code.
-             */
-            JSONObject weatherObject =
-                    dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
-
-            weatherId = weatherObject.getInt(OWM_WEATHER_ID);
-
-            /*
-             * Temperatures are sent by Open Weather Map in a child object called "temp".
-             *
-             * Editor's Note: Try not to name variables "temp" when working with temperature.
-             * It confuses everybody. Temp could easily mean any number of things, including
-             * temperature, temporary variable, temporary folder, temporary employee, or many
-             * others, and is just a bad variable name.
-             */
-            JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
-            high = temperatureObject.getDouble(OWM_MAX);
-            low = temperatureObject.getDouble(OWM_MIN);
-
-            ContentValues weatherValues = new ContentValues();
-            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTimeMillis);
-            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
-            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
-            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
-            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
-            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
-            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
-            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
-
-            weatherContentValues[i] = weatherValues;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+
+            if (OWM_MESSAGE_CODE.equals(name)) {
+                /* Is there an error? */
+                int errorCode = reader.nextInt();
+
+                switch (errorCode) {
+                    case HttpURLConnection.HTTP_OK:
+                        break;
+                    case HttpURLConnection.HTTP_NOT_FOUND:
+                        /* Location invalid */
+                        return false;
+                    default:
+                        /* Server probably down */
+                        return false;
+                }
+
+            } else if (OWM_CITY.equals(name)) {
+                parseCity(reader, handler);
+
+            } else if (OWM_LIST.equals(name)) {
+                reader.beginArray();
+                for (int i = 0; reader.hasNext(); i++) {
+                    /*
+                     * We ignore all the datetime values embedded in the JSON and assume that
+                     * the values are returned in-order by day (which is not guaranteed to be
+                     * correct).
+                     */
+                    long dateTimeMillis = normalizedUtcStartDay + SunshineDateUtils.DAY_IN_MILLIS * i;
+                    parseDay(reader, dateTimeMillis, handler);
+                }
+                reader.endArray();
+
+            } else {
+                reader.skipValue();
+            }
         }
+        reader.endObject();
+
+        return true;
+    }
 
-        return weatherContentValues;
+    /**
+     * Reads the "city" object and hands the coordinates of the city to the handler.
+     */
+    private static void parseCity(JsonReader reader, ForecastHandler handler) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (OWM_COORD.equals(reader.nextName())) {
+                double cityLatitude = 0;
+                double cityLongitude = 0;
+
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String name = reader.nextName();
+                    if (OWM_LATITUDE.equals(name)) {
+                        cityLatitude = reader.nextDouble();
+                    } else if (OWM_LONGITUDE.equals(name)) {
+                        cityLongitude = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+
+                handler.onCityCoordinates(cityLatitude, cityLongitude);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    /**
+     * Reads a single element of the "list" array and hands the values of that day to the handler.
+     */
+    private static void parseDay(JsonReader reader, long dateTimeMillis, ForecastHandler handler)
+            throws IOException {
+
+        double pressure = 0;
+        int humidity = 0;
+        double windSpeed = 0;
+        double windDirection = 0;
+
+        double high = 0;
+        double low = 0;
+
+        int weatherId = 0;
+
+        int seenFields = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+
+            if (OWM_PRESSURE.equals(name)) {
+                pressure = reader.nextDouble();
+                seenFields |= FIELD_PRESSURE;
+            } else if (OWM_HUMIDITY.equals(name)) {
+                humidity = (int) reader.nextDouble();
+                seenFields |= FIELD_HUMIDITY;
+            } else if (OWM_WINDSPEED.equals(name)) {
+                windSpeed = reader.nextDouble();
+                seenFields |= FIELD_WIND_SPEED;
+            } else if (OWM_WIND_DIRECTION.equals(name)) {
+                windDirection = reader.nextDouble();
+                seenFields |= FIELD_WIND_DIRECTION;
+
+            } else if (OWM_WEATHER.equals(name)) {
+                /*
+                 * Description is in a child array called "weather", which is 1 element long.
+                 * That element also contains a weather code.
+                 */
+                weatherId = parseWeatherId(reader);
+                seenFields |= FIELD_WEATHER_ID;
+
+            } else if (OWM_TEMPERATURE.equals(name)) {
+                /*
+                 * Temperatures are sent by Open Weather Map in a child object called "temp".
+                 *
+                 * Editor's Note: Try not to name variables "temp" when working with temperature.
+                 * It confuses everybody. Temp could easily mean any number of things, including
+                 * temperature, temporary variable, temporary folder, temporary employee, or many
+                 * others, and is just a bad variable name.
+                 */
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String temperatureName = reader.nextName();
+                    if (OWM_MAX.equals(temperatureName)) {
+                        high = reader.nextDouble();
+                        seenFields |= FIELD_MAX;
+                    } else if (OWM_MIN.equals(temperatureName)) {
+                        low = reader.nextDouble();
+                        seenFields |= FIELD_MIN;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if ((seenFields & REQUIRED_DAY_FIELDS) != REQUIRED_DAY_FIELDS) {
+            throw new IOException("A day of the forecast is missing a value");
+        }
+
+        handler.onForecastDay(dateTimeMillis, weatherId, low, high, humidity, pressure,
+                windSpeed, windDirection);
+    }
+
+    /**
+     * Reads a single element of the "list" array of the hourly forecast and hands the values of
+     * that step to the handler.
+     */
+    private static void parseStep(JsonReader reader, HourlyForecastHandler handler)
+            throws IOException {
+
+        long timeMillis = 0;
+        double temperature = 0;
+        double pressure = 0;
+        double humidity = 0;
+        double windSpeed = 0;
+        double windDirection = 0;
+        int weatherId = 0;
+
+        int seenFields = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+
+            if (OWM_DATE_TIME.equals(name)) {
+                /* OWM sends seconds since the epoch */
+                timeMillis = reader.nextLong() * 1000;
+                seenFields |= FIELD_DATE_TIME;
+
+            } else if (OWM_MAIN.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String mainName = reader.nextName();
+                    if (OWM_TEMPERATURE.equals(mainName)) {
+                        temperature = reader.nextDouble();
+                        seenFields |= FIELD_TEMPERATURE;
+                    } else if (OWM_PRESSURE.equals(mainName)) {
+                        pressure = reader.nextDouble();
+                        seenFields |= FIELD_PRESSURE;
+                    } else if (OWM_HUMIDITY.equals(mainName)) {
+                        humidity = reader.nextDouble();
+                        seenFields |= FIELD_HUMIDITY;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+
+            } else if (OWM_WIND.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String windName = reader.nextName();
+                    if (OWM_WINDSPEED.equals(windName)) {
+                        windSpeed = reader.nextDouble();
+                        seenFields |= FIELD_WIND_SPEED;
+                    } else if (OWM_WIND_DIRECTION.equals(windName)) {
+                        windDirection = reader.nextDouble();
+                        seenFields |= FIELD_WIND_DIRECTION;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+
+            } else if (OWM_WEATHER.equals(name)) {
+                weatherId = parseWeatherId(reader);
+                seenFields |= FIELD_WEATHER_ID;
+
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if ((seenFields & REQUIRED_STEP_FIELDS) != REQUIRED_STEP_FIELDS) {
+            throw new IOException("A step of the hourly forecast is missing a value");
+        }
+
+        handler.onForecastStep(timeMillis, weatherId, temperature, humidity, pressure,
+                windSpeed, windDirection);
+    }
+
+    /**
+     * Reads the "weather" array, which is 1 element long, and returns the weather code of that
+     * element. The daily and the hourly forecast describe the weather alike.
+     *
+     * @throws IOException If the array has no weather code
+     */
+    private static int parseWeatherId(JsonReader reader) throws IOException {
+        int weatherId = 0;
+        boolean hasWeatherId = false;
+
+        reader.beginArray();
+        if (reader.hasNext()) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (OWM_WEATHER_ID.equals(reader.nextName())) {
+                    weatherId = reader.nextInt();
+                    hasWeatherId = true;
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+        while (reader.hasNext()) {
+            reader.skipValue();
+        }
+        reader.endArray();
+
+        if (!hasWeatherId) {
+            throw new IOException("The weather is missing its weather code");
+        }
+        return weatherId;
     }
-}
\ No newline at end of file
+}
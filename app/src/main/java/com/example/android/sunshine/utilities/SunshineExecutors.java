@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.utilities;
+
+import android.os.Process;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The background threads shared by the whole app, for short pieces of work that mustn't run on
+ * the main thread, such as a quick look at the database or a file. Rather than every such piece
+ * of work starting a Thread of its own, and paying for creating it, they are queued here and run
+ * one after the other on a single thread, which is let go once the queue has been idle for a
+ * while.
+ * <p>
+ * Long running work, such as a sync, doesn't belong here, as it would hold up everything queued
+ * behind it.
+ */
+public final class SunshineExecutors {
+
+    /* How long the idle thread is kept around before it is let go */
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static final ThreadPoolExecutor sBackgroundExecutor = createExecutor();
+
+    private SunshineExecutors() {
+    }
+
+    /**
+     * @return The Executor to run short background work on, in the order it was queued
+     */
+    public static Executor getBackgroundExecutor() {
+        return sBackgroundExecutor;
+    }
+
+    private static ThreadPoolExecutor createExecutor() {
+        ThreadFactory threadFactory = new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, "SunshineBackground #" + mCount.incrementAndGet());
+            }
+        };
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                1,
+                1,
+                KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                threadFactory);
+
+        /* The work comes in bursts, mostly as the app starts, so don't hold on to the thread */
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}